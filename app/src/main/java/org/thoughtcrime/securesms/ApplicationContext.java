@@ -46,6 +46,7 @@ import org.thoughtcrime.securesms.jobs.MultiDeviceContactUpdateJob;
 import org.thoughtcrime.securesms.jobs.PushNotificationReceiveJob;
 import org.thoughtcrime.securesms.jobs.RefreshAttributesJob;
 import org.thoughtcrime.securesms.jobs.RefreshPreKeysJob;
+import org.thoughtcrime.securesms.jobs.ThreadSummaryVerificationJob;
 import org.thoughtcrime.securesms.logging.AndroidLogger;
 import org.thoughtcrime.securesms.logging.CustomSignalProtocolLogger;
 import org.thoughtcrime.securesms.logging.Log;
@@ -378,6 +379,10 @@ public class ApplicationContext extends MultiDexApplication implements DefaultLi
       int deleted = DatabaseFactory.getAttachmentDatabase(this).deleteAbandonedPreuploadedAttachments();
       Log.i(TAG, "Deleted " + deleted + " abandoned attachments.");
     });
+
+    if (ThreadSummaryVerificationJob.isDue(this)) {
+      ApplicationDependencies.getJobManager().add(new ThreadSummaryVerificationJob());
+    }
   }
 
   private void initializePlayServicesCheck() {
@@ -7,7 +7,6 @@ import androidx.annotation.Nullable;
 
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
-import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
@@ -17,6 +16,9 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -60,13 +62,13 @@ public class IncomingMessageProcessor {
 
     private final Context           context;
     private final PushDatabase      pushDatabase;
-    private final MmsSmsDatabase    mmsSmsDatabase;
+    private final ReceiptAggregator receiptAggregator;
     private final JobManager        jobManager;
 
     private Processor(@NonNull Context context) {
       this.context           = context;
       this.pushDatabase      = DatabaseFactory.getPushDatabase(context);
-      this.mmsSmsDatabase    = DatabaseFactory.getMmsSmsDatabase(context);
+      this.receiptAggregator = ApplicationDependencies.getReceiptAggregator();
       this.jobManager        = ApplicationDependencies.getJobManager();
     }
 
@@ -90,6 +92,54 @@ public class IncomingMessageProcessor {
       }
     }
 
+    /**
+     * Processes a burst of envelopes that were read together. Receipts are handled as they're
+     * found, and the messages are inserted into the {@link PushDatabase} in one transaction, then
+     * handed to {@link PushDecryptMessageJob}s that run in order on the decrypt queue.
+     * <p>
+     * The jobs are persisted together, and this only returns once they have been, so the burst is
+     * never acknowledged with its envelopes stored but no jobs to decrypt them. If we die between
+     * the two, the unacknowledged envelopes are delivered again, find their existing push rows and
+     * get jobs then.
+     */
+    public void processEnvelopes(@NonNull List<SignalServiceEnvelope> envelopes) {
+      List<SignalServiceEnvelope> messages = new ArrayList<>(envelopes.size());
+
+      for (SignalServiceEnvelope envelope : envelopes) {
+        if (envelope.hasSource()) {
+          Recipient.externalPush(context, envelope.getSourceAddress());
+        }
+
+        if (envelope.isReceipt()) {
+          processReceipt(envelope);
+        } else if (envelope.isPreKeySignalMessage() || envelope.isSignalMessage() || envelope.isUnidentifiedSender()) {
+          messages.add(envelope);
+        } else {
+          Log.w(TAG, "Received envelope of unknown type: " + envelope.getType());
+        }
+      }
+
+      if (messages.isEmpty()) {
+        return;
+      }
+
+      Log.i(TAG, "Received " + messages.size() + " messages. Inserting in PushDatabase.");
+
+      List<Long>                  ids  = new ArrayList<>(new LinkedHashSet<>(pushDatabase.insert(messages)));
+      List<PushDecryptMessageJob> jobs = new ArrayList<>(ids.size() / PushDecryptMessageJob.MAX_BATCH_SIZE + 1);
+
+      for (int i = 0; i < ids.size(); i += PushDecryptMessageJob.MAX_BATCH_SIZE) {
+        jobs.add(new PushDecryptMessageJob(context, new ArrayList<>(ids.subList(i, Math.min(i + PushDecryptMessageJob.MAX_BATCH_SIZE, ids.size())))));
+      }
+
+      try {
+        jobManager.addAllAndWait(jobs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted before the decrypt jobs were saved.", e);
+      }
+    }
+
     private @NonNull String processMessage(@NonNull SignalServiceEnvelope envelope) {
       Log.i(TAG, "Received message. Inserting in PushDatabase.");
 
@@ -103,8 +153,8 @@ public class IncomingMessageProcessor {
 
     private void processReceipt(@NonNull SignalServiceEnvelope envelope) {
       Log.i(TAG, String.format(Locale.ENGLISH, "Received receipt: (XXXXX, %d)", envelope.getTimestamp()));
-      mmsSmsDatabase.incrementDeliveryReceiptCount(new SyncMessageId(Recipient.externalPush(context, envelope.getSourceAddress()).getId(), envelope.getTimestamp()),
-                                                   System.currentTimeMillis());
+      receiptAggregator.addDeliveryReceipt(new SyncMessageId(Recipient.externalPush(context, envelope.getSourceAddress()).getId(), envelope.getTimestamp()),
+                                           System.currentTimeMillis());
     }
 
     @Override
@@ -0,0 +1,131 @@
+package org.thoughtcrime.securesms;
+
+import android.content.Context;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MessagingDatabase.Receipt;
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.logging.Log;
+import org.whispersystems.signalservice.api.messages.SignalServiceContent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects incoming delivery and read receipts for a short window and applies them together, so a
+ * burst of receipts (e.g. after sending to a large group) costs one transaction and one thread
+ * update per conversation rather than one of each per receipt.
+ * <p>
+ * Receipts that are still waiting to be applied are lost if the process dies. That only affects
+ * the receipt counts we display, so it's not worth persisting them.
+ */
+public class ReceiptAggregator {
+
+  private static final String TAG = Log.tag(ReceiptAggregator.class);
+
+  @VisibleForTesting static final long FLUSH_DELAY_MS = 250;
+  @VisibleForTesting static final int  MAX_PENDING    = 500;
+
+  private final Context                  context;
+  private final ScheduledExecutorService executor;
+
+  private final List<Receipt>                      pendingDelivery = new ArrayList<>();
+  private final List<Receipt>                      pendingRead     = new ArrayList<>();
+  private final Map<Receipt, SignalServiceContent> readContent     = new HashMap<>();
+
+  private boolean flushScheduled;
+
+  public ReceiptAggregator(@NonNull Context context) {
+    this(context, Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "signal-ReceiptAggregator")));
+  }
+
+  @VisibleForTesting
+  ReceiptAggregator(@NonNull Context context, @NonNull ScheduledExecutorService executor) {
+    this.context  = context.getApplicationContext();
+    this.executor = executor;
+  }
+
+  /**
+   * @param timestamp When the receipt was sent.
+   */
+  @AnyThread
+  public void addDeliveryReceipt(@NonNull SyncMessageId messageId, long timestamp) {
+    Receipt receipt = new Receipt(messageId, timestamp);
+
+    executor.execute(() -> {
+      pendingDelivery.add(receipt);
+      onReceiptAdded();
+    });
+  }
+
+  /**
+   * @param timestamp When the receipt was sent.
+   * @param content   The content the receipt arrived in. It's held in the early message cache if
+   *                  the receipt is for a message we don't have yet.
+   */
+  @AnyThread
+  public void addReadReceipt(@NonNull SyncMessageId messageId, long timestamp, @NonNull SignalServiceContent content) {
+    Receipt receipt = new Receipt(messageId, timestamp);
+
+    executor.execute(() -> {
+      pendingRead.add(receipt);
+      readContent.put(receipt, content);
+      onReceiptAdded();
+    });
+  }
+
+  @WorkerThread
+  private void onReceiptAdded() {
+    if (pendingDelivery.size() + pendingRead.size() >= MAX_PENDING) {
+      flush();
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      executor.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @WorkerThread
+  private void flush() {
+    flushScheduled = false;
+
+    if (pendingDelivery.isEmpty() && pendingRead.isEmpty()) {
+      return;
+    }
+
+    Log.i(TAG, "Applying " + pendingDelivery.size() + " delivery and " + pendingRead.size() + " read receipts.");
+
+    List<Receipt>                      delivery = new ArrayList<>(pendingDelivery);
+    List<Receipt>                      read     = new ArrayList<>(pendingRead);
+    Map<Receipt, SignalServiceContent> contents = new HashMap<>(readContent);
+
+    pendingDelivery.clear();
+    pendingRead.clear();
+    readContent.clear();
+
+    try {
+      if (!delivery.isEmpty()) {
+        DatabaseFactory.getMmsSmsDatabase(context).incrementReceiptCounts(delivery, true);
+      }
+
+      if (!read.isEmpty()) {
+        for (Receipt unmatched : DatabaseFactory.getMmsSmsDatabase(context).incrementReceiptCounts(read, false)) {
+          SyncMessageId messageId = unmatched.getMessageId();
+          ApplicationDependencies.getEarlyMessageCache().store(messageId.getRecipientId(), messageId.getTimetamp(), contents.get(unmatched));
+        }
+      }
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to apply receipts.", e);
+    }
+  }
+}
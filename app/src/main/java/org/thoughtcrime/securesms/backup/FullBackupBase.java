@@ -15,6 +15,8 @@ public abstract class FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = FullBackupBase.class.getSimpleName();
 
+  static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
   static class BackupStream {
     static @NonNull byte[] getBackupKey(@NonNull String passphrase, @Nullable byte[] salt) {
       try {
@@ -45,12 +47,20 @@ public abstract class FullBackupBase {
       FINISHED
     }
 
-    private final Type type;
-    private final int count;
+    private final Type   type;
+    private final int    count;
+    private final double rowsPerSecond;
+    private final double megabytesPerSecond;
 
     BackupEvent(Type type, int count) {
-      this.type  = type;
-      this.count = count;
+      this(type, count, 0, 0);
+    }
+
+    BackupEvent(Type type, int count, double rowsPerSecond, double megabytesPerSecond) {
+      this.type               = type;
+      this.count              = count;
+      this.rowsPerSecond      = rowsPerSecond;
+      this.megabytesPerSecond = megabytesPerSecond;
     }
 
     public Type getType() {
@@ -60,6 +70,20 @@ public abstract class FullBackupBase {
     public int getCount() {
       return count;
     }
+
+    /**
+     * @return The average number of rows processed per second so far, or 0 if not known.
+     */
+    public double getRowsPerSecond() {
+      return rowsPerSecond;
+    }
+
+    /**
+     * @return The average number of megabytes written or read per second so far, or 0 if not known.
+     */
+    public double getMegabytesPerSecond() {
+      return megabytesPerSecond;
+    }
   }
 
 }
@@ -7,7 +7,6 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
 
-import com.annimon.stream.function.Consumer;
 import com.annimon.stream.function.Predicate;
 import com.google.android.collect.Sets;
 import com.google.protobuf.ByteString;
@@ -21,12 +20,14 @@ import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.GalleryDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.database.KeyValueDatabase;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.MmsSmsColumns;
 import org.thoughtcrime.securesms.database.OneTimePreKeyDatabase;
+import org.thoughtcrime.securesms.database.ReactionDatabase;
 import org.thoughtcrime.securesms.database.SearchDatabase;
 import org.thoughtcrime.securesms.database.SessionDatabase;
 import org.thoughtcrime.securesms.database.SignedPreKeyDatabase;
@@ -39,24 +40,35 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.kdf.HKDFv3;
 import org.whispersystems.libsignal.util.ByteUtil;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -74,9 +86,12 @@ public class FullBackupExporter extends FullBackupBase {
     JobDatabase.JOBS_TABLE_NAME,
     JobDatabase.CONSTRAINTS_TABLE_NAME,
     JobDatabase.DEPENDENCIES_TABLE_NAME,
-    KeyValueDatabase.TABLE_NAME
+    KeyValueDatabase.TABLE_NAME,
+    GalleryDatabase.TABLE_NAME
   );
 
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
   public static void export(@NonNull Context context,
                             @NonNull AttachmentSecret attachmentSecret,
                             @NonNull SQLiteDatabase input,
@@ -85,6 +100,7 @@ public class FullBackupExporter extends FullBackupBase {
       throws IOException
   {
     BackupFrameOutputStream outputStream = new BackupFrameOutputStream(output, passphrase);
+    ExportProgress          progress     = new ExportProgress(outputStream);
     int                     count        = 0;
 
     try {
@@ -96,21 +112,23 @@ public class FullBackupExporter extends FullBackupBase {
 
       for (String table : tables) {
         if (table.equals(MmsDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, FullBackupExporter::isNonExpiringMessage, null, count);
+          count = exportTable(table, input, outputStream, progress, FullBackupExporter::isNonExpiringMessage, null, count);
         } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, count);
+          count = exportTable(table, input, outputStream, progress, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, count);
+        } else if (table.equals(ReactionDatabase.TABLE_NAME)) {
+          count = exportTable(table, input, outputStream, progress, cursor -> isForNonExpiringReaction(input, cursor), null, count);
         } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), cursor -> exportAttachment(attachmentSecret, cursor, outputStream), count);
+          count = exportTable(table, input, outputStream, progress, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), cursor -> exportAttachment(attachmentSecret, cursor, outputStream), count);
         } else if (table.equals(StickerDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> true, cursor -> exportSticker(attachmentSecret, cursor, outputStream), count);
+          count = exportTable(table, input, outputStream, progress, cursor -> true, cursor -> exportSticker(attachmentSecret, cursor, outputStream), count);
         } else if (!BLACKLISTED_TABLES.contains(table) && !table.startsWith("sqlite_")) {
-          count = exportTable(table, input, outputStream, null, null, count);
+          count = exportTable(table, input, outputStream, progress, null, null, count);
         }
         stopwatch.split("table::" + table);
       }
 
       for (BackupProtos.SharedPreference preference : IdentityKeyUtil.getBackupRecord(context)) {
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
+        progress.onRow(++count);
         outputStream.write(preference);
       }
 
@@ -118,18 +136,21 @@ public class FullBackupExporter extends FullBackupBase {
 
       for (AvatarHelper.Avatar avatar : AvatarHelper.getAvatars(context)) {
         if (avatar != null) {
-          EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
+          progress.onRow(++count);
           outputStream.write(avatar.getFilename(), avatar.getInputStream(), avatar.getLength());
         }
       }
 
+      outputStream.writeEnd();
+
       stopwatch.split("avatars");
       stopwatch.stop(TAG);
 
-      outputStream.writeEnd();
+      Log.i(TAG, String.format(Locale.US, "Exported %d rows (%.1f rows/s), %.1f MB (%.2f MB/s)",
+                               count, progress.getRowsPerSecond(count), outputStream.getBytesWritten() / BYTES_PER_MEGABYTE, progress.getMegabytesPerSecond()));
     } finally {
       outputStream.close();
-      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++count));
+      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++count, progress.getRowsPerSecond(count), progress.getMegabytesPerSecond()));
     }
   }
 
@@ -166,50 +187,42 @@ public class FullBackupExporter extends FullBackupBase {
   private static int exportTable(@NonNull   String table,
                                  @NonNull   SQLiteDatabase input,
                                  @NonNull   BackupFrameOutputStream outputStream,
+                                 @NonNull   ExportProgress progress,
                                  @Nullable  Predicate<Cursor> predicate,
-                                 @Nullable  Consumer<Cursor> postProcess,
+                                 @Nullable  PostProcessor postProcess,
                                             int count)
       throws IOException
   {
-    String template = "INSERT INTO " + table + " VALUES ";
-
     try (Cursor cursor = input.rawQuery("SELECT * FROM " + table, null)) {
+      String statement = cursor != null ? buildInsertStatement(table, cursor.getColumnCount()) : null;
+
       while (cursor != null && cursor.moveToNext()) {
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
+        progress.onRow(++count);
 
         if (predicate == null || predicate.test(cursor)) {
-          StringBuilder                     statement        = new StringBuilder(template);
           BackupProtos.SqlStatement.Builder statementBuilder = BackupProtos.SqlStatement.newBuilder();
 
-          statement.append('(');
-
           for (int i=0;i<cursor.getColumnCount();i++) {
-            statement.append('?');
+            int type = cursor.getType(i);
 
-            if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
+            if (type == Cursor.FIELD_TYPE_STRING) {
               statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setStringParamter(cursor.getString(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
+            } else if (type == Cursor.FIELD_TYPE_FLOAT) {
               statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setDoubleParameter(cursor.getDouble(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
+            } else if (type == Cursor.FIELD_TYPE_INTEGER) {
               statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter(cursor.getLong(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
+            } else if (type == Cursor.FIELD_TYPE_BLOB) {
               statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setBlobParameter(ByteString.copyFrom(cursor.getBlob(i))));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_NULL) {
+            } else if (type == Cursor.FIELD_TYPE_NULL) {
               statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setNullparameter(true));
             } else {
-              throw new AssertionError("unknown type?"  + cursor.getType(i));
-            }
-
-            if (i < cursor.getColumnCount()-1) {
-              statement.append(',');
+              throw new AssertionError("unknown type?"  + type);
             }
           }
 
-          statement.append(')');
-
-          outputStream.write(statementBuilder.setStatement(statement.toString()).build());
+          outputStream.write(statementBuilder.setStatement(statement).build());
 
-          if (postProcess != null) postProcess.accept(cursor);
+          if (postProcess != null) postProcess.process(cursor);
         }
       }
     }
@@ -217,15 +230,40 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
-  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
-      long uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
+  /**
+   * Every row of a table is inserted with the same parameterized statement, so it's built once per table.
+   */
+  private static @NonNull String buildInsertStatement(@NonNull String table, int columnCount) {
+    StringBuilder statement = new StringBuilder("INSERT INTO ").append(table).append(" VALUES (");
+
+    for (int i = 0; i < columnCount; i++) {
+      statement.append('?');
+
+      if (i < columnCount - 1) {
+        statement.append(',');
+      }
+    }
+
+    return statement.append(')').toString();
+  }
+
+  /**
+   * An attachment whose file can't be read is skipped. Once its frame has been started, though, a
+   * failure leaves the backup unusable, so it's thrown.
+   */
+  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream)
+      throws IOException
+  {
+    long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
+    long uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
+    long size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
+
+    String data   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
+    byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM));
 
-      String data   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
-      byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM));
+    InputStream inputStream;
 
+    try {
       if (!TextUtils.isEmpty(data)) {
         long fileLength = new File(data).length();
         long dbLength   = size;
@@ -236,34 +274,46 @@ public class FullBackupExporter extends FullBackupBase {
         }
       }
 
-      if (!TextUtils.isEmpty(data) && size > 0) {
-        InputStream inputStream;
-
-        if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-        else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
-
-        outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
+      if (TextUtils.isEmpty(data) || size <= 0) {
+        return;
       }
+
+      if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
+      else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
     } catch (IOException e) {
       Log.w(TAG, e);
+      return;
     }
+
+    outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
   }
 
-  private static void exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
+  /**
+   * Like {@link #exportAttachment}, only failures to open the sticker's file are skipped.
+   */
+  private static void exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream)
+      throws IOException
+  {
+    long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
+    long size     = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
 
-      String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
-      byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
+    String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
+    byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
 
-      if (!TextUtils.isEmpty(data) && size > 0) {
-        InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-        outputStream.writeSticker(rowId, inputStream, size);
-      }
+    if (TextUtils.isEmpty(data) || size <= 0) {
+      return;
+    }
+
+    InputStream inputStream;
+
+    try {
+      inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
     } catch (IOException e) {
       Log.w(TAG, e);
+      return;
     }
+
+    outputStream.writeSticker(rowId, inputStream, size);
   }
 
   private static long calculateVeryOldStreamLength(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull String data) throws IOException {
@@ -274,10 +324,14 @@ public class FullBackupExporter extends FullBackupBase {
     else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
 
     int read;
-    byte[] buffer = new byte[8192];
+    byte[] buffer = new byte[STREAM_BUFFER_SIZE];
 
-    while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
-      result += read;
+    try {
+      while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+        result += read;
+      }
+    } finally {
+      inputStream.close();
     }
 
     return result;
@@ -288,6 +342,13 @@ public class FullBackupExporter extends FullBackupBase {
            cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.VIEW_ONCE))    <= 0;
   }
 
+  private static boolean isForNonExpiringReaction(@NonNull SQLiteDatabase db, @NonNull Cursor cursor) {
+    boolean isMms     = cursor.getInt(cursor.getColumnIndexOrThrow(ReactionDatabase.IS_MMS)) == 1;
+    long    messageId = cursor.getLong(cursor.getColumnIndexOrThrow(ReactionDatabase.MESSAGE_ID));
+
+    return !isMms || isForNonExpiringMessage(db, messageId);
+  }
+
   private static boolean isForNonExpiringMessage(@NonNull SQLiteDatabase db, long mmsId) {
     String[] columns = new String[] { MmsDatabase.EXPIRES_IN, MmsDatabase.VIEW_ONCE};
     String   where   = MmsDatabase.ID + " = ?";
@@ -304,63 +365,133 @@ public class FullBackupExporter extends FullBackupBase {
   }
 
 
-  private static class BackupFrameOutputStream extends BackupStream {
+  private interface PostProcessor {
+    void process(@NonNull Cursor cursor) throws IOException;
+  }
 
-    private final OutputStream outputStream;
-    private final Cipher       cipher;
-    private final Mac          mac;
+  /**
+   * Throttles progress events, which are delivered on the main thread and would otherwise be posted
+   * once per row, and tracks the export rate.
+   */
+  private static class ExportProgress {
 
-    private final byte[]       cipherKey;
-    private final byte[]       macKey;
+    private static final long PROGRESS_INTERVAL_MS = 100;
 
-    private byte[] iv;
-    private int    counter;
+    private final BackupFrameOutputStream outputStream;
+    private final long                    startTime;
 
-    private BackupFrameOutputStream(@NonNull File output, @NonNull String passphrase) throws IOException {
-      try {
-        byte[]   salt    = Util.getSecretBytes(32);
-        byte[]   key     = getBackupKey(passphrase, salt);
-        byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
-        byte[][] split   = ByteUtil.split(derived, 32, 32);
+    private long lastProgressTime;
 
-        this.cipherKey = split[0];
-        this.macKey    = split[1];
+    private ExportProgress(@NonNull BackupFrameOutputStream outputStream) {
+      this.outputStream = outputStream;
+      this.startTime    = System.currentTimeMillis();
+    }
 
-        this.cipher       = Cipher.getInstance("AES/CTR/NoPadding");
-        this.mac          = Mac.getInstance("HmacSHA256");
-        this.outputStream = new FileOutputStream(output);
-        this.iv           = Util.getSecretBytes(16);
-        this.counter      = Conversions.byteArrayToInt(iv);
+    void onRow(int count) {
+      long now = System.currentTimeMillis();
 
-        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+      if (now - lastProgressTime >= PROGRESS_INTERVAL_MS) {
+        lastProgressTime = now;
+        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count, getRowsPerSecond(count), getMegabytesPerSecond()));
+      }
+    }
 
-        byte[] header = BackupProtos.BackupFrame.newBuilder().setHeader(BackupProtos.Header.newBuilder()
-                                                                                           .setIv(ByteString.copyFrom(iv))
-                                                                                           .setSalt(ByteString.copyFrom(salt)))
-                                                .build().toByteArray();
+    double getRowsPerSecond(int count) {
+      return count / getElapsedSeconds();
+    }
 
-        outputStream.write(Conversions.intToByteArray(header.length));
-        outputStream.write(header);
-      } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
-        throw new AssertionError(e);
-      }
+    double getMegabytesPerSecond() {
+      return outputStream.getBytesWritten() / BYTES_PER_MEGABYTE / getElapsedSeconds();
+    }
+
+    private double getElapsedSeconds() {
+      return Math.max(1, System.currentTimeMillis() - startTime) / 1000d;
+    }
+  }
+
+  /**
+   * Writes the backup as a pipeline. The exporting thread builds frames and hands them in batches to a
+   * pool of encoders, each of which serializes, encrypts and MACs a batch with its own reusable
+   * {@link FrameEncoder}. A single writer then writes the encoded batches strictly in the order they
+   * were submitted.
+   * <p>
+   * The frame counter (and so the IV) is assigned on the exporting thread when a frame is submitted,
+   * so the output is byte-for-byte what a serial writer would have produced. Attachment streams are
+   * too large to buffer, so they wait for the pipeline to drain and are then written directly.
+   */
+  private static class BackupFrameOutputStream extends BackupStream {
+
+    private static final int ENCODE_THREADS         = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    private static final int FRAMES_PER_BATCH       = 64;
+    private static final int MAX_IN_FLIGHT_BATCHES  = 4 * ENCODE_THREADS;
+    private static final int OUTPUT_BUFFER_SIZE     = 64 * 1024;
+
+    private final OutputStream              outputStream;
+    private final ExecutorService           encodeExecutor;
+    private final ExecutorService           writeExecutor;
+    private final Semaphore                 inFlight;
+    private final ThreadLocal<FrameEncoder> encoders;
+    private final AtomicLong                bytesWritten;
+    private final byte[]                    streamBuffer;
+    private final byte[]                    streamCiphertext;
+
+    private List<BackupProtos.BackupFrame> batch;
+    private int                            batchCounter;
+    private int                            counter;
+    private Future<?>                      lastWrite;
+
+    private volatile IOException writeFailure;
+
+    private BackupFrameOutputStream(@NonNull File output, @NonNull String passphrase) throws IOException {
+      byte[]   salt    = Util.getSecretBytes(32);
+      byte[]   key     = getBackupKey(passphrase, salt);
+      byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
+      byte[][] split   = ByteUtil.split(derived, 32, 32);
+      byte[]   iv      = Util.getSecretBytes(16);
+
+      SecretKeySpec cipherKey = new SecretKeySpec(split[0], "AES");
+      SecretKeySpec macKey    = new SecretKeySpec(split[1], "HmacSHA256");
+
+      this.outputStream     = new BufferedOutputStream(new FileOutputStream(output), OUTPUT_BUFFER_SIZE);
+      this.encodeExecutor   = Executors.newFixedThreadPool(ENCODE_THREADS, r -> new Thread(r, "signal-backup-encode"));
+      this.writeExecutor    = Executors.newSingleThreadExecutor(r -> new Thread(r, "signal-backup-write"));
+      this.inFlight         = new Semaphore(MAX_IN_FLIGHT_BATCHES);
+      this.encoders         = new ThreadLocal<FrameEncoder>() {
+        @Override
+        protected FrameEncoder initialValue() {
+          return new FrameEncoder(cipherKey, macKey, iv);
+        }
+      };
+      this.bytesWritten     = new AtomicLong();
+      this.streamBuffer     = new byte[STREAM_BUFFER_SIZE];
+      this.streamCiphertext = new byte[STREAM_BUFFER_SIZE + 16];
+      this.batch            = new ArrayList<>(FRAMES_PER_BATCH);
+      this.counter          = Conversions.byteArrayToInt(iv);
+
+      byte[] header = BackupProtos.BackupFrame.newBuilder().setHeader(BackupProtos.Header.newBuilder()
+                                                                                         .setIv(ByteString.copyFrom(iv))
+                                                                                         .setSalt(ByteString.copyFrom(salt)))
+                                              .build().toByteArray();
+
+      outputStream.write(Conversions.intToByteArray(header.length));
+      outputStream.write(header);
     }
 
     public void write(BackupProtos.SharedPreference preference) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
+      write(BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
     }
 
     public void write(BackupProtos.SqlStatement statement) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
+      write(BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
     }
 
     public void write(@NonNull String avatarName, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAvatar(BackupProtos.Avatar.newBuilder()
-                                                                                .setRecipientId(avatarName)
-                                                                                .setLength(Util.toIntExact(size))
-                                                                                .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setAvatar(BackupProtos.Avatar.newBuilder()
+                                                                  .setRecipientId(avatarName)
+                                                                  .setLength(Util.toIntExact(size))
+                                                                  .build())
+                                    .build());
 
       if (writeStream(in) != size) {
         throw new IOException("Size mismatch!");
@@ -368,13 +499,13 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAttachment(BackupProtos.Attachment.newBuilder()
-                                                                                        .setRowId(attachmentId.getRowId())
-                                                                                        .setAttachmentId(attachmentId.getUniqueId())
-                                                                                        .setLength(Util.toIntExact(size))
-                                                                                        .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setAttachment(BackupProtos.Attachment.newBuilder()
+                                                                          .setRowId(attachmentId.getRowId())
+                                                                          .setAttachmentId(attachmentId.getUniqueId())
+                                                                          .setLength(Util.toIntExact(size))
+                                                                          .build())
+                                    .build());
 
       if (writeStream(in) != size) {
         throw new IOException("Size mismatch!");
@@ -382,12 +513,12 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     public void writeSticker(long rowId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setSticker(BackupProtos.Sticker.newBuilder()
-                                                                                  .setRowId(rowId)
-                                                                                  .setLength(Util.toIntExact(size))
-                                                                                  .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setSticker(BackupProtos.Sticker.newBuilder()
+                                                                    .setRowId(rowId)
+                                                                    .setLength(Util.toIntExact(size))
+                                                                    .build())
+                                    .build());
 
       if (writeStream(in) != size) {
         throw new IOException("Size mismatch!");
@@ -395,13 +526,19 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     void writeDatabaseVersion(int version) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(version))
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(version))
+                                    .build());
     }
 
     void writeEnd() throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
+      write(BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
+      drain();
+      outputStream.flush();
+    }
+
+    long getBytesWritten() {
+      return bytesWritten.get();
     }
 
     /**
@@ -409,59 +546,235 @@ public class FullBackupExporter extends FullBackupBase {
      */
     private long writeStream(@NonNull InputStream inputStream) throws IOException {
       try {
-        Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
-        mac.update(iv);
+        drain();
 
-        byte[] buffer = new byte[8192];
-        long   total  = 0;
+        FrameEncoder encoder = encoders.get();
+        long         total   = 0;
 
-        int read;
+        encoder.beginStream(counter++);
 
-        while ((read = inputStream.read(buffer)) != -1) {
-          byte[] ciphertext = cipher.update(buffer, 0, read);
+        int read;
 
-          if (ciphertext != null) {
-            outputStream.write(ciphertext);
-            mac.update(ciphertext);
-          }
+        while ((read = inputStream.read(streamBuffer)) != -1) {
+          int length = encoder.updateStream(streamBuffer, read, streamCiphertext);
 
+          outputStream.write(streamCiphertext, 0, length);
           total += read;
         }
 
-        byte[] remainder = cipher.doFinal();
-        outputStream.write(remainder);
-        mac.update(remainder);
+        int length = encoder.finishStream(streamCiphertext);
+        outputStream.write(streamCiphertext, 0, length);
 
-        byte[] attachmentDigest = mac.doFinal();
-        outputStream.write(attachmentDigest, 0, 10);
+        bytesWritten.addAndGet(total + FrameEncoder.MAC_LENGTH);
 
         return total;
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+      } finally {
+        inputStream.close();
+      }
+    }
+
+    private void write(@NonNull BackupProtos.BackupFrame frame) throws IOException {
+      throwIfFailed();
+
+      if (batch.isEmpty()) {
+        batchCounter = counter;
+      }
+
+      batch.add(frame);
+      counter++;
+
+      if (batch.size() >= FRAMES_PER_BATCH) {
+        submitBatch();
+      }
+    }
+
+    private void submitBatch() throws IOException {
+      try {
+        inFlight.acquire();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while waiting to write frames");
+      }
+
+      List<BackupProtos.BackupFrame> frames       = batch;
+      int                            firstCounter = batchCounter;
+      Future<byte[]>                 encoded      = encodeExecutor.submit(() -> encoders.get().encodeFrames(frames, firstCounter));
+
+      batch     = new ArrayList<>(FRAMES_PER_BATCH);
+      lastWrite = writeExecutor.submit(() -> {
+        try {
+          if (writeFailure == null) {
+            byte[] bytes = encoded.get();
+
+            outputStream.write(bytes);
+            bytesWritten.addAndGet(bytes.length);
+          }
+        } catch (IOException e) {
+          writeFailure = e;
+        } catch (ExecutionException | InterruptedException e) {
+          writeFailure = new IOException(e);
+        } finally {
+          inFlight.release();
+        }
+      });
+    }
+
+    /**
+     * Blocks until every submitted frame has been written.
+     */
+    private void drain() throws IOException {
+      if (!batch.isEmpty()) {
+        submitBatch();
+      }
+
+      if (lastWrite != null) {
+        try {
+          lastWrite.get();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted while draining frames");
+        } catch (ExecutionException e) {
+          throw new IOException(e);
+        }
+      }
+
+      throwIfFailed();
+    }
+
+    private void throwIfFailed() throws IOException {
+      IOException failure = writeFailure;
+
+      if (failure != null) {
+        throw new IOException("Backup write failed", failure);
+      }
+    }
+
+    public void close() throws IOException {
+      encodeExecutor.shutdown();
+      writeExecutor.shutdown();
+
+      try {
+        writeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Interrupted while waiting for the backup writer", e);
+      } finally {
+        outputStream.close();
+      }
+    }
+  }
+
+  /**
+   * Encrypts and MACs frames with a cipher, MAC and IV that are reused between frames. Not thread
+   * safe; each encoding thread has its own.
+   */
+  private static final class FrameEncoder {
+
+    private static final int MAC_LENGTH = 10;
+
+    private final SecretKeySpec cipherKey;
+    private final Cipher        cipher;
+    private final Mac           mac;
+    private final byte[]        iv;
+    private final byte[]        macBuffer;
+
+    private FrameEncoder(@NonNull SecretKeySpec cipherKey, @NonNull SecretKeySpec macKey, @NonNull byte[] iv) {
+      try {
+        this.cipherKey = cipherKey;
+        this.cipher    = Cipher.getInstance("AES/CTR/NoPadding");
+        this.mac       = Mac.getInstance("HmacSHA256");
+        this.iv        = iv.clone();
+        this.macBuffer = new byte[mac.getMacLength()];
+
+        mac.init(macKey);
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
         throw new AssertionError(e);
       }
     }
 
-    private void write(@NonNull OutputStream out, @NonNull BackupProtos.BackupFrame frame) throws IOException {
+    /**
+     * @return Each frame, in order, as its length-prefixed ciphertext followed by its truncated MAC.
+     */
+    @NonNull byte[] encodeFrames(@NonNull List<BackupProtos.BackupFrame> frames, int firstCounter) {
+      byte[][] plaintexts = new byte[frames.size()][];
+      int      length     = 0;
+
+      for (int i = 0; i < plaintexts.length; i++) {
+        plaintexts[i] = frames.get(i).toByteArray();
+        length       += 4 + plaintexts[i].length + MAC_LENGTH;
+      }
+
+      byte[] encoded = new byte[length];
+      int    offset  = 0;
+
+      for (int i = 0; i < plaintexts.length; i++) {
+        offset += encodeFrame(plaintexts[i], firstCounter + i, encoded, offset);
+      }
+
+      return encoded;
+    }
+
+    private int encodeFrame(@NonNull byte[] plaintext, int counter, @NonNull byte[] output, int offset) {
       try {
-        Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        initCipher(counter);
+
+        Conversions.intToByteArray(output, offset, plaintext.length + MAC_LENGTH);
+        cipher.doFinal(plaintext, 0, plaintext.length, output, offset + 4);
+
+        mac.update(output, offset + 4, plaintext.length);
+        mac.doFinal(macBuffer, 0);
 
-        byte[] frameCiphertext = cipher.doFinal(frame.toByteArray());
-        byte[] frameMac        = mac.doFinal(frameCiphertext);
-        byte[] length          = Conversions.intToByteArray(frameCiphertext.length + 10);
+        System.arraycopy(macBuffer, 0, output, offset + 4 + plaintext.length, MAC_LENGTH);
 
-        out.write(length);
-        out.write(frameCiphertext);
-        out.write(frameMac, 0, 10);
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+        return 4 + plaintext.length + MAC_LENGTH;
+      } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
         throw new AssertionError(e);
       }
     }
 
+    void beginStream(int counter) {
+      initCipher(counter);
+      mac.update(iv);
+    }
 
-    public void close() throws IOException {
-      outputStream.close();
+    /**
+     * @param output Must have room for at least 16 bytes more than the input.
+     * @return The number of bytes written to the output.
+     */
+    int updateStream(@NonNull byte[] input, int length, @NonNull byte[] output) {
+      try {
+        int ciphertextLength = cipher.update(input, 0, length, output, 0);
+        mac.update(output, 0, ciphertextLength);
+
+        return ciphertextLength;
+      } catch (ShortBufferException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    /**
+     * Writes any remaining ciphertext followed by the truncated MAC of the whole stream.
+     *
+     * @return The number of bytes written to the output.
+     */
+    int finishStream(@NonNull byte[] output) {
+      try {
+        int remainder = cipher.doFinal(output, 0);
+        mac.update(output, 0, remainder);
+        mac.doFinal(macBuffer, 0);
+
+        System.arraycopy(macBuffer, 0, output, remainder, MAC_LENGTH);
+
+        return remainder + MAC_LENGTH;
+      } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private void initCipher(int counter) {
+      try {
+        Conversions.intToByteArray(iv, 0, counter);
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+        throw new AssertionError(e);
+      }
     }
   }
 }
@@ -7,9 +7,11 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Pair;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.backup.BackupProtos.Attachment;
@@ -33,25 +35,35 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.kdf.HKDFv3;
 import org.whispersystems.libsignal.util.ByteUtil;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -64,33 +76,48 @@ public class FullBackupImporter extends FullBackupBase {
                                 @NonNull SQLiteDatabase db, @NonNull File file, @NonNull String passphrase)
       throws IOException
   {
-    BackupRecordInputStream inputStream = new BackupRecordInputStream(file, passphrase);
-    int                     count       = 0;
+    BackupRecordInputStream      inputStream = new BackupRecordInputStream(file, passphrase);
+    Map<String, SQLiteStatement> statements  = new HashMap<>();
+    long                         startTime   = System.currentTimeMillis();
+    int                          count       = 0;
 
     try {
+      inputStream.start();
       db.beginTransaction();
 
-      dropAllTables(db);
+      try {
+        dropAllTables(db);
 
-      BackupFrame frame;
+        BackupFrame frame;
 
-      while (!(frame = inputStream.readFrame()).getEnd()) {
-        if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+        while (!(frame = inputStream.readFrame()).getEnd()) {
+          if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count, getRate(count, startTime), getRate(inputStream.getBytesRead() / BYTES_PER_MEGABYTE, startTime)));
 
-        if      (frame.hasVersion())    processVersion(db, frame.getVersion());
-        else if (frame.hasStatement())  processStatement(db, frame.getStatement());
-        else if (frame.hasPreference()) processPreference(context, frame.getPreference());
-        else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
-        else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream);
-        else if (frame.hasAvatar())     processAvatar(context, db, frame.getAvatar(), inputStream);
-      }
+          if      (frame.hasVersion())    processVersion(db, frame.getVersion());
+          else if (frame.hasStatement())  processStatement(db, frame.getStatement(), statements);
+          else if (frame.hasPreference()) processPreference(context, frame.getPreference());
+          else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
+          else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream);
+          else if (frame.hasAvatar())     processAvatar(context, db, frame.getAvatar(), inputStream);
+        }
 
-      db.setTransactionSuccessful();
+        db.setTransactionSuccessful();
+      } finally {
+        closeStatements(statements);
+        db.endTransaction();
+      }
     } finally {
-      db.endTransaction();
+      inputStream.close();
     }
 
-    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count));
+    Log.i(TAG, String.format(Locale.US, "Imported %d frames (%.1f frames/s), %.1f MB (%.2f MB/s)",
+                             count, getRate(count, startTime), inputStream.getBytesRead() / BYTES_PER_MEGABYTE, getRate(inputStream.getBytesRead() / BYTES_PER_MEGABYTE, startTime)));
+
+    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count, getRate(count, startTime), getRate(inputStream.getBytesRead() / BYTES_PER_MEGABYTE, startTime)));
+  }
+
+  private static double getRate(double amount, long startTime) {
+    return amount / (Math.max(1, System.currentTimeMillis() - startTime) / 1000d);
   }
 
   private static void processVersion(@NonNull SQLiteDatabase db, DatabaseVersion version) throws IOException {
@@ -101,7 +128,19 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.getVersion());
   }
 
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
+  /**
+   * Nearly every statement in a backup is one of a handful of INSERTs repeated for every row of a
+   * table, so parameterized statements are compiled once and reused. Statements without parameters
+   * are schema changes, which invalidate anything compiled against the old schema.
+   */
+  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement, @NonNull Map<String, SQLiteStatement> statements) {
+    SQLiteStatement compiled = statements.get(statement.getStatement());
+
+    if (compiled != null) {
+      bindAndExecute(compiled, statement);
+      return;
+    }
+
     boolean isForSmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
     boolean isForMmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
     boolean isForSqliteSecretTable = statement.getStatement().toLowerCase().startsWith("create table sqlite_");
@@ -111,18 +150,39 @@ public class FullBackupImporter extends FullBackupBase {
       return;
     }
 
-    List<Object> parameters = new LinkedList<>();
+    if (statement.getParametersCount() > 0) {
+      compiled = db.compileStatement(statement.getStatement());
+      statements.put(statement.getStatement(), compiled);
+
+      bindAndExecute(compiled, statement);
+    } else {
+      closeStatements(statements);
+      db.execSQL(statement.getStatement());
+    }
+  }
+
+  private static void bindAndExecute(@NonNull SQLiteStatement compiled, @NonNull SqlStatement statement) {
+    int index = 1;
+
+    compiled.clearBindings();
 
     for (SqlStatement.SqlParameter parameter : statement.getParametersList()) {
-      if      (parameter.hasStringParamter())   parameters.add(parameter.getStringParamter());
-      else if (parameter.hasDoubleParameter())  parameters.add(parameter.getDoubleParameter());
-      else if (parameter.hasIntegerParameter()) parameters.add(parameter.getIntegerParameter());
-      else if (parameter.hasBlobParameter())    parameters.add(parameter.getBlobParameter().toByteArray());
-      else if (parameter.hasNullparameter())    parameters.add(null);
+      if      (parameter.hasStringParamter())   compiled.bindString(index++, parameter.getStringParamter());
+      else if (parameter.hasDoubleParameter())  compiled.bindDouble(index++, parameter.getDoubleParameter());
+      else if (parameter.hasIntegerParameter()) compiled.bindLong(index++, parameter.getIntegerParameter());
+      else if (parameter.hasBlobParameter())    compiled.bindBlob(index++, parameter.getBlobParameter().toByteArray());
+      else if (parameter.hasNullparameter())    compiled.bindNull(index++);
+    }
+
+    compiled.execute();
+  }
+
+  private static void closeStatements(@NonNull Map<String, SQLiteStatement> statements) {
+    for (SQLiteStatement statement : statements.values()) {
+      statement.close();
     }
 
-    if (parameters.size() > 0) db.execSQL(statement.getStatement(), parameters.toArray());
-    else                       db.execSQL(statement.getStatement());
+    statements.clear();
   }
 
   private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
@@ -211,21 +271,43 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  /**
+   * Frames are read, MAC checked, decrypted and parsed on a reader thread and handed over in
+   * batches, so that decoding overlaps with the database inserts on the importing thread.
+   * <p>
+   * Attachment, sticker and avatar payloads are too large to read ahead, so when the reader reaches
+   * a frame that is followed by a payload it hands over what it has and waits until the importing
+   * thread has streamed that payload out with {@link #readAttachmentTo(OutputStream, int)}.
+   */
   private static class BackupRecordInputStream extends BackupStream {
 
-    private final InputStream in;
-    private final Cipher      cipher;
-    private final Mac         mac;
+    private static final int BATCH_SIZE          = 256;
+    private static final int MAX_PENDING_BATCHES = 4;
+    private static final int STREAM_BUFFER_SIZE  = 64 * 1024;
 
-    private final byte[] cipherKey;
-    private final byte[] macKey;
+    private final InputStream               in;
+    private final Cipher                    cipher;
+    private final Mac                       mac;
+    private final BlockingQueue<FrameBatch> batches;
+    private final Semaphore                 payloadConsumed;
+    private final AtomicLong                bytesRead;
+
+    private final SecretKeySpec cipherKey;
+    private final byte[]        macKey;
 
     private byte[] iv;
     private int    counter;
 
+    private Thread     reader;
+    private FrameBatch currentBatch;
+    private int        currentIndex;
+
     private BackupRecordInputStream(@NonNull File file, @NonNull String passphrase) throws IOException {
       try {
-        this.in     = new FileInputStream(file);
+        this.in              = new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE);
+        this.batches         = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+        this.payloadConsumed = new Semaphore(0);
+        this.bytesRead       = new AtomicLong();
 
         byte[] headerLengthBytes = new byte[4];
         Util.readFully(in, headerLengthBytes);
@@ -252,7 +334,7 @@ public class FullBackupImporter extends FullBackupBase {
         byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
         byte[][] split   = ByteUtil.split(derived, 32, 32);
 
-        this.cipherKey = split[0];
+        this.cipherKey = new SecretKeySpec(split[0], "AES");
         this.macKey    = split[1];
 
         this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
@@ -265,17 +347,88 @@ public class FullBackupImporter extends FullBackupBase {
       }
     }
 
+    void start() {
+      reader = new Thread(this::readFrames, "signal-backup-read");
+      reader.start();
+    }
+
+    long getBytesRead() {
+      return bytesRead.get();
+    }
+
     BackupFrame readFrame() throws IOException {
-      return readFrame(in);
+      while (currentBatch == null || currentIndex >= currentBatch.frames.size()) {
+        if (currentBatch != null && currentBatch.error != null) {
+          throw currentBatch.error;
+        }
+
+        try {
+          currentBatch = batches.take();
+          currentIndex = 0;
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted while waiting for the backup reader");
+        }
+      }
+
+      return currentBatch.frames.get(currentIndex++);
+    }
+
+    void close() throws IOException {
+      if (reader != null) {
+        reader.interrupt();
+      }
+
+      in.close();
+    }
+
+    private void readFrames() {
+      List<BackupFrame> frames = new ArrayList<>(BATCH_SIZE);
+
+      try {
+        while (true) {
+          BackupFrame frame = readFrame(in);
+
+          frames.add(frame);
+
+          if (frame.getEnd()) {
+            batches.put(new FrameBatch(frames, null));
+            return;
+          } else if (frame.hasAttachment() || frame.hasSticker() || frame.hasAvatar()) {
+            batches.put(new FrameBatch(frames, null));
+            frames = new ArrayList<>(BATCH_SIZE);
+            payloadConsumed.acquire();
+          } else if (frames.size() >= BATCH_SIZE) {
+            batches.put(new FrameBatch(frames, null));
+            frames = new ArrayList<>(BATCH_SIZE);
+          }
+        }
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Backup reader interrupted");
+      } catch (IOException e) {
+        handOverFailure(frames, e);
+      } catch (RuntimeException | AssertionError e) {
+        handOverFailure(frames, new IOException(e));
+      }
+    }
+
+    private void handOverFailure(@NonNull List<BackupFrame> frames, @NonNull IOException failure) {
+      try {
+        batches.put(new FrameBatch(frames, failure));
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Backup reader interrupted", e);
+      }
     }
 
     void readAttachmentTo(OutputStream out, int length) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.DECRYPT_MODE, cipherKey, new IvParameterSpec(iv));
         mac.update(iv);
 
-        byte[] buffer = new byte[8192];
+        byte[] buffer    = new byte[STREAM_BUFFER_SIZE];
+        byte[] plaintext = new byte[STREAM_BUFFER_SIZE + 16];
+
+        bytesRead.addAndGet(length);
 
         while (length > 0) {
           int read = in.read(buffer, 0, Math.min(buffer.length, length));
@@ -283,20 +436,14 @@ public class FullBackupImporter extends FullBackupBase {
 
           mac.update(buffer, 0, read);
 
-          byte[] plaintext = cipher.update(buffer, 0, read);
-
-          if (plaintext != null) {
-            out.write(plaintext, 0, plaintext.length);
-          }
+          int plaintextLength = cipher.update(buffer, 0, read, plaintext, 0);
+          out.write(plaintext, 0, plaintextLength);
 
           length -= read;
         }
 
-        byte[] plaintext = cipher.doFinal();
-
-        if (plaintext != null) {
-          out.write(plaintext, 0, plaintext.length);
-        }
+        int plaintextLength = cipher.doFinal(plaintext, 0);
+        out.write(plaintext, 0, plaintextLength);
 
         out.close();
 
@@ -312,8 +459,10 @@ public class FullBackupImporter extends FullBackupBase {
         if (!MessageDigest.isEqual(ourMac, theirMac)) {
           throw new BadMacException();
         }
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
         throw new AssertionError(e);
+      } finally {
+        payloadConsumed.release();
       }
     }
 
@@ -325,6 +474,8 @@ public class FullBackupImporter extends FullBackupBase {
         byte[] frame = new byte[Conversions.byteArrayToInt(length)];
         Util.readFully(in, frame);
 
+        bytesRead.addAndGet(length.length + frame.length);
+
         byte[] theirMac = new byte[10];
         System.arraycopy(frame, frame.length - 10, theirMac, 0, theirMac.length);
 
@@ -336,7 +487,7 @@ public class FullBackupImporter extends FullBackupBase {
         }
 
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.DECRYPT_MODE, cipherKey, new IvParameterSpec(iv));
 
         byte[] plaintext = cipher.doFinal(frame, 0, frame.length - 10);
 
@@ -347,6 +498,16 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  private static class FrameBatch {
+    private final List<BackupFrame> frames;
+    private final IOException       error;
+
+    private FrameBatch(@NonNull List<BackupFrame> frames, @Nullable IOException error) {
+      this.frames = frames;
+      this.error  = error;
+    }
+  }
+
   private static class BadMacException extends IOException {}
 
   public static class DatabaseDowngradeException extends IOException {
@@ -0,0 +1,299 @@
+/**
+ * Derived from: https://github.com/woltapp/blurhash and https://github.com/hsch/blurhash-java
+ *
+ * Copyright (c) 2018 Wolt Enterprises
+ * Copyright (c) 2019 Hendrik Schnepel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.thoughtcrime.securesms.blurhash;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.max;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.signPow;
+
+/**
+ * The BlurHash algorithm over plain ARGB int arrays, so that it can be run and tested without any
+ * Android graphics classes.
+ * <p>
+ * The basis functions are separable, so each axis gets its own table of cosines, and each pixel
+ * only needs one pass over the X components once a row's Y components have been summed. Colour
+ * conversion goes through lookup tables: sRGB to linear is a straight 256 entry table, and linear
+ * to sRGB is a binary search over the 255 points where the rounded sRGB value steps up, which gives
+ * the same result as {@link BlurHashUtil#linearTosRGB(double)}.
+ */
+final class BlurHashCodec {
+
+  private static final double[] SRGB_TO_LINEAR = new double[256];
+  private static final double[] SRGB_STEPS     = new double[255];
+
+  static {
+    for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+      SRGB_TO_LINEAR[i] = sRGBToLinear(i);
+    }
+
+    for (int i = 0; i < SRGB_STEPS.length; i++) {
+      SRGB_STEPS[i] = findStep(i + 1);
+    }
+  }
+
+  private BlurHashCodec() {}
+
+  /**
+   * @return The decoded image as ARGB pixels in row-major order, or null if the hash is invalid.
+   */
+  static @Nullable int[] decode(@Nullable String blurHash, int width, int height, double punch) {
+    if (blurHash == null || blurHash.length() < 6 || width <= 0 || height <= 0) {
+      return null;
+    }
+
+    int numCompEnc = Base83.decode(blurHash, 0, 1);
+    int numCompX   = (numCompEnc % 9) + 1;
+    int numCompY   = (numCompEnc / 9) + 1;
+
+    if (blurHash.length() != 4 + 2 * numCompX * numCompY) {
+      return null;
+    }
+
+    int      maxAcEnc = Base83.decode(blurHash, 1, 2);
+    double   maxAc    = (maxAcEnc + 1) / 166f;
+    double[] colors   = new double[numCompX * numCompY * 3];
+
+    decodeDc(Base83.decode(blurHash, 2, 6), colors);
+
+    for (int i = 1; i < numCompX * numCompY; i++) {
+      int from = 4 + i * 2;
+      decodeAc(Base83.decode(blurHash, from, from + 2), maxAc * punch, colors, i * 3);
+    }
+
+    return composePixels(width, height, numCompX, numCompY, colors);
+  }
+
+  static @NonNull String encode(@NonNull int[] pixels, int width, int height, int componentX, int componentY) {
+    if (componentX < 1 || componentX > 9 || componentY < 1 || componentY > 9) {
+      throw new IllegalArgumentException("Blur hash must have between 1 and 9 components");
+    }
+    if (width * height != pixels.length) {
+      throw new IllegalArgumentException("Width and height must match the pixels array");
+    }
+
+    double[][] factors = computeFactors(pixels, width, height, componentX, componentY);
+    char[]     hash    = new char[1 + 1 + 4 + 2 * (factors.length - 1)]; // size flag + max AC + DC + 2 * AC components
+
+    long sizeFlag = componentX - 1 + (componentY - 1) * 9;
+    Base83.encode(sizeFlag, 1, hash, 0);
+
+    double maximumValue;
+    if (factors.length > 1) {
+      double actualMaximumValue    = max(factors, 1, factors.length);
+      double quantisedMaximumValue = Math.floor(Math.max(0, Math.min(82, Math.floor(actualMaximumValue * 166 - 0.5))));
+      maximumValue = (quantisedMaximumValue + 1) / 166;
+      Base83.encode(Math.round(quantisedMaximumValue), 1, hash, 1);
+    } else {
+      maximumValue = 1;
+      Base83.encode(0, 1, hash, 1);
+    }
+
+    Base83.encode(encodeDC(factors[0]), 4, hash, 2);
+
+    for (int i = 1; i < factors.length; i++) {
+      Base83.encode(encodeAC(factors[i], maximumValue), 2, hash, 6 + 2 * (i - 1));
+    }
+
+    return new String(hash);
+  }
+
+  /**
+   * @return A table where entry [component * size + position] is cos(PI * component * position / size).
+   */
+  static @NonNull double[] cosineTable(int size, int components) {
+    double[] table = new double[size * components];
+
+    for (int component = 0; component < components; component++) {
+      for (int position = 0; position < size; position++) {
+        table[component * size + position] = Math.cos(Math.PI * component * position / size);
+      }
+    }
+
+    return table;
+  }
+
+  static int linearToSrgb(double value) {
+    int low  = 0;
+    int high = SRGB_STEPS.length;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (value >= SRGB_STEPS[mid]) low  = mid + 1;
+      else                          high = mid;
+    }
+
+    return low;
+  }
+
+  private static int[] composePixels(int width, int height, int numCompX, int numCompY, double[] colors) {
+    int[]    pixels = new int[width * height];
+    double[] cosX   = cosineTable(width, numCompX);
+    double[] cosY   = cosineTable(height, numCompY);
+    double[] row    = new double[numCompX * 3];
+
+    for (int y = 0; y < height; y++) {
+      for (int i = 0; i < numCompX; i++) {
+        double r = 0;
+        double g = 0;
+        double b = 0;
+
+        for (int j = 0; j < numCompY; j++) {
+          double basis = cosY[j * height + y];
+          int    color = (j * numCompX + i) * 3;
+
+          r += colors[color]     * basis;
+          g += colors[color + 1] * basis;
+          b += colors[color + 2] * basis;
+        }
+
+        row[i * 3]     = r;
+        row[i * 3 + 1] = g;
+        row[i * 3 + 2] = b;
+      }
+
+      for (int x = 0; x < width; x++) {
+        double r = 0;
+        double g = 0;
+        double b = 0;
+
+        for (int i = 0; i < numCompX; i++) {
+          double basis = cosX[i * width + x];
+
+          r += row[i * 3]     * basis;
+          g += row[i * 3 + 1] * basis;
+          b += row[i * 3 + 2] * basis;
+        }
+
+        pixels[y * width + x] = 0xff000000 | (linearToSrgb(r) << 16) | (linearToSrgb(g) << 8) | linearToSrgb(b);
+      }
+    }
+
+    return pixels;
+  }
+
+  private static double[][] computeFactors(int[] pixels, int width, int height, int componentX, int componentY) {
+    double[]   cosX    = cosineTable(width, componentX);
+    double[]   cosY    = cosineTable(height, componentY);
+    double[]   row     = new double[componentX * 3];
+    double[][] factors = new double[componentX * componentY][3];
+
+    for (int y = 0; y < height; y++) {
+      Arrays.fill(row, 0);
+
+      for (int x = 0; x < width; x++) {
+        int    pixel = pixels[y * width + x];
+        double r     = SRGB_TO_LINEAR[(pixel >> 16) & 0xff];
+        double g     = SRGB_TO_LINEAR[(pixel >> 8)  & 0xff];
+        double b     = SRGB_TO_LINEAR[ pixel        & 0xff];
+
+        for (int i = 0; i < componentX; i++) {
+          double basis = cosX[i * width + x];
+
+          row[i * 3]     += basis * r;
+          row[i * 3 + 1] += basis * g;
+          row[i * 3 + 2] += basis * b;
+        }
+      }
+
+      for (int j = 0; j < componentY; j++) {
+        double basis = cosY[j * height + y];
+
+        for (int i = 0; i < componentX; i++) {
+          double[] factor = factors[j * componentX + i];
+
+          factor[0] += basis * row[i * 3];
+          factor[1] += basis * row[i * 3 + 1];
+          factor[2] += basis * row[i * 3 + 2];
+        }
+      }
+    }
+
+    double scale = 1.0 / (width * height);
+
+    for (int index = 0; index < factors.length; index++) {
+      double normalisation = index == 0 ? 1 : 2;
+
+      factors[index][0] *= normalisation * scale;
+      factors[index][1] *= normalisation * scale;
+      factors[index][2] *= normalisation * scale;
+    }
+
+    return factors;
+  }
+
+  private static void decodeDc(int colorEnc, double[] colors) {
+    colors[0] = SRGB_TO_LINEAR[(colorEnc >> 16) & 255];
+    colors[1] = SRGB_TO_LINEAR[(colorEnc >> 8) & 255];
+    colors[2] = SRGB_TO_LINEAR[colorEnc & 255];
+  }
+
+  private static void decodeAc(int value, double maxAc, double[] colors, int offset) {
+    int r = value / (19 * 19);
+    int g = (value / 19) % 19;
+    int b = value % 19;
+
+    colors[offset]     = signPow((r - 9) / 9.0f, 2f) * maxAc;
+    colors[offset + 1] = signPow((g - 9) / 9.0f, 2f) * maxAc;
+    colors[offset + 2] = signPow((b - 9) / 9.0f, 2f) * maxAc;
+  }
+
+  private static long encodeDC(double[] value) {
+    long r = linearTosRGB(value[0]);
+    long g = linearTosRGB(value[1]);
+    long b = linearTosRGB(value[2]);
+    return (r << 16) + (g << 8) + b;
+  }
+
+  private static long encodeAC(double[] value, double maximumValue) {
+    double quantR = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[0] / maximumValue, 0.5) * 9 + 9.5))));
+    double quantG = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[1] / maximumValue, 0.5) * 9 + 9.5))));
+    double quantB = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[2] / maximumValue, 0.5) * 9 + 9.5))));
+    return Math.round(quantR * 19 * 19 + quantG * 19 + quantB);
+  }
+
+  /**
+   * Finds the smallest linear value that {@link BlurHashUtil#linearTosRGB(double)} maps to at least
+   * the given sRGB value, by bisecting down to adjacent doubles.
+   */
+  private static double findStep(int srgb) {
+    double low  = 0;
+    double high = 1;
+
+    while (true) {
+      double mid = low + (high - low) / 2;
+
+      if (mid <= low || mid >= high) {
+        return high;
+      }
+
+      if (linearTosRGB(mid) >= srgb) high = mid;
+      else                           low  = mid;
+    }
+  }
+}
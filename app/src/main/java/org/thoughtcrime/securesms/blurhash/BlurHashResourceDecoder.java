@@ -10,11 +10,22 @@ import com.bumptech.glide.load.ResourceDecoder;
 import com.bumptech.glide.load.engine.Resource;
 import com.bumptech.glide.load.resource.SimpleResource;
 
+import org.thoughtcrime.securesms.util.LRUCache;
+
 import java.io.IOException;
+import java.util.Map;
 
 public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap> {
 
-  private static final int MAX_DIMEN = 20;
+  private static final int MAX_DIMEN         = 20;
+  private static final int MAX_CACHED_HASHES = 100;
+
+  /**
+   * Decoded pixels, keyed by hash and size. The same few placeholders get decoded over and over as
+   * a conversation is scrolled, and at no more than {@link #MAX_DIMEN} pixels a side each entry is
+   * small. A new bitmap is made for every request, since Glide may recycle the ones it's given.
+   */
+  private static final Map<String, int[]> CACHE = new LRUCache<>(MAX_CACHED_HASHES);
 
   @Override
   public boolean handles(@NonNull BlurHash source, @NonNull Options options) throws IOException {
@@ -34,6 +45,29 @@ public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap
       finalWidth  = (int) (finalHeight * width / (float) height);
     }
 
-    return new SimpleResource<>(BlurHashDecoder.decode(source.getHash(), finalWidth, finalHeight));
+    if (finalWidth <= 0 || finalHeight <= 0) {
+      return null;
+    }
+
+    String key = source.getHash() + ":" + finalWidth + "x" + finalHeight;
+    int[]  pixels;
+
+    synchronized (CACHE) {
+      pixels = CACHE.get(key);
+    }
+
+    if (pixels == null) {
+      pixels = BlurHashCodec.decode(source.getHash(), finalWidth, finalHeight, 1f);
+
+      if (pixels == null) {
+        return null;
+      }
+
+      synchronized (CACHE) {
+        CACHE.put(key, pixels);
+      }
+    }
+
+    return new SimpleResource<>(Bitmap.createBitmap(pixels, finalWidth, finalHeight, Bitmap.Config.ARGB_8888));
   }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.util.FutureTaskListener;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.Pair;
 
@@ -36,12 +37,15 @@ class EmojiProvider {
   private static volatile EmojiProvider instance = null;
   private static final    Paint         paint    = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
-  private final EmojiTree emojiTree = new EmojiTree();
+  private final EmojiTree                                   emojiTree      = new EmojiTree();
+  private final EmojiParser                                 emojiParser    = new EmojiParser(emojiTree);
+  private final LRUCache<String, EmojiParser.CandidateList> candidateCache = new LRUCache<>(CANDIDATE_CACHE_SIZE);
 
-  private static final int EMOJI_RAW_HEIGHT = 64;
-  private static final int EMOJI_RAW_WIDTH  = 64;
-  private static final int EMOJI_VERT_PAD   = 0;
-  private static final int EMOJI_PER_ROW    = 16;
+  private static final int EMOJI_RAW_HEIGHT     = 64;
+  private static final int EMOJI_RAW_WIDTH      = 64;
+  private static final int EMOJI_VERT_PAD       = 0;
+  private static final int EMOJI_PER_ROW        = 16;
+  private static final int CANDIDATE_CACHE_SIZE = 500;
 
   private final float decodeScale;
   private final float verticalPad;
@@ -77,9 +81,32 @@ class EmojiProvider {
     }
   }
 
+  /**
+   * Results are cached by text, because the same message bodies are bound over and over as the
+   * conversation list and conversations scroll.
+   */
   @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
     if (text == null) return null;
-    return new EmojiParser(emojiTree).findCandidates(text);
+
+    String                    key = text.toString();
+    EmojiParser.CandidateList candidates;
+
+    synchronized (candidateCache) {
+      candidates = candidateCache.remove(key);
+
+      if (candidates != null) {
+        candidateCache.put(key, candidates);
+        return candidates;
+      }
+    }
+
+    candidates = emojiParser.findCandidates(text);
+
+    synchronized (candidateCache) {
+      candidateCache.put(key, candidates);
+    }
+
+    return candidates;
   }
 
   @Nullable Spannable emojify(@Nullable CharSequence text, @NonNull TextView tv) {
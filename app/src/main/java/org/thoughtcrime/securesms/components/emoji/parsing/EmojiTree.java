@@ -22,27 +22,36 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Based in part on code from emoji-java
+ * <p>
+ * Each node keeps its children in a sorted char array that is binary searched, so looking up a
+ * child neither boxes the character nor hashes it. The characters that can start an emoji are also
+ * kept in a bit set, so that most characters of plain text are rejected with a single lookup.
  */
 public class EmojiTree {
 
-  private final EmojiTreeNode root = new EmojiTreeNode();
+  private final EmojiTreeNode root            = new EmojiTreeNode();
+  private final BitSet        firstCharacters = new BitSet();
 
   private static final char TERMINATOR = '\ufe0f';
 
   public void add(String emojiEncoding, EmojiDrawInfo emoji) {
     EmojiTreeNode tree = root;
 
+    firstCharacters.set(emojiEncoding.charAt(0));
+
     for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+      EmojiTreeNode child = tree.getChild(c);
+
+      if (child == null) {
+        child = tree.addChild(c);
       }
 
-      tree = tree.getChild(c);
+      tree = child;
     }
 
     tree.setEmoji(emoji);
@@ -56,47 +65,92 @@ public class EmojiTree {
     EmojiTreeNode tree = root;
 
     for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
+      tree = tree.getChild(sequence.charAt(i));
 
-      if (!tree.hasChild(character)) {
+      if (tree == null) {
         return Matches.IMPOSSIBLE;
       }
-
-      tree = tree.getChild(character);
     }
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
+    if (isEmojiEnd(tree, sequence.charAt(endPosition - 1))) {
       return Matches.EXACTLY;
     } else {
       return Matches.POSSIBLY;
     }
   }
 
+  /**
+   * Finds the longest emoji starting at the given position in a single walk down the tree.
+   *
+   * @return The end of the emoji (exclusive), or -1 if no emoji starts there.
+   */
+  public int getEmojiEnd(CharSequence sequence, int startPosition) {
+    if (!firstCharacters.get(sequence.charAt(startPosition))) {
+      return -1;
+    }
+
+    EmojiTreeNode tree = root;
+    int           end  = -1;
+
+    for (int i = startPosition; i < sequence.length(); i++) {
+      char character = sequence.charAt(i);
+
+      tree = tree.getChild(character);
+
+      if (tree == null) {
+        return end;
+      }
+
+      if (isEmojiEnd(tree, character)) {
+        end = i + 1;
+      }
+    }
+
+    return end;
+  }
+
   public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
     EmojiTreeNode tree = root;
 
     for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+      tree = tree.getChild(unicode.charAt(i));
 
-      if (!tree.hasChild(character)) {
+      if (tree == null) {
         return null;
       }
+    }
 
-      tree = tree.getChild(character);
+    if (tree.getEmoji() != null) {
+      return tree.getEmoji();
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    EmojiTreeNode terminated = tree.getChild(TERMINATOR);
+
+    if   (unicode.charAt(endPostiion-1) != TERMINATOR && terminated != null) return terminated.getEmoji();
+    else                                                                    return null;
   }
 
+  /**
+   * An emoji may also be written without its trailing variation selector.
+   */
+  private static boolean isEmojiEnd(EmojiTreeNode node, char last) {
+    if (node.isEndOfEmoji()) {
+      return true;
+    }
+
+    EmojiTreeNode terminated = last != TERMINATOR ? node.getChild(TERMINATOR) : null;
+
+    return terminated != null && terminated.isEndOfEmoji();
+  }
 
   private static class EmojiTreeNode {
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    private static final char[]          NO_KEYS     = new char[0];
+    private static final EmojiTreeNode[] NO_CHILDREN = new EmojiTreeNode[0];
+
+    private char[]          keys     = NO_KEYS;
+    private EmojiTreeNode[] children = NO_CHILDREN;
+    private EmojiDrawInfo   emoji;
 
     public void setEmoji(EmojiDrawInfo emoji) {
       this.emoji = emoji;
@@ -106,16 +160,33 @@ public class EmojiTree {
       return emoji;
     }
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
-    }
+    /**
+     * Only used while the tree is built, so keeping the arrays exactly sized matters more than
+     * the cost of copying them.
+     */
+    EmojiTreeNode addChild(char child) {
+      int index = -(Arrays.binarySearch(keys, child) + 1);
+
+      char[]          newKeys     = new char[keys.length + 1];
+      EmojiTreeNode[] newChildren = new EmojiTreeNode[children.length + 1];
+
+      System.arraycopy(keys, 0, newKeys, 0, index);
+      System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+
+      newKeys[index]     = child;
+      newChildren[index] = new EmojiTreeNode();
+
+      keys     = newKeys;
+      children = newChildren;
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
+      return newChildren[index];
     }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
+    @Nullable EmojiTreeNode getChild(char child) {
+      int index = Arrays.binarySearch(keys, child);
+      return index >= 0 ? children[index] : null;
     }
 
     boolean isEndOfEmoji() {
@@ -32,17 +32,19 @@ public enum Fitzpatrick {
    */
   public final String unicode;
 
+  private static final Fitzpatrick[] VALUES = values();
+
   Fitzpatrick(String unicode) {
     this.unicode = unicode;
   }
 
 
   public static Fitzpatrick fitzpatrickFromUnicode(CharSequence unicode, int index) {
-    for (Fitzpatrick v : values()) {
+    for (Fitzpatrick v : VALUES) {
       boolean match = true;
 
-      for (int i=0;i<v.unicode.toCharArray().length;i++) {
-        if (v.unicode.toCharArray()[i] != unicode.charAt(index + i)) {
+      for (int i=0;i<v.unicode.length() && match;i++) {
+        if (v.unicode.charAt(i) != unicode.charAt(index + i)) {
           match = false;
         }
       }
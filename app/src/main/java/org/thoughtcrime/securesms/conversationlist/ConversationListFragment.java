@@ -380,6 +380,11 @@ public class ConversationListFragment extends MainFragment implements LoaderMana
     });
   }
 
+  @Override
+  public void onMessageResultsEndReached() {
+    viewModel.loadMoreMessages();
+  }
+
   @Override
   public void onMegaphoneNavigationRequested(@NonNull Intent intent) {
     startActivity(intent);
@@ -68,6 +68,10 @@ class ConversationListSearchAdapter extends    RecyclerView.Adapter<Conversation
 
     if (messageResult != null) {
       holder.bind(messageResult, glideRequests, eventListener, locale, searchResult.getQuery());
+
+      if (position == searchResult.size() - 1 && searchResult.hasMoreMessages()) {
+        eventListener.onMessageResultsEndReached();
+      }
     }
   }
 
@@ -144,6 +148,7 @@ class ConversationListSearchAdapter extends    RecyclerView.Adapter<Conversation
     void onConversationClicked(@NonNull ThreadRecord threadRecord);
     void onContactClicked(@NonNull Recipient contact);
     void onMessageClicked(@NonNull MessageResult message);
+    void onMessageResultsEndReached();
   }
 
   static class SearchResultViewHolder extends RecyclerView.ViewHolder {
@@ -31,7 +31,8 @@ class ConversationListViewModel extends ViewModel {
   private final Debouncer                     debouncer;
   private final ContentObserver               observer;
 
-  private String lastQuery;
+  private String       lastQuery;
+  private SearchResult pageRequestedFor;
 
   private ConversationListViewModel(@NonNull Application application, @NonNull SearchRepository searchRepository) {
     this.application         = application;
@@ -43,8 +44,10 @@ class ConversationListViewModel extends ViewModel {
     this.observer            = new ContentObserver(new Handler()) {
       @Override
       public void onChange(boolean selfChange) {
+        searchRepository.invalidate();
+
         if (!TextUtils.isEmpty(getLastQuery())) {
-          searchRepository.query(getLastQuery(), searchResult::postValue);
+          searchRepository.query(getLastQuery(), getLoadedMessageCount(), searchResult::postValue);
         }
       }
     };
@@ -89,6 +92,29 @@ class ConversationListViewModel extends ViewModel {
     }));
   }
 
+  void loadMoreMessages() {
+    SearchResult current = searchResult.getValue();
+
+    if (current == null || !current.hasMoreMessages() || current == pageRequestedFor) {
+      return;
+    }
+
+    pageRequestedFor = current;
+
+    searchRepository.queryMoreMessages(current, result -> {
+      Util.runOnMain(() -> {
+        if (searchResult.getValue() == current) {
+          searchResult.setValue(result);
+        }
+      });
+    });
+  }
+
+  private int getLoadedMessageCount() {
+    SearchResult current = searchResult.getValue();
+    return current != null ? current.getMessages().size() : 0;
+  }
+
   private @NonNull String getLastQuery() {
     return lastQuery == null ? "" : lastQuery;
   }
@@ -14,22 +14,25 @@ import java.util.List;
  */
 public class SearchResult {
 
-  public static final SearchResult EMPTY = new SearchResult("", Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+  public static final SearchResult EMPTY = new SearchResult("", Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), false);
 
   private final String              query;
   private final List<Recipient>     contacts;
   private final List<ThreadRecord>  conversations;
   private final List<MessageResult> messages;
+  private final boolean             moreMessages;
 
   public SearchResult(@NonNull String              query,
                       @NonNull List<Recipient>     contacts,
                       @NonNull List<ThreadRecord>  conversations,
-                      @NonNull List<MessageResult> messages)
+                      @NonNull List<MessageResult> messages,
+                      boolean                      moreMessages)
   {
     this.query         = query;
     this.contacts      = contacts;
     this.conversations = conversations;
     this.messages      = messages;
+    this.moreMessages  = moreMessages;
   }
 
   public List<Recipient> getContacts() {
@@ -44,6 +47,13 @@ public class SearchResult {
     return messages;
   }
 
+  /**
+   * @return True if only the first pages of message results have been loaded so far.
+   */
+  public boolean hasMoreMessages() {
+    return moreMessages;
+  }
+
   public String getQuery() {
     return query;
   }
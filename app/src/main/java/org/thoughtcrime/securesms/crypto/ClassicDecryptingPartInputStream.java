@@ -69,7 +69,7 @@ public class ClassicDecryptingPartInputStream {
     }
   }
 
-  private static void verifyMac(AttachmentSecret attachmentSecret, File file) throws IOException {
+  static void verifyMac(AttachmentSecret attachmentSecret, File file) throws IOException {
     Mac             mac        = initializeMac(new SecretKeySpec(attachmentSecret.getClassicMacKey(), "HmacSHA1"));
     FileInputStream macStream  = new FileInputStream(file);
     InputStream     dataStream = new LimitedInputStream(new FileInputStream(file), file.length() - MAC_LENGTH);
@@ -0,0 +1,267 @@
+package org.thoughtcrime.securesms.crypto;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.thoughtcrime.securesms.util.Conversions;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Random access to the plaintext of an encrypted part, for readers like MediaPlayer that jump
+ * around a file with lots of small reads.
+ * <p>
+ * The file is opened once, and ciphertext is decrypted a chunk at a time into a small LRU cache.
+ * Both part formats can be decrypted from any block boundary without reading what comes before it:
+ * the modern format is AES/CTR, so the counter for a chunk is just its block index, and the classic
+ * format is AES/CBC, so a chunk's IV is the ciphertext block in front of it.
+ */
+public final class SeekableDecryptingPart implements Closeable {
+
+  private static final int BLOCK_SIZE = 16;
+
+  @VisibleForTesting static final int CHUNK_SIZE = 64 * 1024;
+  @VisibleForTesting static final int MAX_CHUNKS = 8;
+
+  private static final int MODERN_RANDOM_LENGTH = 32;
+  private static final int CLASSIC_IV_LENGTH    = 16;
+  private static final int CLASSIC_MAC_LENGTH   = 20;
+
+  private final FileChannel        channel;
+  private final Cipher             cipher;
+  private final SecretKeySpec      key;
+  private final boolean            isCbc;
+  private final byte[]             classicIv;
+  private final long               dataStart;
+  private final long               ciphertextLength;
+  private final long               plaintextLength;
+  private final Map<Long, byte[]>  chunks;
+  private final ByteBuffer         readBuffer;
+  private final byte[]             ivBuffer;
+
+  /**
+   * @param random The random part of the key, or null if it is stored at the start of the file.
+   */
+  public static @NonNull SeekableDecryptingPart createForModern(@NonNull AttachmentSecret attachmentSecret,
+                                                                @Nullable byte[] random,
+                                                                @NonNull File file,
+                                                                long plaintextLength)
+      throws IOException
+  {
+    FileChannel channel   = new FileInputStream(file).getChannel();
+    long        dataStart = 0;
+
+    try {
+      if (random == null) {
+        random = new byte[MODERN_RANDOM_LENGTH];
+        readFully(channel, ByteBuffer.wrap(random), 0);
+        dataStart = MODERN_RANDOM_LENGTH;
+      }
+
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      byte[] key = mac.doFinal(random);
+
+      return new SeekableDecryptingPart(channel,
+                                        Cipher.getInstance("AES/CTR/NoPadding"),
+                                        new SecretKeySpec(key, "AES"),
+                                        false,
+                                        null,
+                                        dataStart,
+                                        file.length() - dataStart,
+                                        plaintextLength);
+    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException e) {
+      Util.close(channel);
+      throw new AssertionError(e);
+    } catch (IOException | RuntimeException e) {
+      Util.close(channel);
+      throw e;
+    }
+  }
+
+  /**
+   * The classic format's MAC covers the whole file, so it is checked once here rather than on every read.
+   */
+  public static @NonNull SeekableDecryptingPart createForClassic(@NonNull AttachmentSecret attachmentSecret,
+                                                                 @NonNull File file,
+                                                                 long plaintextLength)
+      throws IOException
+  {
+    if (file.length() <= CLASSIC_IV_LENGTH + CLASSIC_MAC_LENGTH) {
+      throw new IOException("File too short");
+    }
+
+    ClassicDecryptingPartInputStream.verifyMac(attachmentSecret, file);
+
+    FileChannel channel = new FileInputStream(file).getChannel();
+    byte[]      iv      = new byte[CLASSIC_IV_LENGTH];
+
+    try {
+      readFully(channel, ByteBuffer.wrap(iv), 0);
+
+      return new SeekableDecryptingPart(channel,
+                                        Cipher.getInstance("AES/CBC/NoPadding"),
+                                        new SecretKeySpec(attachmentSecret.getClassicCipherKey(), "AES"),
+                                        true,
+                                        iv,
+                                        CLASSIC_IV_LENGTH,
+                                        file.length() - CLASSIC_IV_LENGTH - CLASSIC_MAC_LENGTH,
+                                        plaintextLength);
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+      Util.close(channel);
+      throw new AssertionError(e);
+    } catch (IOException | RuntimeException e) {
+      Util.close(channel);
+      throw e;
+    }
+  }
+
+  private SeekableDecryptingPart(@NonNull FileChannel channel,
+                                 @NonNull Cipher cipher,
+                                 @NonNull SecretKeySpec key,
+                                 boolean isCbc,
+                                 @Nullable byte[] classicIv,
+                                 long dataStart,
+                                 long ciphertextLength,
+                                 long plaintextLength)
+  {
+    this.channel          = channel;
+    this.cipher           = cipher;
+    this.key              = key;
+    this.isCbc            = isCbc;
+    this.classicIv        = classicIv;
+    this.dataStart        = dataStart;
+    this.ciphertextLength = ciphertextLength;
+    this.plaintextLength  = Math.min(plaintextLength, ciphertextLength);
+    this.readBuffer       = ByteBuffer.allocate(CHUNK_SIZE);
+    this.ivBuffer         = new byte[BLOCK_SIZE];
+    this.chunks           = new LinkedHashMap<Long, byte[]>(MAX_CHUNKS, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+        return size() > MAX_CHUNKS;
+      }
+    };
+  }
+
+  public long getPlaintextLength() {
+    return plaintextLength;
+  }
+
+  @VisibleForTesting
+  synchronized boolean isChunkCached(long chunkIndex) {
+    return chunks.containsKey(chunkIndex);
+  }
+
+  /**
+   * Reads plaintext starting at the given position, in the manner of
+   * {@link android.media.MediaDataSource#readAt(long, byte[], int, int)}.
+   *
+   * @return The number of bytes read, or -1 if the position is at or past the end of the plaintext.
+   */
+  public synchronized int read(long position, @NonNull byte[] bytes, int offset, int length) throws IOException {
+    if (position >= plaintextLength) {
+      return -1;
+    }
+
+    length = (int) Math.min(length, plaintextLength - position);
+
+    int totalRead = 0;
+
+    while (totalRead < length) {
+      long   chunkIndex  = position / CHUNK_SIZE;
+      int    chunkOffset = (int) (position % CHUNK_SIZE);
+      byte[] chunk       = getChunk(chunkIndex);
+      int    count       = Math.min(length - totalRead, chunk.length - chunkOffset);
+
+      System.arraycopy(chunk, chunkOffset, bytes, offset + totalRead, count);
+
+      totalRead += count;
+      position  += count;
+    }
+
+    return totalRead;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    chunks.clear();
+    channel.close();
+  }
+
+  private @NonNull byte[] getChunk(long chunkIndex) throws IOException {
+    byte[] chunk = chunks.get(chunkIndex);
+
+    if (chunk == null) {
+      chunk = decryptChunk(chunkIndex);
+      chunks.put(chunkIndex, chunk);
+    }
+
+    return chunk;
+  }
+
+  private @NonNull byte[] decryptChunk(long chunkIndex) throws IOException {
+    long chunkStart  = chunkIndex * CHUNK_SIZE;
+    int  chunkLength = (int) Math.min(CHUNK_SIZE, ciphertextLength - chunkStart);
+
+    if (isCbc) {
+      chunkLength -= chunkLength % BLOCK_SIZE;
+
+      if (chunkStart == 0) {
+        System.arraycopy(classicIv, 0, ivBuffer, 0, BLOCK_SIZE);
+      } else {
+        readFully(channel, ByteBuffer.wrap(ivBuffer), dataStart + chunkStart - BLOCK_SIZE);
+      }
+    } else {
+      Conversions.longTo4ByteArray(ivBuffer, 12, chunkStart / BLOCK_SIZE);
+    }
+
+    readBuffer.clear();
+    readBuffer.limit(chunkLength);
+    readFully(channel, readBuffer, dataStart + chunkStart);
+
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(ivBuffer));
+
+      byte[] plaintext = new byte[chunkLength];
+      cipher.doFinal(readBuffer.array(), 0, chunkLength, plaintext, 0);
+
+      return plaintext;
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+
+      if (read == -1) {
+        throw new IOException("Prematurely reached end of file!");
+      }
+
+      position += read;
+    }
+  }
+}
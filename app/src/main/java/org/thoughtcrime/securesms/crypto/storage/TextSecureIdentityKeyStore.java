@@ -13,6 +13,7 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.IdentityUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.util.concurrent.StripedLock;
 import org.whispersystems.libsignal.IdentityKey;
 import org.whispersystems.libsignal.IdentityKeyPair;
 import org.whispersystems.libsignal.SignalProtocolAddress;
@@ -26,7 +27,7 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
   private static final int TIMESTAMP_THRESHOLD_SECONDS = 5;
 
   private static final String TAG = TextSecureIdentityKeyStore.class.getSimpleName();
-  private static final Object LOCK = new Object();
+  private static final StripedLock LOCKS = new StripedLock(32);
 
   private final Context context;
 
@@ -45,9 +46,10 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
   }
 
   public boolean saveIdentity(SignalProtocolAddress address, IdentityKey identityKey, boolean nonBlockingApproval) {
-    synchronized (LOCK) {
+    Recipient recipient = Recipient.external(context, address.getName());
+
+    synchronized (LOCKS.get(recipient.getId())) {
       IdentityDatabase         identityDatabase = DatabaseFactory.getIdentityDatabase(context);
-      Recipient                recipient        = Recipient.external(context, address.getName());
       Optional<IdentityRecord> identityRecord   = identityDatabase.getIdentity(recipient.getId());
 
       if (!identityRecord.isPresent()) {
@@ -91,28 +93,28 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
 
   @Override
   public boolean isTrustedIdentity(SignalProtocolAddress address, IdentityKey identityKey, Direction direction) {
-    synchronized (LOCK) {
-      if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(address.getName())) {
-        IdentityDatabase identityDatabase = DatabaseFactory.getIdentityDatabase(context);
-        RecipientId      ourRecipientId   = Recipient.self().getId();
-        RecipientId      theirRecipientId = Recipient.external(context, address.getName()).getId();
-
-        if (ourRecipientId.equals(theirRecipientId)) {
-          return identityKey.equals(IdentityKeyUtil.getIdentityKey(context));
-        }
+    if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(address.getName())) {
+      IdentityDatabase identityDatabase = DatabaseFactory.getIdentityDatabase(context);
+      RecipientId      ourRecipientId   = Recipient.self().getId();
+      RecipientId      theirRecipientId = Recipient.external(context, address.getName()).getId();
 
+      if (ourRecipientId.equals(theirRecipientId)) {
+        return identityKey.equals(IdentityKeyUtil.getIdentityKey(context));
+      }
+
+      synchronized (LOCKS.get(theirRecipientId)) {
         switch (direction) {
           case SENDING:   return isTrustedForSending(identityKey, identityDatabase.getIdentity(theirRecipientId));
           case RECEIVING: return true;
           default:        throw new AssertionError("Unknown direction: " + direction);
         }
-      } else {
-        Log.w(TAG, "Tried to check if identity is trusted for " + address.getName() + ", but no matching recipient existed!");
-        switch (direction) {
-          case SENDING:   return false;
-          case RECEIVING: return true;
-          default:        throw new AssertionError("Unknown direction: " + direction);
-        }
+      }
+    } else {
+      Log.w(TAG, "Tried to check if identity is trusted for " + address.getName() + ", but no matching recipient existed!");
+      switch (direction) {
+        case SENDING:   return false;
+        case RECEIVING: return true;
+        default:        throw new AssertionError("Unknown direction: " + direction);
       }
     }
   }
@@ -9,6 +9,7 @@ import org.thoughtcrime.securesms.database.SessionDatabase;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.concurrent.StripedLock;
 import org.whispersystems.libsignal.SignalProtocolAddress;
 import org.whispersystems.libsignal.protocol.CiphertextMessage;
 import org.whispersystems.libsignal.state.SessionRecord;
@@ -24,7 +25,7 @@ public class TextSecureSessionStore implements SessionStore {
 
   private static final String TAG = TextSecureSessionStore.class.getSimpleName();
 
-  private static final Object FILE_LOCK = new Object();
+  private static final StripedLock LOCKS = new StripedLock(32);
 
   @NonNull  private final Context context;
 
@@ -34,8 +35,9 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public SessionRecord loadSession(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      RecipientId   recipientId   = Recipient.external(context, address.getName()).getId();
+    RecipientId recipientId = Recipient.external(context, address.getName()).getId();
+
+    synchronized (LOCKS.get(recipientId)) {
       SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(recipientId, address.getDeviceId());
 
       if (sessionRecord == null) {
@@ -49,45 +51,49 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public void storeSession(@NonNull SignalProtocolAddress address, @NonNull SessionRecord record) {
-    synchronized (FILE_LOCK) {
-      RecipientId id = Recipient.external(context, address.getName()).getId();
+    RecipientId id = Recipient.external(context, address.getName()).getId();
+
+    synchronized (LOCKS.get(id)) {
       DatabaseFactory.getSessionDatabase(context).store(id, address.getDeviceId(), record);
     }
   }
 
   @Override
   public boolean containsSession(SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(address.getName())) {
-        RecipientId   recipientId   = Recipient.external(context, address.getName()).getId();
+    if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(address.getName())) {
+      RecipientId recipientId = Recipient.external(context, address.getName()).getId();
+
+      synchronized (LOCKS.get(recipientId)) {
         SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(recipientId, address.getDeviceId());
 
         return sessionRecord != null &&
                sessionRecord.getSessionState().hasSenderChain() &&
                sessionRecord.getSessionState().getSessionVersion() == CiphertextMessage.CURRENT_VERSION;
-      } else {
-        return false;
       }
+    } else {
+      return false;
     }
   }
 
   @Override
   public void deleteSession(SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(address.getName())) {
-        RecipientId recipientId = Recipient.external(context, address.getName()).getId();
+    if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(address.getName())) {
+      RecipientId recipientId = Recipient.external(context, address.getName()).getId();
+
+      synchronized (LOCKS.get(recipientId)) {
         DatabaseFactory.getSessionDatabase(context).delete(recipientId, address.getDeviceId());
-      } else {
-        Log.w(TAG, "Tried to delete session for " + address.toString() + ", but none existed!");
       }
+    } else {
+      Log.w(TAG, "Tried to delete session for " + address.toString() + ", but none existed!");
     }
   }
 
   @Override
   public void deleteAllSessions(String name) {
-    synchronized (FILE_LOCK) {
-      if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(name)) {
-        RecipientId recipientId = Recipient.external(context, name).getId();
+    if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(name)) {
+      RecipientId recipientId = Recipient.external(context, name).getId();
+
+      synchronized (LOCKS.get(recipientId)) {
         DatabaseFactory.getSessionDatabase(context).deleteAllFor(recipientId);
       }
     }
@@ -95,42 +101,49 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public List<Integer> getSubDeviceSessions(String name) {
-    synchronized (FILE_LOCK) {
-      if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(name)) {
-        RecipientId recipientId = Recipient.external(context, name).getId();
+    if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(name)) {
+      RecipientId recipientId = Recipient.external(context, name).getId();
+
+      synchronized (LOCKS.get(recipientId)) {
         return DatabaseFactory.getSessionDatabase(context).getSubDevices(recipientId);
-      } else {
-        Log.w(TAG, "Tried to get sub device sessions for " + name + ", but none existed!");
-        return Collections.emptyList();
       }
+    } else {
+      Log.w(TAG, "Tried to get sub device sessions for " + name + ", but none existed!");
+      return Collections.emptyList();
     }
   }
 
   public void archiveSiblingSessions(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(address.getName())) {
-        RecipientId                      recipientId = Recipient.external(context, address.getName()).getId();
-        List<SessionDatabase.SessionRow> sessions    = DatabaseFactory.getSessionDatabase(context).getAllFor(recipientId);
+    if (DatabaseFactory.getRecipientDatabase(context).containsPhoneOrUuid(address.getName())) {
+      RecipientId recipientId = Recipient.external(context, address.getName()).getId();
+
+      synchronized (LOCKS.get(recipientId)) {
+        SessionDatabase                  sessionDatabase = DatabaseFactory.getSessionDatabase(context);
+        List<SessionDatabase.SessionRow> sessions        = sessionDatabase.getAllFor(recipientId);
 
         for (SessionDatabase.SessionRow row : sessions) {
           if (row.getDeviceId() != address.getDeviceId()) {
             row.getRecord().archiveCurrentState();
-            storeSession(new SignalProtocolAddress(Recipient.resolved(row.getRecipientId()).requireServiceId(), row.getDeviceId()), row.getRecord());
+            sessionDatabase.store(row.getRecipientId(), row.getDeviceId(), row.getRecord());
           }
         }
-      } else {
-        Log.w(TAG, "Tried to archive sibling sessions for " + address.toString() + ", but none existed!");
       }
+    } else {
+      Log.w(TAG, "Tried to archive sibling sessions for " + address.toString() + ", but none existed!");
     }
   }
 
   public void archiveAllSessions() {
-    synchronized (FILE_LOCK) {
-      List<SessionDatabase.SessionRow> sessions = DatabaseFactory.getSessionDatabase(context).getAll();
+    SessionDatabase sessionDatabase = DatabaseFactory.getSessionDatabase(context);
 
-      for (SessionDatabase.SessionRow row : sessions) {
-        row.getRecord().archiveCurrentState();
-        storeSession(new SignalProtocolAddress(Recipient.resolved(row.getRecipientId()).requireServiceId(), row.getDeviceId()), row.getRecord());
+    for (SessionDatabase.SessionRow row : sessionDatabase.getAll()) {
+      synchronized (LOCKS.get(row.getRecipientId())) {
+        SessionRecord record = sessionDatabase.load(row.getRecipientId(), row.getDeviceId());
+
+        if (record != null) {
+          record.archiveCurrentState();
+          sessionDatabase.store(row.getRecipientId(), row.getDeviceId(), record);
+        }
       }
     }
   }
@@ -67,6 +67,7 @@ import org.thoughtcrime.securesms.util.StorageUtil;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.video.EncryptedMediaDataSource;
 import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.internal.push.http.SegmentedDownload;
 import org.whispersystems.signalservice.internal.util.JsonUtil;
 
 import java.io.File;
@@ -550,6 +551,7 @@ public class AttachmentDatabase extends Database {
     if (transferFile != null) {
       //noinspection ResultOfMethodCallIgnored
       transferFile.delete();
+      SegmentedDownload.deleteState(transferFile);
     }
 
     thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId, STANDARD_THUMB_TIME));
@@ -609,7 +611,7 @@ public class AttachmentDatabase extends Database {
   public void updateDisplayOrder(@NonNull Map<AttachmentId, Integer> orderMap) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-    db.beginTransaction();
+    beginTransaction(db);
     try {
       for (Map.Entry<AttachmentId, Integer> entry : orderMap.entrySet()) {
         ContentValues values = new ContentValues(1);
@@ -620,7 +622,7 @@ public class AttachmentDatabase extends Database {
 
       db.setTransactionSuccessful();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
 
   }
@@ -669,7 +671,7 @@ public class AttachmentDatabase extends Database {
   public void updateMessageId(@NonNull Collection<AttachmentId> attachmentIds, long mmsId) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-    db.beginTransaction();
+    beginTransaction(db);
     try {
       ContentValues values = new ContentValues(1);
       values.put(MMS_ID, mmsId);
@@ -680,7 +682,7 @@ public class AttachmentDatabase extends Database {
 
       db.setTransactionSuccessful();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
   }
 
@@ -1032,7 +1034,12 @@ public class AttachmentDatabase extends Database {
       }
 
       return new DataInfo(destination, length, out.first, hash);
-    } catch (IOException | NoSuchAlgorithmException e) {
+    } catch (IOException e) {
+      if (destination.exists() && !destination.delete()) {
+        Log.w(TAG, "[setAttachmentData] Failed to delete partially written file. " + destination.getAbsolutePath());
+      }
+      throw new MmsException(e);
+    } catch (NoSuchAlgorithmException e) {
       throw new MmsException(e);
     }
   }
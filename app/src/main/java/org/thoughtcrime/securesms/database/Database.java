@@ -19,8 +19,11 @@ package org.thoughtcrime.securesms.database;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
 import androidx.annotation.NonNull;
 
+import net.sqlcipher.database.SQLiteDatabase;
+
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 
 import java.util.Set;
@@ -43,19 +46,19 @@ public abstract class Database {
   }
 
   protected void notifyConversationListeners(long threadId) {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
+    notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId));
   }
 
   protected void notifyConversationListListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
+    notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI);
   }
 
   protected void notifyStickerListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Sticker.CONTENT_URI, null);
+    notifyChange(DatabaseContentProviders.Sticker.CONTENT_URI);
   }
 
   protected void notifyStickerPackListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.StickerPack.CONTENT_URI, null);
+    notifyChange(DatabaseContentProviders.StickerPack.CONTENT_URI);
   }
 
   protected void setNotifyConverationListeners(Cursor cursor, long threadId) {
@@ -81,7 +84,27 @@ public abstract class Database {
   }
 
   protected void notifyAttachmentListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Attachment.CONTENT_URI, null);
+    notifyChange(DatabaseContentProviders.Attachment.CONTENT_URI);
+  }
+
+  /**
+   * Begins a transaction whose change notifications are held until it commits, and dropped if it
+   * rolls back. End it with {@link #endTransaction(SQLiteDatabase)}. See {@link DatabaseChangeNotifier}.
+   */
+  protected void beginTransaction(@NonNull SQLiteDatabase db) {
+    DatabaseChangeNotifier.getInstance(context).beginTransaction(db);
+  }
+
+  /**
+   * Ends a transaction begun with {@link #beginTransaction(SQLiteDatabase)}, and sends its held
+   * notifications once it has committed.
+   */
+  protected void endTransaction(@NonNull SQLiteDatabase db) {
+    DatabaseChangeNotifier.getInstance(context).endTransaction(db);
+  }
+
+  private void notifyChange(@NonNull Uri uri) {
+    DatabaseChangeNotifier.getInstance(context).notifyChange(databaseHelper.getWritableDatabase(), uri);
   }
 
   public void reset(SQLCipherOpenHelper databaseHelper) {
@@ -0,0 +1,151 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteTransactionListener;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the content change notifications requested by {@link Database}.
+ * <p>
+ * Notifications requested inside a transaction started with {@link #beginTransaction(SQLiteDatabase)}
+ * are held until {@link #endTransaction(SQLiteDatabase)} has committed it, and each URI is only
+ * notified once however many times it was requested. Otherwise a bulk update would make every open
+ * loader re-query once per row. If the transaction rolls back, its notifications are dropped, since
+ * nothing they refer to changed.
+ * <p>
+ * SQLCipher calls the transaction listener before it runs COMMIT, so the listener only sets the
+ * notifications aside, and they're sent once endTransaction() has returned. That way observers never
+ * re-query before the data is there, and a failing notification can't roll the transaction back.
+ * <p>
+ * Nothing is sent while a transaction is still open, however long it runs, since until it commits
+ * there is no change an observer could see.
+ * <p>
+ * Transactions started any other way don't tell us when they end, so notifications requested inside
+ * them are sent straight away.
+ */
+public final class DatabaseChangeNotifier {
+
+  private static final Object lock = new Object();
+
+  private static DatabaseChangeNotifier instance;
+
+  private final Context                   context;
+  private final ThreadLocal<Set<Uri>>     pending;
+  private final ThreadLocal<Set<Uri>>     committed;
+  private final SQLiteTransactionListener transactionListener;
+  private final AtomicLong                requested;
+  private final AtomicLong                delivered;
+
+  public static DatabaseChangeNotifier getInstance(@NonNull Context context) {
+    synchronized (lock) {
+      if (instance == null) {
+        instance = new DatabaseChangeNotifier(context.getApplicationContext());
+      }
+
+      return instance;
+    }
+  }
+
+  @VisibleForTesting
+  DatabaseChangeNotifier(@NonNull Context context) {
+    this.context             = context;
+    this.pending             = new ThreadLocal<>();
+    this.committed           = new ThreadLocal<>();
+    this.requested           = new AtomicLong();
+    this.delivered           = new AtomicLong();
+    this.transactionListener = new SQLiteTransactionListener() {
+      @Override
+      public void onBegin() {
+        pending.set(new LinkedHashSet<>());
+      }
+
+      @Override
+      public void onCommit() {
+        committed.set(pending.get());
+        pending.remove();
+      }
+
+      @Override
+      public void onRollback() {
+        pending.remove();
+      }
+    };
+  }
+
+  /**
+   * Begins a transaction whose notifications are sent when it commits. If the calling thread is
+   * already in a transaction, this joins it, and its notifications follow the outer transaction.
+   */
+  void beginTransaction(@NonNull SQLiteDatabase database) {
+    database.beginTransactionWithListener(transactionListener);
+  }
+
+  /**
+   * Ends a transaction begun with {@link #beginTransaction(SQLiteDatabase)}. If that was the
+   * outermost transaction and it committed, its notifications are sent.
+   */
+  void endTransaction(@NonNull SQLiteDatabase database) {
+    try {
+      database.endTransaction();
+    } catch (RuntimeException e) {
+      committed.remove();
+      throw e;
+    }
+
+    if (database.inTransaction()) {
+      return;
+    }
+
+    Set<Uri> uris = committed.get();
+    committed.remove();
+
+    if (uris != null) {
+      for (Uri uri : uris) {
+        deliver(uri);
+      }
+    }
+  }
+
+  /**
+   * @param database The database that was changed.
+   */
+  void notifyChange(@NonNull SQLiteDatabase database, @NonNull Uri uri) {
+    requested.incrementAndGet();
+
+    Set<Uri> uris = database.inTransaction() ? pending.get() : null;
+
+    if (uris != null) {
+      uris.add(uri);
+    } else {
+      deliver(uri);
+    }
+  }
+
+  /**
+   * @return How many notifications have been requested since the app started.
+   */
+  public long getRequestedCount() {
+    return requested.get();
+  }
+
+  /**
+   * @return How many notifications have actually been sent since the app started.
+   */
+  public long getDeliveredCount() {
+    return delivered.get();
+  }
+
+  private void deliver(@NonNull Uri uri) {
+    context.getContentResolver().notifyChange(uri, null);
+    delivered.incrementAndGet();
+  }
+}
@@ -62,6 +62,8 @@ public class DatabaseFactory {
   private final StorageKeyDatabase    storageKeyDatabase;
   private final KeyValueDatabase      keyValueDatabase;
   private final MegaphoneDatabase     megaphoneDatabase;
+  private final ReactionDatabase      reactionDatabase;
+  private final GalleryDatabase       galleryDatabase;
 
   public static DatabaseFactory getInstance(Context context) {
     synchronized (lock) {
@@ -124,6 +126,14 @@ public class DatabaseFactory {
     return getInstance(context).groupReceiptDatabase;
   }
 
+  public static ReactionDatabase getReactionDatabase(Context context) {
+    return getInstance(context).reactionDatabase;
+  }
+
+  public static GalleryDatabase getGalleryDatabase(Context context) {
+    return getInstance(context).galleryDatabase;
+  }
+
   public static OneTimePreKeyDatabase getPreKeyDatabase(Context context) {
     return getInstance(context).preKeyDatabase;
   }
@@ -208,6 +218,8 @@ public class DatabaseFactory {
     this.storageKeyDatabase   = new StorageKeyDatabase(context, databaseHelper);
     this.keyValueDatabase     = new KeyValueDatabase(context, databaseHelper);
     this.megaphoneDatabase    = new MegaphoneDatabase(context, databaseHelper);
+    this.reactionDatabase     = new ReactionDatabase(context, databaseHelper);
+    this.galleryDatabase      = new GalleryDatabase(context, databaseHelper);
   }
 
   public void onApplicationLevelUpgrade(@NonNull Context context, @NonNull MasterSecret masterSecret,
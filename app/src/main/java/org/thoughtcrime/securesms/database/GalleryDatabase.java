@@ -0,0 +1,227 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A copy of the images and videos MediaStore knows about, so the media picker can list folders and
+ * page through them without scanning all of MediaStore each time it opens.
+ * <p>
+ * Rows are keyed by their MediaStore id and remember the date they were last modified. The
+ * {@link org.thoughtcrime.securesms.mediasend.MediaRepository} compares those against a scan of
+ * just ids and dates, and only reads the full rows that are new or have changed.
+ * <p>
+ * This is a cache of device state, so it isn't included in backups.
+ */
+public class GalleryDatabase extends Database {
+
+  public  static final String TABLE_NAME = "gallery";
+
+  private static final String ID             = "_id";
+  private static final String MEDIA_STORE_ID = "media_store_id";
+  public  static final String IS_IMAGE       = "is_image";
+  public  static final String PATH           = "path";
+  public  static final String MIME_TYPE      = "mime_type";
+  public  static final String BUCKET_ID      = "bucket_id";
+  public  static final String BUCKET_NAME    = "bucket_name";
+  public  static final String DATE_MODIFIED  = "date_modified";
+  public  static final String WIDTH          = "width";
+  public  static final String HEIGHT         = "height";
+  public  static final String SIZE           = "size";
+  public  static final String DURATION       = "duration";
+  public  static final String COUNT          = "count";
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID             + " INTEGER PRIMARY KEY, " +
+                                                                                 MEDIA_STORE_ID + " INTEGER NOT NULL, " +
+                                                                                 IS_IMAGE       + " INTEGER NOT NULL, " +
+                                                                                 PATH           + " TEXT NOT NULL, " +
+                                                                                 MIME_TYPE      + " TEXT, " +
+                                                                                 BUCKET_ID      + " TEXT, " +
+                                                                                 BUCKET_NAME    + " TEXT, " +
+                                                                                 DATE_MODIFIED  + " INTEGER NOT NULL, " +
+                                                                                 WIDTH          + " INTEGER DEFAULT 0, " +
+                                                                                 HEIGHT         + " INTEGER DEFAULT 0, " +
+                                                                                 SIZE           + " INTEGER DEFAULT 0, " +
+                                                                                 DURATION       + " INTEGER DEFAULT 0, " +
+                                                                                 "UNIQUE(" + IS_IMAGE + ", " + MEDIA_STORE_ID + ") ON CONFLICT REPLACE)";
+
+  public static final String[] CREATE_INDEXES = {
+      "CREATE INDEX IF NOT EXISTS gallery_bucket_date_index ON " + TABLE_NAME + " (" + BUCKET_ID + ", " + DATE_MODIFIED + ");",
+      "CREATE INDEX IF NOT EXISTS gallery_date_index ON " + TABLE_NAME + " (" + DATE_MODIFIED + ");",
+      "CREATE INDEX IF NOT EXISTS gallery_path_index ON " + TABLE_NAME + " (" + PATH + ");"
+  };
+
+  private static final String[] MEDIA_PROJECTION = new String[] { ID, IS_IMAGE, PATH, MIME_TYPE, BUCKET_ID, DATE_MODIFIED, WIDTH, HEIGHT, SIZE, DURATION };
+
+  /**
+   * Kept under SQLite's limit on bound arguments.
+   */
+  public static final int MAX_ARGS = 500;
+
+  public GalleryDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  /**
+   * @return The modified date of every indexed item of one kind, by MediaStore id.
+   */
+  public @NonNull Map<Long, Long> getDatesModified(boolean isImage) {
+    SQLiteDatabase  db         = databaseHelper.getReadableDatabase();
+    String[]        projection = new String[] { MEDIA_STORE_ID, DATE_MODIFIED };
+    String          query      = IS_IMAGE + " = ?";
+    String[]        args       = new String[] { isImage ? "1" : "0" };
+    Map<Long, Long> dates      = new HashMap<>();
+
+    try (Cursor cursor = db.query(TABLE_NAME, projection, query, args, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        dates.put(cursor.getLong(0), cursor.getLong(1));
+      }
+    }
+
+    return dates;
+  }
+
+  /**
+   * Replaces the given items and drops the removed ones, in one transaction.
+   */
+  public void update(boolean isImage, @NonNull Collection<Item> items, @NonNull List<Long> removedIds) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      for (Item item : items) {
+        ContentValues values = new ContentValues(11);
+
+        values.put(MEDIA_STORE_ID, item.mediaStoreId);
+        values.put(IS_IMAGE, isImage ? 1 : 0);
+        values.put(PATH, item.path);
+        values.put(MIME_TYPE, item.mimeType);
+        values.put(BUCKET_ID, item.bucketId);
+        values.put(BUCKET_NAME, item.bucketName);
+        values.put(DATE_MODIFIED, item.dateModified);
+        values.put(WIDTH, item.width);
+        values.put(HEIGHT, item.height);
+        values.put(SIZE, item.size);
+        values.put(DURATION, item.duration);
+
+        db.insert(TABLE_NAME, null, values);
+      }
+
+      for (List<Long> chunk : Util.chunk(removedIds, MAX_ARGS)) {
+        db.delete(TABLE_NAME, IS_IMAGE + " = ? AND " + MEDIA_STORE_ID + " IN (" + Util.join(chunk, ",") + ")", new String[] { isImage ? "1" : "0" });
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * One row per bucket, with its {@link #COUNT} and the {@link #PATH} and {@link #DATE_MODIFIED}
+   * of its most recent item.
+   */
+  public @NonNull Cursor getBuckets() {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = "SELECT " + BUCKET_ID + ", " + BUCKET_NAME + ", " + PATH + ", MAX(" + DATE_MODIFIED + ") AS " + DATE_MODIFIED + ", COUNT(*) AS " + COUNT +
+                           " FROM " + TABLE_NAME +
+                           " GROUP BY " + BUCKET_ID;
+
+    return db.rawQuery(query, null);
+  }
+
+  /**
+   * A page of items, newest first, that come after the item identified by the previous page's last
+   * {@link #DATE_MODIFIED} and {@link #ID}. Pass {@link Long#MAX_VALUE} for both to get the first
+   * page.
+   *
+   * @param bucketId The bucket to list, or null for every bucket.
+   * @param isImage  Whether to list only images, only videos, or with null, both.
+   */
+  public @NonNull Cursor getMedia(@Nullable String bucketId, @Nullable Boolean isImage, long afterDateModified, long afterId, int limit) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = DATE_MODIFIED + " <= ? AND (" + DATE_MODIFIED + " < ? OR " + ID + " < ?)";
+    List<String>   args  = new ArrayList<>(4);
+
+    args.add(String.valueOf(afterDateModified));
+    args.add(String.valueOf(afterDateModified));
+    args.add(String.valueOf(afterId));
+
+    if (bucketId != null) {
+      query += " AND " + BUCKET_ID + " = ?";
+      args.add(bucketId);
+    }
+
+    if (isImage != null) {
+      query += " AND " + IS_IMAGE + " = " + (isImage ? 1 : 0);
+    }
+
+    return db.query(TABLE_NAME, MEDIA_PROJECTION, query, args.toArray(new String[0]), null, null, DATE_MODIFIED + " DESC, " + ID + " DESC", String.valueOf(limit));
+  }
+
+  /**
+   * The indexed items at any of the given paths, of which there may be up to {@link #MAX_ARGS}.
+   */
+  public @NonNull Cursor getMediaAtPaths(@NonNull List<String> paths) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = PATH + " IN (" + Util.join(Collections.nCopies(paths.size(), "?"), ",") + ")";
+
+    return db.query(TABLE_NAME, MEDIA_PROJECTION, query, paths.toArray(new String[0]), null, null, null);
+  }
+
+  public static long getId(@NonNull Cursor cursor) {
+    return cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+  }
+
+  public static final class Item {
+    private final long   mediaStoreId;
+    private final String path;
+    private final String mimeType;
+    private final String bucketId;
+    private final String bucketName;
+    private final long   dateModified;
+    private final int    width;
+    private final int    height;
+    private final long   size;
+    private final long   duration;
+
+    public Item(long mediaStoreId,
+                @NonNull String path,
+                @Nullable String mimeType,
+                @Nullable String bucketId,
+                @Nullable String bucketName,
+                long dateModified,
+                int width,
+                int height,
+                long size,
+                long duration)
+    {
+      this.mediaStoreId = mediaStoreId;
+      this.path         = path;
+      this.mimeType     = mimeType;
+      this.bucketId     = bucketId;
+      this.bucketName   = bucketName;
+      this.dateModified = dateModified;
+      this.width        = width;
+      this.height       = height;
+      this.size         = size;
+      this.duration     = duration;
+    }
+  }
+}
@@ -8,6 +8,7 @@ import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Stream;
@@ -36,9 +37,12 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public final class GroupDatabase extends Database {
@@ -68,6 +72,14 @@ public final class GroupDatabase extends Database {
   /** Serialized {@link DecryptedGroup} protobuf */
   private static final String V2_DECRYPTED_GROUP  = "decrypted_group";
 
+  /* Membership table, one row for each member of each group, kept in step with MEMBERS */
+          static final String MEMBERSHIP_TABLE_NAME = "group_membership";
+  /** A {@link Member.Role} number, always {@link #ROLE_DEFAULT} outside of V2 groups */
+  private static final String ROLE                  = "role";
+
+  private static final int ROLE_DEFAULT       = Member.Role.DEFAULT_VALUE;
+  private static final int ROLE_ADMINISTRATOR = Member.Role.ADMINISTRATOR_VALUE;
+
   public static final String CREATE_TABLE =
       "CREATE TABLE " + TABLE_NAME +
           " (" + ID + " INTEGER PRIMARY KEY, " +
@@ -87,9 +99,18 @@ public final class GroupDatabase extends Database {
           V2_REVISION + " BLOB, " +
           V2_DECRYPTED_GROUP + " BLOB);";
 
+  public static final String CREATE_MEMBERSHIP_TABLE =
+      "CREATE TABLE " + MEMBERSHIP_TABLE_NAME +
+          " (" + ID + " INTEGER PRIMARY KEY, " +
+          GROUP_ID + " TEXT NOT NULL, " +
+          RECIPIENT_ID + " INTEGER NOT NULL, " +
+          ROLE + " INTEGER DEFAULT " + ROLE_DEFAULT + ", " +
+          "UNIQUE(" + GROUP_ID + ", " + RECIPIENT_ID + ") ON CONFLICT REPLACE);";
+
   public static final String[] CREATE_INDEXS = {
       "CREATE UNIQUE INDEX IF NOT EXISTS group_id_index ON " + TABLE_NAME + " (" + GROUP_ID + ");",
       "CREATE UNIQUE INDEX IF NOT EXISTS group_recipient_id_index ON " + TABLE_NAME + " (" + RECIPIENT_ID + ");",
+      "CREATE INDEX IF NOT EXISTS group_membership_recipient_index ON " + MEMBERSHIP_TABLE_NAME + " (" + RECIPIENT_ID + ", " + GROUP_ID + ");",
   };
 
   private static final String[] GROUP_PROJECTION = {
@@ -206,25 +227,44 @@ public final class GroupDatabase extends Database {
   public List<GroupRecord> getPushGroupsContainingMember(RecipientId recipientId) {
     SQLiteDatabase database   = databaseHelper.getReadableDatabase();
     String         table      = TABLE_NAME + " INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + TABLE_NAME + "." + RECIPIENT_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID;
-    String         query      = MEMBERS + " LIKE ? AND " + MMS + " = ?";
-    String[]       args       = new String[]{"%" + recipientId.serialize() + "%", "0"};
+    String         query      = TABLE_NAME + "." + GROUP_ID + " IN (SELECT " + GROUP_ID + " FROM " + MEMBERSHIP_TABLE_NAME + " WHERE " + RECIPIENT_ID + " = ?) AND " + MMS + " = ?";
+    String[]       args       = new String[]{recipientId.serialize(), "0"};
     String         orderBy    = ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.DATE + " DESC";
 
     List<GroupRecord> groups = new LinkedList<>();
 
     try (Cursor cursor = database.query(table, null, query, args, null, null, orderBy)) {
       while (cursor != null && cursor.moveToNext()) {
-        String serializedMembers = cursor.getString(cursor.getColumnIndexOrThrow(MEMBERS));
-
-        if (RecipientId.serializedListContains(serializedMembers, recipientId)) {
-          groups.add(new Reader(cursor).getCurrent());
-        }
+        groups.add(new Reader(cursor).getCurrent());
       }
     }
 
     return groups;
   }
 
+  /**
+   * The active groups the recipient is a member of, found through the membership table.
+   *
+   * @param includeMms Whether to include MMS groups as well as push groups.
+   */
+  @WorkerThread
+  public @NonNull List<GroupId> getActiveGroupIdsContainingMember(@NonNull RecipientId recipientId, boolean includeMms) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    String         table    = MEMBERSHIP_TABLE_NAME + " INNER JOIN " + TABLE_NAME + " ON " + MEMBERSHIP_TABLE_NAME + "." + GROUP_ID + " = " + TABLE_NAME + "." + GROUP_ID;
+    String         query    = MEMBERSHIP_TABLE_NAME + "." + RECIPIENT_ID + " = ? AND " + ACTIVE + " = ?" + (includeMms ? "" : " AND " + MMS + " = 0");
+    String[]       args     = new String[] {recipientId.serialize(), "1"};
+
+    List<GroupId> groupIds = new LinkedList<>();
+
+    try (Cursor cursor = database.query(table, new String[] {TABLE_NAME + "." + GROUP_ID}, query, args, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        groupIds.add(GroupId.parseOrThrow(cursor.getString(0)));
+      }
+    }
+
+    return groupIds;
+  }
+
   public Reader getGroups() {
     @SuppressLint("Recycle")
     Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, null, null, null, null, null, null);
@@ -285,15 +325,13 @@ public final class GroupDatabase extends Database {
                       @Nullable GroupMasterKey groupMasterKey,
                       @Nullable DecryptedGroup groupState)
   {
-    List<RecipientId> members = new ArrayList<>(new HashSet<>(memberCollection));
-
-    Collections.sort(members);
+    Map<RecipientId, Integer> memberRoles = groupState != null ? getV2MemberRoles(context, groupState) : getMemberRoles(memberCollection);
 
     ContentValues contentValues = new ContentValues();
     contentValues.put(RECIPIENT_ID, DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId).serialize());
     contentValues.put(GROUP_ID, groupId.toString());
     contentValues.put(TITLE, title);
-    contentValues.put(MEMBERS, RecipientId.toSerializedList(members));
+    contentValues.put(MEMBERS, serializeMembers(memberRoles.keySet()));
 
     if (avatar != null) {
       contentValues.put(AVATAR_ID, avatar.getRemoteId().getV2().get());
@@ -317,14 +355,22 @@ public final class GroupDatabase extends Database {
       contentValues.put(V2_MASTER_KEY, groupMasterKey.serialize());
       contentValues.put(V2_REVISION, groupState.getVersion());
       contentValues.put(V2_DECRYPTED_GROUP, groupState.toByteArray());
-      contentValues.put(MEMBERS, serializeV2GroupMembers(context, groupState));
     } else {
       if (groupId.isV2()) {
         throw new AssertionError("V2 group id but no master key");
       }
     }
 
-    databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, contentValues);
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+
+    beginTransaction(database);
+    try {
+      database.insert(TABLE_NAME, null, contentValues);
+      updateMembership(database, groupId, memberRoles);
+      database.setTransactionSuccessful();
+    } finally {
+      endTransaction(database);
+    }
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
@@ -363,17 +409,16 @@ public final class GroupDatabase extends Database {
   }
 
   public void update(@NonNull GroupId.V2 groupId, @NonNull DecryptedGroup decryptedGroup) {
-    String        title         = decryptedGroup.getTitle();
-    ContentValues contentValues = new ContentValues();
+    String                    title         = decryptedGroup.getTitle();
+    Map<RecipientId, Integer> memberRoles   = getV2MemberRoles(context, decryptedGroup);
+    ContentValues             contentValues = new ContentValues();
 
     contentValues.put(TITLE, title);
     contentValues.put(V2_REVISION, decryptedGroup.getVersion());
     contentValues.put(V2_DECRYPTED_GROUP, decryptedGroup.toByteArray());
-    contentValues.put(MEMBERS, serializeV2GroupMembers(context, decryptedGroup));
+    contentValues.put(MEMBERS, serializeMembers(memberRoles.keySet()));
 
-    databaseHelper.getWritableDatabase().update(TABLE_NAME, contentValues,
-                                                GROUP_ID + " = ?",
-                                                new String[]{ groupId.toString() });
+    updateGroupAndMembership(groupId, contentValues, memberRoles);
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
@@ -412,46 +457,39 @@ public final class GroupDatabase extends Database {
     contents.put(MEMBERS, RecipientId.toSerializedList(members));
     contents.put(ACTIVE, 1);
 
-    databaseHelper.getWritableDatabase().update(TABLE_NAME, contents, GROUP_ID + " = ?",
-                                                new String[] {groupId.toString()});
+    updateGroupAndMembership(groupId, contents, getMemberRoles(groupId, getMembershipRoles(databaseHelper.getReadableDatabase(), groupId), members));
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
   }
 
   public void remove(@NonNull GroupId groupId, RecipientId source) {
-    List<RecipientId> currentMembers = getCurrentMembers(groupId);
-    currentMembers.remove(source);
+    Map<RecipientId, Integer> memberRoles = getMembershipRoles(databaseHelper.getReadableDatabase(), groupId);
+    memberRoles.remove(source);
 
     ContentValues contents = new ContentValues();
-    contents.put(MEMBERS, RecipientId.toSerializedList(currentMembers));
+    contents.put(MEMBERS, serializeMembers(memberRoles.keySet()));
 
-    databaseHelper.getWritableDatabase().update(TABLE_NAME, contents, GROUP_ID + " = ?",
-                                                new String[] {groupId.toString()});
+    updateGroupAndMembership(groupId, contents, memberRoles);
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
   }
 
   private List<RecipientId> getCurrentMembers(@NonNull GroupId groupId) {
-    Cursor cursor = null;
+    List<RecipientId> members = new LinkedList<>();
 
-    try {
-      cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] {MEMBERS},
-                                                          GROUP_ID + " = ?",
-                                                          new String[] {groupId.toString()},
-                                                          null, null, null);
-
-      if (cursor != null && cursor.moveToFirst()) {
-        String serializedMembers = cursor.getString(cursor.getColumnIndexOrThrow(MEMBERS));
-        return RecipientId.fromSerializedList(serializedMembers);
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(MEMBERSHIP_TABLE_NAME, new String[] {RECIPIENT_ID},
+                                                                    GROUP_ID + " = ?",
+                                                                    new String[] {groupId.toString()},
+                                                                    null, null, RECIPIENT_ID))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        members.add(RecipientId.from(cursor.getLong(0)));
       }
-
-      return new LinkedList<>();
-    } finally {
-      if (cursor != null)
-        cursor.close();
     }
+
+    return members;
   }
 
   public boolean isActive(@NonNull GroupId groupId) {
@@ -470,31 +508,156 @@ public final class GroupDatabase extends Database {
   public boolean isCurrentMember(@NonNull GroupId.Push groupId, @NonNull RecipientId recipientId) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
 
-    try (Cursor cursor = database.query(TABLE_NAME, new String[] {MEMBERS},
+    try (Cursor cursor = database.query(MEMBERSHIP_TABLE_NAME, new String[] {RECIPIENT_ID},
+                                        GROUP_ID + " = ? AND " + RECIPIENT_ID + " = ?",
+                                        new String[] {groupId.toString(), recipientId.serialize()},
+                                        null, null, null, "1"))
+    {
+      return cursor != null && cursor.moveToNext();
+    }
+  }
+
+  private void updateGroupAndMembership(@NonNull GroupId groupId, @NonNull ContentValues contentValues, @NonNull Map<RecipientId, Integer> memberRoles) {
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+
+    beginTransaction(database);
+    try {
+      database.update(TABLE_NAME, contentValues, GROUP_ID + " = ?", new String[] {groupId.toString()});
+      updateMembership(database, groupId, memberRoles);
+      database.setTransactionSuccessful();
+    } finally {
+      endTransaction(database);
+    }
+  }
+
+  /**
+   * Brings the membership rows for a group in line with the given members, only touching the rows
+   * that differ, so that re-saving a large group with few changes stays cheap.
+   */
+  private static void updateMembership(@NonNull SQLiteDatabase database, @NonNull GroupId groupId, @NonNull Map<RecipientId, Integer> memberRoles) {
+    String           group   = groupId.toString();
+    MembershipChange changes = MembershipChange.between(getMembershipRoles(database, groupId), memberRoles);
+
+    for (RecipientId recipientId : changes.getRemoved()) {
+      database.delete(MEMBERSHIP_TABLE_NAME, GROUP_ID + " = ? AND " + RECIPIENT_ID + " = ?", new String[] {group, recipientId.serialize()});
+    }
+
+    for (Map.Entry<RecipientId, Integer> member : changes.getWritten().entrySet()) {
+      ContentValues values = new ContentValues(3);
+      values.put(GROUP_ID, group);
+      values.put(RECIPIENT_ID, member.getKey().toLong());
+      values.put(ROLE, member.getValue());
+
+      database.insert(MEMBERSHIP_TABLE_NAME, null, values);
+    }
+  }
+
+  private static @NonNull Map<RecipientId, Integer> getMembershipRoles(@NonNull SQLiteDatabase database, @NonNull GroupId groupId) {
+    Map<RecipientId, Integer> roles = new HashMap<>();
+
+    try (Cursor cursor = database.query(MEMBERSHIP_TABLE_NAME, new String[] {RECIPIENT_ID, ROLE},
                                         GROUP_ID + " = ?", new String[] {groupId.toString()},
                                         null, null, null))
     {
-      if (cursor.moveToNext()) {
-        String serializedMembers = cursor.getString(cursor.getColumnIndexOrThrow(MEMBERS));
-        return RecipientId.serializedListContains(serializedMembers, recipientId);
-      } else {
-        return false;
+      while (cursor != null && cursor.moveToNext()) {
+        roles.put(RecipientId.from(cursor.getLong(0)), cursor.getInt(1));
       }
     }
+
+    return roles;
   }
 
-  private static String serializeV2GroupMembers(@NonNull Context context, @NonNull DecryptedGroup decryptedGroup) {
-    List<RecipientId> groupMembers  = new ArrayList<>(decryptedGroup.getMembersCount());
+  private static Map<RecipientId, Integer> getMemberRoles(@NonNull Collection<RecipientId> members) {
+    Map<RecipientId, Integer> roles = new HashMap<>(members.size());
+
+    for (RecipientId member : members) {
+      roles.put(member, ROLE_DEFAULT);
+    }
+
+    return roles;
+  }
+
+  /**
+   * Roles for a new member list when the caller only knows who the members are. Members of a V2
+   * group keep the role they already had, and everyone else has the default role, which is the
+   * only one V1 and MMS groups use.
+   */
+  @VisibleForTesting
+  static @NonNull Map<RecipientId, Integer> getMemberRoles(@NonNull GroupId groupId,
+                                                           @NonNull Map<RecipientId, Integer> existing,
+                                                           @NonNull Collection<RecipientId> members)
+  {
+    Map<RecipientId, Integer> roles = getMemberRoles(members);
+
+    if (groupId.isV2()) {
+      for (RecipientId member : members) {
+        Integer role = existing.get(member);
+        if (role != null) roles.put(member, role);
+      }
+    }
+
+    return roles;
+  }
+
+  private static Map<RecipientId, Integer> getV2MemberRoles(@NonNull Context context, @NonNull DecryptedGroup decryptedGroup) {
+    Map<RecipientId, Integer> roles = new HashMap<>(decryptedGroup.getMembersCount());
 
     for (DecryptedMember member : decryptedGroup.getMembersList()) {
       Recipient recipient = Recipient.externalPush(context, new SignalServiceAddress(UuidUtil.fromByteString(member.getUuid()), null));
 
-      groupMembers.add(recipient.getId());
+      roles.put(recipient.getId(), member.getRole() == Member.Role.ADMINISTRATOR ? ROLE_ADMINISTRATOR : ROLE_DEFAULT);
+    }
+
+    return roles;
+  }
+
+  private static String serializeMembers(@NonNull Collection<RecipientId> members) {
+    List<RecipientId> sorted = new ArrayList<>(members);
+
+    Collections.sort(sorted);
+
+    return RecipientId.toSerializedList(sorted);
+  }
+
+  /**
+   * The membership rows to delete and to write to go from one set of member roles to another.
+   */
+  @VisibleForTesting
+  static final class MembershipChange {
+    private final Set<RecipientId>          removed;
+    private final Map<RecipientId, Integer> written;
+
+    private MembershipChange(@NonNull Set<RecipientId> removed, @NonNull Map<RecipientId, Integer> written) {
+      this.removed = removed;
+      this.written = written;
+    }
+
+    static @NonNull MembershipChange between(@NonNull Map<RecipientId, Integer> existing, @NonNull Map<RecipientId, Integer> memberRoles) {
+      Set<RecipientId>          removed = new HashSet<>();
+      Map<RecipientId, Integer> written = new HashMap<>();
+
+      for (RecipientId recipientId : existing.keySet()) {
+        if (!memberRoles.containsKey(recipientId)) {
+          removed.add(recipientId);
+        }
+      }
+
+      for (Map.Entry<RecipientId, Integer> member : memberRoles.entrySet()) {
+        if (!member.getValue().equals(existing.get(member.getKey()))) {
+          written.put(member.getKey(), member.getValue());
+        }
+      }
+
+      return new MembershipChange(removed, written);
     }
 
-    Collections.sort(groupMembers);
+    @NonNull Set<RecipientId> getRemoved() {
+      return removed;
+    }
 
-    return RecipientId.toSerializedList(groupMembers);
+    @NonNull Map<RecipientId, Integer> getWritten() {
+      return written;
+    }
   }
 
   public static class Reader implements Closeable {
@@ -29,6 +29,7 @@ import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.Base64;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.whispersystems.libsignal.IdentityKey;
 import org.whispersystems.libsignal.InvalidKeyException;
 import org.whispersystems.libsignal.util.guava.Optional;
@@ -76,6 +77,16 @@ public class IdentityDatabase extends Database {
     }
   }
 
+  private static final int CACHE_SIZE = 500;
+
+  /**
+   * Identities by recipient, including the recipients we know have none. Every write in this class
+   * updates or drops its entry, and a read that raced a write doesn't populate the cache.
+   */
+  private final LRUCache<RecipientId, Optional<IdentityRecord>> cache = new LRUCache<>(CACHE_SIZE);
+
+  private long cacheVersion;
+
   IdentityDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -91,15 +102,25 @@ public class IdentityDatabase extends Database {
   }
 
   public Optional<IdentityRecord> getIdentity(@NonNull RecipientId recipientId) {
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
-    Cursor         cursor   = null;
+    long cacheVersion;
+
+    synchronized (cache) {
+      Optional<IdentityRecord> cached = cache.get(recipientId);
+      if (cached != null) return cached;
+
+      cacheVersion = this.cacheVersion;
+    }
+
+    Optional<IdentityRecord> record   = Optional.absent();
+    SQLiteDatabase           database = databaseHelper.getReadableDatabase();
+    Cursor                   cursor   = null;
 
     try {
       cursor = database.query(TABLE_NAME, null, RECIPIENT_ID + " = ?",
                               new String[] {recipientId.serialize()}, null, null, null);
 
       if (cursor != null && cursor.moveToFirst()) {
-        return Optional.of(getIdentityRecord(cursor));
+        record = Optional.of(getIdentityRecord(cursor));
       }
     } catch (InvalidKeyException | IOException e) {
       throw new AssertionError(e);
@@ -107,7 +128,13 @@ public class IdentityDatabase extends Database {
       if (cursor != null) cursor.close();
     }
 
-    return Optional.absent();
+    synchronized (cache) {
+      if (cacheVersion == this.cacheVersion) {
+        cache.put(recipientId, record);
+      }
+    }
+
+    return record;
   }
 
   public void saveIdentity(@NonNull RecipientId recipientId, IdentityKey identityKey, VerifiedStatus verifiedStatus,
@@ -124,6 +151,7 @@ public class IdentityDatabase extends Database {
     contentValues.put(NONBLOCKING_APPROVAL, nonBlockingApproval);
 
     database.update(TABLE_NAME, contentValues, RECIPIENT_ID + " = ?", new String[] {recipientId.serialize()});
+    invalidate(recipientId);
 
     DatabaseFactory.getRecipientDatabase(context).markDirty(recipientId, RecipientDatabase.DirtyState.UPDATE);
   }
@@ -138,6 +166,8 @@ public class IdentityDatabase extends Database {
                                   new String[] {recipientId.serialize(), Base64.encodeBytes(identityKey.serialize())});
 
     if (updated > 0) {
+      invalidate(recipientId);
+
       Optional<IdentityRecord> record = getIdentity(recipientId);
       if (record.isPresent()) EventBus.getDefault().post(record.get());
       DatabaseFactory.getRecipientDatabase(context).markDirty(recipientId, RecipientDatabase.DirtyState.UPDATE);
@@ -190,8 +220,21 @@ public class IdentityDatabase extends Database {
 
     database.replace(TABLE_NAME, null, contentValues);
 
-    EventBus.getDefault().post(new IdentityRecord(recipientId, identityKey, verifiedStatus,
-        firstUse, timestamp, nonBlockingApproval));
+    IdentityRecord record = new IdentityRecord(recipientId, identityKey, verifiedStatus, firstUse, timestamp, nonBlockingApproval);
+
+    synchronized (cache) {
+      cache.put(recipientId, Optional.of(record));
+      cacheVersion++;
+    }
+
+    EventBus.getDefault().post(record);
+  }
+
+  private void invalidate(@NonNull RecipientId recipientId) {
+    synchronized (cache) {
+      cache.remove(recipientId);
+      cacheVersion++;
+    }
   }
 
   public static class IdentityRecord {
@@ -4,6 +4,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
@@ -89,6 +90,13 @@ public class JobDatabase extends Database {
   }
 
   public synchronized void insertJobs(@NonNull List<FullSpec> fullSpecs) {
+    insertJobs(fullSpecs, null);
+  }
+
+  /**
+   * @param inTransaction Run in the same transaction as the inserts, so that it commits with them.
+   */
+  public synchronized void insertJobs(@NonNull List<FullSpec> fullSpecs, @Nullable Runnable inTransaction) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
     db.beginTransaction();
@@ -100,6 +108,10 @@ public class JobDatabase extends Database {
         insertDependencySpecs(db, fullSpec.getDependencySpecs());
       }
 
+      if (inTransaction != null) {
+        inTransaction.run();
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -6,9 +6,9 @@ import android.database.Cursor;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
-import com.google.protobuf.InvalidProtocolBufferException;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
@@ -16,26 +16,38 @@ import org.thoughtcrime.securesms.database.documents.Document;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatch;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
-import org.thoughtcrime.securesms.database.model.databaseprotos.ReactionList;
 import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.insights.InsightsConstants;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.JsonUtils;
+import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.IdentityKey;
-import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 public abstract class MessagingDatabase extends Database implements MmsSmsColumns {
 
   private static final String TAG = MessagingDatabase.class.getSimpleName();
 
+  @VisibleForTesting static final int MAX_TIMESTAMPS_PER_QUERY = 500;
+
+  /**
+   * Delivery receipts that arrived before the message they refer to was stored. Shared by both
+   * message tables, and drained by whichever one inserts the outgoing message.
+   */
+  protected static final EarlyReceiptCache earlyDeliveryReceiptCache = new EarlyReceiptCache("Delivery");
+
   public MessagingDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -163,64 +175,40 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
   public void addReaction(long messageId, @NonNull ReactionRecord reaction) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-    db.beginTransaction();
+    beginTransaction(db);
 
     try {
-      ReactionList          reactions   = getReactions(db, messageId).or(ReactionList.getDefaultInstance());
-      ReactionList.Reaction newReaction = ReactionList.Reaction.newBuilder()
-                                                               .setEmoji(reaction.getEmoji())
-                                                               .setAuthor(reaction.getAuthor().toLong())
-                                                               .setSentTime(reaction.getDateSent())
-                                                               .setReceivedTime(reaction.getDateReceived())
-                                                               .build();
-
-      ReactionList updatedList = pruneByAuthor(reactions, reaction.getAuthor()).toBuilder()
-                                                                               .addReactions(newReaction)
-                                                                               .build();
-
-      setReactions(db, messageId, updatedList);
+      DatabaseFactory.getReactionDatabase(context).addReaction(messageId, isMms(), reaction);
+      setReactionsUnread(db, messageId, true);
 
       db.setTransactionSuccessful();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
 
     notifyConversationListeners(getThreadId(db, messageId));
   }
 
   public void deleteReaction(long messageId, @NonNull RecipientId author) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    SQLiteDatabase   db        = databaseHelper.getWritableDatabase();
+    ReactionDatabase reactions = DatabaseFactory.getReactionDatabase(context);
 
-    db.beginTransaction();
+    beginTransaction(db);
 
     try {
-      ReactionList reactions   = getReactions(db, messageId).or(ReactionList.getDefaultInstance());
-      ReactionList updatedList = pruneByAuthor(reactions, author);
-
-      setReactions(db, messageId, updatedList);
+      reactions.deleteReaction(messageId, isMms(), author);
+      setReactionsUnread(db, messageId, reactions.hasReactions(messageId, isMms()));
 
       db.setTransactionSuccessful();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
 
     notifyConversationListeners(getThreadId(db, messageId));
   }
 
   public boolean hasReaction(long messageId, @NonNull ReactionRecord reactionRecord) {
-    SQLiteDatabase db = databaseHelper.getReadableDatabase();
-
-    ReactionList reactions = getReactions(db, messageId).or(ReactionList.getDefaultInstance());
-
-    for (ReactionList.Reaction reaction : reactions.getReactionsList()) {
-      if (reactionRecord.getAuthor().toLong() == reaction.getAuthor() &&
-          reactionRecord.getEmoji().equals(reaction.getEmoji()))
-      {
-        return true;
-      }
-    }
-
-    return false;
+    return DatabaseFactory.getReactionDatabase(context).hasReaction(messageId, isMms(), reactionRecord);
   }
 
   public void addMismatchedIdentity(long messageId, @NonNull RecipientId recipientId, IdentityKey identityKey) {
@@ -243,31 +231,115 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
     }
   }
 
-  protected List<ReactionRecord> parseReactions(@NonNull Cursor cursor) {
-    byte[] raw = cursor.getBlob(cursor.getColumnIndexOrThrow(REACTIONS));
+  protected boolean isUnread(long messageId) {
+    String[] projection = new String[] { READ };
 
-    if (raw != null) {
-      try {
-        return Stream.of(ReactionList.parseFrom(raw).getReactionsList())
-                     .map(r -> {
-                       return new ReactionRecord(r.getEmoji(),
-                                                 RecipientId.from(r.getAuthor()),
-                                                 r.getSentTime(),
-                                                 r.getReceivedTime());
-                     })
-                     .toList();
-      } catch (InvalidProtocolBufferException e) {
-        Log.w(TAG, "[parseReactions] Failed to parse reaction list!", e);
-        return Collections.emptyList();
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(getTableName(), projection, ID_WHERE, new String[] { String.valueOf(messageId) }, null, null, null)) {
+      return cursor != null && cursor.moveToFirst() && cursor.getInt(0) == 0;
+    }
+  }
+
+  /**
+   * Applies a batch of receipts to the outgoing messages they refer to, looking the messages up by
+   * sent timestamp in chunks and updating each message once, however many receipts it received.
+   * Must be called inside a transaction.
+   *
+   * @param matched Set to true at the index of every receipt that matched a message.
+   * @return The IDs of the messages that were updated, keyed by thread ID.
+   */
+  @NonNull Map<Long, Set<Long>> incrementReceiptCounts(@NonNull List<Receipt> receipts, boolean deliveryReceipt, @NonNull boolean[] matched) {
+    SQLiteDatabase           database    = databaseHelper.getWritableDatabase();
+    String                   columnName  = deliveryReceipt ? DELIVERY_RECEIPT_COUNT : READ_RECEIPT_COUNT;
+    String[]                 projection  = new String[] { ID, THREAD_ID, RECIPIENT_ID, getTypeField(), getDateSentColumnName() };
+    Map<Long, List<Integer>> byTimestamp = new HashMap<>();
+    Map<Long, Integer>       increments  = new HashMap<>();
+    Map<Long, Set<Long>>     updated     = new HashMap<>();
+
+    for (int i = 0; i < receipts.size(); i++) {
+      long          sentTimestamp = receipts.get(i).getMessageId().getTimetamp();
+      List<Integer> indexes       = byTimestamp.get(sentTimestamp);
+
+      if (indexes == null) {
+        indexes = new LinkedList<>();
+        byTimestamp.put(sentTimestamp, indexes);
       }
-    } else {
-      return Collections.emptyList();
+
+      indexes.add(i);
+    }
+
+    for (List<Long> timestamps : Util.chunk(new ArrayList<>(byTimestamp.keySet()), MAX_TIMESTAMPS_PER_QUERY)) {
+      String   selection = getDateSentColumnName() + " IN (" + TextUtils.join(", ", Collections.nCopies(timestamps.size(), "?")) + ")";
+      String[] args      = Stream.of(timestamps).map(String::valueOf).toArray(String[]::new);
+
+      try (Cursor cursor = database.query(getTableName(), projection, selection, args, null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          if (!Types.isOutgoingMessageType(cursor.getLong(3))) {
+            continue;
+          }
+
+          long          id          = cursor.getLong(0);
+          long          threadId    = cursor.getLong(1);
+          RecipientId   recipientId = RecipientId.from(cursor.getLong(2));
+          List<Integer> indexes     = byTimestamp.get(cursor.getLong(4));
+
+          if (indexes == null) {
+            continue;
+          }
+
+          for (int index : indexes) {
+            Receipt receipt = receipts.get(index);
+
+            if (!isReceiptForMessage(receipt.getMessageId().getRecipientId(), recipientId)) {
+              continue;
+            }
+
+            Integer   count      = increments.get(id);
+            Set<Long> messageIds = updated.get(threadId);
+
+            if (messageIds == null) {
+              messageIds = new HashSet<>();
+              updated.put(threadId, messageIds);
+            }
+
+            matched[index] = true;
+            increments.put(id, count != null ? count + 1 : 1);
+            messageIds.add(id);
+            onReceiptApplied(id, receipt, deliveryReceipt);
+          }
+        }
+      }
+    }
+
+    for (Map.Entry<Long, Integer> increment : increments.entrySet()) {
+      database.execSQL("UPDATE " + getTableName() + " SET " + columnName + " = " + columnName + " + ? WHERE " + ID + " = ?",
+                       new Object[] { increment.getValue(), increment.getKey() });
     }
+
+    return updated;
+  }
+
+  /**
+   * @return True if a receipt from the sender should count towards an outgoing message sent to the
+   *         given recipient.
+   */
+  protected boolean isReceiptForMessage(@NonNull RecipientId sender, @NonNull RecipientId messageRecipient) {
+    return sender.equals(messageRecipient);
+  }
+
+  /**
+   * Called for each receipt applied by {@link #incrementReceiptCounts(List, boolean, boolean[])},
+   * inside its transaction.
+   */
+  protected void onReceiptApplied(long messageId, @NonNull Receipt receipt, boolean deliveryReceipt) {
+  }
+
+  protected List<ReactionRecord> parseReactions(@NonNull Cursor cursor) {
+    return ReactionDatabase.parseReactions(cursor.getString(cursor.getColumnIndexOrThrow(REACTIONS)));
   }
 
   protected <D extends Document<I>, I> void removeFromDocument(long messageId, String column, I object, Class<D> clazz) throws IOException {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    beginTransaction(database);
 
     try {
       D           document = getDocument(database, messageId, column, clazz);
@@ -285,7 +357,7 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
       setDocument(database, messageId, column, document);
       database.setTransactionSuccessful();
     } finally {
-      database.endTransaction();
+      endTransaction(database);
     }
   }
 
@@ -299,7 +371,7 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
 
   protected <T extends Document<I>, I> void addToDocument(long messageId, String column, List<I> objects, Class<T> clazz) throws IOException {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    beginTransaction(database);
 
     try {
       T document = getDocument(database, messageId, column, clazz);
@@ -308,7 +380,7 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
 
       database.setTransactionSuccessful();
     } finally {
-      database.endTransaction();
+      endTransaction(database);
     }
   }
 
@@ -360,42 +432,9 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
     }
   }
 
-  private static @NonNull ReactionList pruneByAuthor(@NonNull ReactionList reactionList, @NonNull RecipientId recipientId) {
-    List<ReactionList.Reaction> pruned = Stream.of(reactionList.getReactionsList())
-                                               .filterNot(r -> r.getAuthor() == recipientId.toLong())
-                                               .toList();
-
-    return reactionList.toBuilder()
-                       .clearReactions()
-                       .addAllReactions(pruned)
-                       .build();
-  }
-
-  private @NonNull Optional<ReactionList> getReactions(SQLiteDatabase db, long messageId) {
-    String[] projection = new String[]{ REACTIONS };
-    String   query      = ID + " = ?";
-    String[] args       = new String[]{String.valueOf(messageId)};
+  private void setReactionsUnread(@NonNull SQLiteDatabase db, long messageId, boolean hasReactions) {
+    ContentValues values = new ContentValues(2);
 
-    try (Cursor cursor = db.query(getTableName(), projection, query, args, null, null, null)) {
-      if (cursor != null && cursor.moveToFirst()) {
-        byte[] raw = cursor.getBlob(cursor.getColumnIndexOrThrow(REACTIONS));
-
-        if (raw != null) {
-          return Optional.of(ReactionList.parseFrom(raw));
-        }
-      }
-    } catch (InvalidProtocolBufferException e) {
-      Log.w(TAG, "[getRecipients] Failed to parse reaction list!", e);
-    }
-
-    return Optional.absent();
-  }
-
-  private void setReactions(@NonNull SQLiteDatabase db, long messageId, @NonNull ReactionList reactionList) {
-    ContentValues values       = new ContentValues(1);
-    boolean       hasReactions = reactionList.getReactionsCount() != 0;
-
-    values.put(REACTIONS, reactionList.getReactionsList().isEmpty() ? null : reactionList.toByteArray());
     values.put(REACTIONS_UNREAD, hasReactions ? 1 : 0);
 
     if (hasReactions) {
@@ -408,6 +447,10 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
     db.update(getTableName(), values, query, args);
   }
 
+  private boolean isMms() {
+    return MmsDatabase.TABLE_NAME.equals(getTableName());
+  }
+
   private long getThreadId(@NonNull SQLiteDatabase db, long messageId) {
     String[] projection = new String[]{ THREAD_ID };
     String   query      = ID + " = ?";
@@ -441,6 +484,29 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
     }
   }
 
+  public static class Receipt {
+
+    private final SyncMessageId messageId;
+    private final long          timestamp;
+
+    /**
+     * @param messageId The message the receipt is for.
+     * @param timestamp When the receipt was sent.
+     */
+    public Receipt(@NonNull SyncMessageId messageId, long timestamp) {
+      this.messageId = messageId;
+      this.timestamp = timestamp;
+    }
+
+    public @NonNull SyncMessageId getMessageId() {
+      return messageId;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+  }
+
   public static class ExpirationInfo {
 
     private final long    id;
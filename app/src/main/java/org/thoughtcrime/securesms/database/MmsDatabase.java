@@ -193,7 +193,7 @@ public class MmsDatabase extends MessagingDatabase {
       BODY, PART_COUNT, RECIPIENT_ID, ADDRESS_DEVICE_ID,
       DELIVERY_RECEIPT_COUNT, READ_RECEIPT_COUNT, MISMATCHED_IDENTITIES, NETWORK_FAILURE, SUBSCRIPTION_ID,
       EXPIRES_IN, EXPIRE_STARTED, NOTIFIED, QUOTE_ID, QUOTE_AUTHOR, QUOTE_BODY, QUOTE_ATTACHMENT, QUOTE_MISSING,
-      SHARED_CONTACTS, LINK_PREVIEWS, UNIDENTIFIED, VIEW_ONCE, REACTIONS, REACTIONS_UNREAD, REACTIONS_LAST_SEEN,
+      SHARED_CONTACTS, LINK_PREVIEWS, UNIDENTIFIED, VIEW_ONCE, ReactionDatabase.getReactionsProjection(TABLE_NAME + "." + ID, true), REACTIONS_UNREAD, REACTIONS_LAST_SEEN,
       REMOTE_DELETED,
       "json_group_array(json_object(" +
           "'" + AttachmentDatabase.ROW_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + ", " +
@@ -230,8 +230,6 @@ public class MmsDatabase extends MessagingDatabase {
   private static final String OUTGOING_INSECURE_MESSAGES_CLAUSE = "(" + MESSAGE_BOX + " & " + Types.BASE_TYPE_MASK + ") = " + Types.BASE_SENT_TYPE + " AND NOT (" + MESSAGE_BOX + " & " + Types.SECURE_MESSAGE_BIT + ")";
   private static final String OUTGOING_SECURE_MESSAGES_CLAUSE   = "(" + MESSAGE_BOX + " & " + Types.BASE_TYPE_MASK + ") = " + Types.BASE_SENT_TYPE + " AND (" + MESSAGE_BOX + " & " + (Types.SECURE_MESSAGE_BIT | Types.PUSH_MESSAGE_BIT) + ")";
 
-  private final EarlyReceiptCache earlyDeliveryReceiptCache = new EarlyReceiptCache("MmsDelivery");
-
   public MmsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -335,48 +333,15 @@ public class MmsDatabase extends MessagingDatabase {
     }
   }
 
-  public boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, boolean deliveryReceipt) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor         cursor   = null;
-    boolean        found    = false;
-
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, MESSAGE_BOX, RECIPIENT_ID}, DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())}, null, null, null, null);
-
-      while (cursor.moveToNext()) {
-        if (Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(MESSAGE_BOX)))) {
-          RecipientId theirRecipientId = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID)));
-          RecipientId ourRecipientId   = messageId.getRecipientId();
-          String      columnName       = deliveryReceipt ? DELIVERY_RECEIPT_COUNT : READ_RECEIPT_COUNT;
-
-          if (ourRecipientId.equals(theirRecipientId) || Recipient.resolved(theirRecipientId).isGroup()) {
-            long id       = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
-            long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
-            int  status   = deliveryReceipt ? GroupReceiptDatabase.STATUS_DELIVERED : GroupReceiptDatabase.STATUS_READ;
-
-            found = true;
-
-            database.execSQL("UPDATE " + TABLE_NAME + " SET " +
-                             columnName + " = " + columnName + " + 1 WHERE " + ID + " = ?",
-                             new String[] {String.valueOf(id)});
-
-            DatabaseFactory.getGroupReceiptDatabase(context).update(ourRecipientId, id, status, timestamp);
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-            notifyConversationListeners(threadId);
-          }
-        }
-      }
-
-      if (!found && deliveryReceipt) {
-        earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
-        return true;
-      }
+  @Override
+  protected boolean isReceiptForMessage(@NonNull RecipientId sender, @NonNull RecipientId messageRecipient) {
+    return sender.equals(messageRecipient) || Recipient.resolved(messageRecipient).isGroup();
+  }
 
-      return found;
-    } finally {
-      if (cursor != null)
-        cursor.close();
-    }
+  @Override
+  protected void onReceiptApplied(long messageId, @NonNull Receipt receipt, boolean deliveryReceipt) {
+    int status = deliveryReceipt ? GroupReceiptDatabase.STATUS_DELIVERED : GroupReceiptDatabase.STATUS_READ;
+    DatabaseFactory.getGroupReceiptDatabase(context).update(receipt.getMessageId().getRecipientId(), messageId, status, receipt.getTimestamp());
   }
 
   public long getThreadIdForMessage(long id) {
@@ -455,7 +420,7 @@ public class MmsDatabase extends MessagingDatabase {
                    " WHERE " + ID + " = ?", new String[] {id + ""});
 
     if (threadId.isPresent()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId.get(), false);
+      DatabaseFactory.getThreadDatabase(context).updateForChangedMessage(threadId.get(), id, true, false);
     }
   }
 
@@ -509,13 +474,14 @@ public class MmsDatabase extends MessagingDatabase {
     values.putNull(QUOTE_ID);
     values.putNull(LINK_PREVIEWS);
     values.putNull(SHARED_CONTACTS);
-    values.putNull(REACTIONS);
     db.update(TABLE_NAME, values, ID_WHERE, new String[] { String.valueOf(messageId) });
 
+    DatabaseFactory.getReactionDatabase(context).deleteReactions(messageId, true);
+
     DatabaseFactory.getAttachmentDatabase(context).deleteAttachmentsForMessage(messageId);
 
     long threadId = getThreadIdForMessage(messageId);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChangedMessage(threadId, messageId, true, false);
     notifyConversationListeners(threadId);
   }
 
@@ -614,7 +580,7 @@ public class MmsDatabase extends MessagingDatabase {
     List<MarkedMessageInfo> result   = new LinkedList<>();
     Cursor                  cursor   = null;
 
-    database.beginTransaction();
+    beginTransaction(database);
 
     try {
       cursor = database.query(TABLE_NAME, new String[] {ID, RECIPIENT_ID, DATE_SENT, MESSAGE_BOX, EXPIRES_IN, EXPIRE_STARTED, THREAD_ID}, where, arguments, null, null, null);
@@ -641,7 +607,7 @@ public class MmsDatabase extends MessagingDatabase {
       database.setTransactionSuccessful();
     } finally {
       if (cursor != null) cursor.close();
-      database.endTransaction();
+      endTransaction(database);
     }
 
     return result;
@@ -730,7 +696,7 @@ public class MmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForChangedMessage(threadId, messageId, true, true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
 
@@ -972,7 +938,7 @@ public class MmsDatabase extends MessagingDatabase {
 
     if (!Types.isExpirationTimerUpdate(mailbox)) {
       DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+      notifyConversationListListeners();
     }
 
     notifyConversationListeners(threadId);
@@ -1179,9 +1145,11 @@ public class MmsDatabase extends MessagingDatabase {
     contentValues.put(BODY, body);
     contentValues.put(PART_COUNT, allAttachments.size());
 
-    db.beginTransaction();
+    long messageId = -1;
+
+    beginTransaction(db);
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      messageId = db.insert(TABLE_NAME, null, contentValues);
 
       Map<Attachment, AttachmentId> insertedAttachments = partsDatabase.insertAttachmentsForMessage(messageId, allAttachments, quoteAttachments);
       String                        serializedContacts  = getSerializedSharedContacts(insertedAttachments, sharedContacts);
@@ -1214,14 +1182,19 @@ public class MmsDatabase extends MessagingDatabase {
       db.setTransactionSuccessful();
       return messageId;
     } finally {
-      db.endTransaction();
+      endTransaction(db);
 
       if (insertListener != null) {
         insertListener.onComplete();
       }
 
       notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
-      DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
+
+      if (messageId != -1) {
+        DatabaseFactory.getThreadDatabase(context).updateForInsertedMessage(contentValues.getAsLong(THREAD_ID), messageId, true, true);
+      } else {
+        DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
+      }
     }
   }
 
@@ -1233,9 +1206,10 @@ public class MmsDatabase extends MessagingDatabase {
     GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
     groupReceiptDatabase.deleteRowsForMessage(messageId);
 
+    boolean        unread   = isUnread(messageId);
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDeletedMessage(threadId, messageId, true, unread);
     notifyConversationListeners(threadId);
     notifyStickerListeners();
     notifyStickerPackListeners();
@@ -1428,7 +1402,7 @@ public class MmsDatabase extends MessagingDatabase {
   }
 
   public void beginTransaction() {
-    databaseHelper.getWritableDatabase().beginTransaction();
+    beginTransaction(databaseHelper.getWritableDatabase());
   }
 
   public void setTransactionSuccessful() {
@@ -1436,7 +1410,7 @@ public class MmsDatabase extends MessagingDatabase {
   }
 
   public void endTransaction() {
-    databaseHelper.getWritableDatabase().endTransaction();
+    endTransaction(databaseHelper.getWritableDatabase());
   }
 
   public Reader readerFor(Cursor cursor) {
@@ -25,6 +25,7 @@ import androidx.annotation.Nullable;
 import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteQueryBuilder;
 
+import org.thoughtcrime.securesms.database.MessagingDatabase.Receipt;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
@@ -33,7 +34,11 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.whispersystems.libsignal.util.Pair;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
@@ -45,6 +50,9 @@ public class MmsSmsDatabase extends Database {
   public static final String MMS_TRANSPORT = "mms";
   public static final String SMS_TRANSPORT = "sms";
 
+  private static final String MMS_REACTIONS = ReactionDatabase.getReactionsProjection(MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID, true);
+  private static final String SMS_REACTIONS = ReactionDatabase.getReactionsProjection(SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID, false);
+
   private static final String[] PROJECTION = {MmsSmsColumns.ID,
                                               MmsSmsColumns.UNIQUE_ROW_ID,
                                               SmsDatabase.BODY,
@@ -269,17 +277,65 @@ public class MmsSmsDatabase extends Database {
   }
 
   public void incrementDeliveryReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, true);
-    DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, true);
+    incrementReceiptCounts(Collections.singletonList(new Receipt(syncMessageId, timestamp)), true);
   }
 
   public boolean incrementReadReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    boolean handled  = false;
+    return incrementReceiptCounts(Collections.singletonList(new Receipt(syncMessageId, timestamp)), false).isEmpty();
+  }
+
+  /**
+   * Applies a batch of receipts to both message tables in one transaction, then updates and notifies
+   * each affected thread once. Delivery receipts that don't match a message yet are held until the
+   * message is inserted.
+   *
+   * @return The read receipts that didn't match any message.
+   */
+  public @NonNull List<Receipt> incrementReceiptCounts(@NonNull List<Receipt> receipts, boolean deliveryReceipt) {
+    SQLiteDatabase       db        = databaseHelper.getWritableDatabase();
+    boolean[]            matched   = new boolean[receipts.size()];
+    Set<Long>            threadIds = new HashSet<>();
+    Map<Long, Set<Long>> smsUpdates;
+    Map<Long, Set<Long>> mmsUpdates;
+
+    beginTransaction(db);
+    try {
+      smsUpdates = DatabaseFactory.getSmsDatabase(context).incrementReceiptCounts(receipts, deliveryReceipt, matched);
+      mmsUpdates = DatabaseFactory.getMmsDatabase(context).incrementReceiptCounts(receipts, deliveryReceipt, matched);
+
+      threadIds.addAll(smsUpdates.keySet());
+      threadIds.addAll(mmsUpdates.keySet());
+
+      ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
+
+      for (long threadId : threadIds) {
+        Set<Long> smsIds = smsUpdates.get(threadId);
+        Set<Long> mmsIds = mmsUpdates.get(threadId);
 
-    handled |= DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, false);
-    handled |= DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, false);
+        threadDatabase.updateForChangedMessages(threadId,
+                                                smsIds != null ? smsIds : Collections.emptySet(),
+                                                mmsIds != null ? mmsIds : Collections.emptySet());
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      endTransaction(db);
+    }
+
+    notifyConversationListeners(threadIds);
+
+    List<Receipt> unmatched = new LinkedList<>();
+
+    for (int i = 0; i < receipts.size(); i++) {
+      if (matched[i]) continue;
+
+      SyncMessageId messageId = receipts.get(i).getMessageId();
+
+      if (deliveryReceipt) MessagingDatabase.earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
+      else                 unmatched.add(receipts.get(i));
+    }
 
-    return handled;
+    return unmatched;
   }
 
   public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
@@ -398,7 +454,7 @@ public class MmsSmsDatabase extends Database {
                               MmsDatabase.SHARED_CONTACTS,
                               MmsDatabase.LINK_PREVIEWS,
                               MmsDatabase.VIEW_ONCE,
-                              MmsDatabase.REACTIONS,
+                              MMS_REACTIONS,
                               MmsSmsColumns.REACTIONS_UNREAD,
                               MmsSmsColumns.REACTIONS_LAST_SEEN,
                               MmsSmsColumns.DATE_SERVER,
@@ -430,7 +486,7 @@ public class MmsSmsDatabase extends Database {
                               MmsDatabase.SHARED_CONTACTS,
                               MmsDatabase.LINK_PREVIEWS,
                               MmsDatabase.VIEW_ONCE,
-                              MmsDatabase.REACTIONS,
+                              SMS_REACTIONS,
                               MmsSmsColumns.REACTIONS_UNREAD,
                               MmsSmsColumns.REACTIONS_LAST_SEEN,
                               MmsSmsColumns.DATE_SERVER,
@@ -483,7 +539,7 @@ public class MmsSmsDatabase extends Database {
     mmsColumnsPresent.add(MmsDatabase.SHARED_CONTACTS);
     mmsColumnsPresent.add(MmsDatabase.LINK_PREVIEWS);
     mmsColumnsPresent.add(MmsDatabase.VIEW_ONCE);
-    mmsColumnsPresent.add(MmsDatabase.REACTIONS);
+    mmsColumnsPresent.add(MMS_REACTIONS);
     mmsColumnsPresent.add(MmsDatabase.REACTIONS_UNREAD);
     mmsColumnsPresent.add(MmsDatabase.REACTIONS_LAST_SEEN);
     mmsColumnsPresent.add(MmsDatabase.REMOTE_DELETED);
@@ -509,7 +565,7 @@ public class MmsSmsDatabase extends Database {
     smsColumnsPresent.add(SmsDatabase.DATE_SERVER);
     smsColumnsPresent.add(SmsDatabase.STATUS);
     smsColumnsPresent.add(SmsDatabase.UNIDENTIFIED);
-    smsColumnsPresent.add(SmsDatabase.REACTIONS);
+    smsColumnsPresent.add(SMS_REACTIONS);
     smsColumnsPresent.add(SmsDatabase.REACTIONS_UNREAD);
     smsColumnsPresent.add(SmsDatabase.REACTIONS_LAST_SEEN);
     smsColumnsPresent.add(MmsDatabase.REMOTE_DELETED);
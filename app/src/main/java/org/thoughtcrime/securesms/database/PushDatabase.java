@@ -8,6 +8,8 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.annimon.stream.Stream;
+
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
@@ -20,6 +22,12 @@ import org.whispersystems.signalservice.api.util.UuidUtil;
 import org.whispersystems.signalservice.internal.util.Util;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 public class PushDatabase extends Database {
@@ -67,6 +75,29 @@ public class PushDatabase extends Database {
     }
   }
 
+  /**
+   * Inserts a burst of envelopes in a single transaction.
+   *
+   * @return The IDs of the inserted envelopes, in the same order.
+   */
+  public @NonNull List<Long> insert(@NonNull List<SignalServiceEnvelope> envelopes) {
+    SQLiteDatabase db  = databaseHelper.getWritableDatabase();
+    List<Long>     ids = new ArrayList<>(envelopes.size());
+
+    db.beginTransaction();
+    try {
+      for (SignalServiceEnvelope envelope : envelopes) {
+        ids.add(insert(envelope));
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return ids;
+  }
+
   public SignalServiceEnvelope get(long id) throws NoSuchMessageException {
     Cursor cursor = null;
 
@@ -76,19 +107,7 @@ public class PushDatabase extends Database {
                                                           null, null, null);
 
       if (cursor != null && cursor.moveToNext()) {
-        String legacyMessage = cursor.getString(cursor.getColumnIndexOrThrow(LEGACY_MSG));
-        String content       = cursor.getString(cursor.getColumnIndexOrThrow(CONTENT));
-        String uuid          = cursor.getString(cursor.getColumnIndexOrThrow(SOURCE_UUID));
-        String e164          = cursor.getString(cursor.getColumnIndexOrThrow(SOURCE_E164));
-
-        return new SignalServiceEnvelope(cursor.getInt(cursor.getColumnIndexOrThrow(TYPE)),
-                                         SignalServiceAddress.fromRaw(uuid, e164),
-                                         cursor.getInt(cursor.getColumnIndexOrThrow(DEVICE_ID)),
-                                         cursor.getLong(cursor.getColumnIndexOrThrow(TIMESTAMP)),
-                                         Util.isEmpty(legacyMessage) ? null : Base64.decode(legacyMessage),
-                                         Util.isEmpty(content) ? null : Base64.decode(content),
-                                         cursor.getLong(cursor.getColumnIndexOrThrow(SERVER_TIMESTAMP)),
-                                         cursor.getString(cursor.getColumnIndexOrThrow(SERVER_GUID)));
+        return getEnvelope(cursor);
       }
     } catch (IOException e) {
       Log.w(TAG, e);
@@ -101,6 +120,35 @@ public class PushDatabase extends Database {
     throw new NoSuchMessageException("Not found");
   }
 
+  /**
+   * Reads a set of envelopes with one query. IDs that no longer exist, or whose envelopes can't be
+   * read, are left out of the result.
+   */
+  public @NonNull Map<Long, SignalServiceEnvelope> get(@NonNull Collection<Long> ids) {
+    Map<Long, SignalServiceEnvelope> envelopes = new HashMap<>(ids.size());
+
+    if (ids.isEmpty()) {
+      return envelopes;
+    }
+
+    String   query = ID + " IN (" + Util.join(Collections.nCopies(ids.size(), "?"), ", ") + ")";
+    String[] args  = Stream.of(ids).map(String::valueOf).toArray(String[]::new);
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, null, query, args, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long id = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+
+        try {
+          envelopes.put(id, getEnvelope(cursor));
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to read envelope " + id, e);
+        }
+      }
+    }
+
+    return envelopes;
+  }
+
   public Cursor getPending() {
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, null, null, null, null, null, null);
   }
@@ -109,10 +157,37 @@ public class PushDatabase extends Database {
     databaseHelper.getWritableDatabase().delete(TABLE_NAME, ID_WHERE, new String[] {id+""});
   }
 
+  public void delete(@NonNull Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    String   query = ID + " IN (" + Util.join(Collections.nCopies(ids.size(), "?"), ", ") + ")";
+    String[] args  = Stream.of(ids).map(String::valueOf).toArray(String[]::new);
+
+    databaseHelper.getWritableDatabase().delete(TABLE_NAME, query, args);
+  }
+
   public Reader readerFor(Cursor cursor) {
     return new Reader(cursor);
   }
 
+  private static @NonNull SignalServiceEnvelope getEnvelope(@NonNull Cursor cursor) throws IOException {
+    String legacyMessage = cursor.getString(cursor.getColumnIndexOrThrow(LEGACY_MSG));
+    String content       = cursor.getString(cursor.getColumnIndexOrThrow(CONTENT));
+    String uuid          = cursor.getString(cursor.getColumnIndexOrThrow(SOURCE_UUID));
+    String e164          = cursor.getString(cursor.getColumnIndexOrThrow(SOURCE_E164));
+
+    return new SignalServiceEnvelope(cursor.getInt(cursor.getColumnIndexOrThrow(TYPE)),
+                                     SignalServiceAddress.fromRaw(uuid, e164),
+                                     cursor.getInt(cursor.getColumnIndexOrThrow(DEVICE_ID)),
+                                     cursor.getLong(cursor.getColumnIndexOrThrow(TIMESTAMP)),
+                                     Util.isEmpty(legacyMessage) ? null : Base64.decode(legacyMessage),
+                                     Util.isEmpty(content) ? null : Base64.decode(content),
+                                     cursor.getLong(cursor.getColumnIndexOrThrow(SERVER_TIMESTAMP)),
+                                     cursor.getString(cursor.getColumnIndexOrThrow(SERVER_GUID)));
+  }
+
   private Optional<Long> find(SignalServiceEnvelope envelope) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
     String         query    = TYPE       + " = ? AND " +
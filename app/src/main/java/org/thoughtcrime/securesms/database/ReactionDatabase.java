@@ -0,0 +1,172 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.ReactionRecord;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores one row per reaction, so adding or removing a reaction touches a single row rather than
+ * rewriting every reaction on the message.
+ * <p>
+ * Message readers don't query this table directly. Their projections include
+ * {@link #getReactionsProjection(String, boolean)}, which packs a message's reactions into one
+ * column that {@link #parseReactions(String)} unpacks.
+ */
+public class ReactionDatabase extends Database {
+
+  private static final String TAG = Log.tag(ReactionDatabase.class);
+
+  public  static final String TABLE_NAME = "reaction";
+
+  private static final String ID            = "_id";
+  public  static final String MESSAGE_ID    = "message_id";
+  public  static final String IS_MMS        = "is_mms";
+  private static final String AUTHOR_ID     = "author_id";
+  private static final String EMOJI         = "emoji";
+  private static final String DATE_SENT     = "date_sent";
+  private static final String DATE_RECEIVED = "date_received";
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID            + " INTEGER PRIMARY KEY, " +
+                                                                                 MESSAGE_ID    + " INTEGER NOT NULL, " +
+                                                                                 IS_MMS        + " INTEGER NOT NULL, " +
+                                                                                 AUTHOR_ID     + " INTEGER NOT NULL, " +
+                                                                                 EMOJI         + " TEXT NOT NULL, " +
+                                                                                 DATE_SENT     + " INTEGER NOT NULL, " +
+                                                                                 DATE_RECEIVED + " INTEGER NOT NULL, " +
+                                                                                 "UNIQUE(" + MESSAGE_ID + ", " + IS_MMS + ", " + AUTHOR_ID + ") ON CONFLICT REPLACE)";
+
+  public static final String[] CREATE_TRIGGERS = {
+      "CREATE TRIGGER reactions_sms_delete AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + MESSAGE_ID + " = old." + SmsDatabase.ID + " AND " + IS_MMS + " = 0; END",
+      "CREATE TRIGGER reactions_mms_delete AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + MESSAGE_ID + " = old." + MmsDatabase.ID + " AND " + IS_MMS + " = 1; END"
+  };
+
+  private static final String FIELD_SEPARATOR    = ",";
+  private static final char   REACTION_SEPARATOR = 31;
+
+  public ReactionDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  /**
+   * A projection column, named {@link MmsSmsColumns#REACTIONS}, holding all of the reactions to
+   * each message. The emoji is the last field of each reaction, so it may contain the field
+   * separator, but any reaction separators in it are dropped.
+   * <p>
+   * This is every reaction rather than a count per emoji, because readers of the row need to know
+   * who reacted: the pills highlight our own emoji, toggling a reaction needs our current one, and
+   * notifications are built per unread author. Each author has at most one reaction per message,
+   * so the column is bounded by the size of the conversation.
+   *
+   * @param messageIdColumn The message id column, qualified with its table name.
+   */
+  static @NonNull String getReactionsProjection(@NonNull String messageIdColumn, boolean isMms) {
+    String separator = "char(" + (int) REACTION_SEPARATOR + ")";
+
+    return "(SELECT group_concat(" + AUTHOR_ID + " || '" + FIELD_SEPARATOR + "' || " + DATE_SENT + " || '" + FIELD_SEPARATOR + "' || " + DATE_RECEIVED + " || '" + FIELD_SEPARATOR + "' || replace(" + EMOJI + ", " + separator + ", ''), " + separator + ")" +
+           " FROM " + TABLE_NAME +
+           " WHERE " + TABLE_NAME + "." + MESSAGE_ID + " = " + messageIdColumn + " AND " + TABLE_NAME + "." + IS_MMS + " = " + (isMms ? 1 : 0) + ")" +
+           " AS " + MmsSmsColumns.REACTIONS;
+  }
+
+  /**
+   * Unpacks the column built by {@link #getReactionsProjection(String, boolean)}.
+   */
+  static @NonNull List<ReactionRecord> parseReactions(@Nullable String packed) {
+    if (TextUtils.isEmpty(packed)) {
+      return Collections.emptyList();
+    }
+
+    String[]             rows      = packed.split(String.valueOf(REACTION_SEPARATOR));
+    List<ReactionRecord> reactions = new ArrayList<>(rows.length);
+
+    for (String row : rows) {
+      String[] fields = row.split(FIELD_SEPARATOR, 4);
+
+      if (fields.length < 4) {
+        Log.w(TAG, "Skipping malformed reaction.");
+        continue;
+      }
+
+      try {
+        reactions.add(new ReactionRecord(fields[3],
+                                         RecipientId.from(Long.parseLong(fields[0])),
+                                         Long.parseLong(fields[1]),
+                                         Long.parseLong(fields[2])));
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Skipping malformed reaction.", e);
+      }
+    }
+
+    Collections.sort(reactions, (lhs, rhs) -> Long.compare(lhs.getDateReceived(), rhs.getDateReceived()));
+
+    return reactions;
+  }
+
+  /**
+   * Adds the reaction, replacing any earlier reaction by the same author.
+   */
+  void addReaction(long messageId, boolean isMms, @NonNull ReactionRecord reaction) {
+    SQLiteDatabase db     = databaseHelper.getWritableDatabase();
+    ContentValues  values = new ContentValues(6);
+
+    values.put(MESSAGE_ID, messageId);
+    values.put(IS_MMS, isMms ? 1 : 0);
+    values.put(AUTHOR_ID, reaction.getAuthor().toLong());
+    values.put(EMOJI, reaction.getEmoji());
+    values.put(DATE_SENT, reaction.getDateSent());
+    values.put(DATE_RECEIVED, reaction.getDateReceived());
+
+    db.insert(TABLE_NAME, null, values);
+  }
+
+  void deleteReaction(long messageId, boolean isMms, @NonNull RecipientId author) {
+    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
+    String         query = MESSAGE_ID + " = ? AND " + IS_MMS + " = ? AND " + AUTHOR_ID + " = ?";
+    String[]       args  = new String[] { String.valueOf(messageId), isMms ? "1" : "0", author.serialize() };
+
+    db.delete(TABLE_NAME, query, args);
+  }
+
+  void deleteReactions(long messageId, boolean isMms) {
+    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
+    String         query = MESSAGE_ID + " = ? AND " + IS_MMS + " = ?";
+    String[]       args  = new String[] { String.valueOf(messageId), isMms ? "1" : "0" };
+
+    db.delete(TABLE_NAME, query, args);
+  }
+
+  boolean hasReactions(long messageId, boolean isMms) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = MESSAGE_ID + " = ? AND " + IS_MMS + " = ?";
+    String[]       args  = new String[] { String.valueOf(messageId), isMms ? "1" : "0" };
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { ID }, query, args, null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+
+  boolean hasReaction(long messageId, boolean isMms, @NonNull ReactionRecord reaction) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = MESSAGE_ID + " = ? AND " + IS_MMS + " = ? AND " + AUTHOR_ID + " = ? AND " + EMOJI + " = ?";
+    String[]       args  = new String[] { String.valueOf(messageId), isMms ? "1" : "0", reaction.getAuthor().serialize(), reaction.getEmoji() };
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { ID }, query, args, null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+}
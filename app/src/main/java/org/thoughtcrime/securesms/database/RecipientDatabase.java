@@ -48,6 +48,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -61,6 +62,8 @@ public class RecipientDatabase extends Database {
 
   private static final String TAG = RecipientDatabase.class.getSimpleName();
 
+  private static final int MAX_IDS_PER_QUERY = 500;
+
           static final String TABLE_NAME               = "recipient";
   public  static final String ID                       = "_id";
   private static final String UUID                     = "uuid";
@@ -405,6 +408,25 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Reads the settings for many recipients with a handful of queries rather than one per recipient.
+   * Recipients that don't exist are left out of the result.
+   */
+  public @NonNull Map<RecipientId, RecipientSettings> getRecipientSettings(@NonNull Collection<RecipientId> ids) {
+    Map<RecipientId, RecipientSettings> out = new HashMap<>(ids.size());
+
+    for (List<RecipientId> chunk : Util.chunk(new ArrayList<>(new HashSet<>(ids)), MAX_IDS_PER_QUERY)) {
+      String   query = TABLE_NAME + "." + ID + " IN (" + TextUtils.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+      String[] args  = Stream.of(chunk).map(RecipientId::serialize).toArray(String[]::new);
+
+      for (RecipientSettings settings : getRecipientSettings(query, args)) {
+        out.put(settings.getId(), settings);
+      }
+    }
+
+    return out;
+  }
+
   public @NonNull DirtyState getDirtyState(@NonNull RecipientId recipientId) {
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
@@ -12,6 +13,11 @@ import net.sqlcipher.database.SQLiteDatabase;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Contains all databases necessary for full-text search (FTS).
  */
@@ -26,6 +32,8 @@ public class SearchDatabase extends Database {
   public static final String SNIPPET                = "snippet";
   public static final String CONVERSATION_RECIPIENT = "conversation_recipient";
   public static final String MESSAGE_RECIPIENT      = "message_recipient";
+  public static final String MESSAGE_ID             = "message_id";
+  public static final String IS_MMS                 = "is_mms";
 
   public static final String[] CREATE_TABLE = {
       "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
@@ -56,30 +64,27 @@ public class SearchDatabase extends Database {
           "END;"
   };
 
+  /**
+   * Pages through matches newest first. Each table's matches are sorted and cut to a page before
+   * anything else is read, so the thread join only happens for a page of rows and snippets are left
+   * to {@link #getMessageSnippets(String, Set, boolean)}.
+   */
   private static final String MESSAGES_QUERY =
       "SELECT " +
         ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-        MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        SMS_FTS_TABLE_NAME + "."  + THREAD_ID + " " +
-      "FROM " + SmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
-      "UNION ALL " +
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-        MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        MMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
-      "FROM " + MmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
-      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-      "LIMIT 500";
+        "matches." + MESSAGE_RECIPIENT + ", " +
+        "matches." + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
+        "matches." + THREAD_ID + ", " +
+        "matches." + MESSAGE_ID + ", " +
+        "matches." + IS_MMS + " " +
+      "FROM (" +
+        getMessagesPageQuery(SmsDatabase.TABLE_NAME, SMS_FTS_TABLE_NAME, SmsDatabase.DATE_RECEIVED, false) +
+        " UNION ALL " +
+        getMessagesPageQuery(MmsDatabase.TABLE_NAME, MMS_FTS_TABLE_NAME, MmsDatabase.DATE_RECEIVED, true) +
+      ") AS matches " +
+      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON matches." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+      "ORDER BY matches." + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, matches." + IS_MMS + " DESC, matches." + MESSAGE_ID + " DESC " +
+      "LIMIT ?";
 
   private static final String MESSAGES_FOR_THREAD_QUERY =
       "SELECT " +
@@ -87,7 +92,9 @@ public class SearchDatabase extends Database {
           MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
           "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
           SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-          SMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
+          SMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
+          SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " AS " + MESSAGE_ID + ", " +
+          "0 AS " + IS_MMS + " " +
         "FROM " + SmsDatabase.TABLE_NAME + " " +
         "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
         "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
@@ -98,7 +105,9 @@ public class SearchDatabase extends Database {
           MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
           "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
           MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-          MMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
+          MMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
+          MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MESSAGE_ID + ", " +
+          "1 AS " + IS_MMS + " " +
         "FROM " + MmsDatabase.TABLE_NAME + " " +
         "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
         "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
@@ -110,7 +119,23 @@ public class SearchDatabase extends Database {
     super(context, databaseHelper);
   }
 
-  public Cursor queryMessages(@NonNull String query) {
+  /**
+   * The first page of {@link #queryMessages(String, long, boolean, long, int)}.
+   */
+  public @Nullable Cursor queryMessages(@NonNull String query, int limit) {
+    return queryMessages(query, Long.MAX_VALUE, false, Long.MAX_VALUE, limit);
+  }
+
+  /**
+   * Matches are ordered by date received, then MMS before SMS, then id, all descending. A page
+   * continues from the last match of the previous one, so the cost of a page doesn't grow with how
+   * far down the results it is.
+   *
+   * @param afterDateReceived The date received of the last match already read.
+   * @param afterIsMms        Whether the last match already read is an MMS.
+   * @param afterMessageId    The id of the last match already read.
+   */
+  public @Nullable Cursor queryMessages(@NonNull String query, long afterDateReceived, boolean afterIsMms, long afterMessageId, int limit) {
     SQLiteDatabase db                  = databaseHelper.getReadableDatabase();
     String         fullTextSearchQuery = createFullTextSearchQuery(query);
 
@@ -118,8 +143,14 @@ public class SearchDatabase extends Database {
       return null;
     }
 
-    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { fullTextSearchQuery,
-                                                               fullTextSearchQuery });
+    String date     = String.valueOf(afterDateReceived);
+    String smsAfter = String.valueOf(afterIsMms ? Long.MAX_VALUE : afterMessageId);
+    String mmsAfter = String.valueOf(afterIsMms ? afterMessageId : 0);
+    String count    = String.valueOf(limit);
+
+    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { fullTextSearchQuery, date, date, smsAfter, count,
+                                                               fullTextSearchQuery, date, date, mmsAfter, count,
+                                                               count });
 
     setNotifyConverationListListeners(cursor);
     return cursor;
@@ -142,6 +173,61 @@ public class SearchDatabase extends Database {
     return cursor;
   }
 
+  /**
+   * Snippets for the given messages, for those that still match the query.
+   * <p>
+   * FTS5 sets up every term of a prefix query again for each rowid it's asked about, so rather than
+   * looking the messages up one by one we read the matches across their range of ids and keep the
+   * ones we were asked for. Results come newest first, so a page's ids are usually close together.
+   *
+   * @return A map of message id to snippet. Messages that don't match the query are left out.
+   */
+  public @NonNull Map<Long, String> getMessageSnippets(@NonNull String query, @NonNull Set<Long> messageIds, boolean isMms) {
+    SQLiteDatabase    db                  = databaseHelper.getReadableDatabase();
+    String            fullTextSearchQuery = createFullTextSearchQuery(query);
+    Map<Long, String> snippets            = new HashMap<>(messageIds.size());
+
+    if (TextUtils.isEmpty(fullTextSearchQuery) || messageIds.isEmpty()) {
+      return snippets;
+    }
+
+    String   ftsTable = isMms ? MMS_FTS_TABLE_NAME : SMS_FTS_TABLE_NAME;
+    String   sql      = "SELECT " + ID + ", snippet(" + ftsTable + ", -1, '', '', '...', 7) AS " + SNIPPET + " " +
+                        "FROM " + ftsTable + " " +
+                        "WHERE " + ftsTable + " MATCH ? AND " + ID + " >= ? AND " + ID + " <= ?";
+    String[] args     = new String[] { fullTextSearchQuery,
+                                       String.valueOf(Collections.min(messageIds)),
+                                       String.valueOf(Collections.max(messageIds)) };
+
+    try (Cursor cursor = db.rawQuery(sql, args)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long messageId = cursor.getLong(0);
+
+        if (messageIds.contains(messageId)) {
+          snippets.put(messageId, cursor.getString(1));
+        }
+      }
+    }
+
+    return snippets;
+  }
+
+  private static String getMessagesPageQuery(@NonNull String table, @NonNull String ftsTable, @NonNull String dateReceived, boolean isMms) {
+    return "SELECT * FROM (" +
+             "SELECT " +
+               table + "." + MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
+               table + "." + dateReceived + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
+               ftsTable + "." + THREAD_ID + " AS " + THREAD_ID + ", " +
+               table + "." + MmsSmsColumns.ID + " AS " + MESSAGE_ID + ", " +
+               (isMms ? 1 : 0) + " AS " + IS_MMS + " " +
+             "FROM " + ftsTable + " " +
+             "INNER JOIN " + table + " ON " + table + "." + MmsSmsColumns.ID + " = " + ftsTable + "." + ID + " " +
+             "WHERE " + ftsTable + " MATCH ? AND (" + table + "." + dateReceived + " < ? OR (" + table + "." + dateReceived + " = ? AND " + table + "." + MmsSmsColumns.ID + " < ?)) " +
+             "ORDER BY " + table + "." + dateReceived + " DESC, " + table + "." + MmsSmsColumns.ID + " DESC " +
+             "LIMIT ?" +
+           ")";
+  }
+
   private static String createFullTextSearchQuery(@NonNull String query) {
     return Stream.of(query.split(" "))
                  .map(String::trim)
@@ -12,10 +12,12 @@ import net.sqlcipher.database.SQLiteDatabase;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.whispersystems.libsignal.state.SessionRecord;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -35,22 +37,73 @@ public class SessionDatabase extends Database {
       DEVICE + " INTEGER NOT NULL, " + RECORD + " BLOB NOT NULL, " +
       "UNIQUE(" + RECIPIENT_ID + "," + DEVICE + ") ON CONFLICT REPLACE);";
 
+  private static final int    CACHE_SIZE = 500;
+  private static final byte[] NO_SESSION = new byte[0];
+
+  /**
+   * Serialized records by recipient and device, including the ones we know don't exist. Records are
+   * mutable, and libsignal changes them before it knows whether a message will decrypt, so we keep
+   * the bytes and still hand out a fresh record on every load. A read that raced a write doesn't
+   * populate the cache.
+   */
+  private final LRUCache<String, byte[]> cache = new LRUCache<>(CACHE_SIZE);
+
+  private long cacheVersion;
+
   SessionDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
   public void store(@NonNull RecipientId recipientId, int deviceId, @NonNull SessionRecord record) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    SQLiteDatabase database   = databaseHelper.getWritableDatabase();
+    byte[]         serialized = record.serialize();
 
     ContentValues values = new ContentValues();
     values.put(RECIPIENT_ID, recipientId.serialize());
     values.put(DEVICE, deviceId);
-    values.put(RECORD, record.serialize());
+    values.put(RECORD, serialized);
 
     database.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+    synchronized (cache) {
+      cache.put(cacheKey(recipientId, deviceId), serialized);
+      cacheVersion++;
+    }
   }
 
   public @Nullable SessionRecord load(@NonNull RecipientId recipientId, int deviceId) {
+    String key = cacheKey(recipientId, deviceId);
+    byte[] serialized;
+    long   cacheVersion;
+
+    synchronized (cache) {
+      serialized   = cache.get(key);
+      cacheVersion = this.cacheVersion;
+    }
+
+    if (serialized == null) {
+      serialized = loadSerialized(recipientId, deviceId);
+
+      synchronized (cache) {
+        if (cacheVersion == this.cacheVersion) {
+          cache.put(key, serialized != null ? serialized : NO_SESSION);
+        }
+      }
+    }
+
+    if (serialized == null || serialized == NO_SESSION) {
+      return null;
+    }
+
+    try {
+      return new SessionRecord(serialized);
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      return null;
+    }
+  }
+
+  private @Nullable byte[] loadSerialized(@NonNull RecipientId recipientId, int deviceId) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
 
     try (Cursor cursor = database.query(TABLE_NAME, new String[]{RECORD},
@@ -59,11 +112,7 @@ public class SessionDatabase extends Database {
                                         null, null, null))
     {
       if (cursor != null && cursor.moveToFirst()) {
-        try {
-          return new SessionRecord(cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD)));
-        } catch (IOException e) {
-          Log.w(TAG, e);
-        }
+        return cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD));
       }
     }
 
@@ -138,11 +187,34 @@ public class SessionDatabase extends Database {
 
     database.delete(TABLE_NAME, RECIPIENT_ID + " = ? AND " + DEVICE + " = ?",
                     new String[] {recipientId.serialize(), String.valueOf(deviceId)});
+
+    synchronized (cache) {
+      cache.put(cacheKey(recipientId, deviceId), NO_SESSION);
+      cacheVersion++;
+    }
   }
 
   public void deleteAllFor(@NonNull RecipientId recipientId) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, RECIPIENT_ID + " = ?", new String[] {recipientId.serialize()});
+
+    String prefix = recipientId.serialize() + ".";
+
+    synchronized (cache) {
+      Iterator<String> keys = cache.keySet().iterator();
+
+      while (keys.hasNext()) {
+        if (keys.next().startsWith(prefix)) {
+          keys.remove();
+        }
+      }
+
+      cacheVersion++;
+    }
+  }
+
+  private static @NonNull String cacheKey(@NonNull RecipientId recipientId, int deviceId) {
+    return recipientId.serialize() + "." + deviceId;
   }
 
   public static final class SessionRow {
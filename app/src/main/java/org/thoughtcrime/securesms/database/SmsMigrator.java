@@ -194,7 +194,7 @@ public class SmsMigrator {
         listener.progressUpdate(new ProgressDescription(progress, cursor.getCount(), cursor.getPosition()));
       }
 
-      ourSmsDatabase.endTransaction(transaction);
+      ourSmsDatabase.commitTransaction(transaction);
       DatabaseFactory.getThreadDatabase(context).update(ourThreadId, true);
       DatabaseFactory.getThreadDatabase(context).notifyConversationListeners(ourThreadId);
 
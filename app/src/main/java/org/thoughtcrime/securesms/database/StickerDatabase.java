@@ -246,7 +246,7 @@ public class StickerDatabase extends Database {
                            ")";
     String[]      args = new String[] { "0" };
 
-    db.beginTransaction();
+    beginTransaction(db);
 
     try {
       boolean performedDelete = false;
@@ -269,14 +269,14 @@ public class StickerDatabase extends Database {
         notifyStickerListeners();
       }
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
   }
 
   public void uninstallPack(@NonNull String packId) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-    db.beginTransaction();
+    beginTransaction(db);
     try {
       updatePackInstalled(db, packId, false, false);
       deleteStickersInPackExceptCover(db, packId);
@@ -285,14 +285,14 @@ public class StickerDatabase extends Database {
       notifyStickerPackListeners();
       notifyStickerListeners();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
   }
 
   public void updatePackOrder(@NonNull List<StickerPackRecord> packsInOrder) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-    db.beginTransaction();
+    beginTransaction(db);
     try {
       String selection = PACK_ID + " = ? AND " + COVER + " = ?";
 
@@ -308,7 +308,7 @@ public class StickerDatabase extends Database {
       db.setTransactionSuccessful();
       notifyStickerPackListeners();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
   }
 
@@ -364,7 +364,7 @@ public class StickerDatabase extends Database {
     String   selection = PACK_ID + " = ?";
     String[] args      = new String[] { packId };
 
-    db.beginTransaction();
+    beginTransaction(db);
 
     try {
       try (Cursor cursor = db.query(TABLE_NAME, null, selection, args, null, null, null)) {
@@ -378,7 +378,7 @@ public class StickerDatabase extends Database {
 
       db.setTransactionSuccessful();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
 
     db.delete(TABLE_NAME, selection, args);
@@ -388,7 +388,7 @@ public class StickerDatabase extends Database {
     String   selection = PACK_ID + " = ? AND " + COVER + " = ?";
     String[] args      = new String[] { packId, "0" };
 
-    db.beginTransaction();
+    beginTransaction(db);
 
     try {
       try (Cursor cursor = db.query(TABLE_NAME, null, selection, args, null, null, null)) {
@@ -402,7 +402,7 @@ public class StickerDatabase extends Database {
 
       db.setTransactionSuccessful();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
     }
   }
 
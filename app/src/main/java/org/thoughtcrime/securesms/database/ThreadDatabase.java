@@ -25,6 +25,7 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -54,6 +55,7 @@ import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -88,6 +90,9 @@ public class ThreadDatabase extends Database {
   public  static final String EXPIRES_IN             = "expires_in";
   public  static final String LAST_SEEN              = "last_seen";
   public  static final String HAS_SENT               = "has_sent";
+  private static final String SNIPPET_MESSAGE_ID     = "snippet_message_id";
+  private static final String SNIPPET_MESSAGE_MMS    = "snippet_message_mms";
+  private static final String SNIPPET_DATE_RECEIVED  = "snippet_date_received";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("                    +
     ID + " INTEGER PRIMARY KEY, " + DATE + " INTEGER DEFAULT 0, "                                  +
@@ -99,7 +104,9 @@ public class ThreadDatabase extends Database {
     ARCHIVED + " INTEGER DEFAULT 0, " + STATUS + " INTEGER DEFAULT 0, "                            +
     DELIVERY_RECEIPT_COUNT + " INTEGER DEFAULT 0, " + EXPIRES_IN + " INTEGER DEFAULT 0, "          +
     LAST_SEEN + " INTEGER DEFAULT 0, " + HAS_SENT + " INTEGER DEFAULT 0, "                         +
-    READ_RECEIPT_COUNT + " INTEGER DEFAULT 0, " + UNREAD_COUNT + " INTEGER DEFAULT 0);";
+    READ_RECEIPT_COUNT + " INTEGER DEFAULT 0, " + UNREAD_COUNT + " INTEGER DEFAULT 0, "            +
+    SNIPPET_MESSAGE_ID + " INTEGER DEFAULT -1, " + SNIPPET_MESSAGE_MMS + " INTEGER DEFAULT 0, "    +
+    SNIPPET_DATE_RECEIVED + " INTEGER DEFAULT 0);";
 
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS thread_recipient_ids_index ON " + TABLE_NAME + " (" + RECIPIENT_ID + ");",
@@ -144,12 +151,11 @@ public class ThreadDatabase extends Database {
     return db.insert(TABLE_NAME, null, contentValues);
   }
 
-  private void updateThread(long threadId, long count, String body, @Nullable Uri attachment,
-                            @Nullable String contentType, @Nullable Extra extra,
-                            long date, int status, int deliveryReceiptCount, long type, boolean unarchive,
-                            long expiresIn, int readReceiptCount)
-  {
+  private void updateThread(long threadId, long count, @NonNull MessageRecord record, boolean unarchive) {
     String extraSerialized = null;
+    Extra  extra           = getExtrasFor(record);
+    Uri    attachment      = getAttachmentUriFor(record);
+    long   date            = record.getTimestamp();
 
     if (extra != null) {
       try {
@@ -159,18 +165,21 @@ public class ThreadDatabase extends Database {
       }
     }
 
-    ContentValues contentValues = new ContentValues(7);
+    ContentValues contentValues = new ContentValues(14);
     contentValues.put(DATE, date - date % 1000);
     contentValues.put(MESSAGE_COUNT, count);
-    contentValues.put(SNIPPET, body);
+    contentValues.put(SNIPPET, getFormattedBodyFor(record));
     contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
-    contentValues.put(SNIPPET_TYPE, type);
-    contentValues.put(SNIPPET_CONTENT_TYPE, contentType);
+    contentValues.put(SNIPPET_TYPE, record.getType());
+    contentValues.put(SNIPPET_CONTENT_TYPE, getContentTypeFor(record));
     contentValues.put(SNIPPET_EXTRAS, extraSerialized);
-    contentValues.put(STATUS, status);
-    contentValues.put(DELIVERY_RECEIPT_COUNT, deliveryReceiptCount);
-    contentValues.put(READ_RECEIPT_COUNT, readReceiptCount);
-    contentValues.put(EXPIRES_IN, expiresIn);
+    contentValues.put(SNIPPET_MESSAGE_ID, record.getId());
+    contentValues.put(SNIPPET_MESSAGE_MMS, record.isMms() ? 1 : 0);
+    contentValues.put(SNIPPET_DATE_RECEIVED, record.getDateReceived());
+    contentValues.put(STATUS, record.getDeliveryStatus());
+    contentValues.put(DELIVERY_RECEIPT_COUNT, record.getDeliveryReceiptCount());
+    contentValues.put(READ_RECEIPT_COUNT, record.getReadReceiptCount());
+    contentValues.put(EXPIRES_IN, record.getExpiresIn());
 
     if (unarchive) {
       contentValues.put(ARCHIVED, 0);
@@ -181,6 +190,29 @@ public class ThreadDatabase extends Database {
     notifyConversationListListeners();
   }
 
+  private void updateMessageCount(long threadId, long count, int unreadRemoved, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = ?, " +
+                   UNREAD_COUNT + " = MAX(0, " + UNREAD_COUNT + " - ?)" +
+                   (unarchive ? ", " + ARCHIVED + " = 0" : "") +
+                   " WHERE " + ID + " = ?",
+               new String[] {String.valueOf(count),
+                             String.valueOf(unreadRemoved),
+                             String.valueOf(threadId)});
+    notifyConversationListListeners();
+  }
+
+  /**
+   * Counts a message that was inserted without updating the thread's snippet. Untracked threads are
+   * left alone, since they get recounted on their next update anyway.
+   */
+  public void incrementMessageCount(long threadId) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = " + MESSAGE_COUNT + " + 1" +
+                   " WHERE " + ID + " = ? AND " + SNIPPET_MESSAGE_ID + " != -1",
+               new String[] {String.valueOf(threadId)});
+  }
+
   public void updateSnippet(long threadId, String snippet, @Nullable Uri attachment, long date, long type, boolean unarchive) {
     ContentValues contentValues = new ContentValues(4);
 
@@ -188,6 +220,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(SNIPPET, snippet);
     contentValues.put(SNIPPET_TYPE, type);
     contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
+    contentValues.put(SNIPPET_MESSAGE_ID, -1);
 
     if (unarchive) {
       contentValues.put(ARCHIVED, 0);
@@ -280,13 +313,23 @@ public class ThreadDatabase extends Database {
     contentValues.put(READ, 1);
     contentValues.put(UNREAD_COUNT, 0);
 
-    db.update(TABLE_NAME, contentValues, null, null);
+    final List<MarkedMessageInfo> smsRecords;
+    final List<MarkedMessageInfo> mmsRecords;
+
+    beginTransaction(db);
+    try {
+      db.update(TABLE_NAME, contentValues, null, null);
+
+      smsRecords = DatabaseFactory.getSmsDatabase(context).setAllMessagesRead();
+      mmsRecords = DatabaseFactory.getMmsDatabase(context).setAllMessagesRead();
 
-    final List<MarkedMessageInfo> smsRecords = DatabaseFactory.getSmsDatabase(context).setAllMessagesRead();
-    final List<MarkedMessageInfo> mmsRecords = DatabaseFactory.getMmsDatabase(context).setAllMessagesRead();
+      DatabaseFactory.getSmsDatabase(context).setAllReactionsSeen();
+      DatabaseFactory.getMmsDatabase(context).setAllReactionsSeen();
 
-    DatabaseFactory.getSmsDatabase(context).setAllReactionsSeen();
-    DatabaseFactory.getMmsDatabase(context).setAllReactionsSeen();
+      db.setTransactionSuccessful();
+    } finally {
+      endTransaction(db);
+    }
 
     notifyConversationListListeners();
 
@@ -445,7 +488,7 @@ public class ThreadDatabase extends Database {
   public void setArchived(@NonNull Map<RecipientId, Boolean> status) {
     SQLiteDatabase db    = databaseHelper.getReadableDatabase();
 
-    db.beginTransaction();
+    beginTransaction(db);
     try {
       String query = RECIPIENT_ID + " = ?";
 
@@ -457,7 +500,7 @@ public class ThreadDatabase extends Database {
 
       db.setTransactionSuccessful();
     } finally {
-      db.endTransaction();
+      endTransaction(db);
       notifyConversationListListeners();
     }
   }
@@ -688,6 +731,12 @@ public class ThreadDatabase extends Database {
     notifyConversationListListeners();
   }
 
+  /**
+   * Recounts the thread's messages and re-reads its snippet. This is the slow path that the
+   * incremental updates below fall back to when a thread's summary isn't being tracked yet.
+   *
+   * @return True if the thread was deleted because it no longer has any messages.
+   */
   public boolean update(long threadId, boolean unarchive) {
     MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
     long count                    = mmsSmsDatabase.getConversationCount(threadId);
@@ -698,17 +747,167 @@ public class ThreadDatabase extends Database {
       return true;
     }
 
-    MmsSmsDatabase.Reader reader = null;
+    return updateFromConversationSnippet(threadId, count, unarchive);
+  }
+
+  /**
+   * Updates the thread after a message has been inserted into it, without recounting the thread.
+   */
+  public void updateForInsertedMessage(long threadId, long messageId, boolean mms, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    beginTransaction(db);
+    try {
+      ThreadSummary summary = getThreadSummary(threadId);
+      MessageRecord record  = summary != null && summary.isTracked() ? getMessageRecord(messageId, mms) : null;
+
+      switch (record != null ? summary.forInsertedMessage(record.getDateReceived()) : SummaryUpdate.RECOUNT) {
+        case REPLACE_SNIPPET: updateThread(threadId, summary.messageCount + 1, record, unarchive);    break;
+        case COUNT_ONLY:      updateMessageCount(threadId, summary.messageCount + 1, 0, unarchive); break;
+        default:              update(threadId, unarchive);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      endTransaction(db);
+    }
+  }
+
+  /**
+   * Updates the thread after one of its messages has changed (a receipt, a status or a body), which
+   * only matters if that message is the thread's snippet.
+   */
+  public void updateForChangedMessage(long threadId, long messageId, boolean mms, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    beginTransaction(db);
+    try {
+      ThreadSummary summary = getThreadSummary(threadId);
+
+      switch (summary != null ? summary.forChangedMessage(messageId, mms, unarchive) : SummaryUpdate.RECOUNT) {
+        case REPLACE_SNIPPET: replaceSnippet(threadId, summary, unarchive);                       break;
+        case COUNT_ONLY:      updateMessageCount(threadId, summary.messageCount, 0, unarchive); break;
+        case RECOUNT:         update(threadId, unarchive);                                      break;
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      endTransaction(db);
+    }
+  }
+
+  /**
+   * Updates the thread after a batch of its messages have changed, reading the snippet at most once.
+   */
+  public void updateForChangedMessages(long threadId, @NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    beginTransaction(db);
+    try {
+      ThreadSummary summary = getThreadSummary(threadId);
+
+      switch (summary != null ? summary.forChangedMessages(smsIds, mmsIds) : SummaryUpdate.RECOUNT) {
+        case REPLACE_SNIPPET: replaceSnippet(threadId, summary, false); break;
+        case RECOUNT:         update(threadId, false);                  break;
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      endTransaction(db);
+    }
+  }
+
+  /**
+   * Updates the thread after one of its messages has been deleted. Only deleting the snippet
+   * requires reading the conversation again.
+   *
+   * @return True if the thread was deleted because it no longer has any messages.
+   */
+  public boolean updateForDeletedMessage(long threadId, long messageId, boolean mms, boolean unread) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    boolean        threadDeleted;
+
+    beginTransaction(db);
+    try {
+      ThreadSummary summary = getThreadSummary(threadId);
+
+      switch (summary != null ? summary.forDeletedMessage(messageId, mms) : SummaryUpdate.RECOUNT) {
+        case REREAD_SNIPPET:
+          updateMessageCount(threadId, summary.messageCount - 1, unread ? 1 : 0, false);
+          threadDeleted = updateFromConversationSnippet(threadId, summary.messageCount - 1, false);
+          break;
+        case COUNT_ONLY:
+          updateMessageCount(threadId, summary.messageCount - 1, unread ? 1 : 0, false);
+          threadDeleted = false;
+          break;
+        default:
+          threadDeleted = update(threadId, false);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      endTransaction(db);
+    }
+
+    return threadDeleted;
+  }
+
+  /**
+   * Checks every thread's stored message count and snippet against a full recount, and repairs the
+   * ones that don't match.
+   *
+   * @return The IDs of the threads that needed repairing.
+   */
+  public @NonNull Set<Long> verifyThreadSummaries() {
+    MmsSmsDatabase           mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+    Map<Long, ThreadSummary> summaries      = new HashMap<>();
+    Set<Long>                repaired       = new HashSet<>();
+    String[]                 projection     = new String[] { ID, MESSAGE_COUNT, SNIPPET_MESSAGE_ID, SNIPPET_MESSAGE_MMS, SNIPPET_DATE_RECEIVED };
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, projection, SNIPPET_MESSAGE_ID + " != -1", null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        summaries.put(cursor.getLong(cursor.getColumnIndexOrThrow(ID)), ThreadSummary.fromCursor(cursor));
+      }
+    }
+
+    for (Map.Entry<Long, ThreadSummary> entry : summaries.entrySet()) {
+      long          threadId = entry.getKey();
+      ThreadSummary summary  = entry.getValue();
+      long          count    = mmsSmsDatabase.getConversationCount(threadId);
+      boolean       matches  = count == summary.messageCount;
+
+      if (matches) {
+        MmsSmsDatabase.Reader reader = mmsSmsDatabase.readerFor(mmsSmsDatabase.getConversationSnippet(threadId));
+
+        try {
+          MessageRecord record = reader.getNext();
+
+          matches = record != null && summary.isConsistentWith(count, record.getId(), record.isMms(), record.getDateReceived());
+        } finally {
+          reader.close();
+        }
+      }
+
+      if (!matches) {
+        Log.w(TAG, "Thread " + threadId + " has an inconsistent summary. Stored count: " + summary.messageCount + ", actual count: " + count);
+        update(threadId, false);
+        repaired.add(threadId);
+      }
+    }
+
+    return repaired;
+  }
+
+  private boolean updateFromConversationSnippet(long threadId, long count, boolean unarchive) {
+    MmsSmsDatabase        mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+    MmsSmsDatabase.Reader reader         = null;
 
     try {
       reader = mmsSmsDatabase.readerFor(mmsSmsDatabase.getConversationSnippet(threadId));
       MessageRecord record;
 
       if (reader != null && (record = reader.getNext()) != null) {
-        updateThread(threadId, count, getFormattedBodyFor(record), getAttachmentUriFor(record),
-                     getContentTypeFor(record), getExtrasFor(record),
-                     record.getTimestamp(), record.getDeliveryStatus(), record.getDeliveryReceiptCount(),
-                     record.getType(), unarchive, record.getExpiresIn(), record.getReadReceiptCount());
+        updateThread(threadId, count, record, unarchive);
         notifyConversationListListeners();
         return false;
       } else {
@@ -722,6 +921,35 @@ public class ThreadDatabase extends Database {
     }
   }
 
+  private void replaceSnippet(long threadId, @NonNull ThreadSummary summary, boolean unarchive) {
+    MessageRecord record = getMessageRecord(summary.snippetMessageId, summary.snippetMms);
+
+    if (record != null) updateThread(threadId, summary.messageCount, record, unarchive);
+    else                update(threadId, unarchive);
+  }
+
+  private @Nullable ThreadSummary getThreadSummary(long threadId) {
+    String[] projection = new String[] { MESSAGE_COUNT, SNIPPET_MESSAGE_ID, SNIPPET_MESSAGE_MMS, SNIPPET_DATE_RECEIVED };
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, projection, ID_WHERE, new String[] { String.valueOf(threadId) }, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return ThreadSummary.fromCursor(cursor);
+      }
+    }
+
+    return null;
+  }
+
+  private @Nullable MessageRecord getMessageRecord(long messageId, boolean mms) {
+    try {
+      if (mms) return DatabaseFactory.getMmsDatabase(context).getMessageRecord(messageId);
+      else     return DatabaseFactory.getSmsDatabase(context).getMessage(messageId);
+    } catch (NoSuchMessageException e) {
+      Log.w(TAG, "Couldn't find message " + messageId + " to update its thread.");
+      return null;
+    }
+  }
+
   private @NonNull String getFormattedBodyFor(@NonNull MessageRecord messageRecord) {
     if (messageRecord.isMms() && ((MmsMessageRecord) messageRecord).getSharedContacts().size() > 0) {
       Contact contact = ((MmsMessageRecord) messageRecord).getSharedContacts().get(0);
@@ -968,4 +1196,98 @@ public class ThreadDatabase extends Database {
       return groupAddedBy;
     }
   }
+
+  /**
+   * The parts of a thread row needed to maintain it incrementally: its message count, and which
+   * message its snippet was taken from. A snippet message ID of -1 means the thread isn't tracked
+   * yet and has to be recomputed in full.
+   */
+  @VisibleForTesting
+  static final class ThreadSummary {
+    private final long    messageCount;
+    private final long    snippetMessageId;
+    private final boolean snippetMms;
+    private final long    snippetDateReceived;
+
+    ThreadSummary(long messageCount, long snippetMessageId, boolean snippetMms, long snippetDateReceived) {
+      this.messageCount        = messageCount;
+      this.snippetMessageId    = snippetMessageId;
+      this.snippetMms          = snippetMms;
+      this.snippetDateReceived = snippetDateReceived;
+    }
+
+    static @NonNull ThreadSummary fromCursor(@NonNull Cursor cursor) {
+      return new ThreadSummary(cursor.getLong(cursor.getColumnIndexOrThrow(MESSAGE_COUNT)),
+                               cursor.getLong(cursor.getColumnIndexOrThrow(SNIPPET_MESSAGE_ID)),
+                               cursor.getInt(cursor.getColumnIndexOrThrow(SNIPPET_MESSAGE_MMS)) == 1,
+                               cursor.getLong(cursor.getColumnIndexOrThrow(SNIPPET_DATE_RECEIVED)));
+    }
+
+    boolean isTracked() {
+      return snippetMessageId != -1;
+    }
+
+    boolean isSnippet(long messageId, boolean mms) {
+      return snippetMessageId == messageId && snippetMms == mms;
+    }
+
+    /**
+     * A new message only replaces the snippet if it's at least as recent as the current one.
+     */
+    @NonNull SummaryUpdate forInsertedMessage(long dateReceived) {
+      if      (!isTracked())                        return SummaryUpdate.RECOUNT;
+      else if (dateReceived >= snippetDateReceived) return SummaryUpdate.REPLACE_SNIPPET;
+      else                                          return SummaryUpdate.COUNT_ONLY;
+    }
+
+    /**
+     * A changed message only matters if it's the snippet, or if the thread has to be unarchived.
+     */
+    @NonNull SummaryUpdate forChangedMessage(long messageId, boolean mms, boolean unarchive) {
+      if      (!isTracked())              return SummaryUpdate.RECOUNT;
+      else if (isSnippet(messageId, mms)) return SummaryUpdate.REPLACE_SNIPPET;
+      else if (unarchive)                 return SummaryUpdate.COUNT_ONLY;
+      else                                return SummaryUpdate.NONE;
+    }
+
+    @NonNull SummaryUpdate forChangedMessages(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+      if      (!isTracked())                                              return SummaryUpdate.RECOUNT;
+      else if ((snippetMms ? mmsIds : smsIds).contains(snippetMessageId)) return SummaryUpdate.REPLACE_SNIPPET;
+      else                                                                return SummaryUpdate.NONE;
+    }
+
+    /**
+     * Deleting the last message recounts the thread, so that it's deleted along with it.
+     */
+    @NonNull SummaryUpdate forDeletedMessage(long messageId, boolean mms) {
+      if      (!isTracked() || messageCount <= 1) return SummaryUpdate.RECOUNT;
+      else if (isSnippet(messageId, mms))         return SummaryUpdate.REREAD_SNIPPET;
+      else                                        return SummaryUpdate.COUNT_ONLY;
+    }
+
+    /**
+     * Whether the summary agrees with a full recount and the conversation's latest message. A
+     * snippet from a different message received at the same time is as good as the same one.
+     */
+    boolean isConsistentWith(long count, long latestMessageId, boolean latestMms, long latestDateReceived) {
+      return count == messageCount && (isSnippet(latestMessageId, latestMms) || latestDateReceived == snippetDateReceived);
+    }
+  }
+
+  /**
+   * How much of a thread row has to be rewritten after one of its messages changes.
+   */
+  @VisibleForTesting
+  enum SummaryUpdate {
+    /** Nothing. */
+    NONE,
+    /** Only the message and unread counts, and the archived flag. */
+    COUNT_ONLY,
+    /** The counts, and the snippet from the given message. */
+    REPLACE_SNIPPET,
+    /** The counts, and the snippet from the conversation's latest message. */
+    REREAD_SNIPPET,
+    /** Everything, from a full recount of the conversation. */
+    RECOUNT
+  }
 }
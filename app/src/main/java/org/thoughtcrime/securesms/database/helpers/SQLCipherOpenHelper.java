@@ -13,14 +13,20 @@ import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 import com.bumptech.glide.Glide;
+import com.google.protobuf.InvalidProtocolBufferException;
 
 import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteDatabaseHook;
 import net.sqlcipher.database.SQLiteOpenHelper;
 
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
 import org.thoughtcrime.securesms.color.MaterialColor;
 import org.thoughtcrime.securesms.contacts.avatars.ContactColors;
 import org.thoughtcrime.securesms.contacts.avatars.ContactColorsLegacy;
@@ -32,6 +38,7 @@ import org.thoughtcrime.securesms.crypto.DatabaseSecret;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DraftDatabase;
+import org.thoughtcrime.securesms.database.GalleryDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
 import org.thoughtcrime.securesms.database.IdentityDatabase;
@@ -41,6 +48,7 @@ import org.thoughtcrime.securesms.database.MegaphoneDatabase;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.OneTimePreKeyDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
+import org.thoughtcrime.securesms.database.ReactionDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.SearchDatabase;
 import org.thoughtcrime.securesms.database.SessionDatabase;
@@ -49,6 +57,7 @@ import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.StickerDatabase;
 import org.thoughtcrime.securesms.database.StorageKeyDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
+import org.thoughtcrime.securesms.database.model.databaseprotos.ReactionList;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.jobs.RefreshPreKeysJob;
@@ -62,12 +71,20 @@ import org.thoughtcrime.securesms.util.ServiceUtil;
 import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
+import org.whispersystems.signalservice.api.util.UuidUtil;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 public class SQLCipherOpenHelper extends SQLiteOpenHelper {
 
@@ -134,8 +151,12 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int SERVER_TIMESTAMP                 = 59;
   private static final int REMOTE_DELETE                    = 60;
   private static final int COLOR_MIGRATION                  = 61;
+  private static final int THREAD_SNIPPET_TRACKING          = 62;
+  private static final int REACTION_TABLE                   = 63;
+  private static final int GALLERY_INDEX                    = 64;
+  private static final int GROUP_MEMBERSHIP                 = 65;
 
-  private static final int    DATABASE_VERSION = 61;
+  private static final int    DATABASE_VERSION = 65;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
@@ -179,6 +200,9 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     db.execSQL(StorageKeyDatabase.CREATE_TABLE);
     db.execSQL(KeyValueDatabase.CREATE_TABLE);
     db.execSQL(MegaphoneDatabase.CREATE_TABLE);
+    db.execSQL(ReactionDatabase.CREATE_TABLE);
+    db.execSQL(GalleryDatabase.CREATE_TABLE);
+    db.execSQL(GroupDatabase.CREATE_MEMBERSHIP_TABLE);
     executeStatements(db, SearchDatabase.CREATE_TABLE);
     executeStatements(db, JobDatabase.CREATE_TABLE);
 
@@ -192,6 +216,9 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     executeStatements(db, GroupReceiptDatabase.CREATE_INDEXES);
     executeStatements(db, StickerDatabase.CREATE_INDEXES);
     executeStatements(db, StorageKeyDatabase.CREATE_INDEXES);
+    executeStatements(db, GalleryDatabase.CREATE_INDEXES);
+
+    executeStatements(db, ReactionDatabase.CREATE_TRIGGERS);
 
     if (context.getDatabasePath(ClassicOpenHelper.NAME).exists()) {
       ClassicOpenHelper                      legacyHelper = new ClassicOpenHelper(context);
@@ -906,6 +933,61 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         }
       }
 
+      if (oldVersion < THREAD_SNIPPET_TRACKING) {
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_message_id INTEGER DEFAULT -1");
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_message_mms INTEGER DEFAULT 0");
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_date_received INTEGER DEFAULT 0");
+      }
+
+      if (oldVersion < REACTION_TABLE) {
+        db.execSQL("CREATE TABLE reaction (_id INTEGER PRIMARY KEY, " +
+                                          "message_id INTEGER NOT NULL, " +
+                                          "is_mms INTEGER NOT NULL, " +
+                                          "author_id INTEGER NOT NULL, " +
+                                          "emoji TEXT NOT NULL, " +
+                                          "date_sent INTEGER NOT NULL, " +
+                                          "date_received INTEGER NOT NULL, " +
+                                          "UNIQUE(message_id, is_mms, author_id) ON CONFLICT REPLACE)");
+
+        db.execSQL("CREATE TRIGGER reactions_sms_delete AFTER DELETE ON sms BEGIN DELETE FROM reaction WHERE message_id = old._id AND is_mms = 0; END");
+        db.execSQL("CREATE TRIGGER reactions_mms_delete AFTER DELETE ON mms BEGIN DELETE FROM reaction WHERE message_id = old._id AND is_mms = 1; END");
+
+        migrateReactions(db, "sms", false);
+        migrateReactions(db, "mms", true);
+      }
+
+      if (oldVersion < GALLERY_INDEX) {
+        db.execSQL("CREATE TABLE gallery (_id INTEGER PRIMARY KEY, " +
+                                         "media_store_id INTEGER NOT NULL, " +
+                                         "is_image INTEGER NOT NULL, " +
+                                         "path TEXT NOT NULL, " +
+                                         "mime_type TEXT, " +
+                                         "bucket_id TEXT, " +
+                                         "bucket_name TEXT, " +
+                                         "date_modified INTEGER NOT NULL, " +
+                                         "width INTEGER DEFAULT 0, " +
+                                         "height INTEGER DEFAULT 0, " +
+                                         "size INTEGER DEFAULT 0, " +
+                                         "duration INTEGER DEFAULT 0, " +
+                                         "UNIQUE(is_image, media_store_id) ON CONFLICT REPLACE)");
+
+        db.execSQL("CREATE INDEX IF NOT EXISTS gallery_bucket_date_index ON gallery (bucket_id, date_modified)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS gallery_date_index ON gallery (date_modified)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS gallery_path_index ON gallery (path)");
+      }
+
+      if (oldVersion < GROUP_MEMBERSHIP) {
+        db.execSQL("CREATE TABLE group_membership (_id INTEGER PRIMARY KEY, " +
+                                                  "group_id TEXT NOT NULL, " +
+                                                  "recipient_id INTEGER NOT NULL, " +
+                                                  "role INTEGER DEFAULT 1, " +
+                                                  "UNIQUE(group_id, recipient_id) ON CONFLICT REPLACE)");
+
+        db.execSQL("CREATE INDEX IF NOT EXISTS group_membership_recipient_index ON group_membership (recipient_id, group_id)");
+
+        migrateGroupMembership(db);
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -942,4 +1024,117 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     for (String statement : statements)
       db.execSQL(statement);
   }
+
+  /**
+   * Moves the serialized reaction lists of a message table into the reaction table, one row per
+   * reaction, and clears the old column.
+   */
+  @VisibleForTesting
+  static void migrateReactions(@NonNull SQLiteDatabase db, @NonNull String table, boolean isMms) {
+    try (Cursor cursor = db.rawQuery("SELECT _id, reactions FROM " + table + " WHERE reactions NOT NULL", null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long   messageId = cursor.getLong(cursor.getColumnIndexOrThrow("_id"));
+        byte[] raw       = cursor.getBlob(cursor.getColumnIndexOrThrow("reactions"));
+
+        try {
+          for (ReactionList.Reaction reaction : ReactionList.parseFrom(raw).getReactionsList()) {
+            ContentValues values = new ContentValues(6);
+            values.put("message_id", messageId);
+            values.put("is_mms", isMms ? 1 : 0);
+            values.put("author_id", reaction.getAuthor());
+            values.put("emoji", reaction.getEmoji());
+            values.put("date_sent", reaction.getSentTime());
+            values.put("date_received", reaction.getReceivedTime());
+
+            db.insert("reaction", null, values);
+          }
+        } catch (InvalidProtocolBufferException e) {
+          Log.w(TAG, "Failed to parse reactions for " + table + " message " + messageId + ", dropping them.", e);
+        }
+      }
+    }
+
+    db.execSQL("UPDATE " + table + " SET reactions = NULL WHERE reactions NOT NULL");
+  }
+
+  private static void migrateGroupMembership(@NonNull SQLiteDatabase db) {
+    try (Cursor cursor = db.rawQuery("SELECT group_id, members, decrypted_group FROM groups", null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        String           groupId          = cursor.getString(cursor.getColumnIndexOrThrow("group_id"));
+        String           members          = cursor.getString(cursor.getColumnIndexOrThrow("members"));
+        byte[]           decryptedGroup   = cursor.getBlob(cursor.getColumnIndexOrThrow("decrypted_group"));
+        List<UUID>       administrators   = getAdministratorUuids(groupId, decryptedGroup);
+        Set<RecipientId> administratorIds = administrators.isEmpty() ? Collections.emptySet() : getRecipientIdsForUuids(db, administrators);
+
+        for (Map.Entry<RecipientId, Integer> member : getBackfilledRoles(members, administratorIds).entrySet()) {
+          ContentValues values = new ContentValues(3);
+          values.put("group_id", groupId);
+          values.put("recipient_id", member.getKey().toLong());
+          values.put("role", member.getValue());
+
+          db.insert("group_membership", null, values);
+        }
+      }
+    }
+  }
+
+  /**
+   * The membership rows for a group's serialized member list. Everyone has the default role except
+   * the given V2 administrators.
+   */
+  @VisibleForTesting
+  static @NonNull Map<RecipientId, Integer> getBackfilledRoles(@Nullable String members, @NonNull Set<RecipientId> administrators) {
+    Map<RecipientId, Integer> roles = new LinkedHashMap<>();
+
+    if (TextUtils.isEmpty(members)) {
+      return roles;
+    }
+
+    for (RecipientId member : RecipientId.fromSerializedList(members)) {
+      roles.put(member, administrators.contains(member) ? Member.Role.ADMINISTRATOR_VALUE : Member.Role.DEFAULT_VALUE);
+    }
+
+    return roles;
+  }
+
+  @VisibleForTesting
+  static @NonNull List<UUID> getAdministratorUuids(@NonNull String groupId, @Nullable byte[] decryptedGroup) {
+    List<UUID> administrators = new LinkedList<>();
+
+    if (decryptedGroup == null) {
+      return administrators;
+    }
+
+    try {
+      for (DecryptedMember member : DecryptedGroup.parseFrom(decryptedGroup).getMembersList()) {
+        if (member.getRole() == Member.Role.ADMINISTRATOR) {
+          administrators.add(UuidUtil.fromByteString(member.getUuid()));
+        }
+      }
+    } catch (InvalidProtocolBufferException e) {
+      Log.w(TAG, "Failed to parse group state for " + groupId + ", leaving every member's role as default.", e);
+      administrators.clear();
+    }
+
+    return administrators;
+  }
+
+  private static @NonNull Set<RecipientId> getRecipientIdsForUuids(@NonNull SQLiteDatabase db, @NonNull List<UUID> uuids) {
+    Set<RecipientId> ids          = new HashSet<>();
+    String[]         args         = new String[uuids.size()];
+    StringBuilder    placeholders = new StringBuilder();
+
+    for (int i = 0; i < args.length; i++) {
+      args[i] = uuids.get(i).toString();
+      placeholders.append(i == 0 ? "?" : ", ?");
+    }
+
+    try (Cursor cursor = db.rawQuery("SELECT _id FROM recipient WHERE uuid IN (" + placeholders + ")", args)) {
+      while (cursor != null && cursor.moveToNext()) {
+        ids.add(RecipientId.from(cursor.getLong(0)));
+      }
+    }
+
+    return ids;
+  }
 }
@@ -8,15 +8,19 @@ import android.database.MergeCursor;
 import org.thoughtcrime.securesms.contacts.ContactAccessor;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.AbstractCursorLoader;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 public class ConversationListLoader extends AbstractCursorLoader {
 
+  private static final int MAX_PRELOADED_RECIPIENTS = 20;
+
   private final String filter;
   private final boolean archived;
 
@@ -35,7 +39,7 @@ public class ConversationListLoader extends AbstractCursorLoader {
 
   private Cursor getUnarchivedConversationList() {
     List<Cursor> cursorList = new LinkedList<>();
-    cursorList.add(DatabaseFactory.getThreadDatabase(context).getConversationList());
+    cursorList.add(preloadRecipients(DatabaseFactory.getThreadDatabase(context).getConversationList()));
 
     int archivedCount = DatabaseFactory.getThreadDatabase(context)
                                        .getArchivedConversationListCount();
@@ -67,7 +71,7 @@ public class ConversationListLoader extends AbstractCursorLoader {
   }
 
   private Cursor getArchivedConversationList() {
-    return DatabaseFactory.getThreadDatabase(context).getArchivedConversationList();
+    return preloadRecipients(DatabaseFactory.getThreadDatabase(context).getArchivedConversationList());
   }
 
   private Cursor getFilteredConversationList(String filter) {
@@ -78,6 +82,31 @@ public class ConversationListLoader extends AbstractCursorLoader {
       recipientIds.add(Recipient.external(context, number).getId());
     }
 
-    return DatabaseFactory.getThreadDatabase(context).getFilteredConversationList(recipientIds);
+    return preloadRecipients(DatabaseFactory.getThreadDatabase(context).getFilteredConversationList(recipientIds));
+  }
+
+  /**
+   * Resolves the individual recipients of the first screen of threads together while we're still
+   * off the main thread, so binding those rows doesn't start a separate disk read for each one.
+   * This holds up the first draw of the list, so it's kept to a single query: groups, and the rows
+   * further down, are resolved as they're bound like before.
+   */
+  private Cursor preloadRecipients(Cursor cursor) {
+    if (cursor == null) {
+      return null;
+    }
+
+    List<RecipientId> recipientIds = new ArrayList<>(Math.min(cursor.getCount(), MAX_PRELOADED_RECIPIENTS));
+    int               column       = cursor.getColumnIndexOrThrow(ThreadDatabase.RECIPIENT_ID);
+
+    while (cursor.moveToNext() && recipientIds.size() < MAX_PRELOADED_RECIPIENTS) {
+      recipientIds.add(RecipientId.from(cursor.getLong(column)));
+    }
+
+    cursor.moveToPosition(-1);
+
+    ApplicationDependencies.getRecipientCache().resolveIndividuals(recipientIds);
+
+    return cursor;
   }
 }
@@ -6,6 +6,7 @@ import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.BuildConfig;
 import org.thoughtcrime.securesms.IncomingMessageProcessor;
+import org.thoughtcrime.securesms.ReceiptAggregator;
 import org.thoughtcrime.securesms.gcm.MessageRetriever;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.keyvalue.KeyValueStore;
@@ -49,6 +50,7 @@ public class ApplicationDependencies {
   private static MegaphoneRepository               megaphoneRepository;
   private static GroupsV2Operations                groupsV2Operations;
   private static EarlyMessageCache                 earlyMessageCache;
+  private static ReceiptAggregator                 receiptAggregator;
 
   public static synchronized void init(@NonNull Application application, @NonNull Provider provider) {
     if (ApplicationDependencies.application != null || ApplicationDependencies.provider != null) {
@@ -207,6 +209,16 @@ public class ApplicationDependencies {
     return earlyMessageCache;
   }
 
+  public static synchronized @NonNull ReceiptAggregator getReceiptAggregator() {
+    assertInitialization();
+
+    if (receiptAggregator == null) {
+      receiptAggregator = provider.provideReceiptAggregator();
+    }
+
+    return receiptAggregator;
+  }
+
   private static void assertInitialization() {
     if (application == null || provider == null) {
       throw new UninitializedException();
@@ -227,6 +239,7 @@ public class ApplicationDependencies {
     @NonNull KeyValueStore provideKeyValueStore();
     @NonNull MegaphoneRepository provideMegaphoneRepository();
     @NonNull EarlyMessageCache provideEarlyMessageCache();
+    @NonNull ReceiptAggregator provideReceiptAggregator();
   }
 
   private static class UninitializedException extends IllegalStateException {
@@ -76,10 +76,20 @@ class JobController {
 
   @WorkerThread
   synchronized void submitNewJobChain(@NonNull List<List<Job>> chain) {
+    submitNewJobChain(chain, null);
+  }
+
+  /**
+   * @param inTransaction Run in the transaction that persists the chain, or on its own if the
+   *                      chain is skipped.
+   */
+  @WorkerThread
+  synchronized void submitNewJobChain(@NonNull List<List<Job>> chain, @Nullable Runnable inTransaction) {
     chain = Stream.of(chain).filterNot(List::isEmpty).toList();
 
     if (chain.isEmpty()) {
       Log.w(TAG, "Tried to submit an empty job chain. Skipping.");
+      if (inTransaction != null) inTransaction.run();
       return;
     }
 
@@ -87,10 +97,11 @@ class JobController {
       Job solo = chain.get(0).get(0);
       jobTracker.onStateChange(solo, JobTracker.JobState.IGNORED);
       Log.w(TAG, JobLogger.format(solo, "Already at the max instance count of " + solo.getParameters().getMaxInstances() + ". Skipping."));
+      if (inTransaction != null) inTransaction.run();
       return;
     }
 
-    insertJobChain(chain);
+    insertJobChain(chain, inTransaction);
     scheduleJobs(chain.get(0));
     triggerOnSubmit(chain);
     notifyAll();
@@ -302,7 +313,7 @@ class JobController {
   }
 
   @WorkerThread
-  private void insertJobChain(@NonNull List<List<Job>> chain) {
+  private void insertJobChain(@NonNull List<List<Job>> chain, @Nullable Runnable inTransaction) {
     List<FullSpec> fullSpecs = new LinkedList<>();
     List<String>   dependsOn = Collections.emptyList();
 
@@ -313,7 +324,8 @@ class JobController {
       dependsOn = Stream.of(jobList).map(Job::getId).toList();
     }
 
-    jobStorage.insertJobs(fullSpecs);
+    if (inTransaction != null) jobStorage.insertJobs(fullSpecs, inTransaction);
+    else                       jobStorage.insertJobs(fullSpecs);
   }
 
   @WorkerThread
@@ -4,6 +4,7 @@ import android.app.Application;
 import android.content.Intent;
 import android.os.Build;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import org.thoughtcrime.securesms.jobmanager.impl.DefaultExecutorFactory;
@@ -143,6 +144,42 @@ public class JobManager implements ConstraintObserver.Notifier {
     });
   }
 
+  /**
+   * Enqueues a single job, running {@code inTransaction} in the same database transaction that
+   * persists it, so that either both are saved or neither is. Blocks until that has committed.
+   */
+  @WorkerThread
+  public void addAndWait(@NonNull Job job, @NonNull Runnable inTransaction) throws InterruptedException {
+    submitAndWait(Collections.singletonList(job), inTransaction);
+  }
+
+  /**
+   * Enqueues a set of jobs that can be run in parallel, like {@link #startChain(List)}, and blocks
+   * until they have all been persisted in one transaction.
+   */
+  @WorkerThread
+  public void addAllAndWait(@NonNull List<? extends Job> jobs) throws InterruptedException {
+    submitAndWait(new ArrayList<>(jobs), null);
+  }
+
+  private void submitAndWait(@NonNull List<Job> jobs, @Nullable Runnable inTransaction) throws InterruptedException {
+    for (Job job : jobs) {
+      jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+    }
+
+    Future<?> result = executor.submit(() -> {
+      jobController.submitNewJobChain(Collections.singletonList(jobs), inTransaction);
+      wakeUp();
+    });
+
+    try {
+      result.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      else                                          throw new AssertionError(e.getCause());
+    }
+  }
+
   /**
    * Begins the creation of a job chain with a single job.
    * @see Chain
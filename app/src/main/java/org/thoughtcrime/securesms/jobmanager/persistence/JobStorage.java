@@ -14,6 +14,12 @@ public interface JobStorage {
   @WorkerThread
   void insertJobs(@NonNull List<FullSpec> fullSpecs);
 
+  /**
+   * Inserts the jobs and runs {@code inTransaction} in the same database transaction.
+   */
+  @WorkerThread
+  void insertJobs(@NonNull List<FullSpec> fullSpecs, @NonNull Runnable inTransaction);
+
   @WorkerThread
   @Nullable JobSpec getJobSpec(@NonNull String id);
 
@@ -28,6 +28,7 @@ import org.thoughtcrime.securesms.util.BitmapDecodingException;
 import org.thoughtcrime.securesms.util.BitmapUtil;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.MemoryFileDescriptor.MemoryFileException;
+import org.thoughtcrime.securesms.util.concurrent.MemoryBudget;
 import org.thoughtcrime.securesms.video.InMemoryTranscoder;
 import org.thoughtcrime.securesms.video.VideoSizeException;
 import org.thoughtcrime.securesms.video.VideoSourceException;
@@ -49,6 +50,12 @@ public final class AttachmentCompressionJob extends BaseJob {
   private static final String KEY_MMS                 = "mms";
   private static final String KEY_MMS_SUBSCRIPTION_ID = "mms_subscription_id";
 
+  /** Images of an album are spread over this many queues, so they compress in parallel. */
+  private static final int IMAGE_TRANSCODE_QUEUES  = 2;
+  private static final int WORKING_BYTES_PER_PIXEL = 6;
+
+  private static final MemoryBudget IMAGE_MEMORY_BUDGET = new MemoryBudget(Runtime.getRuntime().maxMemory() / 3);
+
   private final AttachmentId attachmentId;
   private final boolean      mms;
   private final int          mmsSubscriptionId;
@@ -58,13 +65,13 @@ public final class AttachmentCompressionJob extends BaseJob {
                                                         int mmsSubscriptionId)
   {
     return new AttachmentCompressionJob(databaseAttachment.getAttachmentId(),
-                                        MediaUtil.isVideo(databaseAttachment) && MediaConstraints.isVideoTranscodeAvailable(),
+                                        getQueue(databaseAttachment),
                                         mms,
                                         mmsSubscriptionId);
   }
 
   private AttachmentCompressionJob(@NonNull AttachmentId attachmentId,
-                                   boolean isVideoTranscode,
+                                   @NonNull String queue,
                                    boolean mms,
                                    int mmsSubscriptionId)
   {
@@ -72,7 +79,7 @@ public final class AttachmentCompressionJob extends BaseJob {
                        .addConstraint(NetworkConstraint.KEY)
                        .setLifespan(TimeUnit.DAYS.toMillis(1))
                        .setMaxAttempts(Parameters.UNLIMITED)
-                       .setQueue(isVideoTranscode ? "VIDEO_TRANSCODE" : "GENERIC_TRANSCODE")
+                       .setQueue(queue)
                        .build(),
          attachmentId,
          mms,
@@ -90,6 +97,16 @@ public final class AttachmentCompressionJob extends BaseJob {
     this.mmsSubscriptionId = mmsSubscriptionId;
   }
 
+  private static @NonNull String getQueue(@NonNull DatabaseAttachment attachment) {
+    if (MediaUtil.isVideo(attachment) && MediaConstraints.isVideoTranscodeAvailable()) {
+      return "VIDEO_TRANSCODE";
+    } else if (MediaUtil.isImage(attachment)) {
+      return "IMAGE_TRANSCODE_" + (attachment.getAttachmentId().getRowId() % IMAGE_TRANSCODE_QUEUES);
+    } else {
+      return "GENERIC_TRANSCODE";
+    }
+  }
+
   @Override
   public @NonNull Data serialize() {
     return new Data.Builder().putLong(KEY_ROW_ID, attachmentId.getRowId())
@@ -243,7 +260,7 @@ public final class AttachmentCompressionJob extends BaseJob {
       throw new UnsupportedOperationException("Cannot resize this content type");
     }
 
-    try {
+    try (MemoryBudget.Reservation ignored = IMAGE_MEMORY_BUDGET.reserve(estimateWorkingMemory(context, attachment, constraints))) {
       BitmapUtil.ScaleResult scaleResult = BitmapUtil.createScaledBytes(context,
                                                                         new DecryptableStreamUriLoader.DecryptableUri(attachment.getDataUri()),
                                                                         constraints);
@@ -254,9 +271,30 @@ public final class AttachmentCompressionJob extends BaseJob {
                              scaleResult.getHeight());
     } catch (BitmapDecodingException e) {
       throw new IOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
     }
   }
 
+  /**
+   * Roughly what scaling the image will hold at its peak: the decoded bitmap plus the decoder's
+   * and encoder's working copies. Unknown dimensions are assumed to fill the constraints.
+   */
+  private static long estimateWorkingMemory(@NonNull Context context,
+                                            @NonNull Attachment attachment,
+                                            @NonNull MediaConstraints constraints)
+  {
+    long maxPixels = (long) constraints.getImageMaxWidth(context) * constraints.getImageMaxHeight(context);
+    long pixels    = (long) attachment.getWidth() * attachment.getHeight();
+
+    if (pixels <= 0 || pixels > maxPixels) {
+      pixels = maxPixels;
+    }
+
+    return pixels * WORKING_BYTES_PER_PIXEL;
+  }
+
   public static final class Factory implements Job.Factory<AttachmentCompressionJob> {
     @Override
     public @NonNull AttachmentCompressionJob create(@NonNull Parameters parameters, @NonNull Data data) {
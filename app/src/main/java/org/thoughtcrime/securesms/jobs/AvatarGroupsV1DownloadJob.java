@@ -20,6 +20,7 @@ import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentRemo
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentPointer;
 import org.whispersystems.signalservice.api.push.exceptions.MissingConfigurationException;
 import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.internal.push.http.SegmentedDownload;
 
 import java.io.File;
 import java.io.IOException;
@@ -96,8 +97,10 @@ public final class AvatarGroupsV1DownloadJob extends BaseJob {
     } catch (NonSuccessfulResponseCodeException | InvalidMessageException | MissingConfigurationException e) {
       Log.w(TAG, e);
     } finally {
-      if (attachment != null)
+      if (attachment != null) {
         attachment.delete();
+        SegmentedDownload.deleteState(attachment);
+      }
     }
   }
 
@@ -20,6 +20,7 @@ import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
 import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
 import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.internal.push.http.SegmentedDownload;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -109,6 +110,10 @@ public final class AvatarGroupsV2DownloadJob extends BaseJob {
         if (!attachment.delete()) {
           Log.w(TAG, "Unable to delete temp avatar file");
         }
+
+      if (attachment != null) {
+        SegmentedDownload.deleteState(attachment);
+      }
     }
   }
 
@@ -14,32 +14,58 @@ import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
 import org.thoughtcrime.securesms.util.Util;
-import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 public class FastJobStorage implements JobStorage {
 
   private final JobDatabase jobDatabase;
 
-  private final List<JobSpec>                     jobs;
+  private final Map<String, JobSpec>              jobs;
   private final Map<String, List<ConstraintSpec>> constraintsByJobId;
   private final Map<String, List<DependencySpec>> dependenciesByJobId;
 
+  /** Reverse of {@link #dependenciesByJobId}: depended-on job id -> ids of the jobs waiting on it. */
+  private final Map<String, Set<String>>       dependentsByJobId;
+  private final Map<String, TreeSet<JobSpec>>  jobsByQueueKey;
+  private final Map<String, Integer>           instanceCountByFactoryKey;
+  private final Map<String, Long>              insertionOrderByJobId;
+
+  /** Jobs that are not running, have no dependencies and are at the head of their queue, ordered by next run time. */
+  private final TreeSet<JobSpec> eligibleJobs;
+
+  private final Comparator<JobSpec> createdOrder;
+
+  private long nextInsertionOrder;
+
   public FastJobStorage(@NonNull JobDatabase jobDatabase) {
-    this.jobDatabase         = jobDatabase;
-    this.jobs                = new ArrayList<>();
-    this.constraintsByJobId  = new HashMap<>();
-    this.dependenciesByJobId = new HashMap<>();
+    this.jobDatabase               = jobDatabase;
+    this.jobs                      = new LinkedHashMap<>();
+    this.constraintsByJobId        = new HashMap<>();
+    this.dependenciesByJobId       = new HashMap<>();
+    this.dependentsByJobId         = new HashMap<>();
+    this.jobsByQueueKey            = new HashMap<>();
+    this.instanceCountByFactoryKey = new HashMap<>();
+    this.insertionOrderByJobId     = new HashMap<>();
+    this.createdOrder              = (j1, j2) -> {
+      int result = Long.compare(j1.getCreateTime(), j2.getCreateTime());
+      return result != 0 ? result : Long.compare(insertionOrderByJobId.get(j1.getId()), insertionOrderByJobId.get(j2.getId()));
+    };
+    this.eligibleJobs              = new TreeSet<>((j1, j2) -> {
+      int result = Long.compare(j1.getNextRunAttemptTime(), j2.getNextRunAttemptTime());
+      return result != 0 ? result : createdOrder.compare(j1, j2);
+    });
   }
 
   @Override
@@ -48,8 +74,6 @@ public class FastJobStorage implements JobStorage {
     List<ConstraintSpec> constraintSpecs = jobDatabase.getAllConstraintSpecs();
     List<DependencySpec> dependencySpecs = jobDatabase.getAllDependencySpecs();
 
-    jobs.addAll(jobSpecs);
-
     for (ConstraintSpec constraintSpec: constraintSpecs) {
       List<ConstraintSpec> jobConstraints = Util.getOrDefault(constraintsByJobId, constraintSpec.getJobSpecId(), new LinkedList<>());
       jobConstraints.add(constraintSpec);
@@ -57,109 +81,102 @@ public class FastJobStorage implements JobStorage {
     }
 
     for (DependencySpec dependencySpec : dependencySpecs) {
-      List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
-      jobDependencies.add(dependencySpec);
-      dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+      addDependency(dependencySpec);
+    }
+
+    for (JobSpec jobSpec : jobSpecs) {
+      addJob(jobSpec);
     }
   }
 
   @Override
   public synchronized void insertJobs(@NonNull List<FullSpec> fullSpecs) {
     jobDatabase.insertJobs(fullSpecs);
+    addFullSpecs(fullSpecs);
+  }
+
+  @Override
+  public synchronized void insertJobs(@NonNull List<FullSpec> fullSpecs, @NonNull Runnable inTransaction) {
+    jobDatabase.insertJobs(fullSpecs, inTransaction);
+    addFullSpecs(fullSpecs);
+  }
 
+  private void addFullSpecs(@NonNull List<FullSpec> fullSpecs) {
     for (FullSpec fullSpec : fullSpecs) {
-      jobs.add(fullSpec.getJobSpec());
       constraintsByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getConstraintSpecs());
-      dependenciesByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getDependencySpecs());
+
+      for (DependencySpec dependencySpec : fullSpec.getDependencySpecs()) {
+        addDependency(dependencySpec);
+      }
+
+      addJob(fullSpec.getJobSpec());
     }
   }
 
   @Override
   public synchronized @Nullable JobSpec getJobSpec(@NonNull String id) {
-    for (JobSpec jobSpec : jobs) {
-      if (jobSpec.getId().equals(id)) {
-        return jobSpec;
-      }
-    }
-    return null;
+    return jobs.get(id);
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
-    return new ArrayList<>(jobs);
+    return new ArrayList<>(jobs.values());
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(long currentTime) {
-    Optional<JobSpec> migrationJob = getMigrationJob();
+    JobSpec migrationJob = getMigrationJob();
 
-    if (migrationJob.isPresent() && !migrationJob.get().isRunning() && migrationJob.get().getNextRunAttemptTime() <= currentTime) {
-      return Collections.singletonList(migrationJob.get());
-    } else if (migrationJob.isPresent()) {
+    if (migrationJob != null && !migrationJob.isRunning() && migrationJob.getNextRunAttemptTime() <= currentTime) {
+      return Collections.singletonList(migrationJob);
+    } else if (migrationJob != null) {
       return Collections.emptyList();
     } else {
-      return Stream.of(jobs)
-                   .filterNot(JobSpec::isRunning)
-                   .filter(this::firstInQueue)
-                   .filter(j -> !dependenciesByJobId.containsKey(j.getId()) || dependenciesByJobId.get(j.getId()).isEmpty())
-                   .filter(j -> j.getNextRunAttemptTime() <= currentTime)
-                   .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                   .toList();
-    }
-  }
+      List<JobSpec> pending = new ArrayList<>();
 
-  private Optional<JobSpec> getMigrationJob() {
-    return Optional.fromNullable(Stream.of(jobs)
-                                       .filter(j -> Job.Parameters.MIGRATION_QUEUE_KEY.equals(j.getQueueKey()))
-                                       .filter(this::firstInQueue)
-                                       .findFirst()
-                                       .orElse(null));
-  }
+      for (JobSpec job : eligibleJobs) {
+        if (job.getNextRunAttemptTime() > currentTime) {
+          break;
+        }
+        pending.add(job);
+      }
+
+      Collections.sort(pending, createdOrder);
 
-  private boolean firstInQueue(@NonNull JobSpec job) {
-    if (job.getQueueKey() == null) {
-      return true;
+      return pending;
     }
+  }
 
-    return Stream.of(jobs)
-                 .filter(j -> Util.equals(j.getQueueKey(), job.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList()
-                 .get(0)
-                 .equals(job);
+  private @Nullable JobSpec getMigrationJob() {
+    TreeSet<JobSpec> migrationQueue = jobsByQueueKey.get(Job.Parameters.MIGRATION_QUEUE_KEY);
+    return migrationQueue != null ? migrationQueue.first() : null;
   }
 
   @Override
   public synchronized int getJobInstanceCount(@NonNull String factoryKey) {
-    return (int) Stream.of(jobs)
-                       .filter(j -> j.getFactoryKey().equals(factoryKey))
-                       .count();
+    return Util.getOrDefault(instanceCountByFactoryKey, factoryKey, 0);
   }
 
   @Override
   public synchronized void updateJobRunningState(@NonNull String id, boolean isRunning) {
     jobDatabase.updateJobRunningState(id, isRunning);
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      existing.getNextRunAttemptTime(),
-                                      existing.getRunAttempt(),
-                                      existing.getMaxAttempts(),
-                                      existing.getMaxBackoff(),
-                                      existing.getLifespan(),
-                                      existing.getMaxInstances(),
-                                      existing.getSerializedData(),
-                                      existing.getSerializedInputData(),
-                                      isRunning);
-        iter.set(updated);
-      }
+    JobSpec existing = jobs.get(id);
+
+    if (existing != null) {
+      replaceJob(new JobSpec(existing.getId(),
+                             existing.getFactoryKey(),
+                             existing.getQueueKey(),
+                             existing.getCreateTime(),
+                             existing.getNextRunAttemptTime(),
+                             existing.getRunAttempt(),
+                             existing.getMaxAttempts(),
+                             existing.getMaxBackoff(),
+                             existing.getLifespan(),
+                             existing.getMaxInstances(),
+                             existing.getSerializedData(),
+                             existing.getSerializedInputData(),
+                             isRunning));
     }
   }
 
@@ -167,26 +184,22 @@ public class FastJobStorage implements JobStorage {
   public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
     jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData);
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      nextRunAttemptTime,
-                                      runAttempt,
-                                      existing.getMaxAttempts(),
-                                      existing.getMaxBackoff(),
-                                      existing.getLifespan(),
-                                      existing.getMaxInstances(),
-                                      serializedData,
-                                      existing.getSerializedInputData(),
-                                      isRunning);
-        iter.set(updated);
-      }
+    JobSpec existing = jobs.get(id);
+
+    if (existing != null) {
+      replaceJob(new JobSpec(existing.getId(),
+                             existing.getFactoryKey(),
+                             existing.getQueueKey(),
+                             existing.getCreateTime(),
+                             nextRunAttemptTime,
+                             runAttempt,
+                             existing.getMaxAttempts(),
+                             existing.getMaxBackoff(),
+                             existing.getLifespan(),
+                             existing.getMaxInstances(),
+                             serializedData,
+                             existing.getSerializedInputData(),
+                             isRunning));
     }
   }
 
@@ -194,40 +207,34 @@ public class FastJobStorage implements JobStorage {
   public synchronized void updateAllJobsToBePending() {
     jobDatabase.updateAllJobsToBePending();
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec updated  = new JobSpec(existing.getId(),
-                                     existing.getFactoryKey(),
-                                     existing.getQueueKey(),
-                                     existing.getCreateTime(),
-                                     existing.getNextRunAttemptTime(),
-                                     existing.getRunAttempt(),
-                                     existing.getMaxAttempts(),
-                                     existing.getMaxBackoff(),
-                                     existing.getLifespan(),
-                                     existing.getMaxInstances(),
-                                     existing.getSerializedData(),
-                                     existing.getSerializedInputData(),
-                                     false);
-      iter.set(updated);
+    for (JobSpec existing : new ArrayList<>(jobs.values())) {
+      if (!existing.isRunning()) {
+        continue;
+      }
+
+      replaceJob(new JobSpec(existing.getId(),
+                             existing.getFactoryKey(),
+                             existing.getQueueKey(),
+                             existing.getCreateTime(),
+                             existing.getNextRunAttemptTime(),
+                             existing.getRunAttempt(),
+                             existing.getMaxAttempts(),
+                             existing.getMaxBackoff(),
+                             existing.getLifespan(),
+                             existing.getMaxInstances(),
+                             existing.getSerializedData(),
+                             existing.getSerializedInputData(),
+                             false));
     }
   }
 
   @Override
-  public void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+  public synchronized void updateJobs(@NonNull List<JobSpec> jobSpecs) {
     jobDatabase.updateJobs(jobSpecs);
 
-    Map<String, JobSpec>  updates = Stream.of(jobSpecs).collect(Collectors.toMap(JobSpec::getId));
-    ListIterator<JobSpec> iter    = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec update   = updates.get(existing.getId());
-
-      if (update != null) {
-        iter.set(update);
+    for (JobSpec update : jobSpecs) {
+      if (jobs.containsKey(update.getId())) {
+        replaceJob(update);
       }
     }
   }
@@ -241,25 +248,51 @@ public class FastJobStorage implements JobStorage {
   public synchronized void deleteJobs(@NonNull List<String> jobIds) {
     jobDatabase.deleteJobs(jobIds);
 
-    Set<String> deleteIds = new HashSet<>(jobIds);
+    for (String jobId : jobIds) {
+      JobSpec job = jobs.remove(jobId);
+
+      if (job != null) {
+        removeFromIndexes(job);
+        insertionOrderByJobId.remove(jobId);
 
-    Iterator<JobSpec> jobIter = jobs.iterator();
-    while (jobIter.hasNext()) {
-      if (deleteIds.contains(jobIter.next().getId())) {
-        jobIter.remove();
+        int count = Util.getOrDefault(instanceCountByFactoryKey, job.getFactoryKey(), 0) - 1;
+        if (count > 0) {
+          instanceCountByFactoryKey.put(job.getFactoryKey(), count);
+        } else {
+          instanceCountByFactoryKey.remove(job.getFactoryKey());
+        }
       }
-    }
 
-    for (String jobId : jobIds) {
       constraintsByJobId.remove(jobId);
-      dependenciesByJobId.remove(jobId);
 
-      for (Map.Entry<String, List<DependencySpec>> entry : dependenciesByJobId.entrySet()) {
-        Iterator<DependencySpec> depedencyIter = entry.getValue().iterator();
+      List<DependencySpec> ownDependencies = dependenciesByJobId.remove(jobId);
+      if (ownDependencies != null) {
+        for (DependencySpec dependencySpec : ownDependencies) {
+          Set<String> dependents = dependentsByJobId.get(dependencySpec.getDependsOnJobId());
+          if (dependents != null) {
+            dependents.remove(jobId);
+          }
+        }
+      }
 
-        while (depedencyIter.hasNext()) {
-          if (depedencyIter.next().getDependsOnJobId().equals(jobId)) {
-            depedencyIter.remove();
+      Set<String> dependents = dependentsByJobId.remove(jobId);
+      if (dependents != null) {
+        for (String dependentId : dependents) {
+          List<DependencySpec> dependentDependencies = dependenciesByJobId.get(dependentId);
+
+          if (dependentDependencies != null) {
+            Iterator<DependencySpec> dependencyIter = dependentDependencies.iterator();
+
+            while (dependencyIter.hasNext()) {
+              if (dependencyIter.next().getDependsOnJobId().equals(jobId)) {
+                dependencyIter.remove();
+              }
+            }
+          }
+
+          JobSpec dependent = jobs.get(dependentId);
+          if (dependent != null) {
+            updateEligibility(dependent);
           }
         }
       }
@@ -301,18 +334,126 @@ public class FastJobStorage implements JobStorage {
   }
 
   private @NonNull List<DependencySpec> getSingleLayerOfDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
-    return Stream.of(dependenciesByJobId.entrySet())
-                 .map(Map.Entry::getValue)
-                 .flatMap(Stream::of)
-                 .filter(j -> j.getDependsOnJobId().equals(jobSpecId))
-                 .toList();
+    Set<String>          dependents = dependentsByJobId.get(jobSpecId);
+    List<DependencySpec> layer      = new ArrayList<>();
+
+    if (dependents == null) {
+      return layer;
+    }
+
+    for (String dependentId : dependents) {
+      for (DependencySpec dependencySpec : Util.getOrDefault(dependenciesByJobId, dependentId, Collections.<DependencySpec>emptyList())) {
+        if (dependencySpec.getDependsOnJobId().equals(jobSpecId)) {
+          layer.add(dependencySpec);
+        }
+      }
+    }
+
+    return layer;
   }
 
   @Override
-  public @NonNull List<DependencySpec> getAllDependencySpecs() {
+  public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
     return Stream.of(dependenciesByJobId)
                  .map(Map.Entry::getValue)
                  .flatMap(Stream::of)
                  .toList();
   }
+
+  private void addJob(@NonNull JobSpec job) {
+    jobs.put(job.getId(), job);
+    insertionOrderByJobId.put(job.getId(), nextInsertionOrder++);
+    instanceCountByFactoryKey.put(job.getFactoryKey(), Util.getOrDefault(instanceCountByFactoryKey, job.getFactoryKey(), 0) + 1);
+    addToIndexes(job);
+  }
+
+  /**
+   * Swaps in a new version of an existing job. The entry in {@link #jobs} is overwritten in place
+   * so that {@link #getAllJobSpecs()} keeps its ordering.
+   */
+  private void replaceJob(@NonNull JobSpec updated) {
+    JobSpec existing = jobs.get(updated.getId());
+
+    removeFromIndexes(existing);
+    jobs.put(updated.getId(), updated);
+    addToIndexes(updated);
+  }
+
+  private void addDependency(@NonNull DependencySpec dependencySpec) {
+    List<DependencySpec> jobDependencies = dependenciesByJobId.get(dependencySpec.getJobId());
+    if (jobDependencies == null) {
+      jobDependencies = new LinkedList<>();
+      dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+    }
+    jobDependencies.add(dependencySpec);
+
+    Set<String> dependents = dependentsByJobId.get(dependencySpec.getDependsOnJobId());
+    if (dependents == null) {
+      dependents = new HashSet<>();
+      dependentsByJobId.put(dependencySpec.getDependsOnJobId(), dependents);
+    }
+    dependents.add(dependencySpec.getJobId());
+  }
+
+  private void addToIndexes(@NonNull JobSpec job) {
+    if (job.getQueueKey() != null) {
+      TreeSet<JobSpec> queue = jobsByQueueKey.get(job.getQueueKey());
+
+      if (queue == null) {
+        queue = new TreeSet<>(createdOrder);
+        jobsByQueueKey.put(job.getQueueKey(), queue);
+      }
+
+      JobSpec previousHead = queue.isEmpty() ? null : queue.first();
+
+      queue.add(job);
+
+      if (previousHead != null && queue.first() != previousHead) {
+        updateEligibility(previousHead);
+      }
+    }
+
+    updateEligibility(job);
+  }
+
+  private void removeFromIndexes(@NonNull JobSpec job) {
+    eligibleJobs.remove(job);
+
+    if (job.getQueueKey() != null) {
+      TreeSet<JobSpec> queue = jobsByQueueKey.get(job.getQueueKey());
+
+      if (queue != null) {
+        boolean wasHead = queue.first() == job;
+
+        queue.remove(job);
+
+        if (queue.isEmpty()) {
+          jobsByQueueKey.remove(job.getQueueKey());
+        } else if (wasHead) {
+          updateEligibility(queue.first());
+        }
+      }
+    }
+  }
+
+  private void updateEligibility(@NonNull JobSpec job) {
+    eligibleJobs.remove(job);
+
+    if (isEligible(job)) {
+      eligibleJobs.add(job);
+    }
+  }
+
+  private boolean isEligible(@NonNull JobSpec job) {
+    if (job.isRunning()) {
+      return false;
+    }
+
+    List<DependencySpec> dependencies = dependenciesByJobId.get(job.getId());
+    if (dependencies != null && !dependencies.isEmpty()) {
+      return false;
+    }
+
+    return job.getQueueKey() == null || jobsByQueueKey.get(job.getQueueKey()).first() == job;
+  }
 }
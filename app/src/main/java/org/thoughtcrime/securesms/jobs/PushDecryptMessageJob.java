@@ -5,9 +5,13 @@ import android.content.Context;
 import android.content.Intent;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
+import com.annimon.stream.LongStream;
+import com.annimon.stream.Stream;
+
 import org.signal.libsignal.metadata.InvalidMetadataMessageException;
 import org.signal.libsignal.metadata.InvalidMetadataVersionException;
 import org.signal.libsignal.metadata.ProtocolDuplicateMessageException;
@@ -26,7 +30,6 @@ import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
 import org.thoughtcrime.securesms.crypto.UnidentifiedAccessUtil;
 import org.thoughtcrime.securesms.crypto.storage.SignalProtocolStoreImpl;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
-import org.thoughtcrime.securesms.database.NoSuchMessageException;
 import org.thoughtcrime.securesms.database.PushDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.BadGroupIdException;
@@ -47,9 +50,8 @@ import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.internal.push.UnsupportedDataMessageException;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public final class PushDecryptMessageJob extends BaseJob {
 
@@ -58,36 +60,54 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   public static final String TAG = Log.tag(PushDecryptMessageJob.class);
 
+  /**
+   * The most envelopes a single job will decrypt. Bursts larger than this are split across several
+   * jobs, which run in order on the same queue.
+   */
+  public static final int MAX_BATCH_SIZE = 50;
+
   private static final String KEY_MESSAGE_ID     = "message_id";
+  private static final String KEY_MESSAGE_IDS    = "message_ids";
   private static final String KEY_SMS_MESSAGE_ID = "sms_message_id";
 
-  private final long messageId;
-  private final long smsMessageId;
+  private final long[] messageIds;
+  private final long   smsMessageId;
 
   public PushDecryptMessageJob(Context context, long pushMessageId) {
     this(context, pushMessageId, -1);
   }
 
   public PushDecryptMessageJob(Context context, long pushMessageId, long smsMessageId) {
+    this(context, new long[] { pushMessageId }, smsMessageId);
+  }
+
+  /**
+   * Decrypts several envelopes in the order given, with one read of the {@link PushDatabase}.
+   */
+  public PushDecryptMessageJob(Context context, @NonNull List<Long> pushMessageIds) {
+    this(context, Stream.of(pushMessageIds).mapToLong(Long::longValue).toArray(), -1);
+  }
+
+  private PushDecryptMessageJob(Context context, @NonNull long[] pushMessageIds, long smsMessageId) {
     this(new Parameters.Builder()
                            .setQueue(QUEUE)
                            .setMaxAttempts(Parameters.UNLIMITED)
                            .build(),
-         pushMessageId,
+         pushMessageIds,
          smsMessageId);
     setContext(context);
   }
 
-  private PushDecryptMessageJob(@NonNull Parameters parameters, long pushMessageId, long smsMessageId) {
+  private PushDecryptMessageJob(@NonNull Parameters parameters, @NonNull long[] pushMessageIds, long smsMessageId) {
     super(parameters);
 
-    this.messageId    = pushMessageId;
+    this.messageIds   = pushMessageIds;
     this.smsMessageId = smsMessageId;
   }
 
   @Override
   public @NonNull Data serialize() {
-    return new Data.Builder().putLong(KEY_MESSAGE_ID, messageId)
+    return new Data.Builder().putLongArray(KEY_MESSAGE_IDS, messageIds)
                              .putLong(KEY_SMS_MESSAGE_ID, smsMessageId)
                              .build();
   }
@@ -98,28 +118,45 @@ public final class PushDecryptMessageJob extends BaseJob {
   }
 
   @Override
-  public void onRun() throws NoSuchMessageException, RetryLaterException {
+  public void onRun() throws RetryLaterException {
     if (needsMigration()) {
       Log.w(TAG, "Migration is still needed.");
       postMigrationNotification();
       throw new RetryLaterException();
     }
 
-    PushDatabase          database   = DatabaseFactory.getPushDatabase(context);
-    SignalServiceEnvelope envelope   = database.get(messageId);
-    JobManager            jobManager = ApplicationDependencies.getJobManager();
+    PushDatabase                     database       = DatabaseFactory.getPushDatabase(context);
+    JobManager                       jobManager     = ApplicationDependencies.getJobManager();
+    Map<Long, SignalServiceEnvelope> envelopes      = database.get(LongStream.of(messageIds).boxed().toList());
+    SignalServiceCipher              cipher         = createCipher();
+    boolean                          refreshPreKeys = false;
 
     try {
-      List<Job> jobs = handleMessage(envelope);
+      for (long messageId : messageIds) {
+        SignalServiceEnvelope envelope = envelopes.get(messageId);
 
-      for (Job job: jobs) {
-        jobManager.add(job);
+        if (envelope == null) {
+          Log.w(TAG, "Envelope " + messageId + " is no longer available. Skipping.");
+          continue;
+        }
+
+        Job job = null;
+
+        try {
+          job = handleMessage(cipher, envelope, messageId);
+        } catch (NoSenderException e) {
+          Log.w(TAG, "Invalid message, but no sender info!");
+        }
+
+        refreshPreKeys |= envelope.isPreKeySignalMessage();
+
+        enqueueAndDelete(jobManager, database, job, messageId);
+      }
+    } finally {
+      if (refreshPreKeys) {
+        jobManager.add(new RefreshPreKeysJob());
       }
-    } catch (NoSenderException e) {
-      Log.w(TAG, "Invalid message, but no sender info!");
     }
-
-    database.delete(messageId);
   }
 
   @Override
@@ -150,81 +187,101 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   }
 
-  private @NonNull List<Job> handleMessage(@NonNull SignalServiceEnvelope envelope) throws NoSenderException {
+  /**
+   * Saves the job holding a decrypted envelope and deletes the envelope in one transaction, before
+   * the next envelope is decrypted. The session has already advanced past the envelope, so it can't
+   * be decrypted a second time, and a retry of this job only skips it once its row is gone.
+   */
+  private static void enqueueAndDelete(@NonNull JobManager jobManager, @NonNull PushDatabase database, @Nullable Job job, long messageId)
+      throws RetryLaterException
+  {
+    if (job == null) {
+      database.delete(messageId);
+      return;
+    }
+
     try {
-      SignalProtocolStore  axolotlStore = new SignalProtocolStoreImpl(context);
-      SignalServiceAddress localAddress = new SignalServiceAddress(Optional.of(TextSecurePreferences.getLocalUuid(context)), Optional.of(TextSecurePreferences.getLocalNumber(context)));
-      SignalServiceCipher  cipher       = new SignalServiceCipher(localAddress, axolotlStore, UnidentifiedAccessUtil.getCertificateValidator());
+      jobManager.addAndWait(job, () -> database.delete(messageId));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RetryLaterException(e);
+    }
+  }
 
-      SignalServiceContent content = cipher.decrypt(envelope);
+  private @NonNull SignalServiceCipher createCipher() {
+    SignalProtocolStore  axolotlStore = new SignalProtocolStoreImpl(context);
+    SignalServiceAddress localAddress = new SignalServiceAddress(Optional.of(TextSecurePreferences.getLocalUuid(context)), Optional.of(TextSecurePreferences.getLocalNumber(context)));
 
-      List<Job> jobs = new ArrayList<>(2);
+    return new SignalServiceCipher(localAddress, axolotlStore, UnidentifiedAccessUtil.getCertificateValidator());
+  }
 
-      if (content != null) {
-        jobs.add(new PushProcessMessageJob(content.serialize(), messageId, smsMessageId, envelope.getTimestamp()));
-      }
+  private @Nullable Job handleMessage(@NonNull SignalServiceCipher cipher, @NonNull SignalServiceEnvelope envelope, long messageId)
+      throws NoSenderException
+  {
+    try {
+      SignalServiceContent content = cipher.decrypt(envelope);
 
-      if (envelope.isPreKeySignalMessage()) {
-        jobs.add(new RefreshPreKeysJob());
+      if (content != null) {
+        return new PushProcessMessageJob(content.serialize(), messageId, smsMessageId, envelope.getTimestamp());
+      } else {
+        return null;
       }
 
-      return jobs;
-
     } catch (ProtocolInvalidVersionException e) {
       Log.w(TAG, e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.INVALID_VERSION,
-                                                                 toExceptionMetadata(e),
-                                                                 messageId,
-                                                                 smsMessageId,
-                                                                 envelope.getTimestamp()));
+      return new PushProcessMessageJob(PushProcessMessageJob.MessageState.INVALID_VERSION,
+                                       toExceptionMetadata(e),
+                                       messageId,
+                                       smsMessageId,
+                                       envelope.getTimestamp());
 
     } catch (ProtocolInvalidMessageException | ProtocolInvalidKeyIdException | ProtocolInvalidKeyException | ProtocolUntrustedIdentityException e) {
       Log.w(TAG, e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.CORRUPT_MESSAGE,
-                                                                 toExceptionMetadata(e),
-                                                                 messageId,
-                                                                 smsMessageId,
-                                                                 envelope.getTimestamp()));
+      return new PushProcessMessageJob(PushProcessMessageJob.MessageState.CORRUPT_MESSAGE,
+                                       toExceptionMetadata(e),
+                                       messageId,
+                                       smsMessageId,
+                                       envelope.getTimestamp());
 
     } catch (ProtocolNoSessionException e) {
       Log.w(TAG, e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.NO_SESSION,
-                                                                 toExceptionMetadata(e),
-                                                                 messageId,
-                                                                 smsMessageId,
-                                                                 envelope.getTimestamp()));
+      return new PushProcessMessageJob(PushProcessMessageJob.MessageState.NO_SESSION,
+                                       toExceptionMetadata(e),
+                                       messageId,
+                                       smsMessageId,
+                                       envelope.getTimestamp());
 
     } catch (ProtocolLegacyMessageException e) {
       Log.w(TAG, e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.LEGACY_MESSAGE,
-                                                                 toExceptionMetadata(e),
-                                                                 messageId,
-                                                                 smsMessageId,
-                                                                 envelope.getTimestamp()));
+      return new PushProcessMessageJob(PushProcessMessageJob.MessageState.LEGACY_MESSAGE,
+                                       toExceptionMetadata(e),
+                                       messageId,
+                                       smsMessageId,
+                                       envelope.getTimestamp());
 
     } catch (ProtocolDuplicateMessageException e) {
       Log.w(TAG, e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.DUPLICATE_MESSAGE,
-                                                                 toExceptionMetadata(e),
-                                                                 messageId,
-                                                                 smsMessageId,
-                                                                 envelope.getTimestamp()));
+      return new PushProcessMessageJob(PushProcessMessageJob.MessageState.DUPLICATE_MESSAGE,
+                                       toExceptionMetadata(e),
+                                       messageId,
+                                       smsMessageId,
+                                       envelope.getTimestamp());
 
     } catch (InvalidMetadataVersionException | InvalidMetadataMessageException e) {
       Log.w(TAG, e);
-      return Collections.emptyList();
+      return null;
 
     } catch (SelfSendException e) {
       Log.i(TAG, "Dropping UD message from self.");
-      return Collections.emptyList();
+      return null;
 
     } catch (UnsupportedDataMessageException e) {
       Log.w(TAG, e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.UNSUPPORTED_DATA_MESSAGE,
+      return new PushProcessMessageJob(PushProcessMessageJob.MessageState.UNSUPPORTED_DATA_MESSAGE,
                                        toExceptionMetadata(e),
                                        messageId,
                                        smsMessageId,
-                                       envelope.getTimestamp()));
+                                       envelope.getTimestamp());
     }
   }
 
@@ -258,7 +315,10 @@ public final class PushDecryptMessageJob extends BaseJob {
   public static final class Factory implements Job.Factory<PushDecryptMessageJob> {
     @Override
     public @NonNull PushDecryptMessageJob create(@NonNull Parameters parameters, @NonNull Data data) {
-      return new PushDecryptMessageJob(parameters, data.getLong(KEY_MESSAGE_ID), data.getLong(KEY_SMS_MESSAGE_ID));
+      long[] messageIds = data.hasLongArray(KEY_MESSAGE_IDS) ? data.getLongArray(KEY_MESSAGE_IDS)
+                                                             : new long[] { data.getLong(KEY_MESSAGE_ID) };
+
+      return new PushDecryptMessageJob(parameters, messageIds, data.getLong(KEY_SMS_MESSAGE_ID));
     }
   }
 
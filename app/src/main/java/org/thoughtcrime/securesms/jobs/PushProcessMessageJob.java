@@ -1344,8 +1344,8 @@ public final class PushProcessMessageJob extends BaseJob {
   {
     for (long timestamp : message.getTimestamps()) {
       Log.i(TAG, String.format("Received encrypted delivery receipt: (XXXXX, %d)", timestamp));
-      DatabaseFactory.getMmsSmsDatabase(context)
-                     .incrementDeliveryReceiptCount(new SyncMessageId(Recipient.externalPush(context, content.getSender()).getId(), timestamp), System.currentTimeMillis());
+      ApplicationDependencies.getReceiptAggregator()
+                             .addDeliveryReceipt(new SyncMessageId(Recipient.externalPush(context, content.getSender()).getId(), timestamp), System.currentTimeMillis());
     }
   }
 
@@ -1357,14 +1357,10 @@ public final class PushProcessMessageJob extends BaseJob {
       for (long timestamp : message.getTimestamps()) {
         Log.i(TAG, String.format("Received encrypted read receipt: (XXXXX, %d)", timestamp));
 
-        Recipient     sender  = Recipient.externalPush(context, content.getSender());
-        SyncMessageId id      = new SyncMessageId(sender.getId(), timestamp);
-        boolean       handled = DatabaseFactory.getMmsSmsDatabase(context)
-                                               .incrementReadReceiptCount(id, content.getTimestamp());
+        Recipient     sender = Recipient.externalPush(context, content.getSender());
+        SyncMessageId id     = new SyncMessageId(sender.getId(), timestamp);
 
-        if (!handled) {
-          ApplicationDependencies.getEarlyMessageCache().store(sender.getId(), timestamp, content);
-        }
+        ApplicationDependencies.getReceiptAggregator().addReadReceipt(id, content.getTimestamp(), content);
       }
     }
   }
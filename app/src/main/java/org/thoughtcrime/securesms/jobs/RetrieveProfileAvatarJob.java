@@ -22,6 +22,7 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
 import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.internal.push.http.SegmentedDownload;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -113,7 +114,10 @@ public class RetrieveProfileAvatarJob extends BaseJob {
         throw e;
       }
     } finally {
-      if (downloadDestination != null) downloadDestination.delete();
+      if (downloadDestination != null) {
+        downloadDestination.delete();
+        SegmentedDownload.deleteState(downloadDestination);
+      }
     }
 
     database.setProfileAvatar(recipient.getId(), profileAvatar);
@@ -0,0 +1,91 @@
+package org.thoughtcrime.securesms.jobs;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the message counts and snippets that threads maintain incrementally against a full
+ * recount, and repairs any that have drifted. See {@link #isDue(Context)} for how often it runs.
+ */
+public class ThreadSummaryVerificationJob extends BaseJob {
+
+  public static final String KEY = "ThreadSummaryVerificationJob";
+
+  private static final String TAG = ThreadSummaryVerificationJob.class.getSimpleName();
+
+  private static final long CHECK_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+  public ThreadSummaryVerificationJob() {
+    this(new Job.Parameters.Builder()
+                           .setQueue(KEY)
+                           .setMaxAttempts(1)
+                           .setMaxInstances(1)
+                           .build());
+  }
+
+  private ThreadSummaryVerificationJob(@NonNull Job.Parameters parameters) {
+    super(parameters);
+  }
+
+  /**
+   * True once a day, and on the first launch after the app has been upgraded.
+   */
+  public static boolean isDue(@NonNull Context context) {
+    long timeSinceLastCheck = System.currentTimeMillis() - TextSecurePreferences.getLastThreadSummaryCheckTime(context);
+
+    return TextSecurePreferences.getLastThreadSummaryCheckVersion(context) != Util.getCanonicalVersionCode() ||
+           timeSinceLastCheck < 0                                                                          ||
+           timeSinceLastCheck >= CHECK_INTERVAL;
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  public void onRun() {
+    if (!isDue(context)) {
+      Log.i(TAG, "Skipping thread summary check. Too soon.");
+      return;
+    }
+
+    Set<Long> repaired = DatabaseFactory.getThreadDatabase(context).verifyThreadSummaries();
+    Log.i(TAG, "Repaired " + repaired.size() + " inconsistent thread summaries.");
+
+    TextSecurePreferences.setLastThreadSummaryCheckTime(context, System.currentTimeMillis());
+    TextSecurePreferences.setLastThreadSummaryCheckVersion(context, Util.getCanonicalVersionCode());
+  }
+
+  @Override
+  public boolean onShouldRetry(@NonNull Exception e) {
+    return false;
+  }
+
+  @Override
+  public void onFailure() {
+  }
+
+  public static final class Factory implements Job.Factory<ThreadSummaryVerificationJob> {
+    @Override
+    public @NonNull ThreadSummaryVerificationJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new ThreadSummaryVerificationJob(parameters);
+    }
+  }
+}
@@ -7,6 +7,7 @@ import org.thoughtcrime.securesms.util.Util;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -25,20 +26,28 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * A log file is a sequence of records, each of the form [iv][ciphertext length][ciphertext].
+ * A record holds either a single entry or, when written through {@link Writer#bufferEntry(String)},
+ * a batch of newline-separated entries. Both decrypt to the same text, so a {@link Reader} does not
+ * need to know which way a given record was written.
+ */
 class LogFile {
 
   public static class Writer {
 
-    private final byte[]        ivBuffer         = new byte[16];
-    private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
+    private final byte[]                ivBuffer         = new byte[16];
+    private final GrowingBuffer         ciphertextBuffer = new GrowingBuffer();
+    private final ByteArrayOutputStream pendingEntries   = new ByteArrayOutputStream();
+    private final SecureRandom          random           = new SecureRandom();
 
-    private final byte[]               secret;
+    private final SecretKeySpec        key;
     private final File                 file;
     private final Cipher               cipher;
     private final BufferedOutputStream outputStream;
 
     Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret       = secret;
+      this.key          = new SecretKeySpec(secret, "AES");
       this.file         = file;
       this.outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
 
@@ -49,33 +58,72 @@ class LogFile {
       }
     }
 
+    /**
+     * Encrypts and writes a single entry as its own record, along with any buffered entries.
+     */
     void writeEntry(@NonNull String entry) throws IOException {
-      new SecureRandom().nextBytes(ivBuffer);
+      flush();
+
+      byte[] plaintext = entry.getBytes();
+      writeRecord(plaintext, plaintext.length);
+      outputStream.flush();
+    }
+
+    /**
+     * Holds an entry in memory until the next {@link #flush()}, where all buffered entries are
+     * encrypted together as a single record.
+     */
+    void bufferEntry(@NonNull String entry) {
+      if (pendingEntries.size() > 0) {
+        pendingEntries.write('\n');
+      }
 
       byte[] plaintext = entry.getBytes();
+      pendingEntries.write(plaintext, 0, plaintext.length);
+    }
+
+    int getBufferedSize() {
+      return pendingEntries.size();
+    }
+
+    void flush() throws IOException {
+      if (pendingEntries.size() == 0) {
+        return;
+      }
+
+      writeRecord(pendingEntries.toByteArray(), pendingEntries.size());
+      pendingEntries.reset();
+      outputStream.flush();
+    }
+
+    private void writeRecord(@NonNull byte[] plaintext, int length) throws IOException {
+      random.nextBytes(ivBuffer);
+
       try {
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(ivBuffer));
 
-        int    cipherLength = cipher.getOutputSize(plaintext.length);
+        int    cipherLength = cipher.getOutputSize(length);
         byte[] ciphertext   = ciphertextBuffer.get(cipherLength);
-        cipherLength = cipher.doFinal(plaintext, 0, plaintext.length, ciphertext);
+        cipherLength = cipher.doFinal(plaintext, 0, length, ciphertext);
 
         outputStream.write(ivBuffer);
         outputStream.write(Conversions.intToByteArray(cipherLength));
         outputStream.write(ciphertext, 0, cipherLength);
-
-        outputStream.flush();
       } catch (ShortBufferException | InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
         throw new AssertionError(e);
       }
     }
 
     long getLogSize() {
-      return file.length();
+      return file.length() + pendingEntries.size();
     }
 
-    void close() {
-      Util.close(outputStream);
+    void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        Util.close(outputStream);
+      }
     }
   }
 
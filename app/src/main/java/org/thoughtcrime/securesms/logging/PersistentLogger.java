@@ -18,8 +18,9 @@ import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class PersistentLogger extends Log.Logger {
 
@@ -38,16 +39,30 @@ public class PersistentLogger extends Log.Logger {
   private static final int              MAX_LOG_SIZE    = 300 * 1024;
   private static final SimpleDateFormat DATE_FORMAT     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
 
-  private final Context  context;
-  private final Executor executor;
-  private final byte[]   secret;
+  private static final long DEFAULT_FLUSH_DELAY_MS = 500;
+  private static final int  MAX_BATCH_SIZE         = 16 * 1024;
+
+  private final Context                  context;
+  private final ScheduledExecutorService executor;
+  private final byte[]                   secret;
+  private final long                     flushDelayMs;
 
   private LogFile.Writer writer;
+  private boolean        flushScheduled;
 
   public PersistentLogger(Context context) {
-    this.context  = context.getApplicationContext();
-    this.secret   = LogSecretProvider.getOrCreateAttachmentSecret(context);
-    this.executor = Executors.newSingleThreadExecutor(r -> {
+    this(context, DEFAULT_FLUSH_DELAY_MS);
+  }
+
+  /**
+   * @param flushDelayMs The longest a line will be held in memory before being written to disk.
+   *                     Lines are written sooner if enough of them build up, or if they are errors.
+   */
+  public PersistentLogger(Context context, long flushDelayMs) {
+    this.context      = context.getApplicationContext();
+    this.secret       = LogSecretProvider.getOrCreateAttachmentSecret(context);
+    this.flushDelayMs = flushDelayMs;
+    this.executor     = Executors.newSingleThreadScheduledExecutor(r -> {
       Thread thread = new Thread(r, "signal-PersistentLogger");
       thread.setPriority(Thread.MIN_PRIORITY);
       return thread;
@@ -90,7 +105,10 @@ public class PersistentLogger extends Log.Logger {
   public void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
-    executor.execute(latch::countDown);
+    executor.execute(() -> {
+      flushWriter();
+      latch.countDown();
+    });
 
     try {
       latch.await();
@@ -104,6 +122,8 @@ public class PersistentLogger extends Log.Logger {
     final SettableFuture<CharSequence> future = new SettableFuture<>();
 
     executor.execute(() -> {
+      flushWriter();
+
       StringBuilder builder = new StringBuilder();
 
       try {
@@ -138,6 +158,8 @@ public class PersistentLogger extends Log.Logger {
 
   @AnyThread
   private void write(String level, String tag, String message, Throwable t) {
+    Date date = new Date();
+
     executor.execute(() -> {
       try {
         if (writer == null) {
@@ -150,10 +172,16 @@ public class PersistentLogger extends Log.Logger {
           trimLogFilesOverMax();
         }
 
-        for (String entry : buildLogEntries(level, tag, message, t)) {
-          writer.writeEntry(entry);
+        for (String entry : buildLogEntries(level, tag, message, t, date)) {
+          writer.bufferEntry(entry);
         }
 
+        if (writer.getBufferedSize() >= MAX_BATCH_SIZE || LOG_E.equals(level) || LOG_WTF.equals(level)) {
+          writer.flush();
+        } else if (!flushScheduled) {
+          flushScheduled = true;
+          executor.schedule(this::flushWriter, flushDelayMs, TimeUnit.MILLISECONDS);
+        }
       } catch (NoExternalStorageException e) {
         android.util.Log.w(TAG, "Cannot persist logs.", e);
       } catch (IOException e) {
@@ -164,6 +192,23 @@ public class PersistentLogger extends Log.Logger {
     });
   }
 
+  @WorkerThread
+  private void flushWriter() {
+    flushScheduled = false;
+
+    if (writer == null) {
+      return;
+    }
+
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to flush lines. Deleting all logs and starting over.");
+      deleteAllLogs();
+      initializeWriter();
+    }
+  }
+
   private void trimLogFilesOverMax() throws NoExternalStorageException {
     File[] logs = getSortedLogFiles();
     if (logs.length > MAX_LOG_FILES) {
@@ -215,9 +260,8 @@ public class PersistentLogger extends Log.Logger {
     return logDir;
   }
 
-  private List<String> buildLogEntries(String level, String tag, String message, Throwable t) {
+  private List<String> buildLogEntries(String level, String tag, String message, Throwable t, Date date) {
     List<String> entries = new LinkedList<>();
-    Date         date    = new Date();
 
     entries.add(buildEntry(level, tag, message, date));
 
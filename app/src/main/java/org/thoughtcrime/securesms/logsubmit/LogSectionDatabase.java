@@ -0,0 +1,23 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.DatabaseChangeNotifier;
+
+public class LogSectionDatabase implements LogSection {
+
+  @Override
+  public @NonNull String getTitle() {
+    return "DATABASE NOTIFICATIONS";
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    DatabaseChangeNotifier notifier = DatabaseChangeNotifier.getInstance(context);
+
+    return new StringBuilder().append("Requested: ").append(notifier.getRequestedCount()).append("\n")
+                              .append("Delivered: ").append(notifier.getDeliveredCount());
+  }
+}
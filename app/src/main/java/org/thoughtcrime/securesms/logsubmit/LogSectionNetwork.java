@@ -0,0 +1,69 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.whispersystems.signalservice.internal.push.http.NetworkMetrics;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+public class LogSectionNetwork implements LogSection {
+
+  @Override
+  public @NonNull String getTitle() {
+    return "NETWORK";
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    List<NetworkMetrics.RouteSnapshot> routes = NetworkMetrics.getInstance().getSnapshot();
+    StringBuilder                      out    = new StringBuilder();
+    String                             host   = null;
+
+    for (NetworkMetrics.RouteSnapshot route : routes) {
+      if (!route.getHost().equals(host)) {
+        host = route.getHost();
+        out.append("-- ").append(host).append("\n");
+      }
+
+      out.append(route.getRoute()).append("\n")
+         .append(String.format(Locale.US, "  Requests: %d, Failures: %d, Connects: %d (%d failed)\n", route.getRequests(), route.getFailures(), route.getConnects(), route.getConnectFailures()))
+         .append(String.format(Locale.US, "  Sent: %d B, Received: %d B\n", route.getBytesSent(), route.getBytesReceived()))
+         .append("  Connect ms: ").append(formatPercentiles(route.getConnectMillis(0.5), route.getConnectMillis(0.9), route.getConnectMillis(0.99))).append("\n")
+         .append("  TTFB ms:    ").append(formatPercentiles(route.getTimeToFirstByteMillis(0.5), route.getTimeToFirstByteMillis(0.9), route.getTimeToFirstByteMillis(0.99))).append("\n")
+         .append("  Total ms:   ").append(formatPercentiles(route.getTotalMillis(0.5), route.getTotalMillis(0.9), route.getTotalMillis(0.99))).append("\n")
+         .append("  Statuses:   ").append(formatStatuses(route.getStatusCounts(), route.getOtherStatusCount())).append("\n");
+    }
+
+    return out.length() == 0 ? "None" : out;
+  }
+
+  private static @NonNull String formatPercentiles(long p50, long p90, long p99) {
+    return "p50 " + formatMillis(p50) + ", p90 " + formatMillis(p90) + ", p99 " + formatMillis(p99);
+  }
+
+  private static @NonNull String formatMillis(long millis) {
+    if      (millis < 0)               return "-";
+    else if (millis == Long.MAX_VALUE) return ">60000";
+    else                               return "<=" + millis;
+  }
+
+  private static @NonNull String formatStatuses(@NonNull Map<Integer, Long> statuses, long other) {
+    StringBuilder out = new StringBuilder();
+
+    for (Map.Entry<Integer, Long> entry : statuses.entrySet()) {
+      if (out.length() > 0) out.append(", ");
+      out.append(entry.getKey()).append(": ").append(entry.getValue());
+    }
+
+    if (other > 0) {
+      if (out.length() > 0) out.append(", ");
+      out.append("other: ").append(other);
+    }
+
+    return out.length() == 0 ? "-" : out.toString();
+  }
+}
@@ -60,6 +60,8 @@ public class SubmitDebugLogRepository {
     }
     add(new LogSectionPin());
     add(new LogSectionThreads());
+    add(new LogSectionDatabase());
+    add(new LogSectionNetwork());
     add(new LogSectionFeatureFlags());
     add(new LogSectionPermissions());
     add(new LogSectionLogcat());
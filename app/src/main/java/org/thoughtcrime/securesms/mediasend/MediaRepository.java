@@ -2,10 +2,13 @@ package org.thoughtcrime.securesms.mediasend;
 
 import android.Manifest;
 import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Environment;
+import android.provider.MediaStore;
 import android.provider.MediaStore.Images;
 import android.provider.MediaStore.Video;
 import android.provider.OpenableColumns;
@@ -18,6 +21,8 @@ import androidx.annotation.WorkerThread;
 import com.annimon.stream.Stream;
 
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.GalleryDatabase;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.permissions.Permissions;
@@ -32,7 +37,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -43,6 +47,11 @@ public class MediaRepository {
 
   private static final String TAG = Log.tag(MediaRepository.class);
 
+  private static final int FIRST_PAGE_SIZE = 100;
+  private static final int MAX_PAGE_SIZE   = 3200;
+
+  private static final Object INDEX_LOCK = new Object();
+
   /**
    * Retrieves a list of folders that contain media.
    */
@@ -51,10 +60,13 @@ public class MediaRepository {
   }
 
   /**
-   * Retrieves a list of media items (images and videos) that are present int he specified bucket.
+   * Retrieves a list of media items (images and videos) that are present in the specified bucket.
+   * <p>
+   * The callback is called more than once. It first gets the start of the bucket as it was last
+   * indexed, if it was, and then successively longer lists, the last of which is the whole bucket.
    */
   public void getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Callback<List<Media>> callback) {
-    SignalExecutors.BOUNDED.execute(() -> callback.onComplete(getMediaInBucket(context, bucketId)));
+    SignalExecutors.BOUNDED.execute(() -> getMediaInBucketInPages(context, bucketId, callback));
   }
 
   /**
@@ -88,109 +100,151 @@ public class MediaRepository {
       return Collections.emptyList();
     }
 
-    FolderResult imageFolders       = getFolders(context, Images.Media.EXTERNAL_CONTENT_URI);
-    FolderResult videoFolders       = getFolders(context, Video.Media.EXTERNAL_CONTENT_URI);
-    Map<String, FolderData> folders = new HashMap<>(imageFolders.getFolderData());
-
-    for (Map.Entry<String, FolderData> entry : videoFolders.getFolderData().entrySet()) {
-      if (folders.containsKey(entry.getKey())) {
-        folders.get(entry.getKey()).incrementCount(entry.getValue().getCount());
-      } else {
-        folders.put(entry.getKey(), entry.getValue());
-      }
-    }
+    refreshIndex(context);
 
-    String            cameraBucketId = imageFolders.getCameraBucketId() != null ? imageFolders.getCameraBucketId() : videoFolders.getCameraBucketId();
-    FolderData        cameraFolder   = cameraBucketId != null ? folders.remove(cameraBucketId) : null;
-    List<MediaFolder> mediaFolders   = Stream.of(folders.values()).map(folder -> new MediaFolder(folder.getThumbnail(),
-                                                                                                 folder.getTitle(),
-                                                                                                 folder.getCount(),
-                                                                                                 folder.getBucketId(),
-                                                                                                 MediaFolder.FolderType.NORMAL))
-                                                                  .filter(folder -> folder.getTitle() != null)
-                                                                  .sorted((o1, o2) -> o1.getTitle().toLowerCase().compareTo(o2.getTitle().toLowerCase()))
-                                                                  .toList();
+    String            cameraPath         = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM).getAbsolutePath() + File.separator + "Camera";
+    MediaFolder       cameraFolder       = null;
+    Uri               allMediaThumbnail  = null;
+    long              thumbnailTimestamp = 0;
+    int               allMediaCount      = 0;
+    List<MediaFolder> mediaFolders       = new ArrayList<>();
 
-    Uri allMediaThumbnail = imageFolders.getThumbnailTimestamp() > videoFolders.getThumbnailTimestamp() ? imageFolders.getThumbnail() : videoFolders.getThumbnail();
+    try (Cursor cursor = DatabaseFactory.getGalleryDatabase(context).getBuckets()) {
+      while (cursor != null && cursor.moveToNext()) {
+        String bucketId  = cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.BUCKET_ID));
+        String title     = cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.BUCKET_NAME));
+        String path      = cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.PATH));
+        long   timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(GalleryDatabase.DATE_MODIFIED));
+        int    count     = cursor.getInt(cursor.getColumnIndexOrThrow(GalleryDatabase.COUNT));
+        Uri    thumbnail = Uri.fromFile(new File(path));
+
+        if (cameraFolder == null && path.startsWith(cameraPath)) {
+          cameraFolder = new MediaFolder(thumbnail, title, count, bucketId, MediaFolder.FolderType.CAMERA);
+        } else if (title != null) {
+          mediaFolders.add(new MediaFolder(thumbnail, title, count, bucketId, MediaFolder.FolderType.NORMAL));
+        } else {
+          continue;
+        }
 
-    if (allMediaThumbnail != null) {
-      int allMediaCount = Stream.of(mediaFolders).reduce(0, (count, folder) -> count + folder.getItemCount());
+        allMediaCount += count;
 
-      if (cameraFolder != null) {
-        allMediaCount += cameraFolder.getCount();
+        if (timestamp > thumbnailTimestamp) {
+          allMediaThumbnail  = thumbnail;
+          thumbnailTimestamp = timestamp;
+        }
       }
+    }
+
+    Collections.sort(mediaFolders, (o1, o2) -> o1.getTitle().toLowerCase().compareTo(o2.getTitle().toLowerCase()));
 
+    if (allMediaThumbnail != null) {
       mediaFolders.add(0, new MediaFolder(allMediaThumbnail, context.getString(R.string.MediaRepository_all_media), allMediaCount, Media.ALL_MEDIA_BUCKET_ID, MediaFolder.FolderType.NORMAL));
     }
 
     if (cameraFolder != null) {
-      mediaFolders.add(0, new MediaFolder(cameraFolder.getThumbnail(), cameraFolder.getTitle(), cameraFolder.getCount(), cameraFolder.getBucketId(), MediaFolder.FolderType.CAMERA));
+      mediaFolders.add(0, cameraFolder);
     }
 
     return mediaFolders;
   }
 
+  /**
+   * Pages through the bucket newest first, handing over the first page as soon as it's read so the
+   * picker has something to draw while the rest of a large bucket is still being listed.
+   */
   @WorkerThread
-  private @NonNull FolderResult getFolders(@NonNull Context context, @NonNull Uri contentUri) {
-    String                  cameraPath         = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM).getAbsolutePath() + File.separator + "Camera";
-    String                  cameraBucketId     = null;
-    Uri                     globalThumbnail    = null;
-    long                    thumbnailTimestamp = 0;
-    Map<String, FolderData> folders            = new HashMap<>();
-
-    String[] projection = new String[] { Images.Media.DATA, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, Images.Media.DATE_MODIFIED };
-    String   selection  = Images.Media.DATA + " NOT NULL";
-    String   sortBy     = Images.Media.BUCKET_DISPLAY_NAME + " COLLATE NOCASE ASC, " + Images.Media.DATE_MODIFIED + " DESC";
-
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, null, sortBy)) {
+  private void getMediaInBucketInPages(@NonNull Context context, @NonNull String bucketId, @NonNull Callback<List<Media>> callback) {
+    if (!Permissions.hasAll(context, Manifest.permission.READ_EXTERNAL_STORAGE)) {
+      callback.onComplete(Collections.emptyList());
+      return;
+    }
+
+    GalleryDatabase database = DatabaseFactory.getGalleryDatabase(context);
+    List<Media>     indexed  = new ArrayList<>(FIRST_PAGE_SIZE);
+
+    readPage(database, bucketId, null, new PageKey(), FIRST_PAGE_SIZE, indexed);
+
+    if (indexed.isEmpty()) {
+      indexed = getMediaStorePage(context, bucketId, FIRST_PAGE_SIZE);
+    }
+
+    if (!indexed.isEmpty()) {
+      callback.onComplete(indexed);
+    }
+
+    refreshIndex(context);
+
+    List<Media> media    = new ArrayList<>();
+    PageKey     key      = new PageKey();
+    int         pageSize = FIRST_PAGE_SIZE;
+
+    while (readPage(database, bucketId, null, key, pageSize, media) == pageSize) {
+      callback.onComplete(new ArrayList<>(media));
+      pageSize = Math.min(pageSize * 2, MAX_PAGE_SIZE);
+    }
+
+    callback.onComplete(media);
+  }
+
+  /**
+   * Appends up to limit items that follow the key to the list, and moves the key past them.
+   *
+   * @return The number of items read.
+   */
+  private static int readPage(@NonNull GalleryDatabase database,
+                              @NonNull String bucketId,
+                              @Nullable Boolean isImage,
+                              @NonNull PageKey key,
+                              int limit,
+                              @NonNull List<Media> media)
+  {
+    String bucket = Media.ALL_MEDIA_BUCKET_ID.equals(bucketId) ? null : bucketId;
+    int    read   = 0;
+
+    try (Cursor cursor = database.getMedia(bucket, isImage, key.dateModified, key.id, limit)) {
       while (cursor != null && cursor.moveToNext()) {
-        String     path      = cursor.getString(cursor.getColumnIndexOrThrow(projection[0]));
-        Uri        thumbnail = Uri.fromFile(new File(path));
-        String     bucketId  = cursor.getString(cursor.getColumnIndexOrThrow(projection[1]));
-        String     title     = cursor.getString(cursor.getColumnIndexOrThrow(projection[2]));
-        long       timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(projection[3]));
-        FolderData folder    = Util.getOrDefault(folders, bucketId, new FolderData(thumbnail, title, bucketId));
-
-        folder.incrementCount();
-        folders.put(bucketId, folder);
-
-        if (cameraBucketId == null && path.startsWith(cameraPath)) {
-          cameraBucketId = bucketId;
-        }
+        String path     = cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.PATH));
+        Uri    uri      = Uri.fromFile(new File(path));
+        String mimetype = cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.MIME_TYPE));
+        long   date     = cursor.getLong(cursor.getColumnIndexOrThrow(GalleryDatabase.DATE_MODIFIED));
+        int    width    = cursor.getInt(cursor.getColumnIndexOrThrow(GalleryDatabase.WIDTH));
+        int    height   = cursor.getInt(cursor.getColumnIndexOrThrow(GalleryDatabase.HEIGHT));
+        long   size     = cursor.getLong(cursor.getColumnIndexOrThrow(GalleryDatabase.SIZE));
+        long   duration = cursor.getLong(cursor.getColumnIndexOrThrow(GalleryDatabase.DURATION));
 
-        if (timestamp > thumbnailTimestamp) {
-          globalThumbnail    = thumbnail;
-          thumbnailTimestamp = timestamp;
-        }
+        media.add(new Media(uri, mimetype, date, width, height, size, duration, Optional.of(bucketId), Optional.absent(), Optional.absent()));
+
+        key.dateModified = date;
+        key.id           = GalleryDatabase.getId(cursor);
+        read++;
       }
     }
 
-    return new FolderResult(cameraBucketId, globalThumbnail, thumbnailTimestamp, folders);
+    return read;
   }
 
+  /**
+   * Reads the newest items in the bucket straight from MediaStore. Used for the first page when the
+   * index has nothing for the bucket yet, e.g. on first run, so the picker isn't left empty while
+   * the whole device is indexed.
+   */
   @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
-    if (!Permissions.hasAll(context, Manifest.permission.READ_EXTERNAL_STORAGE)) {
-      return Collections.emptyList();
-    }
+  private static @NonNull List<Media> getMediaStorePage(@NonNull Context context, @NonNull String bucketId, int limit) {
+    List<Media> media = new ArrayList<>(limit * 2);
 
-    List<Media> images = getMediaInBucket(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true);
-    List<Media> videos = getMediaInBucket(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false);
-    List<Media> media  = new ArrayList<>(images.size() + videos.size());
+    getMediaStorePage(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true, limit, media);
+    getMediaStorePage(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false, limit, media);
 
-    media.addAll(images);
-    media.addAll(videos);
     Collections.sort(media, (o1, o2) -> Long.compare(o2.getDate(), o1.getDate()));
 
-    return media;
+    return media.size() > limit ? new ArrayList<>(media.subList(0, limit)) : media;
   }
 
   @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean isImage) {
-    List<Media> media         = new LinkedList<>();
-    String      selection     = Images.Media.BUCKET_ID + " = ? AND " + Images.Media.DATA + " NOT NULL";
-    String[]    selectionArgs = new String[] { bucketId };
-    String      sortBy        = Images.Media.DATE_MODIFIED + " DESC";
+  private static void getMediaStorePage(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean isImage, int limit, @NonNull List<Media> media) {
+    String   selection     = Images.Media.BUCKET_ID + " = ? AND " + Images.Media.DATA + " NOT NULL";
+    String[] selectionArgs = new String[] { bucketId };
+    String   sortBy        = Images.Media.DATE_MODIFIED + " DESC";
 
     String[] projection;
 
@@ -206,8 +260,8 @@ public class MediaRepository {
     }
 
     try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, selectionArgs, sortBy)) {
-      while (cursor != null && cursor.moveToNext()) {
-        String path        = cursor.getString(cursor.getColumnIndexOrThrow(projection[0]));
+      for (int read = 0; read < limit && cursor != null && cursor.moveToNext(); read++) {
+        String path        = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.DATA));
         Uri    uri         = Uri.fromFile(new File(path));
         String mimetype    = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.MIME_TYPE));
         long   date        = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.DATE_MODIFIED));
@@ -220,8 +274,93 @@ public class MediaRepository {
         media.add(new Media(uri, mimetype, date, width, height, size, duration, Optional.of(bucketId), Optional.absent(), Optional.absent()));
       }
     }
+  }
+
+  /**
+   * Brings the gallery index up to date with MediaStore. Only ids and modified dates are read for
+   * everything; full rows are read, in batches, just for what is new or has changed since the last
+   * refresh.
+   */
+  @WorkerThread
+  private static void refreshIndex(@NonNull Context context) {
+    synchronized (INDEX_LOCK) {
+      long startTime = System.currentTimeMillis();
+      int  changes   = refreshIndex(context, Images.Media.EXTERNAL_CONTENT_URI, true) +
+                       refreshIndex(context, Video.Media.EXTERNAL_CONTENT_URI, false);
+
+      Log.d(TAG, "Refreshed the gallery index with " + changes + " change(s) in " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+  }
+
+  @WorkerThread
+  private static int refreshIndex(@NonNull Context context, @NonNull Uri contentUri, boolean isImage) {
+    GalleryDatabase database   = DatabaseFactory.getGalleryDatabase(context);
+    Map<Long, Long> indexed    = database.getDatesModified(isImage);
+    List<Long>      changed    = new ArrayList<>();
+    String[]        projection = new String[] { Images.Media._ID, Images.Media.DATE_MODIFIED };
+    String          selection  = Images.Media.DATA + " NOT NULL";
+
+    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, null, null)) {
+      if (cursor == null) {
+        Log.w(TAG, "No cursor for " + contentUri + ", leaving the index as it is.");
+        return 0;
+      }
+
+      while (cursor.moveToNext()) {
+        long id           = cursor.getLong(0);
+        Long dateModified = indexed.remove(id);
+
+        if (dateModified == null || dateModified != cursor.getLong(1)) {
+          changed.add(id);
+        }
+      }
+    }
+
+    List<Long> removed = new ArrayList<>(indexed.keySet());
+
+    if (!removed.isEmpty()) {
+      database.update(isImage, Collections.emptyList(), removed);
+    }
+
+    for (List<Long> batch : Util.chunk(changed, GalleryDatabase.MAX_ARGS)) {
+      database.update(isImage, getIndexItems(context, contentUri, isImage, batch), Collections.emptyList());
+    }
+
+    return changed.size() + removed.size();
+  }
+
+  @WorkerThread
+  private static @NonNull List<GalleryDatabase.Item> getIndexItems(@NonNull Context context, @NonNull Uri contentUri, boolean isImage, @NonNull List<Long> ids) {
+    List<GalleryDatabase.Item> items     = new ArrayList<>(ids.size());
+    String                     selection = Images.Media._ID + " IN (" + Util.join(ids, ",") + ") AND " + Images.Media.DATA + " NOT NULL";
+
+    String[] projection;
+
+    if (isImage) {
+      projection = new String[]{Images.Media._ID, Images.Media.DATA, Images.Media.MIME_TYPE, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, Images.Media.DATE_MODIFIED, Images.Media.ORIENTATION, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE};
+    } else {
+      projection = new String[]{Images.Media._ID, Images.Media.DATA, Images.Media.MIME_TYPE, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, Images.Media.DATE_MODIFIED, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE, Video.Media.DURATION};
+    }
+
+    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long   id          = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media._ID));
+        String path        = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.DATA));
+        String mimetype    = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.MIME_TYPE));
+        String bucketId    = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.BUCKET_ID));
+        String bucketName  = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.BUCKET_DISPLAY_NAME));
+        long   date        = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.DATE_MODIFIED));
+        int    orientation = isImage ? cursor.getInt(cursor.getColumnIndexOrThrow(Images.Media.ORIENTATION)) : 0;
+        int    width       = cursor.getInt(cursor.getColumnIndexOrThrow(getWidthColumn(orientation)));
+        int    height      = cursor.getInt(cursor.getColumnIndexOrThrow(getHeightColumn(orientation)));
+        long   size        = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.SIZE));
+        long   duration    = !isImage ? cursor.getInt(cursor.getColumnIndexOrThrow(Video.Media.DURATION)) : 0;
+
+        items.add(new GalleryDatabase.Item(id, path, mimetype, bucketId, bucketName, date, width, height, size, duration));
+      }
+    }
 
-    return media;
+    return items;
   }
 
   @WorkerThread
@@ -230,21 +369,137 @@ public class MediaRepository {
       return media;
     }
 
+    List<Media>          unpopulated = Stream.of(media).filter(m -> !isPopulated(m) && !PartAuthority.isLocalUri(m.getUri())).toList();
+    Map<Uri, Dimensions> known       = new HashMap<>();
+
+    known.putAll(getIndexedMedia(context, unpopulated));
+    known.putAll(getMediaStoreMedia(context, unpopulated));
+
     return Stream.of(media).map(m -> {
       try {
         if (isPopulated(m)) {
           return m;
         } else if (PartAuthority.isLocalUri(m.getUri())) {
           return getLocallyPopulatedMedia(context, m);
-        } else {
-          return getContentResolverPopulatedMedia(context, m);
         }
+
+        Dimensions dimensions = known.get(m.getUri());
+
+        if (dimensions != null) {
+          m = new Media(m.getUri(),
+                        m.getMimeType(),
+                        m.getDate(),
+                        m.getWidth()  > 0 ? m.getWidth()  : dimensions.width,
+                        m.getHeight() > 0 ? m.getHeight() : dimensions.height,
+                        m.getSize()   > 0 ? m.getSize()   : dimensions.size,
+                        m.getDuration(),
+                        m.getBucketId(),
+                        m.getCaption(),
+                        m.getTransformProperties());
+        }
+
+        return isPopulated(m) ? m : getContentResolverPopulatedMedia(context, m);
       } catch (IOException e) {
         return m;
       }
     }).toList();
   }
 
+  /**
+   * Looks up file media in the gallery index, a batch of paths per query.
+   */
+  @WorkerThread
+  private @NonNull Map<Uri, Dimensions> getIndexedMedia(@NonNull Context context, @NonNull List<Media> media) {
+    List<String> paths = Stream.of(media).map(Media::getUri)
+                                         .filter(uri -> "file".equals(uri.getScheme()) && uri.getPath() != null)
+                                         .map(Uri::getPath)
+                                         .distinct()
+                                         .toList();
+
+    Map<Uri, Dimensions> found    = new HashMap<>();
+    GalleryDatabase      database = DatabaseFactory.getGalleryDatabase(context);
+
+    for (List<String> batch : Util.chunk(paths, GalleryDatabase.MAX_ARGS)) {
+      try (Cursor cursor = database.getMediaAtPaths(batch)) {
+        while (cursor != null && cursor.moveToNext()) {
+          Uri  uri    = Uri.fromFile(new File(cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.PATH))));
+          int  width  = cursor.getInt(cursor.getColumnIndexOrThrow(GalleryDatabase.WIDTH));
+          int  height = cursor.getInt(cursor.getColumnIndexOrThrow(GalleryDatabase.HEIGHT));
+          long size   = cursor.getLong(cursor.getColumnIndexOrThrow(GalleryDatabase.SIZE));
+
+          found.put(uri, new Dimensions(width, height, size));
+        }
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * Looks up MediaStore content URIs with one query per table and batch of ids, rather than one per
+   * item.
+   */
+  @WorkerThread
+  private @NonNull Map<Uri, Dimensions> getMediaStoreMedia(@NonNull Context context, @NonNull List<Media> media) {
+    Map<Uri, List<Long>> idsByTable = new HashMap<>();
+
+    for (Media item : media) {
+      Uri uri = item.getUri();
+
+      if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()) || !MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+        continue;
+      }
+
+      try {
+        long id    = ContentUris.parseId(uri);
+        Uri  table = Uri.parse(uri.toString().substring(0, uri.toString().lastIndexOf('/')));
+
+        if (id >= 0) {
+          List<Long> ids = Util.getOrDefault(idsByTable, table, new ArrayList<>());
+          ids.add(id);
+          idsByTable.put(table, ids);
+        }
+      } catch (NumberFormatException | UnsupportedOperationException e) {
+        Log.w(TAG, "Not a MediaStore item URI.", e);
+      }
+    }
+
+    Map<Uri, Dimensions> found = new HashMap<>();
+
+    for (Map.Entry<Uri, List<Long>> entry : idsByTable.entrySet()) {
+      Uri     table   = entry.getKey();
+      boolean isImage = table.getPathSegments().contains("images");
+
+      String[] projection;
+
+      if (isImage) {
+        projection = new String[] { Images.Media._ID, Images.Media.ORIENTATION, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE };
+      } else {
+        projection = new String[] { Images.Media._ID, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE };
+      }
+
+      for (List<Long> batch : Util.chunk(entry.getValue(), GalleryDatabase.MAX_ARGS)) {
+        String selection = Images.Media._ID + " IN (" + Util.join(batch, ",") + ")";
+
+        try (Cursor cursor = context.getContentResolver().query(table, projection, selection, null, null)) {
+          while (cursor != null && cursor.moveToNext()) {
+            Uri  uri         = ContentUris.withAppendedId(table, cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media._ID)));
+            int  orientation = isImage ? cursor.getInt(cursor.getColumnIndexOrThrow(Images.Media.ORIENTATION)) : 0;
+            int  width       = cursor.getInt(cursor.getColumnIndexOrThrow(getWidthColumn(orientation)));
+            int  height      = cursor.getInt(cursor.getColumnIndexOrThrow(getHeightColumn(orientation)));
+            long size        = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.SIZE));
+
+            found.put(uri, new Dimensions(width, height, size));
+          }
+        } catch (SecurityException | IllegalArgumentException e) {
+          Log.w(TAG, "Failed to query " + table + ", falling back to reading each item.", e);
+        }
+      }
+    }
+
+    return found;
+  }
+
   @WorkerThread
   private static LinkedHashMap<Media, Media> transformMedia(@NonNull Context context,
                                                             @NonNull List<Media> currentMedia,
@@ -269,20 +524,24 @@ public class MediaRepository {
       return Optional.absent();
     }
 
-    List<Media> media = getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, Images.Media.EXTERNAL_CONTENT_URI, true);
+    refreshIndex(context);
+
+    List<Media> media = new ArrayList<>(1);
+    readPage(DatabaseFactory.getGalleryDatabase(context), Media.ALL_MEDIA_BUCKET_ID, true, new PageKey(), 1, media);
+
     return media.size() > 0 ? Optional.of(media.get(0)) : Optional.absent();
   }
 
   @TargetApi(16)
   @SuppressWarnings("SuspiciousNameCombination")
-  private String getWidthColumn(int orientation) {
+  private static String getWidthColumn(int orientation) {
     if (orientation == 0 || orientation == 180) return Images.Media.WIDTH;
     else                                        return Images.Media.HEIGHT;
   }
 
   @TargetApi(16)
   @SuppressWarnings("SuspiciousNameCombination")
-  private String getHeightColumn(int orientation) {
+  private static String getHeightColumn(int orientation) {
     if (orientation == 0 || orientation == 180) return Images.Media.HEIGHT;
     else                                        return Images.Media.WIDTH;
   }
@@ -340,76 +599,24 @@ public class MediaRepository {
     return new Media(media.getUri(), media.getMimeType(), media.getDate(), width, height, size, 0, media.getBucketId(), media.getCaption(), Optional.absent());
   }
 
-  private static class FolderResult {
-    private final String                  cameraBucketId;
-    private final Uri                     thumbnail;
-    private final long                    thumbnailTimestamp;
-    private final Map<String, FolderData> folderData;
-
-    private FolderResult(@Nullable String cameraBucketId,
-                         @Nullable Uri thumbnail,
-                         long thumbnailTimestamp,
-                         @NonNull Map<String, FolderData> folderData)
-    {
-      this.cameraBucketId     = cameraBucketId;
-      this.thumbnail          = thumbnail;
-      this.thumbnailTimestamp = thumbnailTimestamp;
-      this.folderData         = folderData;
-    }
-
-    @Nullable String getCameraBucketId() {
-      return cameraBucketId;
-    }
-
-    @Nullable Uri getThumbnail() {
-      return thumbnail;
-    }
-
-    long getThumbnailTimestamp() {
-      return thumbnailTimestamp;
-    }
+  private static class Dimensions {
+    private final int  width;
+    private final int  height;
+    private final long size;
 
-    @NonNull Map<String, FolderData> getFolderData() {
-      return folderData;
+    private Dimensions(int width, int height, long size) {
+      this.width  = width;
+      this.height = height;
+      this.size   = size;
     }
   }
 
-  private static class FolderData {
-    private final Uri    thumbnail;
-    private final String title;
-    private final String bucketId;
-
-    private int count;
-
-    private FolderData(Uri thumbnail, String title, String bucketId) {
-      this.thumbnail = thumbnail;
-      this.title     = title;
-      this.bucketId  = bucketId;
-    }
-
-    Uri getThumbnail() {
-      return thumbnail;
-    }
-
-    String getTitle() {
-      return title;
-    }
-
-    String getBucketId() {
-      return bucketId;
-    }
-
-    int getCount() {
-      return count;
-    }
-
-    void incrementCount() {
-      incrementCount(1);
-    }
-
-    void incrementCount(int amount) {
-      count += amount;
-    }
+  /**
+   * Where the next page starts: just after the item with this modified date and index id.
+   */
+  private static class PageKey {
+    private long dateModified = Long.MAX_VALUE;
+    private long id           = Long.MAX_VALUE;
   }
 
   public interface Callback<E> {
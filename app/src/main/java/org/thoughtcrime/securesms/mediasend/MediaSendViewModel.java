@@ -43,6 +43,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages the observable datasets available in {@link MediaSendActivity}.
@@ -64,6 +65,7 @@ class MediaSendViewModel extends ViewModel {
   private final SingleLiveEvent<Error>             error;
   private final SingleLiveEvent<Event>             event;
   private final Map<Uri, Object>                   savedDrawState;
+  private final AtomicInteger                      bucketRequest;
 
   private TransportOption  transport;
   private MediaConstraints mediaConstraints;
@@ -103,6 +105,7 @@ class MediaSendViewModel extends ViewModel {
     this.error             = new SingleLiveEvent<>();
     this.event             = new SingleLiveEvent<>();
     this.savedDrawState    = new HashMap<>();
+    this.bucketRequest     = new AtomicInteger();
     this.lastCameraCapture = Optional.absent();
     this.body              = "";
     this.buttonState       = ButtonState.GONE;
@@ -358,6 +361,7 @@ class MediaSendViewModel extends ViewModel {
 
   void onFolderSelected(@NonNull String bucketId) {
     this.bucketId.setValue(bucketId);
+    bucketRequest.incrementAndGet();
     bucketMedia.setValue(Collections.emptyList());
   }
 
@@ -512,7 +516,14 @@ class MediaSendViewModel extends ViewModel {
   }
 
   @NonNull LiveData<List<Media>> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
-    repository.getMediaInBucket(context, bucketId, bucketMedia::postValue);
+    int request = bucketRequest.incrementAndGet();
+
+    repository.getMediaInBucket(context, bucketId, media -> {
+      if (bucketRequest.get() == request) {
+        bucketMedia.postValue(media);
+      }
+    });
+
     return bucketMedia;
   }
 
@@ -14,16 +14,17 @@ import com.annimon.stream.Stream;
 
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
-import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase.GroupRecord;
-import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -38,19 +39,13 @@ public final class LiveRecipient {
   private final Set<RecipientForeverObserver> observers;
   private final Observer<Recipient>           foreverObserver;
   private final AtomicReference<Recipient>    recipient;
-  private final RecipientDatabase             recipientDatabase;
-  private final GroupDatabase                 groupDatabase;
-  private final String                        unnamedGroupName;
 
   LiveRecipient(@NonNull Context context, @NonNull MutableLiveData<Recipient> liveData, @NonNull Recipient defaultRecipient) {
-    this.context           = context.getApplicationContext();
-    this.liveData          = liveData;
-    this.recipient         = new AtomicReference<>(defaultRecipient);
-    this.recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
-    this.groupDatabase     = DatabaseFactory.getGroupDatabase(context);
-    this.unnamedGroupName  = context.getString(R.string.RecipientProvider_unnamed_group);
-    this.observers         = new CopyOnWriteArraySet<>();
-    this.foreverObserver   = recipient -> {
+    this.context         = context.getApplicationContext();
+    this.liveData        = liveData;
+    this.recipient       = new AtomicReference<>(defaultRecipient);
+    this.observers       = new CopyOnWriteArraySet<>();
+    this.foreverObserver = recipient -> {
       for (RecipientForeverObserver o : observers) {
         o.onRecipientChanged(recipient);
       }
@@ -128,16 +123,9 @@ public final class LiveRecipient {
       Log.w(TAG, "[Resolve][MAIN] " + getId(), new Throwable());
     }
 
-    Recipient       updated      = fetchRecipientFromDisk(getId());
-    List<Recipient> participants = Stream.of(updated.getParticipants())
-                                         .filter(Recipient::isResolving)
-                                         .map(Recipient::getId)
-                                         .map(this::fetchRecipientFromDisk)
-                                         .toList();
+    Recipient updated = fetchRecipientFromDisk(context, getId());
 
-    for (Recipient participant : participants) {
-      participant.live().set(participant);
-    }
+    ApplicationDependencies.getRecipientCache().addIfResolving(updated.getParticipants());
 
     set(updated);
 
@@ -155,15 +143,9 @@ public final class LiveRecipient {
       Log.w(TAG, "[Refresh][MAIN] " + getId(), new Throwable());
     }
 
-    Recipient       recipient    = fetchRecipientFromDisk(getId());
-    List<Recipient> participants = Stream.of(recipient.getParticipants())
-                                         .map(Recipient::getId)
-                                         .map(this::fetchRecipientFromDisk)
-                                         .toList();
+    Recipient recipient = fetchRecipientFromDisk(context, getId());
 
-    for (Recipient participant : participants) {
-      participant.live().set(participant);
-    }
+    ApplicationDependencies.getRecipientCache().addToCache(recipient.getParticipants());
 
     set(recipient);
   }
@@ -172,15 +154,55 @@ public final class LiveRecipient {
     return liveData;
   }
 
-  private @NonNull Recipient fetchRecipientFromDisk(RecipientId id) {
-    RecipientSettings settings = recipientDatabase.getRecipientSettings(id);
-    RecipientDetails  details  = settings.getGroupId() != null ? getGroupRecipientDetails(settings)
-                                                               : getIndividualRecipientDetails(settings);
+  @WorkerThread
+  private static @NonNull Recipient fetchRecipientFromDisk(@NonNull Context context, @NonNull RecipientId id) {
+    return createRecipient(context, DatabaseFactory.getRecipientDatabase(context).getRecipientSettings(id));
+  }
+
+  /**
+   * Reads many recipients at once, e.g. the members of a group. Ids that don't exist are skipped.
+   */
+  @WorkerThread
+  static @NonNull List<Recipient> fetchRecipientsFromDisk(@NonNull Context context, @NonNull List<RecipientId> ids) {
+    return fetchRecipientsFromDisk(context, ids, true);
+  }
+
+  /**
+   * Like {@link #fetchRecipientsFromDisk(Context, List)}, but groups are skipped, so that this is
+   * only ever a read of the recipient table however many members those groups have.
+   */
+  @WorkerThread
+  static @NonNull List<Recipient> fetchIndividualRecipientsFromDisk(@NonNull Context context, @NonNull List<RecipientId> ids) {
+    return fetchRecipientsFromDisk(context, ids, false);
+  }
+
+  @WorkerThread
+  private static @NonNull List<Recipient> fetchRecipientsFromDisk(@NonNull Context context, @NonNull List<RecipientId> ids, boolean includeGroups) {
+    Map<RecipientId, RecipientSettings> settings   = DatabaseFactory.getRecipientDatabase(context).getRecipientSettings(ids);
+    List<Recipient>                     recipients = new ArrayList<>(ids.size());
+
+    for (RecipientId id : ids) {
+      RecipientSettings recipientSettings = settings.get(id);
+
+      if (recipientSettings == null) {
+        Log.w(TAG, "Missing recipient " + id + ", skipping.");
+      } else if (includeGroups || recipientSettings.getGroupId() == null) {
+        recipients.add(createRecipient(context, recipientSettings));
+      }
+    }
+
+    return recipients;
+  }
+
+  @WorkerThread
+  private static @NonNull Recipient createRecipient(@NonNull Context context, @NonNull RecipientSettings settings) {
+    RecipientDetails details = settings.getGroupId() != null ? getGroupRecipientDetails(context, settings)
+                                                             : getIndividualRecipientDetails(context, settings);
 
-    return new Recipient(id, details);
+    return new Recipient(settings.getId(), details);
   }
 
-  private @NonNull RecipientDetails getIndividualRecipientDetails(RecipientSettings settings) {
+  private static @NonNull RecipientDetails getIndividualRecipientDetails(@NonNull Context context, @NonNull RecipientSettings settings) {
     boolean systemContact = !TextUtils.isEmpty(settings.getSystemDisplayName());
     boolean isLocalNumber = (settings.getE164() != null && settings.getE164().equals(TextSecurePreferences.getLocalNumber(context))) ||
                             (settings.getUuid() != null && settings.getUuid().equals(TextSecurePreferences.getLocalUuid(context)));
@@ -189,13 +211,15 @@ public final class LiveRecipient {
   }
 
   @WorkerThread
-  private @NonNull RecipientDetails getGroupRecipientDetails(@NonNull RecipientSettings settings) {
-    Optional<GroupRecord> groupRecord = groupDatabase.getGroup(settings.getId());
+  private static @NonNull RecipientDetails getGroupRecipientDetails(@NonNull Context context, @NonNull RecipientSettings settings) {
+    Optional<GroupRecord> groupRecord      = DatabaseFactory.getGroupDatabase(context).getGroup(settings.getId());
+    String                unnamedGroupName = context.getString(R.string.RecipientProvider_unnamed_group);
 
     if (groupRecord.isPresent()) {
-      String          title    = groupRecord.get().getTitle();
-      List<Recipient> members  = Stream.of(groupRecord.get().getMembers()).filterNot(RecipientId::isUnknown).map(this::fetchRecipientFromDisk).toList();
-      Optional<Long>  avatarId = Optional.absent();
+      String            title     = groupRecord.get().getTitle();
+      List<RecipientId> memberIds = Stream.of(groupRecord.get().getMembers()).filterNot(RecipientId::isUnknown).toList();
+      List<Recipient>   members   = fetchRecipientsFromDisk(context, memberIds);
+      Optional<Long>    avatarId  = Optional.absent();
 
       if (settings.getGroupId() != null && settings.getGroupId().isPush() && title == null) {
         title = unnamedGroupName;
@@ -211,7 +235,7 @@ public final class LiveRecipient {
     return new RecipientDetails(context, unnamedGroupName, Optional.absent(), false, false, settings, null);
   }
 
-  private synchronized void set(@NonNull Recipient recipient) {
+  synchronized void set(@NonNull Recipient recipient) {
     this.recipient.set(recipient);
     this.liveData.postValue(recipient);
   }
@@ -2,9 +2,11 @@ package org.thoughtcrime.securesms.recipients;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.database.Cursor;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 import androidx.lifecycle.MutableLiveData;
 
 import com.annimon.stream.Stream;
@@ -13,13 +15,13 @@ import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.MissingRecipientException;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
-import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.concurrent.SignalExecutors;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +77,17 @@ public final class LiveRecipientCache {
     return live;
   }
 
+  private @NonNull LiveRecipient getOrCreate(@NonNull Recipient recipient) {
+    LiveRecipient live = recipients.get(recipient.getId());
+
+    if (live == null) {
+      live = new LiveRecipient(context, new MutableLiveData<>(), new Recipient(recipient.getId()));
+      recipients.put(recipient.getId(), live);
+    }
+
+    return live;
+  }
+
   @NonNull Recipient getSelf() {
     synchronized (this) {
       if (localRecipientId == null) {
@@ -107,24 +120,87 @@ public final class LiveRecipientCache {
     }
 
     SignalExecutors.BOUNDED.execute(() -> {
-      ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
+      List<RecipientId> ids = new ArrayList<>(CACHE_WARM_MAX);
+
+      try (Cursor cursor = DatabaseFactory.getThreadDatabase(context).getConversationList()) {
+        while (cursor != null && cursor.moveToNext() && ids.size() < CACHE_WARM_MAX) {
+          ids.add(RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.RECIPIENT_ID))));
+        }
+      }
+
+      Log.d(TAG, "Warming up " + ids.size() + " recipients.");
+
+      Collections.reverse(ids);
+      resolveAll(ids);
+    });
+  }
+
+  /**
+   * Makes sure all of the given recipients are resolved, reading the ones that aren't from disk
+   * together rather than one at a time.
+   */
+  @WorkerThread
+  public void resolveAll(@NonNull Collection<RecipientId> ids) {
+    resolveAll(ids, true);
+  }
+
+  /**
+   * Like {@link #resolveAll(Collection)}, but leaves groups to be resolved on their own later. This
+   * keeps the cost to a single read of the recipient table, where resolving a group would also
+   * read its record and all of its members.
+   */
+  @WorkerThread
+  public void resolveIndividuals(@NonNull Collection<RecipientId> ids) {
+    resolveAll(ids, false);
+  }
 
-      try (ThreadDatabase.Reader reader = threadDatabase.readerFor(threadDatabase.getConversationList())) {
-        int             i          = 0;
-        ThreadRecord    record     = null;
-        List<Recipient> recipients = new ArrayList<>();
+  @WorkerThread
+  private void resolveAll(@NonNull Collection<RecipientId> ids, boolean includeGroups) {
+    List<RecipientId> unresolved = new ArrayList<>(ids.size());
 
-        while ((record = reader.getNext()) != null && i < CACHE_WARM_MAX) {
-          recipients.add(record.getRecipient());
-          i++;
+    synchronized (this) {
+      for (RecipientId id : ids) {
+        LiveRecipient live = recipients.get(id);
+
+        if (!id.isUnknown() && (live == null || live.get().isResolving())) {
+          unresolved.add(id);
         }
+      }
+    }
 
-        Log.d(TAG, "Warming up " + recipients.size() + " recipients.");
+    if (unresolved.isEmpty()) {
+      return;
+    }
+
+    List<Recipient> resolved = includeGroups ? LiveRecipient.fetchRecipientsFromDisk(context, unresolved)
+                                             : LiveRecipient.fetchIndividualRecipientsFromDisk(context, unresolved);
+
+    addIfResolving(Stream.of(resolved).flatMap(r -> Stream.of(r.getParticipants())).toList());
+    addToCache(resolved);
+  }
 
-        Collections.reverse(recipients);
-        Stream.of(recipients).map(Recipient::getId).forEach(this::getLive);
+  /**
+   * Puts resolved recipients into the cache, replacing whatever was there before.
+   */
+  @AnyThread
+  synchronized void addToCache(@NonNull Collection<Recipient> resolved) {
+    for (Recipient recipient : resolved) {
+      getOrCreate(recipient).set(recipient);
+    }
+  }
+
+  /**
+   * Puts resolved recipients into the cache, unless the cache already has a resolved copy.
+   */
+  @AnyThread
+  synchronized void addIfResolving(@NonNull Collection<Recipient> resolved) {
+    for (Recipient recipient : resolved) {
+      LiveRecipient live = getOrCreate(recipient);
+
+      if (live.get().isResolving()) {
+        live.set(recipient);
       }
-    });
+    }
   }
 
   @AnyThread
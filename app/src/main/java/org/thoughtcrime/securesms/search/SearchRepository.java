@@ -6,6 +6,7 @@ import android.database.DatabaseUtils;
 import android.database.MergeCursor;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import android.text.TextUtils;
 
@@ -33,19 +34,30 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages data retrieval for search.
+ * <p>
+ * Every query starts a new generation, and work for an older generation is dropped as soon as it's
+ * noticed, so typing quickly doesn't leave a queue of stale searches to get through first. Message
+ * results are loaded a page at a time, and when a query only extends the previous one, a complete
+ * previous result is narrowed down rather than searched for again. That previous result is
+ * forgotten when the query is cleared or {@link #invalidate()} is called, so a narrowed result is
+ * never missing messages that arrived after it was searched for.
  */
 public class SearchRepository {
 
   private static final String TAG = SearchRepository.class.getSimpleName();
 
+  public static final int MESSAGE_PAGE_SIZE = 50;
+
   private static final Set<Character> BANNED_CHARACTERS = new HashSet<>();
   static {
     // Several ranges of invalid ASCII characters
@@ -70,36 +82,87 @@ public class SearchRepository {
   private final ContactAccessor   contactAccessor;
   private final Executor          serialExecutor;
   private final ExecutorService   parallelExecutor;
+  private final AtomicLong        generation;
+
+  /** Only read and written on the serial executor. */
+  private SearchResult lastResult;
 
   public SearchRepository() {
-    this.context           = ApplicationDependencies.getApplication().getApplicationContext();
-    this.searchDatabase    = DatabaseFactory.getSearchDatabase(context);
-    this.threadDatabase    = DatabaseFactory.getThreadDatabase(context);
-    this.contactRepository = new ContactRepository(context);
-    this.contactAccessor   = ContactAccessor.getInstance();
-    this.serialExecutor    = SignalExecutors.SERIAL;
-    this.parallelExecutor  = SignalExecutors.BOUNDED;
+    this(ApplicationDependencies.getApplication().getApplicationContext());
+  }
+
+  private SearchRepository(@NonNull Context context) {
+    this(context,
+         DatabaseFactory.getSearchDatabase(context),
+         DatabaseFactory.getThreadDatabase(context),
+         new ContactRepository(context),
+         ContactAccessor.getInstance(),
+         SignalExecutors.SERIAL,
+         SignalExecutors.BOUNDED);
+  }
+
+  @VisibleForTesting
+  SearchRepository(@NonNull Context context,
+                   @NonNull SearchDatabase searchDatabase,
+                   @NonNull ThreadDatabase threadDatabase,
+                   @NonNull ContactRepository contactRepository,
+                   @NonNull ContactAccessor contactAccessor,
+                   @NonNull Executor serialExecutor,
+                   @NonNull ExecutorService parallelExecutor)
+  {
+    this.context           = context;
+    this.searchDatabase    = searchDatabase;
+    this.threadDatabase    = threadDatabase;
+    this.contactRepository = contactRepository;
+    this.contactAccessor   = contactAccessor;
+    this.serialExecutor    = serialExecutor;
+    this.parallelExecutor  = parallelExecutor;
+    this.generation        = new AtomicLong();
   }
 
   public void query(@NonNull String query, @NonNull Callback<SearchResult> callback) {
+    query(query, MESSAGE_PAGE_SIZE, callback);
+  }
+
+  /**
+   * @param messageCount How many message results to load up front. Use this to refresh a result
+   *                     without losing the pages that have been scrolled through.
+   */
+  public void query(@NonNull String query, int messageCount, @NonNull Callback<SearchResult> callback) {
+    long queryGeneration = generation.incrementAndGet();
+
     if (TextUtils.isEmpty(query)) {
+      invalidate();
       callback.onResult(SearchResult.EMPTY);
       return;
     }
 
     serialExecutor.execute(() -> {
-      String cleanQuery = sanitizeQuery(query);
+      if (isStale(queryGeneration)) {
+        Log.d(TAG, "Skipping a superseded query.");
+        return;
+      }
 
-      Future<List<Recipient>>     contacts      = parallelExecutor.submit(() -> queryContacts(cleanQuery));
-      Future<List<ThreadRecord>>  conversations = parallelExecutor.submit(() -> queryConversations(cleanQuery));
-      Future<List<MessageResult>> messages      = parallelExecutor.submit(() -> queryMessages(cleanQuery));
+      String       cleanQuery = sanitizeQuery(query);
+      SearchResult previous   = lastResult;
+
+      Future<List<Recipient>>    contacts      = parallelExecutor.submit(() -> queryContacts(cleanQuery));
+      Future<List<ThreadRecord>> conversations = parallelExecutor.submit(() -> queryConversations(cleanQuery));
+      Future<MessagePage>        messages      = parallelExecutor.submit(() -> queryMessages(cleanQuery, previous, Math.max(messageCount, MESSAGE_PAGE_SIZE), queryGeneration));
 
       try {
-        long         startTime = System.currentTimeMillis();
-        SearchResult result    = new SearchResult(cleanQuery, contacts.get(), conversations.get(), messages.get());
+        long         startTime   = System.currentTimeMillis();
+        MessagePage  messagePage = messages.get();
+        SearchResult result      = new SearchResult(cleanQuery, contacts.get(), conversations.get(), messagePage.messages, messagePage.more);
 
         Log.d(TAG, "Total time: " + (System.currentTimeMillis() - startTime) + " ms");
 
+        if (isStale(queryGeneration)) {
+          Log.d(TAG, "Dropping the result of a superseded query.");
+          return;
+        }
+
+        lastResult = result;
         callback.onResult(result);
       } catch (ExecutionException | InterruptedException e) {
         Log.w(TAG, e);
@@ -108,21 +171,79 @@ public class SearchRepository {
     });
   }
 
+  /**
+   * Loads the next page of message results for a result returned by this repository. Nothing is
+   * returned if a newer query has been started since.
+   */
+  public void queryMoreMessages(@NonNull SearchResult previous, @NonNull Callback<SearchResult> callback) {
+    long queryGeneration = generation.get();
+
+    if (!previous.hasMoreMessages() || previous.getMessages().isEmpty()) {
+      return;
+    }
+
+    serialExecutor.execute(() -> {
+      if (isStale(queryGeneration)) {
+        return;
+      }
+
+      long                startTime = System.currentTimeMillis();
+      List<MessageResult> loaded    = previous.getMessages();
+      MessagePage         page      = queryMessagesAfter(previous.getQuery(), loaded.get(loaded.size() - 1), MESSAGE_PAGE_SIZE, queryGeneration);
+
+      Log.d(TAG, "[MessagePage] " + (System.currentTimeMillis() - startTime) + " ms");
+
+      if (isStale(queryGeneration)) {
+        return;
+      }
+
+      List<MessageResult> messages = new ArrayList<>(loaded.size() + page.messages.size());
+      messages.addAll(loaded);
+      messages.addAll(page.messages);
+
+      SearchResult result = new SearchResult(previous.getQuery(), previous.getContacts(), previous.getConversations(), messages, page.more);
+
+      lastResult = result;
+      callback.onResult(result);
+    });
+  }
+
+  /**
+   * Forgets the last result, so the next query searches again rather than narrowing it down. Call
+   * this when messages have changed.
+   */
+  public void invalidate() {
+    serialExecutor.execute(() -> lastResult = null);
+  }
+
   public void query(@NonNull String query, long threadId, @NonNull Callback<List<MessageResult>> callback) {
+    long queryGeneration = generation.incrementAndGet();
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(CursorList.emptyList());
       return;
     }
 
     serialExecutor.execute(() -> {
+      if (isStale(queryGeneration)) {
+        Log.d(TAG, "Skipping a superseded query.");
+        return;
+      }
+
       long startTime = System.currentTimeMillis();
       List<MessageResult> messages = queryMessages(sanitizeQuery(query), threadId);
       Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
 
-      callback.onResult(messages);
+      if (!isStale(queryGeneration)) {
+        callback.onResult(messages);
+      }
     });
   }
 
+  private boolean isStale(long queryGeneration) {
+    return generation.get() != queryGeneration;
+  }
+
   private List<Recipient> queryContacts(String query) {
     Cursor contacts = null;
 
@@ -149,12 +270,87 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query) {
-    try (Cursor cursor = searchDatabase.queryMessages(query)) {
-      return readToList(cursor, new MessageModelBuilder(context));
+  private @NonNull MessagePage queryMessages(@NonNull String query, @Nullable SearchResult previous, int limit, long queryGeneration) {
+    if (previous != null && isRefinementOf(query, previous) && previous.getMessages().size() <= limit) {
+      return refineMessages(query, previous.getMessages());
+    }
+
+    try (Cursor cursor = searchDatabase.queryMessages(query, limit + 1)) {
+      return readMessagePage(cursor, query, limit, queryGeneration);
     }
   }
 
+  private @NonNull MessagePage queryMessagesAfter(@NonNull String query, @NonNull MessageResult last, int limit, long queryGeneration) {
+    try (Cursor cursor = searchDatabase.queryMessages(query, last.receivedTimestampMs, last.isMms, last.messageId, limit + 1)) {
+      return readMessagePage(cursor, query, limit, queryGeneration);
+    }
+  }
+
+  /**
+   * Every match of a query that extends another one is also a match of the shorter query, so if we
+   * have all of the shorter query's matches we only need to check which of them still match.
+   */
+  private static boolean isRefinementOf(@NonNull String query, @NonNull SearchResult previous) {
+    return !previous.hasMoreMessages()                     &&
+           query.length() > previous.getQuery().length() &&
+           query.startsWith(previous.getQuery());
+  }
+
+  private @NonNull MessagePage refineMessages(@NonNull String query, @NonNull List<MessageResult> previous) {
+    Set<Long> smsIds = new HashSet<>(previous.size());
+    Set<Long> mmsIds = new HashSet<>(previous.size());
+
+    for (MessageResult message : previous) {
+      (message.isMms ? mmsIds : smsIds).add(message.messageId);
+    }
+
+    Map<Long, String>   smsSnippets = searchDatabase.getMessageSnippets(query, smsIds, false);
+    Map<Long, String>   mmsSnippets = searchDatabase.getMessageSnippets(query, mmsIds, true);
+    List<MessageResult> refined     = new ArrayList<>(smsSnippets.size() + mmsSnippets.size());
+
+    for (MessageResult message : previous) {
+      String snippet = (message.isMms ? mmsSnippets : smsSnippets).get(message.messageId);
+
+      if (snippet != null) {
+        refined.add(new MessageResult(message.conversationRecipient, message.messageRecipient, snippet, message.threadId, message.receivedTimestampMs, message.messageId, message.isMms));
+      }
+    }
+
+    return new MessagePage(refined, false);
+  }
+
+  /**
+   * Snippets are only built for the rows of the page, rather than for every match the query sorted
+   * through.
+   */
+  private @NonNull MessagePage readMessagePage(@Nullable Cursor cursor, @NonNull String query, int limit, long queryGeneration) {
+    if (cursor == null) {
+      return new MessagePage(Collections.emptyList(), false);
+    }
+
+    Set<Long> smsIds = new HashSet<>(limit);
+    Set<Long> mmsIds = new HashSet<>(limit);
+
+    while (cursor.moveToNext() && cursor.getPosition() < limit) {
+      long    messageId = cursor.getLong(cursor.getColumnIndexOrThrow(SearchDatabase.MESSAGE_ID));
+      boolean isMms     = cursor.getInt(cursor.getColumnIndexOrThrow(SearchDatabase.IS_MMS)) == 1;
+
+      (isMms ? mmsIds : smsIds).add(messageId);
+    }
+
+    if (isStale(queryGeneration)) {
+      return new MessagePage(Collections.emptyList(), false);
+    }
+
+    Map<Long, String> smsSnippets = searchDatabase.getMessageSnippets(query, smsIds, false);
+    Map<Long, String> mmsSnippets = searchDatabase.getMessageSnippets(query, mmsIds, true);
+
+    cursor.moveToPosition(-1);
+
+    return new MessagePage(readToList(cursor, new MessageModelBuilder(context, smsSnippets, mmsSnippets), limit),
+                           cursor.getCount() > limit);
+  }
+
   private @NonNull List<MessageResult> queryMessages(@NonNull String query, long threadId) {
     try (Cursor cursor = searchDatabase.queryMessages(query, threadId)) {
       return readToList(cursor, new MessageModelBuilder(context));
@@ -228,10 +424,21 @@ public class SearchRepository {
 
   private static class MessageModelBuilder implements CursorList.ModelBuilder<MessageResult> {
 
-    private final Context context;
+    private final Context           context;
+    private final Map<Long, String> smsSnippets;
+    private final Map<Long, String> mmsSnippets;
 
+    /**
+     * For cursors that include a {@link SearchDatabase#SNIPPET} column.
+     */
     MessageModelBuilder(@NonNull Context context) {
-      this.context = context;
+      this(context, null, null);
+    }
+
+    MessageModelBuilder(@NonNull Context context, @Nullable Map<Long, String> smsSnippets, @Nullable Map<Long, String> mmsSnippets) {
+      this.context     = context;
+      this.smsSnippets = smsSnippets;
+      this.mmsSnippets = mmsSnippets;
     }
 
     @Override
@@ -240,11 +447,34 @@ public class SearchRepository {
       RecipientId messageRecipientId      = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(SearchDatabase.MESSAGE_RECIPIENT)));
       Recipient   conversationRecipient   = Recipient.live(conversationRecipientId).get();
       Recipient   messageRecipient        = Recipient.live(messageRecipientId).get();
-      String      body                    = cursor.getString(cursor.getColumnIndexOrThrow(SearchDatabase.SNIPPET));
       long        receivedMs              = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED));
       long        threadId                = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.THREAD_ID));
+      long        messageId               = cursor.getLong(cursor.getColumnIndexOrThrow(SearchDatabase.MESSAGE_ID));
+      boolean     isMms                   = cursor.getInt(cursor.getColumnIndexOrThrow(SearchDatabase.IS_MMS)) == 1;
+
+      return new MessageResult(conversationRecipient, messageRecipient, getSnippet(cursor, messageId, isMms), threadId, receivedMs, messageId, isMms);
+    }
+
+    private @NonNull String getSnippet(@NonNull Cursor cursor, long messageId, boolean isMms) {
+      Map<Long, String> snippets = isMms ? mmsSnippets : smsSnippets;
+
+      if (snippets == null) {
+        return cursor.getString(cursor.getColumnIndexOrThrow(SearchDatabase.SNIPPET));
+      }
+
+      String snippet = snippets.get(messageId);
+      return snippet != null ? snippet : "";
+    }
+  }
+
+  private static class MessagePage {
+
+    private final List<MessageResult> messages;
+    private final boolean             more;
 
-      return new MessageResult(conversationRecipient, messageRecipient, body, threadId, receivedMs);
+    MessagePage(@NonNull List<MessageResult> messages, boolean more) {
+      this.messages = messages;
+      this.more     = more;
     }
   }
 
@@ -24,7 +24,6 @@ import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
-import org.whispersystems.libsignal.InvalidVersionException;
 import org.whispersystems.signalservice.api.SignalServiceMessagePipe;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
 
@@ -37,6 +36,7 @@ public class IncomingMessageObserver implements ConstraintObserver.Notifier {
 
   public  static final  int FOREGROUND_ID            = 313399;
   private static final long REQUEST_TIMEOUT_MINUTES  = 1;
+  private static final int  MAX_BATCH_SIZE           = 500;
 
   private static SignalServiceMessagePipe pipe             = null;
   private static SignalServiceMessagePipe unidentifiedPipe = null;
@@ -153,18 +153,16 @@ public class IncomingMessageObserver implements ConstraintObserver.Notifier {
         try {
           while (isConnectionNecessary()) {
             try {
-              Log.i(TAG, "Reading message...");
-              localPipe.read(REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES,
-                             envelope -> {
-                               Log.i(TAG, "Retrieved envelope! " + envelope.getSourceIdentifier());
-                               try (Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
-                                 processor.processEnvelope(envelope);
-                               }
-                             });
+              Log.i(TAG, "Reading messages...");
+              localPipe.readBatch(REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES, MAX_BATCH_SIZE,
+                                  envelopes -> {
+                                    Log.i(TAG, "Retrieved " + envelopes.size() + " envelopes!");
+                                    try (Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
+                                      processor.processEnvelopes(envelopes);
+                                    }
+                                  });
             } catch (TimeoutException e) {
               Log.w(TAG, "Application level read timeout...");
-            } catch (InvalidVersionException e) {
-              Log.w(TAG, e);
             }
           }
         } catch (Throwable e) {
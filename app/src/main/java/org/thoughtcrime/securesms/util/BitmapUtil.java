@@ -15,6 +15,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.exifinterface.media.ExifInterface;
 import android.util.Pair;
+import android.util.SparseIntArray;
 
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
@@ -42,10 +43,14 @@ public class BitmapUtil {
 
   private static final int MAX_COMPRESSION_QUALITY          = 90;
   private static final int MIN_COMPRESSION_QUALITY          = 45;
-  private static final int MAX_COMPRESSION_ATTEMPTS         = 5;
   private static final int MIN_COMPRESSION_QUALITY_DECREASE = 5;
   private static final int MAX_IMAGE_HALF_SCALES            = 3;
 
+  private static final int    TRIAL_SAMPLE_GRID       = 4;
+  private static final int    JPEG_BLOCK_SIZE         = 16;
+  private static final double TARGET_SIZE_MARGIN      = 0.95;
+  private static final double HOPELESS_SIZE_RATIO     = 1.1;
+
   @WorkerThread
   public static <T> ScaleResult createScaledBytes(@NonNull Context context, @NonNull T model, @NonNull MediaConstraints constraints)
       throws BitmapDecodingException
@@ -68,91 +73,69 @@ public class BitmapUtil {
   }
 
   @WorkerThread
-  public static <T> ScaleResult createScaledBytes(Context context,
-                                                  T model,
-                                                  int maxImageWidth,
-                                                  int maxImageHeight,
-                                                  int maxImageSize,
+  public static <T> ScaleResult createScaledBytes(@NonNull Context context,
+                                                  @NonNull T model,
+                                                  final int maxImageWidth,
+                                                  final int maxImageHeight,
+                                                  final int maxImageSize,
                                                   @NonNull CompressFormat format)
       throws BitmapDecodingException
   {
-    return createScaledBytes(context, model, maxImageWidth, maxImageHeight, maxImageSize, format, 1, 0);
-  }
+    Bitmap scaledBitmap;
 
-  @WorkerThread
-  private static <T> ScaleResult createScaledBytes(@NonNull Context context,
-                                                   @NonNull T model,
-                                                   final int maxImageWidth,
-                                                   final int maxImageHeight,
-                                                   final int maxImageSize,
-                                                   @NonNull CompressFormat format,
-                                                   final int sizeAttempt,
-                                                   int totalAttempts)
-      throws BitmapDecodingException
-  {
     try {
-      int    quality  = MAX_COMPRESSION_QUALITY;
-      int    attempts = 0;
-      byte[] bytes;
-
-      Bitmap scaledBitmap = GlideApp.with(context.getApplicationContext())
-                                    .asBitmap()
-                                    .load(model)
-                                    .skipMemoryCache(true)
-                                    .diskCacheStrategy(DiskCacheStrategy.NONE)
-                                    .centerInside()
-                                    .submit(maxImageWidth, maxImageHeight)
-                                    .get();
-
-      if (scaledBitmap == null) {
-        throw new BitmapDecodingException("Unable to decode image");
-      }
+      scaledBitmap = GlideApp.with(context.getApplicationContext())
+                             .asBitmap()
+                             .load(model)
+                             .skipMemoryCache(true)
+                             .diskCacheStrategy(DiskCacheStrategy.NONE)
+                             .disallowHardwareConfig()
+                             .centerInside()
+                             .submit(maxImageWidth, maxImageHeight)
+                             .get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new BitmapDecodingException(e);
+    }
 
-      Log.i(TAG, String.format(Locale.US,"Initial scaled bitmap has size of %d bytes.", scaledBitmap.getByteCount()));
-      Log.i(TAG, String.format(Locale.US, "Max dimensions %d x %d, %d bytes", maxImageWidth, maxImageHeight, maxImageSize));
+    if (scaledBitmap == null) {
+      throw new BitmapDecodingException("Unable to decode image");
+    }
 
-      try {
-        do {
-          totalAttempts++;
-          ByteArrayOutputStream baos = new ByteArrayOutputStream();
-          scaledBitmap.compress(format, quality, baos);
-          bytes = baos.toByteArray();
-
-          Log.d(TAG, "iteration with quality " + quality + " size " + bytes.length + " bytes.");
-          if (quality == MIN_COMPRESSION_QUALITY) break;
-
-          int nextQuality = (int)Math.floor(quality * Math.sqrt((double)maxImageSize / bytes.length));
-          if (quality - nextQuality < MIN_COMPRESSION_QUALITY_DECREASE) {
-            nextQuality = quality - MIN_COMPRESSION_QUALITY_DECREASE;
-          }
-          quality = Math.max(nextQuality, MIN_COMPRESSION_QUALITY);
-        }
-        while (bytes.length > maxImageSize && attempts++ < MAX_COMPRESSION_ATTEMPTS);
+    Log.i(TAG, String.format(Locale.US,"Initial scaled bitmap has size of %d bytes.", scaledBitmap.getByteCount()));
+    Log.i(TAG, String.format(Locale.US, "Max dimensions %d x %d, %d bytes", maxImageWidth, maxImageHeight, maxImageSize));
+
+    long startTime = System.currentTimeMillis();
 
-        if (bytes.length > maxImageSize) {
-          if (sizeAttempt <= MAX_IMAGE_HALF_SCALES) {
-            scaledBitmap.recycle();
-            scaledBitmap = null;
+    try (QualitySearch search = new QualitySearch(format, maxImageSize)) {
+      for (int sizeAttempt = 1; ; sizeAttempt++) {
+        byte[] bytes = search.encode(scaledBitmap);
 
-            Log.i(TAG, "Halving dimensions and retrying.");
-            return createScaledBytes(context, model, maxImageWidth / 2, maxImageHeight / 2, maxImageSize, format, sizeAttempt + 1, totalAttempts);
-          } else {
-            throw new BitmapDecodingException("Unable to scale image below " + bytes.length + " bytes.");
+        if (bytes != null) {
+          if (bytes.length <= 0) {
+            throw new BitmapDecodingException("Decoding failed. Bitmap has a length of " + bytes.length + " bytes.");
           }
+
+          Log.i(TAG, String.format(Locale.US, "createScaledBytes(%s) -> quality %d, %d full and %d trial encode(s) over %d sizes in %d ms.",
+                                   model.getClass().getName(), search.getQuality(), search.getFullEncodes(), search.getTrialEncodes(), sizeAttempt, System.currentTimeMillis() - startTime));
+
+          return new ScaleResult(bytes, scaledBitmap.getWidth(), scaledBitmap.getHeight());
         }
 
-        if (bytes.length <= 0) {
-          throw new BitmapDecodingException("Decoding failed. Bitmap has a length of " + bytes.length + " bytes.");
+        if (sizeAttempt > MAX_IMAGE_HALF_SCALES) {
+          throw new BitmapDecodingException("Unable to scale image below " + search.getLastSize() + " bytes.");
         }
 
-        Log.i(TAG, String.format(Locale.US, "createScaledBytes(%s) -> quality %d, %d attempt(s) over %d sizes.", model.getClass().getName(), quality, totalAttempts, sizeAttempt));
+        Log.i(TAG, "Halving dimensions and retrying.");
 
-        return new ScaleResult(bytes, scaledBitmap.getWidth(), scaledBitmap.getHeight());
-      } finally {
-        if (scaledBitmap != null) scaledBitmap.recycle();
+        Bitmap halved = Bitmap.createScaledBitmap(scaledBitmap, Math.max(1, scaledBitmap.getWidth() / 2), Math.max(1, scaledBitmap.getHeight() / 2), true);
+
+        if (halved != scaledBitmap) {
+          scaledBitmap.recycle();
+          scaledBitmap = halved;
+        }
       }
-    } catch (InterruptedException | ExecutionException e) {
-      throw new BitmapDecodingException(e);
+    } finally {
+      scaledBitmap.recycle();
     }
   }
 
@@ -422,6 +405,208 @@ public class BitmapUtil {
     return Math.min(maximumTextureSize, MAX_ALLOWED_TEXTURE_SIZE);
   }
 
+  /**
+   * Picks the quality for each size from trial encodes of a small sample of the bitmap, so that
+   * the bitmap itself is usually encoded once and never more than twice.
+   * <p>
+   * The sample is a grid of full-resolution tiles rather than a downscaled copy. Downscaling packs
+   * more detail into every pixel, which makes the sample a poor predictor of the full encode.
+   */
+  private static final class QualitySearch implements AutoCloseable {
+
+    private final CompressFormat              format;
+    private final int                         maxImageSize;
+    private final PooledByteArrayOutputStream trialStream;
+    private final PooledByteArrayOutputStream fullStream;
+
+    private int quality;
+    private int lastSize;
+    private int fullEncodes;
+    private int trialEncodes;
+
+    private QualitySearch(@NonNull CompressFormat format, int maxImageSize) {
+      this.format       = format;
+      this.maxImageSize = maxImageSize;
+      this.trialStream  = new PooledByteArrayOutputStream();
+      this.fullStream   = new PooledByteArrayOutputStream();
+    }
+
+    /**
+     * @return The encoded bitmap, or null if it can't be made to fit at this size.
+     */
+    @Nullable byte[] encode(@NonNull Bitmap bitmap) throws BitmapDecodingException {
+      if (format == CompressFormat.PNG) {
+        return encodeFull(bitmap, MAX_COMPRESSION_QUALITY) <= maxImageSize ? fullStream.toByteArray() : null;
+      }
+
+      Bitmap sample = createTrialSample(bitmap);
+
+      try {
+        SparseIntArray trialSizes = new SparseIntArray();
+        double         ratio      = (double) bitmap.getWidth() * bitmap.getHeight() / ((double) sample.getWidth() * sample.getHeight());
+        int            target     = (int) (maxImageSize * TARGET_SIZE_MARGIN);
+        int            predicted  = predictQuality(sample, trialSizes, ratio, target);
+
+        if (predicted < 0) {
+          int smallest = (int) (getTrialSize(sample, trialSizes, MIN_COMPRESSION_QUALITY) * ratio);
+
+          if (smallest > maxImageSize * HOPELESS_SIZE_RATIO) {
+            Log.d(TAG, "Predicted " + smallest + " bytes at minimum quality, skipping this size.");
+            lastSize = smallest;
+            return null;
+          }
+
+          predicted = MIN_COMPRESSION_QUALITY;
+        }
+
+        if (encodeFull(bitmap, predicted) <= maxImageSize) {
+          return fullStream.toByteArray();
+        }
+
+        if (predicted == MIN_COMPRESSION_QUALITY) {
+          return null;
+        }
+
+        double calibrated = (double) lastSize / getTrialSize(sample, trialSizes, predicted);
+        int    retry      = predictQuality(sample, trialSizes, calibrated, target);
+
+        if (retry < 0) {
+          retry = MIN_COMPRESSION_QUALITY;
+        } else if (retry >= predicted) {
+          retry = Math.max(predicted - MIN_COMPRESSION_QUALITY_DECREASE, MIN_COMPRESSION_QUALITY);
+        }
+
+        return encodeFull(bitmap, retry) <= maxImageSize ? fullStream.toByteArray() : null;
+      } finally {
+        if (sample != bitmap) sample.recycle();
+      }
+    }
+
+    int getQuality() {
+      return quality;
+    }
+
+    int getLastSize() {
+      return lastSize;
+    }
+
+    int getFullEncodes() {
+      return fullEncodes;
+    }
+
+    int getTrialEncodes() {
+      return trialEncodes;
+    }
+
+    @Override
+    public void close() {
+      trialStream.close();
+      fullStream.close();
+    }
+
+    /**
+     * @return The highest quality, in steps of {@link #MIN_COMPRESSION_QUALITY_DECREASE}, whose
+     *         predicted size fits the target, or -1 if even the minimum quality doesn't.
+     */
+    private int predictQuality(@NonNull Bitmap sample, @NonNull SparseIntArray trialSizes, double ratio, int target)
+        throws BitmapDecodingException
+    {
+      if (getTrialSize(sample, trialSizes, MAX_COMPRESSION_QUALITY) * ratio <= target) {
+        return MAX_COMPRESSION_QUALITY;
+      }
+
+      if (getTrialSize(sample, trialSizes, MIN_COMPRESSION_QUALITY) * ratio > target) {
+        return -1;
+      }
+
+      int low  = 0;
+      int high = (MAX_COMPRESSION_QUALITY - MIN_COMPRESSION_QUALITY) / MIN_COMPRESSION_QUALITY_DECREASE;
+
+      while (high - low > 1) {
+        int middle = (low + high) >>> 1;
+
+        if (getTrialSize(sample, trialSizes, MIN_COMPRESSION_QUALITY + middle * MIN_COMPRESSION_QUALITY_DECREASE) * ratio <= target) {
+          low = middle;
+        } else {
+          high = middle;
+        }
+      }
+
+      return MIN_COMPRESSION_QUALITY + low * MIN_COMPRESSION_QUALITY_DECREASE;
+    }
+
+    private int getTrialSize(@NonNull Bitmap sample, @NonNull SparseIntArray trialSizes, int quality)
+        throws BitmapDecodingException
+    {
+      int size = trialSizes.get(quality, -1);
+
+      if (size < 0) {
+        trialStream.reset();
+        compress(sample, quality, trialStream);
+        trialEncodes++;
+
+        size = trialStream.size();
+        trialSizes.put(quality, size);
+      }
+
+      return size;
+    }
+
+    private int encodeFull(@NonNull Bitmap bitmap, int quality) throws BitmapDecodingException {
+      fullStream.reset();
+      compress(bitmap, quality, fullStream);
+      fullEncodes++;
+
+      this.quality  = quality;
+      this.lastSize = fullStream.size();
+
+      Log.d(TAG, "Full encode with quality " + quality + " size " + lastSize + " bytes.");
+      return lastSize;
+    }
+
+    private void compress(@NonNull Bitmap bitmap, int quality, @NonNull ByteArrayOutputStream outputStream)
+        throws BitmapDecodingException
+    {
+      if (!bitmap.compress(format, quality, outputStream)) {
+        throw new BitmapDecodingException("Unable to compress bitmap");
+      }
+    }
+
+    /**
+     * Copies {@link #TRIAL_SAMPLE_GRID} x {@link #TRIAL_SAMPLE_GRID} evenly spread tiles of the
+     * bitmap into one bitmap covering 1/16th of its area. Tiles are aligned to JPEG blocks so the
+     * sample encodes like the regions it was taken from. Bitmaps too small to tile are their own
+     * sample.
+     */
+    private static @NonNull Bitmap createTrialSample(@NonNull Bitmap bitmap) {
+      int tileWidth  = bitmap.getWidth()  / (TRIAL_SAMPLE_GRID * TRIAL_SAMPLE_GRID) / JPEG_BLOCK_SIZE * JPEG_BLOCK_SIZE;
+      int tileHeight = bitmap.getHeight() / (TRIAL_SAMPLE_GRID * TRIAL_SAMPLE_GRID) / JPEG_BLOCK_SIZE * JPEG_BLOCK_SIZE;
+
+      if (tileWidth == 0 || tileHeight == 0) {
+        return bitmap;
+      }
+
+      Bitmap sample = Bitmap.createBitmap(tileWidth * TRIAL_SAMPLE_GRID, tileHeight * TRIAL_SAMPLE_GRID, Bitmap.Config.ARGB_8888);
+      Canvas canvas = new Canvas(sample);
+      Rect   source = new Rect();
+      Rect   dest   = new Rect();
+
+      for (int row = 0; row < TRIAL_SAMPLE_GRID; row++) {
+        for (int column = 0; column < TRIAL_SAMPLE_GRID; column++) {
+          int left = ((2 * column + 1) * bitmap.getWidth()  / (2 * TRIAL_SAMPLE_GRID) - tileWidth  / 2) / JPEG_BLOCK_SIZE * JPEG_BLOCK_SIZE;
+          int top  = ((2 * row    + 1) * bitmap.getHeight() / (2 * TRIAL_SAMPLE_GRID) - tileHeight / 2) / JPEG_BLOCK_SIZE * JPEG_BLOCK_SIZE;
+
+          source.set(left, top, left + tileWidth, top + tileHeight);
+          dest.set(column * tileWidth, row * tileHeight, (column + 1) * tileWidth, (row + 1) * tileHeight);
+
+          canvas.drawBitmap(bitmap, source, dest, null);
+        }
+      }
+
+      return sample;
+    }
+  }
+
   public static class ScaleResult {
     private final byte[] bitmap;
     private final int    width;
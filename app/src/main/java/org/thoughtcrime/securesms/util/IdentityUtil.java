@@ -16,6 +16,7 @@ import org.thoughtcrime.securesms.database.IdentityDatabase;
 import org.thoughtcrime.securesms.database.IdentityDatabase.IdentityRecord;
 import org.thoughtcrime.securesms.database.MessagingDatabase.InsertResult;
 import org.thoughtcrime.securesms.database.SmsDatabase;
+import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
 import org.thoughtcrime.securesms.recipients.Recipient;
@@ -70,32 +71,24 @@ public class IdentityUtil {
     SmsDatabase   smsDatabase   = DatabaseFactory.getSmsDatabase(context);
     GroupDatabase groupDatabase = DatabaseFactory.getGroupDatabase(context);
 
-    try (GroupDatabase.Reader reader = groupDatabase.getGroups()) {
+    for (GroupId groupId : groupDatabase.getActiveGroupIdsContainingMember(recipient.getId(), false)) {
+      if (remote) {
+        IncomingTextMessage incoming = new IncomingTextMessage(recipient.getId(), 1, time, -1, null, Optional.of(groupId), 0, false);
 
-      GroupDatabase.GroupRecord groupRecord;
+        if (verified) incoming = new IncomingIdentityVerifiedMessage(incoming);
+        else          incoming = new IncomingIdentityDefaultMessage(incoming);
 
-      while ((groupRecord = reader.getNext()) != null) {
-        if (groupRecord.getMembers().contains(recipient.getId()) && groupRecord.isActive() && !groupRecord.isMms()) {
-
-          if (remote) {
-            IncomingTextMessage incoming = new IncomingTextMessage(recipient.getId(), 1, time, -1, null, Optional.of(groupRecord.getId()), 0, false);
-
-            if (verified) incoming = new IncomingIdentityVerifiedMessage(incoming);
-            else          incoming = new IncomingIdentityDefaultMessage(incoming);
-
-            smsDatabase.insertMessageInbox(incoming);
-          } else {
-            RecipientId         recipientId    = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupRecord.getId());
-            Recipient           groupRecipient = Recipient.resolved(recipientId);
-            long                threadId       = DatabaseFactory.getThreadDatabase(context).getThreadIdFor(groupRecipient);
-            OutgoingTextMessage outgoing ;
+        smsDatabase.insertMessageInbox(incoming);
+      } else {
+        RecipientId         recipientId    = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
+        Recipient           groupRecipient = Recipient.resolved(recipientId);
+        long                threadId       = DatabaseFactory.getThreadDatabase(context).getThreadIdFor(groupRecipient);
+        OutgoingTextMessage outgoing ;
 
-            if (verified) outgoing = new OutgoingIdentityVerifiedMessage(recipient);
-            else          outgoing = new OutgoingIdentityDefaultMessage(recipient);
+        if (verified) outgoing = new OutgoingIdentityVerifiedMessage(recipient);
+        else          outgoing = new OutgoingIdentityDefaultMessage(recipient);
 
-            DatabaseFactory.getSmsDatabase(context).insertMessageOutbox(threadId, outgoing, false, time, null);
-          }
-        }
+        DatabaseFactory.getSmsDatabase(context).insertMessageOutbox(threadId, outgoing, false, time, null);
       }
     }
 
@@ -120,20 +113,15 @@ public class IdentityUtil {
   }
 
   public static void markIdentityUpdate(Context context, Recipient recipient) {
-    long                 time          = System.currentTimeMillis();
-    SmsDatabase          smsDatabase   = DatabaseFactory.getSmsDatabase(context);
-    GroupDatabase        groupDatabase = DatabaseFactory.getGroupDatabase(context);
-    GroupDatabase.Reader reader        = groupDatabase.getGroups();
-
-    GroupDatabase.GroupRecord groupRecord;
+    long          time          = System.currentTimeMillis();
+    SmsDatabase   smsDatabase   = DatabaseFactory.getSmsDatabase(context);
+    GroupDatabase groupDatabase = DatabaseFactory.getGroupDatabase(context);
 
-    while ((groupRecord = reader.getNext()) != null) {
-      if (groupRecord.getMembers().contains(recipient.getId()) && groupRecord.isActive()) {
-        IncomingTextMessage           incoming    = new IncomingTextMessage(recipient.getId(), 1, time, time, null, Optional.of(groupRecord.getId()), 0, false);
-        IncomingIdentityUpdateMessage groupUpdate = new IncomingIdentityUpdateMessage(incoming);
+    for (GroupId groupId : groupDatabase.getActiveGroupIdsContainingMember(recipient.getId(), true)) {
+      IncomingTextMessage           incoming    = new IncomingTextMessage(recipient.getId(), 1, time, time, null, Optional.of(groupId), 0, false);
+      IncomingIdentityUpdateMessage groupUpdate = new IncomingIdentityUpdateMessage(incoming);
 
-        smsDatabase.insertMessageInbox(groupUpdate);
-      }
+      smsDatabase.insertMessageInbox(groupUpdate);
     }
 
     IncomingTextMessage           incoming         = new IncomingTextMessage(recipient.getId(), 1, time, -1, null, Optional.absent(), 0, false);
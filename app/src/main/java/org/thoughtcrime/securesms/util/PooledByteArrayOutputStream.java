@@ -0,0 +1,72 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A {@link ByteArrayOutputStream} that borrows its buffer from a small shared pool and returns it
+ * on {@link #close()}, so repeated multi-megabyte writes, like image encodes, don't have to grow a
+ * new buffer from scratch each time.
+ * <p>
+ * Pooled buffers are softly referenced and are given up under memory pressure.
+ */
+public final class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+
+  private static final int MAX_POOLED_BUFFERS = 4;
+  private static final int MIN_POOLED_SIZE    = 64 * 1024;
+
+  private static final Deque<SoftReference<byte[]>> POOL = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+  private boolean closed;
+
+  public PooledByteArrayOutputStream() {
+    super(0);
+    this.buf = obtainBuffer();
+  }
+
+  @Override
+  public void close() {
+    byte[] buffer;
+
+    synchronized (this) {
+      if (closed) return;
+
+      closed = true;
+      buffer = buf;
+      buf    = new byte[0];
+      count  = 0;
+    }
+
+    releaseBuffer(buffer);
+  }
+
+  private static @NonNull byte[] obtainBuffer() {
+    synchronized (POOL) {
+      while (!POOL.isEmpty()) {
+        byte[] buffer = POOL.pop().get();
+
+        if (buffer != null) {
+          return buffer;
+        }
+      }
+    }
+
+    return new byte[MIN_POOLED_SIZE];
+  }
+
+  private static void releaseBuffer(@NonNull byte[] buffer) {
+    if (buffer.length < MIN_POOLED_SIZE) {
+      return;
+    }
+
+    synchronized (POOL) {
+      if (POOL.size() < MAX_POOLED_BUFFERS) {
+        POOL.push(new SoftReference<>(buffer));
+      }
+    }
+  }
+}
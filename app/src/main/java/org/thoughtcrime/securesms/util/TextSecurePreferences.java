@@ -172,6 +172,9 @@ public class TextSecurePreferences {
   private static final String LAST_FULL_CONTACT_SYNC_TIME = "pref_last_full_contact_sync_time";
   private static final String NEEDS_FULL_CONTACT_SYNC     = "pref_needs_full_contact_sync";
 
+  private static final String LAST_THREAD_SUMMARY_CHECK_TIME    = "pref_last_thread_summary_check_time";
+  private static final String LAST_THREAD_SUMMARY_CHECK_VERSION = "pref_last_thread_summary_check_version";
+
   private static final String LOG_ENCRYPTED_SECRET   = "pref_log_encrypted_secret";
   private static final String LOG_UNENCRYPTED_SECRET = "pref_log_unencrypted_secret";
 
@@ -1100,6 +1103,22 @@ public class TextSecurePreferences {
     setLongPreference(context, LAST_FULL_CONTACT_SYNC_TIME, timestamp);
   }
 
+  public static long getLastThreadSummaryCheckTime(Context context) {
+    return getLongPreference(context, LAST_THREAD_SUMMARY_CHECK_TIME, 0);
+  }
+
+  public static void setLastThreadSummaryCheckTime(Context context, long timestamp) {
+    setLongPreference(context, LAST_THREAD_SUMMARY_CHECK_TIME, timestamp);
+  }
+
+  public static int getLastThreadSummaryCheckVersion(Context context) {
+    return getIntegerPreference(context, LAST_THREAD_SUMMARY_CHECK_VERSION, 0);
+  }
+
+  public static void setLastThreadSummaryCheckVersion(Context context, int versionCode) {
+    setIntegerPrefrence(context, LAST_THREAD_SUMMARY_CHECK_VERSION, versionCode);
+  }
+
   public static boolean needsFullContactSync(Context context) {
     return getBooleanPreference(context, NEEDS_FULL_CONTACT_SYNC, false);
   }
@@ -0,0 +1,62 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Bounds how much memory a set of concurrent tasks may hold at once. Each task reserves an
+ * estimate of what it will allocate, blocking until enough of the budget is free, and closes the
+ * reservation when done.
+ * <p>
+ * A reservation larger than the whole budget waits until nothing else is reserved and then runs
+ * alone, rather than never running at all.
+ */
+public final class MemoryBudget {
+
+  private final long budget;
+
+  private long reserved;
+
+  public MemoryBudget(long budget) {
+    this.budget = budget;
+  }
+
+  @WorkerThread
+  public synchronized @NonNull Reservation reserve(long bytes) throws InterruptedException {
+    long amount = Math.min(Math.max(bytes, 0), budget);
+
+    while (reserved + amount > budget) {
+      wait();
+    }
+
+    reserved += amount;
+
+    return new Reservation(amount);
+  }
+
+  private synchronized void release(long bytes) {
+    reserved -= bytes;
+    notifyAll();
+  }
+
+  public final class Reservation implements AutoCloseable {
+
+    private final long bytes;
+
+    private boolean released;
+
+    private Reservation(long bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void close() {
+      synchronized (this) {
+        if (released) return;
+        released = true;
+      }
+
+      release(bytes);
+    }
+  }
+}
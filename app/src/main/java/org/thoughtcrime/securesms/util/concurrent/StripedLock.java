@@ -0,0 +1,30 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A fixed set of monitors, chosen between by key, so that work on unrelated keys can run in
+ * parallel without keeping a lock around for every key.
+ * <p>
+ * Different keys can share a monitor, so never wait on one key's monitor while holding another's
+ * from the same instance.
+ */
+public final class StripedLock {
+
+  private final Object[] locks;
+
+  public StripedLock(int stripes) {
+    this.locks = new Object[stripes];
+
+    for (int i = 0; i < stripes; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  public @NonNull Object get(@NonNull Object key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+
+    return locks[(hash & 0x7fffffff) % locks.length];
+  }
+}
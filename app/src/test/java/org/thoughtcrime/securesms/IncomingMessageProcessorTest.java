@@ -0,0 +1,187 @@
+package org.thoughtcrime.securesms;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.database.PushDatabase;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.jobs.PushDecryptMessageJob;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DatabaseFactory.class, ApplicationDependencies.class, Log.class, Recipient.class })
+public class IncomingMessageProcessorTest {
+
+  private static final RecipientId SENDER = RecipientId.from(1);
+
+  private final Context           context           = mock(Context.class);
+  private final PushDatabase      pushDatabase      = mock(PushDatabase.class);
+  private final ReceiptAggregator receiptAggregator = mock(ReceiptAggregator.class);
+  private final JobManager        jobManager        = mock(JobManager.class);
+
+  private IncomingMessageProcessor processor;
+
+  @Before
+  public void setUp() {
+    mockStatic(DatabaseFactory.class);
+    mockStatic(ApplicationDependencies.class);
+    mockStatic(Log.class);
+    mockStatic(Recipient.class);
+
+    Recipient sender = mock(Recipient.class);
+
+    when(sender.getId()).thenReturn(SENDER);
+    when(Recipient.externalPush(any(Context.class), any(SignalServiceAddress.class))).thenReturn(sender);
+    when(DatabaseFactory.getPushDatabase(any())).thenReturn(pushDatabase);
+    when(ApplicationDependencies.getReceiptAggregator()).thenReturn(receiptAggregator);
+    when(ApplicationDependencies.getJobManager()).thenReturn(jobManager);
+
+    processor = new IncomingMessageProcessor(context);
+  }
+
+  @Test
+  public void processEnvelopes_persistsJobsTogetherAfterInsert() throws InterruptedException {
+    List<SignalServiceEnvelope> envelopes = messages(120);
+    List<Long>                  ids       = new ArrayList<>();
+
+    for (long id = 1; id <= 120; id++) {
+      ids.add(id);
+    }
+
+    when(pushDatabase.insert(envelopes)).thenReturn(ids);
+
+    try (IncomingMessageProcessor.Processor p = processor.acquire()) {
+      p.processEnvelopes(envelopes);
+    }
+
+    InOrder order = inOrder(pushDatabase, jobManager);
+    order.verify(pushDatabase).insert(envelopes);
+    order.verify(jobManager).addAllAndWait(anyList());
+
+    verify(jobManager, never()).add(any(Job.class));
+
+    List<long[]> batches = captureBatches();
+
+    assertEquals(3, batches.size());
+    assertArrayEquals(range(1, 50), batches.get(0));
+    assertArrayEquals(range(51, 100), batches.get(1));
+    assertArrayEquals(range(101, 120), batches.get(2));
+  }
+
+  @Test
+  public void processEnvelopes_redeliveredEnvelopes_getOneJobEach() throws InterruptedException {
+    List<SignalServiceEnvelope> envelopes = messages(4);
+
+    when(pushDatabase.insert(envelopes)).thenReturn(Arrays.asList(7L, 3L, 7L, 9L));
+
+    try (IncomingMessageProcessor.Processor p = processor.acquire()) {
+      p.processEnvelopes(envelopes);
+    }
+
+    List<long[]> batches = captureBatches();
+
+    assertEquals(1, batches.size());
+    assertArrayEquals(new long[] { 7, 3, 9 }, batches.get(0));
+  }
+
+  @Test
+  public void processEnvelopes_onlyReceipts_savesNothing() throws InterruptedException {
+    SignalServiceEnvelope receipt = mock(SignalServiceEnvelope.class);
+
+    when(receipt.isReceipt()).thenReturn(true);
+    when(receipt.getTimestamp()).thenReturn(1000L);
+
+    try (IncomingMessageProcessor.Processor p = processor.acquire()) {
+      p.processEnvelopes(Collections.singletonList(receipt));
+    }
+
+    verify(receiptAggregator).addDeliveryReceipt(any(SyncMessageId.class), anyLong());
+    verify(pushDatabase, never()).insert(anyList());
+    verify(jobManager, never()).addAllAndWait(anyList());
+  }
+
+  @Test
+  public void processEnvelopes_interruptedBeforeJobsSaved_throws() throws InterruptedException {
+    List<SignalServiceEnvelope> envelopes = messages(2);
+
+    when(pushDatabase.insert(envelopes)).thenReturn(Arrays.asList(1L, 2L));
+    doThrow(new InterruptedException()).when(jobManager).addAllAndWait(anyList());
+
+    try (IncomingMessageProcessor.Processor p = processor.acquire()) {
+      p.processEnvelopes(envelopes);
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<long[]> captureBatches() throws InterruptedException {
+    ArgumentCaptor<List> jobs = ArgumentCaptor.forClass(List.class);
+    verify(jobManager).addAllAndWait(jobs.capture());
+
+    List<long[]> batches = new ArrayList<>();
+
+    for (Object job : jobs.getValue()) {
+      batches.add(((PushDecryptMessageJob) job).serialize().getLongArray("message_ids"));
+    }
+
+    return batches;
+  }
+
+  private static List<SignalServiceEnvelope> messages(int count) {
+    List<SignalServiceEnvelope> envelopes = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      SignalServiceEnvelope envelope = mock(SignalServiceEnvelope.class);
+      when(envelope.isSignalMessage()).thenReturn(true);
+      envelopes.add(envelope);
+    }
+
+    return envelopes;
+  }
+
+  private static long[] range(long first, long last) {
+    long[] range = new long[(int) (last - first + 1)];
+
+    for (int i = 0; i < range.length; i++) {
+      range[i] = first + i;
+    }
+
+    return range;
+  }
+}
@@ -0,0 +1,189 @@
+package org.thoughtcrime.securesms;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MessagingDatabase.Receipt;
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.EarlyMessageCache;
+import org.whispersystems.signalservice.api.messages.SignalServiceContent;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DatabaseFactory.class, ApplicationDependencies.class, Log.class, SignalServiceContent.class })
+public class ReceiptAggregatorTest {
+
+  private static final RecipientId SENDER = RecipientId.from(1);
+
+  private final Context                  context           = mock(Context.class);
+  private final MmsSmsDatabase           mmsSmsDatabase    = mock(MmsSmsDatabase.class);
+  private final ScheduledExecutorService executor          = mock(ScheduledExecutorService.class);
+  private final EarlyMessageCache        earlyMessageCache = new EarlyMessageCache();
+  private final List<Runnable>           scheduled         = new LinkedList<>();
+
+  private ReceiptAggregator aggregator;
+
+  @Before
+  public void setUp() {
+    mockStatic(DatabaseFactory.class);
+    mockStatic(ApplicationDependencies.class);
+    mockStatic(Log.class);
+
+    when(context.getApplicationContext()).thenReturn(context);
+    when(DatabaseFactory.getMmsSmsDatabase(any())).thenReturn(mmsSmsDatabase);
+    when(ApplicationDependencies.getEarlyMessageCache()).thenReturn(earlyMessageCache);
+    when(mmsSmsDatabase.incrementReceiptCounts(anyListOf(Receipt.class), anyBoolean())).thenReturn(Collections.emptyList());
+
+    doAnswer(invocation -> {
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(executor).execute(any(Runnable.class));
+
+    doAnswer(invocation -> {
+      scheduled.add((Runnable) invocation.getArguments()[0]);
+      return null;
+    }).when(executor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+    aggregator = new ReceiptAggregator(context, executor);
+  }
+
+  @Test
+  public void deliveryReceipts_areAppliedTogetherAfterDelay() {
+    aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, 1000), 2000);
+    aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, 1001), 2001);
+    aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, 1002), 2002);
+
+    verify(executor, times(1)).schedule(any(Runnable.class), eq(ReceiptAggregator.FLUSH_DELAY_MS), eq(TimeUnit.MILLISECONDS));
+    verify(mmsSmsDatabase, never()).incrementReceiptCounts(anyListOf(Receipt.class), anyBoolean());
+
+    runScheduled();
+
+    assertEquals(3, captureApplied(true).size());
+  }
+
+  @Test
+  public void receiptsAfterFlush_scheduleAnotherFlush() {
+    aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, 1000), 2000);
+    runScheduled();
+
+    aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, 1001), 2001);
+    runScheduled();
+
+    verify(executor, times(2)).schedule(any(Runnable.class), eq(ReceiptAggregator.FLUSH_DELAY_MS), eq(TimeUnit.MILLISECONDS));
+    verify(mmsSmsDatabase, times(2)).incrementReceiptCounts(anyListOf(Receipt.class), eq(true));
+  }
+
+  @Test
+  public void fullBatch_isAppliedWithoutWaiting() {
+    for (int i = 0; i < ReceiptAggregator.MAX_PENDING; i++) {
+      aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, i), 2000);
+    }
+
+    assertEquals(ReceiptAggregator.MAX_PENDING, captureApplied(true).size());
+
+    runScheduled();
+
+    verify(mmsSmsDatabase, times(1)).incrementReceiptCounts(anyListOf(Receipt.class), anyBoolean());
+  }
+
+  @Test
+  public void fullBatch_countsDeliveryAndReadReceiptsTogether() {
+    for (int i = 0; i < ReceiptAggregator.MAX_PENDING / 2; i++) {
+      aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, i), 2000);
+      aggregator.addReadReceipt(new SyncMessageId(SENDER, i), 3000, content());
+    }
+
+    assertEquals(ReceiptAggregator.MAX_PENDING / 2, captureApplied(true).size());
+    assertEquals(ReceiptAggregator.MAX_PENDING / 2, captureApplied(false).size());
+  }
+
+  @Test
+  public void unmatchedReadReceipts_areHeldInEarlyMessageCache() {
+    SignalServiceContent matchedContent   = content();
+    SignalServiceContent unmatchedContent = content();
+
+    aggregator.addReadReceipt(new SyncMessageId(SENDER, 1000), 3000, matchedContent);
+    aggregator.addReadReceipt(new SyncMessageId(SENDER, 1001), 3001, unmatchedContent);
+
+    doAnswer(invocation -> {
+      @SuppressWarnings("unchecked")
+      List<Receipt> receipts = (List<Receipt>) invocation.getArguments()[0];
+      return Collections.singletonList(receipts.get(1));
+    }).when(mmsSmsDatabase).incrementReceiptCounts(anyListOf(Receipt.class), eq(false));
+
+    runScheduled();
+
+    assertFalse(earlyMessageCache.retrieve(SENDER, 1000).isPresent());
+    assertSame(unmatchedContent, earlyMessageCache.retrieve(SENDER, 1001).get());
+  }
+
+  @Test
+  public void failedFlush_doesNotBlockLaterReceipts() {
+    when(mmsSmsDatabase.incrementReceiptCounts(anyListOf(Receipt.class), anyBoolean())).thenThrow(new IllegalStateException())
+                                                                                        .thenReturn(Collections.emptyList());
+
+    aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, 1000), 2000);
+    runScheduled();
+
+    aggregator.addDeliveryReceipt(new SyncMessageId(SENDER, 1001), 2001);
+    runScheduled();
+
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    verify(mmsSmsDatabase, times(2)).incrementReceiptCounts(captor.capture(), eq(true));
+
+    assertEquals(1, captor.getAllValues().get(1).size());
+    assertEquals(1001, ((Receipt) captor.getAllValues().get(1).get(0)).getMessageId().getTimetamp());
+  }
+
+  private void runScheduled() {
+    List<Runnable> tasks = new LinkedList<>(scheduled);
+    scheduled.clear();
+
+    for (Runnable task : tasks) {
+      task.run();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Receipt> captureApplied(boolean deliveryReceipts) {
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    verify(mmsSmsDatabase).incrementReceiptCounts(captor.capture(), eq(deliveryReceipts));
+    return captor.getValue();
+  }
+
+  private static SignalServiceContent content() {
+    return PowerMockito.mock(SignalServiceContent.class);
+  }
+}
@@ -0,0 +1,94 @@
+package org.thoughtcrime.securesms.blurhash;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public final class BlurHashCodecTest {
+
+  private static final String HASH = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+
+  @Test
+  public void linearToSrgb_matchesDirectConversion() {
+    Random random = new Random(1);
+
+    for (int i = 0; i < 100_000; i++) {
+      double value = random.nextDouble() * 1.2 - 0.1;
+      assertEquals(BlurHashUtil.linearTosRGB(value), BlurHashCodec.linearToSrgb(value));
+    }
+
+    for (int srgb = 0; srgb <= 255; srgb++) {
+      double value = BlurHashUtil.sRGBToLinear(srgb);
+      assertEquals(BlurHashUtil.linearTosRGB(value), BlurHashCodec.linearToSrgb(value));
+      assertEquals(BlurHashUtil.linearTosRGB(Math.nextDown(value)), BlurHashCodec.linearToSrgb(Math.nextDown(value)));
+      assertEquals(BlurHashUtil.linearTosRGB(Math.nextUp(value)), BlurHashCodec.linearToSrgb(Math.nextUp(value)));
+    }
+  }
+
+  @Test
+  public void cosineTable_matchesDirectCosine() {
+    double[] table = BlurHashCodec.cosineTable(20, 4);
+
+    for (int component = 0; component < 4; component++) {
+      for (int position = 0; position < 20; position++) {
+        assertEquals(Math.cos(Math.PI * component * position / 20), table[component * 20 + position], 0);
+      }
+    }
+  }
+
+  @Test
+  public void encode_gradient() {
+    int[] pixels = gradient(32, 24);
+
+    assertEquals("LDH27b2}|gO,y@NOo2aMhEfkfQfk", BlurHashCodec.encode(pixels, 32, 24, 4, 3));
+    assertEquals("00H27b", BlurHashCodec.encode(pixels, 32, 24, 1, 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void encode_tooManyComponents() {
+    BlurHashCodec.encode(gradient(4, 4), 4, 4, 10, 3);
+  }
+
+  @Test
+  public void decode_knownPixels() {
+    int[] pixels = BlurHashCodec.decode(HASH, 8, 6, 1);
+
+    assertNotNull(pixels);
+    assertEquals(48, pixels.length);
+    assertEquals(0xff87a4b1, pixels[0]);
+    assertEquals(0xffafb1ab, pixels[5]);
+    assertEquals(0xffa49186, pixels[20]);
+    assertEquals(0xff8b8f92, pixels[47]);
+  }
+
+  @Test
+  public void decode_invalid() {
+    assertNull(BlurHashCodec.decode(null, 8, 6, 1));
+    assertNull(BlurHashCodec.decode("LEHV6", 8, 6, 1));
+    assertNull(BlurHashCodec.decode(HASH + "a", 8, 6, 1));
+    assertNull(BlurHashCodec.decode(HASH, 0, 6, 1));
+  }
+
+  @Test
+  public void decode_dcOutOfRange() {
+    String hash = HASH.substring(0, 2) + "~~~~" + HASH.substring(6);
+
+    assertNotNull(BlurHashCodec.decode(hash, 8, 6, 1));
+  }
+
+  private static int[] gradient(int width, int height) {
+    int[] pixels = new int[width * height];
+
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        pixels[y * width + x] = 0xff000000 | ((x * 8) << 16) | ((y * 10) << 8) | ((x + y) * 4);
+      }
+    }
+
+    return pixels;
+  }
+}
@@ -0,0 +1,116 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public final class EmojiParserTest {
+
+  private static final String GRINNING  = "\ud83d\ude00";
+  private static final String THUMBS_UP = "\ud83d\udc4d";
+  private static final String MEDIUM    = "\ud83c\udffd";
+  private static final String HEART     = "\u2764\ufe0f";
+  private static final String MAN       = "\ud83d\udc68";
+  private static final String FAMILY    = "\ud83d\udc68\u200d\ud83d\udc69\u200d\ud83d\udc67";
+
+  private EmojiDrawInfo grinning;
+  private EmojiDrawInfo thumbsUp;
+  private EmojiDrawInfo heart;
+  private EmojiDrawInfo man;
+  private EmojiDrawInfo family;
+  private EmojiParser   parser;
+
+  @Before
+  public void setUp() {
+    EmojiPageBitmap page = mock(EmojiPageBitmap.class);
+    EmojiTree       tree = new EmojiTree();
+
+    grinning = new EmojiDrawInfo(page, 0);
+    thumbsUp = new EmojiDrawInfo(page, 1);
+    heart    = new EmojiDrawInfo(page, 2);
+    man      = new EmojiDrawInfo(page, 3);
+    family   = new EmojiDrawInfo(page, 4);
+
+    tree.add(GRINNING, grinning);
+    tree.add(THUMBS_UP, thumbsUp);
+    tree.add(HEART, heart);
+    tree.add(MAN, man);
+    tree.add(FAMILY, family);
+
+    parser = new EmojiParser(tree);
+  }
+
+  @Test
+  public void findCandidates_plainText() {
+    EmojiParser.CandidateList candidates = parser.findCandidates("hello there");
+
+    assertEquals(0, candidates.size());
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_emojiInText() {
+    EmojiParser.CandidateList candidates = parser.findCandidates("hi " + GRINNING + " there");
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates.list.get(0), 3, 5, grinning);
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_onlyEmojiAndSpaces() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(GRINNING + " " + THUMBS_UP);
+
+    assertEquals(2, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 2, grinning);
+    assertCandidate(candidates.list.get(1), 3, 5, thumbsUp);
+    assertTrue(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_longestMatch() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(FAMILY + MAN);
+
+    assertEquals(2, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, FAMILY.length(), family);
+    assertCandidate(candidates.list.get(1), FAMILY.length(), FAMILY.length() + 2, man);
+  }
+
+  @Test
+  public void findCandidates_partialSequenceFallsBackToPrefix() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(MAN + "\u200dx");
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 2, man);
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_withoutVariationSelector() {
+    EmojiParser.CandidateList candidates = parser.findCandidates("\u2764 " + HEART);
+
+    assertEquals(2, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 1, heart);
+    assertCandidate(candidates.list.get(1), 2, 4, heart);
+    assertTrue(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_skinToneIncludedInCandidate() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + MEDIUM);
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 4, thumbsUp);
+  }
+
+  private static void assertCandidate(EmojiParser.Candidate candidate, int start, int end, EmojiDrawInfo drawInfo) {
+    assertEquals(start, candidate.getStartIndex());
+    assertEquals(end, candidate.getEndIndex());
+    assertSame(drawInfo, candidate.getDrawInfo());
+  }
+}
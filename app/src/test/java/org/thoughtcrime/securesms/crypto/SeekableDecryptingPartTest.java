@@ -0,0 +1,261 @@
+package org.thoughtcrime.securesms.crypto;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SeekableDecryptingPartTest {
+
+  private static final int CHUNK_SIZE = SeekableDecryptingPart.CHUNK_SIZE;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private AttachmentSecret attachmentSecret;
+  private Random           random;
+
+  @Before
+  public void setUp() {
+    random           = new Random(42);
+    attachmentSecret = new AttachmentSecret(randomBytes(32), randomBytes(32), randomBytes(32));
+  }
+
+  @Test
+  public void modern_inlineRandom_readsWholeFile() throws Exception {
+    byte[] plaintext = randomBytes(3 * CHUNK_SIZE + 1234);
+
+    try (SeekableDecryptingPart part = createModern(plaintext, true)) {
+      assertEquals(plaintext.length, part.getPlaintextLength());
+      assertArrayEquals(plaintext, readAll(part, 1000));
+    }
+  }
+
+  @Test
+  public void modern_separateRandom_readsWholeFile() throws Exception {
+    byte[] plaintext = randomBytes(2 * CHUNK_SIZE + 7);
+
+    try (SeekableDecryptingPart part = createModern(plaintext, false)) {
+      assertArrayEquals(plaintext, readAll(part, 4096));
+    }
+  }
+
+  @Test
+  public void modern_readsAcrossChunkEdges() throws Exception {
+    byte[] plaintext = randomBytes(3 * CHUNK_SIZE + 1234);
+
+    try (SeekableDecryptingPart part = createModern(plaintext, true)) {
+      assertReadsAcrossChunkEdges(part, plaintext);
+    }
+  }
+
+  @Test
+  public void classic_readsWholeFile() throws Exception {
+    byte[] plaintext = randomBytes(3 * CHUNK_SIZE + 1234);
+
+    try (SeekableDecryptingPart part = createClassic(plaintext)) {
+      assertEquals(plaintext.length, part.getPlaintextLength());
+      assertArrayEquals(plaintext, readAll(part, 1000));
+    }
+  }
+
+  @Test
+  public void classic_readsAcrossChunkEdges() throws Exception {
+    byte[] plaintext = randomBytes(3 * CHUNK_SIZE + 1234);
+
+    try (SeekableDecryptingPart part = createClassic(plaintext)) {
+      assertReadsAcrossChunkEdges(part, plaintext);
+    }
+  }
+
+  @Test
+  public void classic_exactMultipleOfBlockSize() throws Exception {
+    byte[] plaintext = randomBytes(2 * CHUNK_SIZE);
+
+    try (SeekableDecryptingPart part = createClassic(plaintext)) {
+      assertArrayEquals(plaintext, readAll(part, CHUNK_SIZE));
+    }
+  }
+
+  @Test
+  public void classic_badMac_throws() throws Exception {
+    File file = folder.newFile();
+
+    writeClassic(file, randomBytes(1000));
+    corruptByte(file, 100);
+
+    try {
+      SeekableDecryptingPart.createForClassic(attachmentSecret, file, 1000);
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void modern_truncatedHeader_throws() throws Exception {
+    File file = folder.newFile();
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(randomBytes(10));
+    }
+
+    try {
+      SeekableDecryptingPart.createForModern(attachmentSecret, null, file, 0);
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void read_pastEnd_returnsMinusOne() throws Exception {
+    byte[] plaintext = randomBytes(CHUNK_SIZE + 10);
+
+    try (SeekableDecryptingPart part = createModern(plaintext, true)) {
+      byte[] buffer = new byte[100];
+
+      assertEquals(-1, part.read(plaintext.length, buffer, 0, buffer.length));
+      assertEquals(-1, part.read(plaintext.length + CHUNK_SIZE, buffer, 0, buffer.length));
+      assertEquals(10, part.read(plaintext.length - 10, buffer, 0, buffer.length));
+      assertArrayEquals(Arrays.copyOfRange(plaintext, plaintext.length - 10, plaintext.length), Arrays.copyOf(buffer, 10));
+    }
+  }
+
+  @Test
+  public void cache_evictsLeastRecentlyUsedChunk() throws Exception {
+    int    chunkCount = SeekableDecryptingPart.MAX_CHUNKS + 1;
+    byte[] plaintext  = randomBytes(chunkCount * CHUNK_SIZE);
+
+    try (SeekableDecryptingPart part = createModern(plaintext, true)) {
+      for (int i = 0; i < SeekableDecryptingPart.MAX_CHUNKS; i++) {
+        assertRead(part, plaintext, (long) i * CHUNK_SIZE, 1);
+      }
+
+      assertRead(part, plaintext, 0, 1);
+      assertRead(part, plaintext, (long) (chunkCount - 1) * CHUNK_SIZE, 1);
+
+      assertTrue(part.isChunkCached(0));
+      assertFalse(part.isChunkCached(1));
+      assertTrue(part.isChunkCached(chunkCount - 1));
+
+      assertRead(part, plaintext, CHUNK_SIZE + 5, 10);
+
+      assertTrue(part.isChunkCached(1));
+      assertFalse(part.isChunkCached(2));
+    }
+  }
+
+  private void assertReadsAcrossChunkEdges(SeekableDecryptingPart part, byte[] plaintext) throws IOException {
+    assertRead(part, plaintext, CHUNK_SIZE - 10, 20);
+    assertRead(part, plaintext, 2 * CHUNK_SIZE - 1, 2);
+    assertRead(part, plaintext, CHUNK_SIZE, CHUNK_SIZE);
+    assertRead(part, plaintext, CHUNK_SIZE - 1, CHUNK_SIZE + 2);
+    assertRead(part, plaintext, 3, 2 * CHUNK_SIZE + 17);
+    assertRead(part, plaintext, 3 * CHUNK_SIZE - 5, 1234);
+    assertRead(part, plaintext, 0, 16);
+  }
+
+  private static void assertRead(SeekableDecryptingPart part, byte[] plaintext, long position, int length) throws IOException {
+    byte[] buffer = new byte[length + 4];
+    int    read   = part.read(position, buffer, 2, length);
+
+    assertEquals(length, read);
+    assertArrayEquals(Arrays.copyOfRange(plaintext, (int) position, (int) position + length), Arrays.copyOfRange(buffer, 2, 2 + length));
+  }
+
+  private static byte[] readAll(SeekableDecryptingPart part, int bufferSize) throws IOException {
+    byte[] result   = new byte[(int) part.getPlaintextLength()];
+    byte[] buffer   = new byte[bufferSize];
+    long   position = 0;
+    int    read;
+
+    while ((read = part.read(position, buffer, 0, buffer.length)) != -1) {
+      System.arraycopy(buffer, 0, result, (int) position, read);
+      position += read;
+    }
+
+    assertEquals(result.length, position);
+
+    return result;
+  }
+
+  private SeekableDecryptingPart createModern(byte[] plaintext, boolean inline) throws Exception {
+    File   file         = folder.newFile();
+    byte[] modernRandom = randomBytes(32);
+    Mac    mac          = Mac.getInstance("HmacSHA256");
+
+    mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mac.doFinal(modernRandom), "AES"), new IvParameterSpec(new byte[16]));
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      if (inline) out.write(modernRandom);
+      out.write(cipher.doFinal(plaintext));
+    }
+
+    return SeekableDecryptingPart.createForModern(attachmentSecret, inline ? null : modernRandom, file, plaintext.length);
+  }
+
+  private SeekableDecryptingPart createClassic(byte[] plaintext) throws Exception {
+    File file = folder.newFile();
+
+    writeClassic(file, plaintext);
+
+    return SeekableDecryptingPart.createForClassic(attachmentSecret, file, plaintext.length);
+  }
+
+  private void writeClassic(File file, byte[] plaintext) throws Exception {
+    byte[] iv     = randomBytes(16);
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    Mac    mac    = Mac.getInstance("HmacSHA1");
+
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(attachmentSecret.getClassicCipherKey(), "AES"), new IvParameterSpec(iv));
+    mac.init(new SecretKeySpec(attachmentSecret.getClassicMacKey(), "HmacSHA1"));
+
+    byte[] ciphertext = cipher.doFinal(plaintext);
+
+    mac.update(iv);
+    mac.update(ciphertext);
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(iv);
+      out.write(ciphertext);
+      out.write(mac.doFinal());
+    }
+  }
+
+  private static void corruptByte(File file, long position) throws IOException {
+    try (RandomAccessFile raf = new java.io.RandomAccessFile(file, "rw")) {
+      raf.seek(position);
+      int value = raf.read();
+      raf.seek(position);
+      raf.write(value ^ 0xff);
+    }
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,250 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteTransactionListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class DatabaseChangeNotifierTest {
+
+  private static final Uri CONVERSATION      = Uri.parse("content://test/conversation/1");
+  private static final Uri CONVERSATION_LIST = Uri.parse("content://test/conversation-list");
+
+  private ContentResolver        contentResolver;
+  private SQLiteDatabase         database;
+  private DatabaseChangeNotifier notifier;
+  private boolean                inTransaction;
+
+  @Before
+  public void setUp() {
+    Context context = mock(Context.class);
+
+    contentResolver = mock(ContentResolver.class);
+    database        = mock(SQLiteDatabase.class);
+    notifier        = new DatabaseChangeNotifier(context);
+
+    when(context.getContentResolver()).thenReturn(contentResolver);
+    when(database.inTransaction()).thenAnswer((Answer<Object>) invocation -> inTransaction);
+  }
+
+  @Test
+  public void outsideTransaction_deliversImmediately() {
+    notifier.notifyChange(database, CONVERSATION);
+
+    verify(contentResolver).notifyChange(CONVERSATION, null);
+    assertCounts(1, 1);
+  }
+
+  @Test
+  public void transaction_deliversOnceEachAfterEnd() {
+    SQLiteTransactionListener listener = begin();
+
+    notifier.notifyChange(database, CONVERSATION);
+    notifier.notifyChange(database, CONVERSATION_LIST);
+    notifier.notifyChange(database, CONVERSATION);
+
+    verify(contentResolver, never()).notifyChange(any(Uri.class), (ContentObserver) isNull());
+
+    end(listener, true);
+
+    verify(contentResolver).notifyChange(CONVERSATION, null);
+    verify(contentResolver).notifyChange(CONVERSATION_LIST, null);
+    assertCounts(3, 2);
+  }
+
+  @Test
+  public void transaction_deliversInRequestOrder() {
+    SQLiteTransactionListener listener = begin();
+
+    notifier.notifyChange(database, CONVERSATION_LIST);
+    notifier.notifyChange(database, CONVERSATION);
+    end(listener, true);
+
+    InOrder order = inOrder(contentResolver);
+    order.verify(contentResolver).notifyChange(CONVERSATION_LIST, null);
+    order.verify(contentResolver).notifyChange(CONVERSATION, null);
+  }
+
+  @Test
+  public void transaction_deliversOnlyAfterEndTransactionReturns() {
+    SQLiteTransactionListener listener = begin();
+
+    notifier.notifyChange(database, CONVERSATION);
+    end(listener, true);
+
+    InOrder order = inOrder(database, contentResolver);
+    order.verify(database).endTransaction();
+    order.verify(contentResolver).notifyChange(CONVERSATION, null);
+  }
+
+  @Test
+  public void transaction_dropsOnRollback() {
+    SQLiteTransactionListener listener = begin();
+
+    notifier.notifyChange(database, CONVERSATION);
+    end(listener, false);
+
+    verify(contentResolver, never()).notifyChange(any(Uri.class), (ContentObserver) isNull());
+    assertCounts(1, 0);
+  }
+
+  @Test
+  public void transaction_dropsWhenCommitFails() {
+    SQLiteTransactionListener listener = begin();
+
+    notifier.notifyChange(database, CONVERSATION);
+
+    doAnswer((Answer<Object>) invocation -> {
+      listener.onCommit();
+      inTransaction = false;
+      throw new IllegalStateException("COMMIT failed");
+    }).when(database).endTransaction();
+
+    try {
+      notifier.endTransaction(database);
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    SQLiteTransactionListener next = begin();
+
+    notifier.notifyChange(database, CONVERSATION_LIST);
+    end(next, true);
+
+    verify(contentResolver, never()).notifyChange(CONVERSATION, null);
+    verify(contentResolver).notifyChange(CONVERSATION_LIST, null);
+  }
+
+  @Test
+  public void nestedTransaction_deliversWhenOutermostEnds() {
+    SQLiteTransactionListener listener = begin();
+
+    notifier.beginTransaction(database);
+    notifier.notifyChange(database, CONVERSATION);
+    notifier.endTransaction(database);
+
+    verify(contentResolver, never()).notifyChange(any(Uri.class), (ContentObserver) isNull());
+
+    end(listener, true);
+
+    verify(contentResolver).notifyChange(CONVERSATION, null);
+  }
+
+  @Test
+  public void afterTransaction_deliversImmediately() {
+    SQLiteTransactionListener listener = begin();
+
+    notifier.notifyChange(database, CONVERSATION);
+    end(listener, false);
+
+    notifier.notifyChange(database, CONVERSATION_LIST);
+
+    verify(contentResolver).notifyChange(CONVERSATION_LIST, null);
+    verify(contentResolver, never()).notifyChange(CONVERSATION, null);
+  }
+
+  @Test
+  public void transactionWithoutListener_deliversImmediately() {
+    inTransaction = true;
+
+    notifier.notifyChange(database, CONVERSATION);
+
+    verify(contentResolver).notifyChange(CONVERSATION, null);
+    assertCounts(1, 1);
+  }
+
+  @Test
+  public void otherThread_isNotHeldByTransaction() throws InterruptedException {
+    SQLiteTransactionListener listener  = begin();
+    AtomicBoolean             delivered = new AtomicBoolean();
+
+    Thread thread = new Thread(() -> {
+      notifier.notifyChange(database, CONVERSATION_LIST);
+      delivered.set(true);
+    });
+
+    thread.start();
+    thread.join();
+
+    assertTrue(delivered.get());
+    verify(contentResolver).notifyChange(CONVERSATION_LIST, null);
+
+    notifier.notifyChange(database, CONVERSATION);
+    end(listener, true);
+
+    verify(contentResolver, times(1)).notifyChange(CONVERSATION_LIST, null);
+    verify(contentResolver).notifyChange(CONVERSATION, null);
+  }
+
+  /**
+   * Begins an outermost transaction the way SQLCipher does, calling the listener's onBegin().
+   */
+  private SQLiteTransactionListener begin() {
+    ArgumentCaptor<SQLiteTransactionListener> listener = ArgumentCaptor.forClass(SQLiteTransactionListener.class);
+
+    notifier.beginTransaction(database);
+
+    verify(database, atLeastOnce()).beginTransactionWithListener(listener.capture());
+    inTransaction = true;
+    listener.getValue().onBegin();
+
+    return listener.getValue();
+  }
+
+  /**
+   * Ends the outermost transaction the way SQLCipher does, calling the listener before the
+   * transaction is actually committed or rolled back, and checks nothing is sent until then.
+   */
+  private void end(SQLiteTransactionListener listener, boolean successful) {
+    long delivered = notifier.getDeliveredCount();
+
+    doAnswer((Answer<Object>) invocation -> {
+      if (successful) listener.onCommit();
+      else            listener.onRollback();
+
+      assertEquals(delivered, notifier.getDeliveredCount());
+
+      inTransaction = false;
+      return null;
+    }).when(database).endTransaction();
+
+    notifier.endTransaction(database);
+  }
+
+  private void assertCounts(long requested, long delivered) {
+    assertEquals(requested, notifier.getRequestedCount());
+    assertEquals(delivered, notifier.getDeliveredCount());
+  }
+}
@@ -0,0 +1,256 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.Context;
+import android.database.Cursor;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs {@link GalleryDatabase} against Robolectric's SQLite, reached through a SQLCipher mock that
+ * forwards every call.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class GalleryDatabaseTest {
+
+  private static final String CAMERA      = "camera";
+  private static final String SCREENSHOTS = "screenshots";
+
+  private android.database.sqlite.SQLiteDatabase sqlite;
+  private GalleryDatabase                        database;
+
+  @Before
+  public void setUp() {
+    sqlite = android.database.sqlite.SQLiteDatabase.create(null);
+    sqlite.execSQL(GalleryDatabase.CREATE_TABLE);
+
+    for (String index : GalleryDatabase.CREATE_INDEXES) {
+      sqlite.execSQL(index);
+    }
+
+    SQLCipherOpenHelper databaseHelper = mock(SQLCipherOpenHelper.class);
+    SQLiteDatabase      db             = forwarding(SQLiteDatabase.class, sqlite);
+
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(databaseHelper.getWritableDatabase()).thenReturn(db);
+
+    database = new GalleryDatabase(mock(Context.class), databaseHelper);
+  }
+
+  @After
+  public void tearDown() {
+    sqlite.close();
+  }
+
+  @Test
+  public void getMedia_equalDatesAcrossPageEdges_returnsEachItemOnce() {
+    List<GalleryDatabase.Item> items = new ArrayList<>();
+
+    for (long id = 1; id <= 7; id++) {
+      items.add(image(id, CAMERA, 1000));
+    }
+
+    items.add(image(8, CAMERA, 2000));
+    items.add(image(9, CAMERA, 500));
+
+    database.update(true, items, Collections.emptyList());
+
+    assertEquals(Arrays.asList(path(8), path(7), path(6), path(5), path(4), path(3), path(2), path(1), path(9)),
+                 readAllPages(null, null, 3));
+    assertEquals(Arrays.asList(path(8), path(7), path(6), path(5), path(4), path(3), path(2), path(1), path(9)),
+                 readAllPages(null, null, 1));
+  }
+
+  @Test
+  public void getMedia_filtersBucketAndKind() {
+    database.update(true, Arrays.asList(image(1, CAMERA, 1000), image(2, SCREENSHOTS, 1000), image(3, CAMERA, 1000)), Collections.emptyList());
+    database.update(false, Collections.singletonList(video(1, CAMERA, 1000)), Collections.emptyList());
+
+    assertEquals(Arrays.asList(videoPath(1), path(3), path(1)), readAllPages(CAMERA, null, 2));
+    assertEquals(Arrays.asList(path(3), path(1)), readAllPages(CAMERA, true, 1));
+    assertEquals(Collections.singletonList(videoPath(1)), readAllPages(null, false, 2));
+  }
+
+  @Test
+  public void update_removedIds_deletesOnlyThatKind() {
+    database.update(true, Arrays.asList(image(1, CAMERA, 1000), image(2, CAMERA, 1001), image(3, CAMERA, 1002)), Collections.emptyList());
+    database.update(false, Collections.singletonList(video(2, CAMERA, 1003)), Collections.emptyList());
+
+    database.update(true, Collections.emptyList(), Collections.singletonList(2L));
+
+    assertEquals(dates(1, 1000, 3, 1002), database.getDatesModified(true));
+    assertEquals(dates(2, 1003), database.getDatesModified(false));
+    assertEquals(Arrays.asList(videoPath(2), path(3), path(1)), readAllPages(null, null, 10));
+  }
+
+  @Test
+  public void update_removedIdsOverArgumentLimit_deletesAll() {
+    List<GalleryDatabase.Item> items   = new ArrayList<>();
+    List<Long>                 removed = new ArrayList<>();
+    int                        count   = GalleryDatabase.MAX_ARGS * 2 + 10;
+
+    for (long id = 1; id <= count; id++) {
+      items.add(image(id, CAMERA, id));
+      if (id > 1) removed.add(id);
+    }
+
+    database.update(true, items, Collections.emptyList());
+    database.update(true, Collections.emptyList(), removed);
+
+    assertEquals(dates(1, 1), database.getDatesModified(true));
+  }
+
+  @Test
+  public void update_changedItem_replacesIndexedRow() {
+    database.update(true, Arrays.asList(image(1, CAMERA, 1000), image(2, CAMERA, 1001)), Collections.emptyList());
+
+    database.update(true, Collections.singletonList(image(1, SCREENSHOTS, 3000)), Collections.emptyList());
+
+    assertEquals(dates(1, 3000, 2, 1001), database.getDatesModified(true));
+    assertEquals(Arrays.asList(path(1), path(2)), readAllPages(null, null, 1));
+    assertEquals(Collections.singletonList(path(2)), readAllPages(CAMERA, null, 10));
+    assertEquals(Collections.singletonList(path(1)), readAllPages(SCREENSHOTS, null, 10));
+  }
+
+  @Test
+  public void getBuckets_countsAndNewestItemAfterChanges() {
+    database.update(true, Arrays.asList(image(1, CAMERA, 1000), image(2, CAMERA, 2000), image(3, SCREENSHOTS, 1500)), Collections.emptyList());
+    database.update(true, Collections.singletonList(image(1, CAMERA, 2500)), Collections.singletonList(3L));
+
+    Map<String, String>  newest = new HashMap<>();
+    Map<String, Integer> counts = new HashMap<>();
+
+    try (Cursor cursor = database.getBuckets()) {
+      while (cursor.moveToNext()) {
+        String bucketId = cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.BUCKET_ID));
+
+        newest.put(bucketId, cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.PATH)));
+        counts.put(bucketId, cursor.getInt(cursor.getColumnIndexOrThrow(GalleryDatabase.COUNT)));
+      }
+    }
+
+    assertEquals(Collections.singletonMap(CAMERA, path(1)), newest);
+    assertEquals(Collections.singletonMap(CAMERA, 2), counts);
+  }
+
+  @Test
+  public void getMediaAtPaths_findsIndexedItems() {
+    database.update(true, Arrays.asList(image(1, CAMERA, 1000), image(2, CAMERA, 1001)), Collections.emptyList());
+
+    List<String> found = new ArrayList<>();
+
+    try (Cursor cursor = database.getMediaAtPaths(Arrays.asList(path(2), "/missing.jpg"))) {
+      while (cursor.moveToNext()) {
+        found.add(cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.PATH)));
+        assertEquals(640, cursor.getInt(cursor.getColumnIndexOrThrow(GalleryDatabase.WIDTH)));
+      }
+    }
+
+    assertEquals(Collections.singletonList(path(2)), found);
+  }
+
+  /**
+   * Pages through the index the same way the media picker does, failing if a page ever repeats an
+   * item from an earlier one.
+   */
+  private List<String> readAllPages(String bucketId, Boolean isImage, int pageSize) {
+    List<String> paths        = new ArrayList<>();
+    long         dateModified = Long.MAX_VALUE;
+    long         id           = Long.MAX_VALUE;
+    int          read;
+
+    do {
+      read = 0;
+
+      try (Cursor cursor = database.getMedia(bucketId, isImage, dateModified, id, pageSize)) {
+        while (cursor.moveToNext()) {
+          String path = cursor.getString(cursor.getColumnIndexOrThrow(GalleryDatabase.PATH));
+
+          assertTrue("Repeated " + path, !paths.contains(path));
+
+          paths.add(path);
+          dateModified = cursor.getLong(cursor.getColumnIndexOrThrow(GalleryDatabase.DATE_MODIFIED));
+          id           = GalleryDatabase.getId(cursor);
+          read++;
+        }
+      }
+    } while (read == pageSize);
+
+    return paths;
+  }
+
+  private static GalleryDatabase.Item image(long mediaStoreId, String bucketId, long dateModified) {
+    return new GalleryDatabase.Item(mediaStoreId, path(mediaStoreId), "image/jpeg", bucketId, bucketId, dateModified, 640, 480, 1024, 0);
+  }
+
+  private static GalleryDatabase.Item video(long mediaStoreId, String bucketId, long dateModified) {
+    return new GalleryDatabase.Item(mediaStoreId, videoPath(mediaStoreId), "video/mp4", bucketId, bucketId, dateModified, 640, 480, 4096, 1000);
+  }
+
+  private static String path(long mediaStoreId) {
+    return "/sdcard/DCIM/" + mediaStoreId + ".jpg";
+  }
+
+  private static String videoPath(long mediaStoreId) {
+    return "/sdcard/DCIM/" + mediaStoreId + ".mp4";
+  }
+
+  private static Map<Long, Long> dates(long... idsAndDates) {
+    Map<Long, Long> dates = new HashMap<>();
+
+    for (int i = 0; i < idsAndDates.length; i += 2) {
+      dates.put(idsAndDates[i], idsAndDates[i + 1]);
+    }
+
+    return dates;
+  }
+
+  /**
+   * A mock of a SQLCipher type that passes every call on to the Android object with the same method,
+   * wrapping the cursors it returns.
+   */
+  private static <T> T forwarding(Class<T> type, Object target) {
+    Answer<Object> forward = invocation -> {
+      Method method = target.getClass().getMethod(invocation.getMethod().getName(), invocation.getMethod().getParameterTypes());
+      Object result;
+
+      try {
+        result = method.invoke(target, invocation.getArguments());
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+
+      if (result instanceof Cursor && !invocation.getMethod().getReturnType().isInstance(result)) {
+        return forwarding(net.sqlcipher.Cursor.class, result);
+      }
+
+      return result;
+    };
+
+    return mock(type, forward);
+  }
+}
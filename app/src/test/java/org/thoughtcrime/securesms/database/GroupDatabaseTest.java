@@ -0,0 +1,111 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.GroupDatabase.MembershipChange;
+import org.thoughtcrime.securesms.groups.GroupId;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class GroupDatabaseTest {
+
+  private static final int DEFAULT       = 1;
+  private static final int ADMINISTRATOR = 2;
+
+  private static final GroupId V1  = GroupId.v1orThrow(new byte[16]);
+  private static final GroupId MMS = GroupId.mms(new byte[16]);
+  private static final GroupId V2  = GroupId.v2orThrow(new byte[32]);
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+  private static final RecipientId BOB   = RecipientId.from(2);
+  private static final RecipientId CAROL = RecipientId.from(3);
+  private static final RecipientId DAVE  = RecipientId.from(4);
+
+  @Test
+  public void create_writesEveryMember() {
+    Map<RecipientId, Integer> roles = roles(ALICE, ADMINISTRATOR, BOB, DEFAULT);
+
+    MembershipChange change = MembershipChange.between(Collections.emptyMap(), roles);
+
+    assertTrue(change.getRemoved().isEmpty());
+    assertEquals(roles, change.getWritten());
+  }
+
+  @Test
+  public void update_writesOnlyChangedRows() {
+    Map<RecipientId, Integer> existing = roles(ALICE, ADMINISTRATOR, BOB, DEFAULT, CAROL, DEFAULT);
+    Map<RecipientId, Integer> updated  = roles(ALICE, DEFAULT, BOB, DEFAULT, DAVE, DEFAULT);
+
+    MembershipChange change = MembershipChange.between(existing, updated);
+
+    assertEquals(Collections.singleton(CAROL), change.getRemoved());
+    assertEquals(roles(ALICE, DEFAULT, DAVE, DEFAULT), change.getWritten());
+  }
+
+  @Test
+  public void update_unchanged_writesNothing() {
+    Map<RecipientId, Integer> existing = roles(ALICE, ADMINISTRATOR, BOB, DEFAULT);
+
+    MembershipChange change = MembershipChange.between(existing, new HashMap<>(existing));
+
+    assertTrue(change.getRemoved().isEmpty());
+    assertTrue(change.getWritten().isEmpty());
+  }
+
+  @Test
+  public void remove_keepsOtherMembersRoles() {
+    Map<RecipientId, Integer> existing = roles(ALICE, ADMINISTRATOR, BOB, DEFAULT, CAROL, ADMINISTRATOR);
+    Map<RecipientId, Integer> updated  = new HashMap<>(existing);
+
+    updated.remove(BOB);
+
+    MembershipChange change = MembershipChange.between(existing, updated);
+
+    assertEquals(Collections.singleton(BOB), change.getRemoved());
+    assertTrue(change.getWritten().isEmpty());
+  }
+
+  @Test
+  public void memberList_v2_keepsExistingRoles() {
+    Map<RecipientId, Integer> existing = roles(ALICE, ADMINISTRATOR, BOB, DEFAULT, CAROL, ADMINISTRATOR);
+
+    Map<RecipientId, Integer> roles = GroupDatabase.getMemberRoles(V2, existing, Arrays.asList(ALICE, BOB, DAVE));
+
+    assertEquals(roles(ALICE, ADMINISTRATOR, BOB, DEFAULT, DAVE, DEFAULT), roles);
+  }
+
+  @Test
+  public void memberList_v1AndMms_useDefaultRole() {
+    Map<RecipientId, Integer> existing = roles(ALICE, ADMINISTRATOR, BOB, DEFAULT);
+
+    assertEquals(roles(ALICE, DEFAULT, CAROL, DEFAULT), GroupDatabase.getMemberRoles(V1, existing, Arrays.asList(ALICE, CAROL)));
+    assertEquals(roles(ALICE, DEFAULT, CAROL, DEFAULT), GroupDatabase.getMemberRoles(MMS, existing, Arrays.asList(ALICE, CAROL)));
+  }
+
+  @Test
+  public void memberList_emptyGroup_removesEveryone() {
+    Map<RecipientId, Integer> existing = roles(ALICE, ADMINISTRATOR, BOB, DEFAULT);
+
+    MembershipChange change = MembershipChange.between(existing, GroupDatabase.getMemberRoles(V2, existing, Collections.emptyList()));
+
+    assertEquals(new HashSet<>(Arrays.asList(ALICE, BOB)), change.getRemoved());
+    assertTrue(change.getWritten().isEmpty());
+  }
+
+  private static Map<RecipientId, Integer> roles(Object... recipientsAndRoles) {
+    Map<RecipientId, Integer> roles = new HashMap<>();
+
+    for (int i = 0; i < recipientsAndRoles.length; i += 2) {
+      roles.put((RecipientId) recipientsAndRoles[i], (Integer) recipientsAndRoles[i + 1]);
+    }
+
+    return roles;
+  }
+}
@@ -0,0 +1,176 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.IdentityDatabase.IdentityRecord;
+import org.thoughtcrime.securesms.database.IdentityDatabase.VerifiedStatus;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.Base64;
+import org.whispersystems.libsignal.IdentityKey;
+import org.whispersystems.libsignal.ecc.Curve;
+import org.whispersystems.libsignal.util.guava.Optional;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs {@link IdentityDatabase} against Robolectric's SQLite, reached through a SQLCipher mock that
+ * forwards every call and counts the queries that make it to the database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class IdentityDatabaseTest {
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+
+  private final IdentityKey oldKey = new IdentityKey(Curve.generateKeyPair().getPublicKey());
+  private final IdentityKey newKey = new IdentityKey(Curve.generateKeyPair().getPublicKey());
+
+  private android.database.sqlite.SQLiteDatabase sqlite;
+  private IdentityDatabase                       database;
+  private int                                    queries;
+  private Runnable                               onQuery;
+
+  @Before
+  public void setUp() {
+    sqlite = android.database.sqlite.SQLiteDatabase.create(null);
+    sqlite.execSQL(IdentityDatabase.CREATE_TABLE);
+
+    database = open();
+  }
+
+  @After
+  public void tearDown() {
+    sqlite.close();
+  }
+
+  @Test
+  public void getIdentity_cached_doesNotQueryAgain() {
+    insertRow(ALICE, oldKey);
+
+    assertIdentity(oldKey, database.getIdentity(ALICE));
+    assertIdentity(oldKey, database.getIdentity(ALICE));
+    assertEquals(1, queries);
+  }
+
+  @Test
+  public void getIdentity_missing_remembersAbsent() {
+    assertFalse(database.getIdentity(ALICE).isPresent());
+    assertFalse(database.getIdentity(ALICE).isPresent());
+    assertEquals(1, queries);
+  }
+
+  @Test
+  public void updateIdentityAfterSync_replacesCachedRecord() {
+    insertRow(ALICE, oldKey);
+    database.getIdentity(ALICE);
+
+    database.updateIdentityAfterSync(ALICE, newKey, VerifiedStatus.VERIFIED);
+
+    int queriesAfterUpdate = queries;
+
+    assertIdentity(newKey, database.getIdentity(ALICE));
+    assertEquals(VerifiedStatus.VERIFIED, database.getIdentity(ALICE).get().getVerifiedStatus());
+    assertEquals(queriesAfterUpdate, queries);
+    assertIdentity(newKey, open().getIdentity(ALICE));
+  }
+
+  @Test
+  public void getIdentity_racingSave_doesNotCacheStaleRecord() {
+    insertRow(ALICE, oldKey);
+
+    onQuery = () -> database.updateIdentityAfterSync(ALICE, newKey, VerifiedStatus.VERIFIED);
+
+    assertIdentity(oldKey, database.getIdentity(ALICE));
+    assertIdentity(newKey, database.getIdentity(ALICE));
+  }
+
+  @Test
+  public void getIdentity_missingRacingSave_doesNotCacheAbsent() {
+    onQuery = () -> database.updateIdentityAfterSync(ALICE, newKey, VerifiedStatus.DEFAULT);
+
+    assertFalse(database.getIdentity(ALICE).isPresent());
+    assertIdentity(newKey, database.getIdentity(ALICE));
+  }
+
+  private IdentityDatabase open() {
+    SQLCipherOpenHelper databaseHelper = mock(SQLCipherOpenHelper.class);
+    SQLiteDatabase      db             = forwarding(SQLiteDatabase.class, sqlite);
+
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(databaseHelper.getWritableDatabase()).thenReturn(db);
+
+    return new IdentityDatabase(mock(Context.class), databaseHelper);
+  }
+
+  /**
+   * Writes a row behind the cache's back, like an earlier process would have.
+   */
+  private void insertRow(RecipientId recipientId, IdentityKey identityKey) {
+    ContentValues values = new ContentValues();
+    values.put(IdentityDatabase.RECIPIENT_ID, recipientId.serialize());
+    values.put(IdentityDatabase.IDENTITY_KEY, Base64.encodeBytes(identityKey.serialize()));
+    values.put(IdentityDatabase.VERIFIED, VerifiedStatus.DEFAULT.toInt());
+    sqlite.insert(IdentityDatabase.TABLE_NAME, null, values);
+  }
+
+  private static void assertIdentity(IdentityKey expected, Optional<IdentityRecord> record) {
+    assertTrue(record.isPresent());
+    assertEquals(expected, record.get().getIdentityKey());
+  }
+
+  /**
+   * A mock of a SQLCipher type that passes every call on to the Android object with the same method,
+   * wrapping the cursors it returns. Each query is read in full before {@link #onQuery} runs, so a
+   * write made there happens after the read, but before the reader sees its result.
+   */
+  private <T> T forwarding(Class<T> type, Object target) {
+    Answer<Object> forward = invocation -> {
+      Method method = target.getClass().getMethod(invocation.getMethod().getName(), invocation.getMethod().getParameterTypes());
+      Object result;
+
+      try {
+        result = method.invoke(target, invocation.getArguments());
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+
+      if (result instanceof Cursor && !invocation.getMethod().getReturnType().isInstance(result)) {
+        if (invocation.getMethod().getName().equals("query")) {
+          Runnable racer = onQuery;
+
+          ((Cursor) result).getCount();
+          queries++;
+          onQuery = null;
+
+          if (racer != null) racer.run();
+        }
+
+        return forwarding(net.sqlcipher.Cursor.class, result);
+      }
+
+      return result;
+    };
+
+    return mock(type, forward);
+  }
+}
@@ -0,0 +1,260 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.thoughtcrime.securesms.database.MessagingDatabase.Receipt;
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DatabaseFactory.class, Recipient.class, TextUtils.class, Log.class })
+public class MessagingDatabaseTest {
+
+  private static final long OUTGOING = MmsSmsColumns.Types.BASE_SENT_TYPE;
+  private static final long INCOMING = MmsSmsColumns.Types.BASE_INBOX_TYPE;
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+  private static final RecipientId BOB   = RecipientId.from(2);
+  private static final RecipientId GROUP = RecipientId.from(3);
+
+  private final Context              context              = mock(Context.class);
+  private final SQLCipherOpenHelper  databaseHelper       = mock(SQLCipherOpenHelper.class);
+  private final SQLiteDatabase       db                   = mock(SQLiteDatabase.class);
+  private final GroupReceiptDatabase groupReceiptDatabase = mock(GroupReceiptDatabase.class);
+
+  /** Rows of {id, thread id, recipient id, type, date sent}, in the order of the receipt query's projection. */
+  private final List<long[]>   messages = new LinkedList<>();
+  private final List<String[]> queries  = new LinkedList<>();
+
+  @Before
+  public void setUp() {
+    mockStatic(DatabaseFactory.class);
+    mockStatic(Recipient.class);
+    mockStatic(TextUtils.class);
+    mockStatic(Log.class);
+
+    when(databaseHelper.getWritableDatabase()).thenReturn(db);
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(DatabaseFactory.getGroupReceiptDatabase(any())).thenReturn(groupReceiptDatabase);
+    when(TextUtils.join(any(CharSequence.class), any(Iterable.class))).thenAnswer(invocation -> {
+      List<String> parts = new ArrayList<>();
+      for (Object part : (Iterable<?>) invocation.getArguments()[1]) parts.add(String.valueOf(part));
+      return String.join((CharSequence) invocation.getArguments()[0], parts);
+    });
+
+    Recipient individual = mock(Recipient.class);
+    Recipient group      = mock(Recipient.class);
+
+    when(group.isGroup()).thenReturn(true);
+    when(Recipient.resolved(any(RecipientId.class))).thenReturn(individual);
+    when(Recipient.resolved(GROUP)).thenReturn(group);
+
+    doAnswer(invocation -> {
+      String[]    args       = (String[]) invocation.getArguments()[3];
+      Set<String> timestamps = new HashSet<>(Arrays.asList(args));
+      List<long[]> rows      = new LinkedList<>();
+
+      queries.add(args);
+
+      for (long[] message : messages) {
+        if (timestamps.contains(String.valueOf(message[4]))) rows.add(message);
+      }
+
+      return cursor(rows);
+    }).when(db).query(anyString(), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void receipts_incrementMatchingOutgoingMessages() {
+    messages.add(new long[] { 10, 100, ALICE.toLong(), OUTGOING, 1000 });
+    messages.add(new long[] { 11, 101, BOB.toLong(),   OUTGOING, 1001 });
+
+    boolean[]            matched = new boolean[2];
+    Map<Long, Set<Long>> updated = sms().incrementReceiptCounts(Arrays.asList(receipt(ALICE, 1000), receipt(BOB, 1001)), true, matched);
+
+    assertArrayEquals(new boolean[] { true, true }, matched);
+    assertEquals(Collections.singleton(10L), updated.get(100L));
+    assertEquals(Collections.singleton(11L), updated.get(101L));
+    verify(db).execSQL(eq("UPDATE sms SET delivery_receipt_count = delivery_receipt_count + ? WHERE _id = ?"), aryEq(new Object[] { 1, 10L }));
+    verify(db).execSQL(eq("UPDATE sms SET delivery_receipt_count = delivery_receipt_count + ? WHERE _id = ?"), aryEq(new Object[] { 1, 11L }));
+  }
+
+  @Test
+  public void receipts_forSameMessage_singleUpdate() {
+    messages.add(new long[] { 10, 100, ALICE.toLong(), OUTGOING, 1000 });
+
+    boolean[] matched = new boolean[2];
+    sms().incrementReceiptCounts(Arrays.asList(receipt(ALICE, 1000), receipt(ALICE, 1000)), false, matched);
+
+    assertArrayEquals(new boolean[] { true, true }, matched);
+    verify(db, times(1)).execSQL(anyString(), any(Object[].class));
+    verify(db).execSQL(eq("UPDATE sms SET read_receipt_count = read_receipt_count + ? WHERE _id = ?"), aryEq(new Object[] { 2, 10L }));
+  }
+
+  @Test
+  public void receipts_fromOtherSenderOrForIncomingMessages_areNotMatched() {
+    messages.add(new long[] { 10, 100, ALICE.toLong(), OUTGOING, 1000 });
+    messages.add(new long[] { 11, 100, BOB.toLong(),   INCOMING, 1001 });
+
+    boolean[]            matched = new boolean[2];
+    Map<Long, Set<Long>> updated = sms().incrementReceiptCounts(Arrays.asList(receipt(BOB, 1000), receipt(BOB, 1001)), true, matched);
+
+    assertArrayEquals(new boolean[] { false, false }, matched);
+    assertTrue(updated.isEmpty());
+    verify(db, never()).execSQL(anyString(), any(Object[].class));
+  }
+
+  @Test
+  public void receipts_matchedByAnotherTable_stayMatched() {
+    boolean[] matched = new boolean[] { true };
+
+    sms().incrementReceiptCounts(Collections.singletonList(receipt(ALICE, 1000)), true, matched);
+
+    assertArrayEquals(new boolean[] { true }, matched);
+  }
+
+  @Test
+  public void receipts_manyTimestamps_areQueriedInChunks() {
+    int           count    = 2 * MessagingDatabase.MAX_TIMESTAMPS_PER_QUERY + 1;
+    List<Receipt> receipts = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      messages.add(new long[] { i, 100, ALICE.toLong(), OUTGOING, 1000 + i });
+      receipts.add(receipt(ALICE, 1000 + i));
+    }
+
+    boolean[] matched = new boolean[count];
+    sms().incrementReceiptCounts(receipts, true, matched);
+
+    Set<String> queried = new HashSet<>();
+
+    assertEquals(3, queries.size());
+
+    for (String[] args : queries) {
+      assertTrue(args.length <= MessagingDatabase.MAX_TIMESTAMPS_PER_QUERY);
+      queried.addAll(Arrays.asList(args));
+    }
+
+    assertEquals(count, queried.size());
+
+    for (boolean match : matched) {
+      assertTrue(match);
+    }
+  }
+
+  @Test
+  public void receipts_sharingTimestamp_areQueriedOnce() {
+    messages.add(new long[] { 10, 100, GROUP.toLong(), OUTGOING, 1000 });
+
+    mms().incrementReceiptCounts(Arrays.asList(receipt(ALICE, 1000), receipt(BOB, 1000)), true, new boolean[2]);
+
+    assertEquals(1, queries.size());
+    assertArrayEquals(new String[] { "1000" }, queries.get(0));
+  }
+
+  @Test
+  public void groupReceipts_updateEachMembersReceipt() {
+    messages.add(new long[] { 10, 100, GROUP.toLong(), OUTGOING, 1000 });
+
+    boolean[] matched = new boolean[2];
+    mms().incrementReceiptCounts(Arrays.asList(new Receipt(new SyncMessageId(ALICE, 1000), 2000),
+                                               new Receipt(new SyncMessageId(BOB, 1000), 2001)),
+                                 true, matched);
+
+    assertArrayEquals(new boolean[] { true, true }, matched);
+    verify(groupReceiptDatabase).update(ALICE, 10, GroupReceiptDatabase.STATUS_DELIVERED, 2000);
+    verify(groupReceiptDatabase).update(BOB, 10, GroupReceiptDatabase.STATUS_DELIVERED, 2001);
+    verify(db).execSQL(eq("UPDATE mms SET delivery_receipt_count = delivery_receipt_count + ? WHERE _id = ?"), aryEq(new Object[] { 2, 10L }));
+  }
+
+  @Test
+  public void groupReadReceipts_useReadStatus() {
+    messages.add(new long[] { 10, 100, GROUP.toLong(), OUTGOING, 1000 });
+
+    mms().incrementReceiptCounts(Collections.singletonList(new Receipt(new SyncMessageId(ALICE, 1000), 3000)), false, new boolean[1]);
+
+    verify(groupReceiptDatabase).update(ALICE, 10, GroupReceiptDatabase.STATUS_READ, 3000);
+  }
+
+  @Test
+  public void unmatchedReceipts_heldAsEarlyReceipts() {
+    SmsDatabase    smsDatabase    = sms();
+    MmsDatabase    mmsDatabase    = mms();
+    MmsSmsDatabase mmsSmsDatabase = new MmsSmsDatabase(context, databaseHelper);
+
+    when(DatabaseFactory.getSmsDatabase(any())).thenReturn(smsDatabase);
+    when(DatabaseFactory.getMmsDatabase(any())).thenReturn(mmsDatabase);
+    when(DatabaseFactory.getThreadDatabase(any())).thenReturn(mock(ThreadDatabase.class));
+
+    MessagingDatabase.earlyDeliveryReceiptCache.remove(5000);
+
+    List<Receipt> unmatchedDelivery = mmsSmsDatabase.incrementReceiptCounts(Collections.singletonList(receipt(ALICE, 5000)), true);
+    List<Receipt> unmatchedRead     = mmsSmsDatabase.incrementReceiptCounts(Collections.singletonList(receipt(BOB, 5001)), false);
+
+    assertTrue(unmatchedDelivery.isEmpty());
+    assertEquals(Collections.singletonMap(ALICE, 1L), MessagingDatabase.earlyDeliveryReceiptCache.remove(5000));
+
+    assertEquals(1, unmatchedRead.size());
+    assertEquals(BOB, unmatchedRead.get(0).getMessageId().getRecipientId());
+    assertTrue(MessagingDatabase.earlyDeliveryReceiptCache.remove(5001).isEmpty());
+  }
+
+  private SmsDatabase sms() {
+    return new SmsDatabase(context, databaseHelper);
+  }
+
+  private MmsDatabase mms() {
+    return new MmsDatabase(context, databaseHelper);
+  }
+
+  private static Receipt receipt(RecipientId sender, long sentTimestamp) {
+    return new Receipt(new SyncMessageId(sender, sentTimestamp), sentTimestamp + 1);
+  }
+
+  private static Cursor cursor(List<long[]> rows) {
+    Cursor cursor   = mock(Cursor.class);
+    int[]  position = new int[] { -1 };
+
+    when(cursor.moveToNext()).thenAnswer(invocation -> ++position[0] < rows.size());
+    when(cursor.getLong(anyInt())).thenAnswer(invocation -> rows.get(position[0])[(Integer) invocation.getArguments()[0]]);
+
+    return cursor;
+  }
+}
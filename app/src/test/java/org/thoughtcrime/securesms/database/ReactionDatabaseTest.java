@@ -0,0 +1,108 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.model.ReactionRecord;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class ReactionDatabaseTest {
+
+  private static final char REACTION_SEPARATOR = 31;
+
+  @Test
+  public void parseReactions_null_isEmpty() {
+    assertTrue(ReactionDatabase.parseReactions(null).isEmpty());
+  }
+
+  @Test
+  public void parseReactions_empty_isEmpty() {
+    assertTrue(ReactionDatabase.parseReactions("").isEmpty());
+  }
+
+  @Test
+  public void parseReactions_single() {
+    List<ReactionRecord> reactions = ReactionDatabase.parseReactions("5,1000,2000,👍");
+
+    assertEquals(1, reactions.size());
+    assertReaction(reactions.get(0), "👍", 5, 1000, 2000);
+  }
+
+  @Test
+  public void parseReactions_multiple_sortedByDateReceived() {
+    List<ReactionRecord> reactions = ReactionDatabase.parseReactions(pack("1,100,300,❤️", "2,100,100,😂", "3,100,200,😮"));
+
+    assertEquals(3, reactions.size());
+    assertReaction(reactions.get(0), "😂", 2, 100, 100);
+    assertReaction(reactions.get(1), "😮", 3, 100, 200);
+    assertReaction(reactions.get(2), "❤️", 1, 100, 300);
+  }
+
+  @Test
+  public void parseReactions_zwjSequencesAndModifiers() {
+    String family   = "👨‍👩‍👧‍👦";
+    String thumbsUp = "👍🏽";
+    String flag     = "🇩🇪";
+
+    List<ReactionRecord> reactions = ReactionDatabase.parseReactions(pack("1,10,1," + family, "2,10,2," + thumbsUp, "3,10,3," + flag));
+
+    assertEquals(3, reactions.size());
+    assertEquals(family, reactions.get(0).getEmoji());
+    assertEquals(thumbsUp, reactions.get(1).getEmoji());
+    assertEquals(flag, reactions.get(2).getEmoji());
+  }
+
+  @Test
+  public void parseReactions_emojiContainingFieldSeparator() {
+    List<ReactionRecord> reactions = ReactionDatabase.parseReactions(pack("1,10,1,a,b", "2,10,2,,"));
+
+    assertEquals(2, reactions.size());
+    assertEquals("a,b", reactions.get(0).getEmoji());
+    assertEquals(",", reactions.get(1).getEmoji());
+  }
+
+  @Test
+  public void parseReactions_malformedRow_isSkipped() {
+    List<ReactionRecord> reactions = ReactionDatabase.parseReactions(pack("1,10,1,👍", "2,10", "x,10,3,😂", "4,10,4,😮"));
+
+    assertEquals(2, reactions.size());
+    assertReaction(reactions.get(0), "👍", 1, 10, 1);
+    assertReaction(reactions.get(1), "😮", 4, 10, 4);
+  }
+
+  @Test
+  public void reactionsProjection_dropsReactionSeparatorFromEmoji() {
+    String projection = ReactionDatabase.getReactionsProjection("sms._id", false);
+
+    assertTrue(projection.contains("replace(emoji, char(31), '')"));
+    assertTrue(projection.endsWith(" AS " + MmsSmsColumns.REACTIONS));
+  }
+
+  private static String pack(String... rows) {
+    StringBuilder packed = new StringBuilder();
+
+    for (String row : rows) {
+      if (packed.length() > 0) packed.append(REACTION_SEPARATOR);
+      packed.append(row);
+    }
+
+    return packed.toString();
+  }
+
+  private static void assertReaction(ReactionRecord reaction, String emoji, long author, long dateSent, long dateReceived) {
+    assertEquals(emoji, reaction.getEmoji());
+    assertEquals(RecipientId.from(author), reaction.getAuthor());
+    assertEquals(dateSent, reaction.getDateSent());
+    assertEquals(dateReceived, reaction.getDateReceived());
+  }
+}
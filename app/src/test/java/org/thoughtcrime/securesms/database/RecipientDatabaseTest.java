@@ -0,0 +1,118 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.database.Cursor;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class RecipientDatabaseTest {
+
+  private SQLiteDatabase    db;
+  private RecipientDatabase recipientDatabase;
+
+  @Before
+  public void setUp() {
+    SQLCipherOpenHelper databaseHelper = mock(SQLCipherOpenHelper.class);
+
+    db                = mock(SQLiteDatabase.class);
+    recipientDatabase = new RecipientDatabase(RuntimeEnvironment.application, databaseHelper);
+
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(db.query(anyString(), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString())).thenAnswer(invocation -> mock(Cursor.class));
+  }
+
+  @Test
+  public void getRecipientSettings_empty_doesNotQuery() {
+    assertTrue(recipientDatabase.getRecipientSettings(new ArrayList<>()).isEmpty());
+
+    verify(db, never()).query(anyString(), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void getRecipientSettings_fewIds_singleQuery() {
+    recipientDatabase.getRecipientSettings(Arrays.asList(RecipientId.from(1), RecipientId.from(2), RecipientId.from(3)));
+
+    List<String[]> queries = captureQueryArgs(1);
+
+    assertEquals(new HashSet<>(Arrays.asList("1", "2", "3")), new HashSet<>(Arrays.asList(queries.get(0))));
+  }
+
+  @Test
+  public void getRecipientSettings_manyIds_chunksQueries() {
+    List<RecipientId> ids = new ArrayList<>();
+
+    for (int i = 1; i <= 1201; i++) {
+      ids.add(RecipientId.from(i));
+    }
+
+    recipientDatabase.getRecipientSettings(ids);
+
+    List<String[]> queries = captureQueryArgs(3);
+    Set<String>    queried = new HashSet<>();
+
+    for (String[] args : queries) {
+      assertTrue(args.length <= 500);
+      queried.addAll(Arrays.asList(args));
+    }
+
+    assertEquals(1201, queried.size());
+    assertEquals(500, queries.get(0).length);
+    assertEquals(500, queries.get(1).length);
+    assertEquals(201, queries.get(2).length);
+  }
+
+  @Test
+  public void getRecipientSettings_duplicateIds_queriedOnce() {
+    List<RecipientId> ids = new ArrayList<>();
+
+    for (int i = 0; i < 600; i++) {
+      ids.add(RecipientId.from(i % 3 + 1));
+    }
+
+    recipientDatabase.getRecipientSettings(ids);
+
+    assertEquals(3, captureQueryArgs(1).get(0).length);
+  }
+
+  private List<String[]> captureQueryArgs(int expectedQueries) {
+    ArgumentCaptor<String>   selection = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<String[]> args      = ArgumentCaptor.forClass(String[].class);
+
+    verify(db, times(expectedQueries)).query(anyString(), any(String[].class), selection.capture(), args.capture(), anyString(), anyString(), anyString());
+
+    for (int i = 0; i < expectedQueries; i++) {
+      String placeholders = selection.getAllValues().get(i).replaceAll("[^?]", "");
+      assertEquals(args.getAllValues().get(i).length, placeholders.length());
+    }
+
+    return args.getAllValues();
+  }
+}
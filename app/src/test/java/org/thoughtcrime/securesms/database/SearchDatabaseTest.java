@@ -0,0 +1,230 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs {@link SearchDatabase} against Robolectric's SQLite, reached through a SQLCipher mock that
+ * forwards every call.
+ * <p>
+ * Robolectric's SQLite predates FTS5, so the full-text tables are created with FTS4 instead, with
+ * the same columns, and FTS5 prefix terms ("hel"*) are rewritten to the FTS4 form (hel*) on the way
+ * through. Everything else about the queries is run as it is.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class SearchDatabaseTest {
+
+  private static final long THREAD_ID = 1;
+
+  private android.database.sqlite.SQLiteDatabase sqlite;
+  private SearchDatabase                         database;
+
+  @Before
+  public void setUp() {
+    sqlite = android.database.sqlite.SQLiteDatabase.create(null);
+    sqlite.execSQL(SmsDatabase.CREATE_TABLE);
+    sqlite.execSQL(MmsDatabase.CREATE_TABLE);
+    sqlite.execSQL(ThreadDatabase.CREATE_TABLE);
+    sqlite.execSQL("CREATE VIRTUAL TABLE " + SearchDatabase.SMS_FTS_TABLE_NAME + " USING fts4(" + SearchDatabase.BODY + ", " + SearchDatabase.THREAD_ID + ", notindexed=" + SearchDatabase.THREAD_ID + ")");
+    sqlite.execSQL("CREATE VIRTUAL TABLE " + SearchDatabase.MMS_FTS_TABLE_NAME + " USING fts4(" + SearchDatabase.BODY + ", " + SearchDatabase.THREAD_ID + ", notindexed=" + SearchDatabase.THREAD_ID + ")");
+
+    ContentValues thread = new ContentValues();
+    thread.put(ThreadDatabase.ID, THREAD_ID);
+    thread.put(ThreadDatabase.RECIPIENT_ID, 10);
+    sqlite.insert(ThreadDatabase.TABLE_NAME, null, thread);
+
+    SQLCipherOpenHelper databaseHelper = mock(SQLCipherOpenHelper.class);
+    SQLiteDatabase      db             = forwarding(SQLiteDatabase.class, sqlite);
+
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(databaseHelper.getWritableDatabase()).thenReturn(db);
+
+    database = new SearchDatabase(ApplicationProvider.getApplicationContext(), databaseHelper);
+  }
+
+  @After
+  public void tearDown() {
+    sqlite.close();
+  }
+
+  @Test
+  public void queryMessages_equalDates_mmsFirstThenNewestId() {
+    insertSms(1, 1000, "hello one");
+    insertMms(1, 1000, "hello two");
+    insertSms(2, 1000, "hello three");
+    insertMms(2, 1000, "hello four");
+    insertSms(3, 2000, "hello five");
+    insertMms(3, 500, "goodbye");
+
+    assertEquals(Arrays.asList("sms 3", "mms 2", "mms 1", "sms 2", "sms 1"), readAllPages("hel", 10));
+  }
+
+  @Test
+  public void queryMessages_pagesAcrossEqualDates_matchSingleQuery() {
+    long[] dates = { 1000, 1000, 1000, 2000, 500 };
+
+    for (int id = 1; id <= 12; id++) {
+      insertSms(id, dates[id % dates.length], id % 4 == 0 ? "goodbye" : "hello " + id);
+      insertMms(id, dates[(id + 2) % dates.length], id % 3 == 0 ? "goodbye" : "hello " + id);
+    }
+
+    List<String> all = readAllPages("hel", 100);
+
+    assertEquals(17, all.size());
+
+    for (int pageSize = 1; pageSize <= 6; pageSize++) {
+      assertEquals("Page size " + pageSize, all, readAllPages("hel", pageSize));
+    }
+  }
+
+  @Test
+  public void queryMessages_multipleTerms_matchesAll() {
+    insertSms(1, 1000, "hello world");
+    insertSms(2, 1000, "hello there");
+    insertMms(1, 1000, "world hello");
+
+    assertEquals(Arrays.asList("mms 1", "sms 1"), readAllPages("hel wor", 10));
+  }
+
+  @Test
+  public void getMessageSnippets_onlyRequestedMatches() {
+    insertSms(1, 1000, "hello one");
+    insertSms(2, 1000, "hello two");
+    insertSms(3, 1000, "goodbye");
+    insertMms(1, 1000, "hello mms");
+
+    Map<Long, String> snippets = database.getMessageSnippets("hel", new HashSet<>(Arrays.asList(1L, 3L)), false);
+
+    assertEquals(Collections.singleton(1L), snippets.keySet());
+    assertTrue(snippets.get(1L).contains("hello one"));
+  }
+
+  @Test
+  public void getMessageSnippets_noIds_isEmpty() {
+    insertSms(1, 1000, "hello one");
+
+    assertTrue(database.getMessageSnippets("hel", Collections.emptySet(), false).isEmpty());
+  }
+
+  /**
+   * Pages through matches the same way search results are scrolled, failing if a page ever repeats
+   * a match from an earlier one.
+   */
+  private List<String> readAllPages(String query, int pageSize) {
+    List<String> matches = new ArrayList<>();
+    long         date    = Long.MAX_VALUE;
+    boolean      isMms   = false;
+    long         id      = Long.MAX_VALUE;
+    int          read;
+
+    do {
+      read = 0;
+
+      try (Cursor cursor = database.queryMessages(query, date, isMms, id, pageSize)) {
+        while (cursor.moveToNext()) {
+          date  = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED));
+          isMms = cursor.getInt(cursor.getColumnIndexOrThrow(SearchDatabase.IS_MMS)) == 1;
+          id    = cursor.getLong(cursor.getColumnIndexOrThrow(SearchDatabase.MESSAGE_ID));
+
+          String match = (isMms ? "mms " : "sms ") + id;
+
+          assertTrue("Repeated " + match, !matches.contains(match));
+
+          matches.add(match);
+          read++;
+        }
+      }
+    } while (read == pageSize);
+
+    return matches;
+  }
+
+  private void insertSms(long id, long dateReceived, String body) {
+    insert(SmsDatabase.TABLE_NAME, SearchDatabase.SMS_FTS_TABLE_NAME, SmsDatabase.DATE_RECEIVED, id, dateReceived, body);
+  }
+
+  private void insertMms(long id, long dateReceived, String body) {
+    insert(MmsDatabase.TABLE_NAME, SearchDatabase.MMS_FTS_TABLE_NAME, MmsDatabase.DATE_RECEIVED, id, dateReceived, body);
+  }
+
+  private void insert(String table, String ftsTable, String dateReceivedColumn, long id, long dateReceived, String body) {
+    ContentValues message = new ContentValues();
+    message.put(MmsSmsColumns.ID, id);
+    message.put(MmsSmsColumns.THREAD_ID, THREAD_ID);
+    message.put(MmsSmsColumns.RECIPIENT_ID, 20);
+    message.put(MmsSmsColumns.BODY, body);
+    message.put(dateReceivedColumn, dateReceived);
+    sqlite.insert(table, null, message);
+
+    ContentValues fts = new ContentValues();
+    fts.put(SearchDatabase.ID, id);
+    fts.put(SearchDatabase.BODY, body);
+    fts.put(SearchDatabase.THREAD_ID, THREAD_ID);
+    sqlite.insert(ftsTable, null, fts);
+  }
+
+  /**
+   * A mock of a SQLCipher type that passes every call on to the Android object with the same method,
+   * wrapping the cursors it returns and rewriting FTS5 prefix terms in query arguments.
+   */
+  private static <T> T forwarding(Class<T> type, Object target) {
+    Answer<Object> forward = invocation -> {
+      Method   method    = target.getClass().getMethod(invocation.getMethod().getName(), invocation.getMethod().getParameterTypes());
+      Object[] arguments = invocation.getArguments();
+      Object   result;
+
+      for (Object argument : arguments) {
+        if (argument instanceof String[]) {
+          String[] strings = (String[]) argument;
+
+          for (int i = 0; i < strings.length; i++) {
+            if (strings[i] != null) strings[i] = strings[i].replaceAll("\"([^\"]*)\"\\*", "$1*");
+          }
+        }
+      }
+
+      try {
+        result = method.invoke(target, arguments);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+
+      if (result instanceof Cursor && !invocation.getMethod().getReturnType().isInstance(result)) {
+        return forwarding(net.sqlcipher.Cursor.class, result);
+      }
+
+      return result;
+    };
+
+    return mock(type, forward);
+  }
+}
@@ -0,0 +1,129 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.content.Context;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.concurrent.StripedLock;
+import org.whispersystems.libsignal.state.SessionRecord;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Times the session store's locking, modelled the way a decrypt uses it: a load then a store of
+ * one session, by N threads each talking to a different recipient.
+ * <p>
+ * The database is a stand-in that blocks for {@link #QUERY_MICROS} on every query and write, so
+ * the numbers show how much of that time the threads spend waiting on each other. The same cached
+ * {@link SessionDatabase} is run behind one global monitor, which is how the stores used to lock,
+ * and behind the {@link StripedLock} they use now.
+ */
+@Ignore("Benchmark, run by hand")
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class SessionDatabaseBenchmark {
+
+  private static final long  QUERY_MICROS       = 150;
+  private static final int   OPERATIONS         = 2000;
+  private static final int[] THREADS            = { 1, 2, 4, 8 };
+  private static final int   WARMUP_OPERATIONS  = 200;
+
+  @Test
+  public void loadAndStore() throws InterruptedException {
+    Object      globalLock  = new Object();
+    StripedLock stripedLock = new StripedLock(32);
+
+    run(1, WARMUP_OPERATIONS, key -> globalLock);
+
+    System.out.println("threads  global lock  striped lock");
+
+    for (int threads : THREADS) {
+      long global  = run(threads, OPERATIONS, key -> globalLock);
+      long striped = run(threads, OPERATIONS, stripedLock::get);
+
+      System.out.println(String.format(Locale.US, "%-8d %8d ms  %9d ms", threads, global, striped));
+    }
+  }
+
+  private static long run(int threads, int operations, LockProvider locks) throws InterruptedException {
+    SessionDatabase database = new SessionDatabase(mock(Context.class), blockingDatabaseHelper());
+    SessionRecord   record   = new SessionRecord();
+    CountDownLatch  start    = new CountDownLatch(1);
+    CountDownLatch  done     = new CountDownLatch(threads);
+
+    for (int i = 0; i < threads; i++) {
+      RecipientId recipientId = RecipientId.from(i + 1);
+
+      new Thread(() -> {
+        try {
+          start.await();
+
+          for (int op = 0; op < operations; op++) {
+            synchronized (locks.get(recipientId)) {
+              SessionRecord loaded = database.load(recipientId, 1);
+              database.store(recipientId, 1, loaded != null ? loaded : record);
+            }
+          }
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        } finally {
+          done.countDown();
+        }
+      }).start();
+    }
+
+    long startTime = System.nanoTime();
+
+    start.countDown();
+    done.await();
+
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+  }
+
+  private static SQLCipherOpenHelper blockingDatabaseHelper() {
+    SQLCipherOpenHelper databaseHelper = mock(SQLCipherOpenHelper.class);
+    SQLiteDatabase      database       = mock(SQLiteDatabase.class);
+    Cursor              empty          = mock(Cursor.class);
+
+    when(databaseHelper.getReadableDatabase()).thenReturn(database);
+    when(databaseHelper.getWritableDatabase()).thenReturn(database);
+    when(database.query(anyString(), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString()))
+        .thenAnswer((Answer<Object>) invocation -> { block(); return empty; });
+    when(database.insertWithOnConflict(anyString(), anyString(), any(ContentValues.class), anyInt()))
+        .thenAnswer((Answer<Object>) invocation -> { block(); return 1L; });
+
+    return databaseHelper;
+  }
+
+  private static void block() {
+    long until = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(QUERY_MICROS);
+
+    while (System.nanoTime() < until) {
+      LockSupport.parkNanos(until - System.nanoTime());
+    }
+  }
+
+  private interface LockProvider {
+    Object get(RecipientId recipientId);
+  }
+}
@@ -0,0 +1,258 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.libsignal.state.SessionRecord;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs {@link SessionDatabase} against Robolectric's SQLite, reached through a SQLCipher mock that
+ * forwards every call and counts the queries that make it to the database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class SessionDatabaseTest {
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+  private static final RecipientId BOB   = RecipientId.from(10); // Serializes with ALICE's id as a prefix
+
+  private android.database.sqlite.SQLiteDatabase sqlite;
+  private SessionDatabase                        database;
+  private int                                    queries;
+  private Runnable                               onQuery;
+
+  @Before
+  public void setUp() {
+    sqlite = android.database.sqlite.SQLiteDatabase.create(null);
+    sqlite.execSQL(SessionDatabase.CREATE_TABLE);
+
+    SQLCipherOpenHelper databaseHelper = mock(SQLCipherOpenHelper.class);
+    SQLiteDatabase      db             = forwarding(SQLiteDatabase.class, sqlite);
+
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(databaseHelper.getWritableDatabase()).thenReturn(db);
+
+    database = new SessionDatabase(mock(Context.class), databaseHelper);
+  }
+
+  @After
+  public void tearDown() {
+    sqlite.close();
+  }
+
+  @Test
+  public void load_cached_doesNotQueryAgain() {
+    insertRow(ALICE, 1, record(100));
+
+    assertRegistrationId(100, database.load(ALICE, 1));
+    assertRegistrationId(100, database.load(ALICE, 1));
+    assertEquals(1, queries);
+  }
+
+  @Test
+  public void load_missing_remembersNoSession() {
+    assertNull(database.load(ALICE, 1));
+    assertNull(database.load(ALICE, 1));
+    assertEquals(1, queries);
+  }
+
+  @Test
+  public void load_returnsFreshRecordEachTime() {
+    database.store(ALICE, 1, record(100));
+
+    SessionRecord first = database.load(ALICE, 1);
+    byte[]        bytes = first.serialize();
+
+    first.getSessionState().setRemoteRegistrationId(200);
+    first.archiveCurrentState();
+
+    SessionRecord second = database.load(ALICE, 1);
+
+    assertNotSame(first, second);
+    assertArrayEquals(bytes, second.serialize());
+    assertEquals(0, queries);
+  }
+
+  @Test
+  public void store_afterNoSession_replacesIt() {
+    assertNull(database.load(ALICE, 1));
+
+    database.store(ALICE, 1, record(100));
+
+    assertRegistrationId(100, database.load(ALICE, 1));
+    assertEquals(1, queries);
+  }
+
+  @Test
+  public void store_writesThroughToDatabase() {
+    database.store(ALICE, 1, record(100));
+    database.store(ALICE, 1, record(200));
+
+    assertRegistrationId(200, reopen().load(ALICE, 1));
+  }
+
+  @Test
+  public void load_racingStore_doesNotCacheStaleBytes() {
+    insertRow(ALICE, 1, record(100));
+
+    onQuery = () -> database.store(ALICE, 1, record(200));
+
+    assertRegistrationId(100, database.load(ALICE, 1));
+    assertRegistrationId(200, database.load(ALICE, 1));
+    assertEquals(1, queries);
+  }
+
+  @Test
+  public void load_missingRacingStore_doesNotCacheNoSession() {
+    onQuery = () -> database.store(ALICE, 1, record(200));
+
+    assertNull(database.load(ALICE, 1));
+    assertRegistrationId(200, database.load(ALICE, 1));
+    assertEquals(1, queries);
+  }
+
+  @Test
+  public void load_racingDeleteAllFor_doesNotCacheStaleBytes() {
+    insertRow(ALICE, 1, record(100));
+
+    onQuery = () -> database.deleteAllFor(ALICE);
+
+    assertRegistrationId(100, database.load(ALICE, 1));
+    assertNull(database.load(ALICE, 1));
+    assertEquals(2, queries);
+  }
+
+  @Test
+  public void delete_clearsOnlyThatDevice() {
+    database.store(ALICE, 1, record(100));
+    database.store(ALICE, 2, record(200));
+
+    database.delete(ALICE, 1);
+
+    assertNull(database.load(ALICE, 1));
+    assertRegistrationId(200, database.load(ALICE, 2));
+    assertEquals(0, queries);
+    assertNull(reopen().load(ALICE, 1));
+  }
+
+  @Test
+  public void deleteAllFor_clearsEveryDevice() {
+    database.store(ALICE, 1, record(100));
+    database.store(ALICE, 2, record(200));
+    database.store(ALICE, 3, record(300));
+    database.store(BOB, 1, record(400));
+
+    database.deleteAllFor(ALICE);
+
+    assertNull(database.load(ALICE, 1));
+    assertNull(database.load(ALICE, 2));
+    assertNull(database.load(ALICE, 3));
+    assertRegistrationId(400, database.load(BOB, 1));
+    assertEquals(3, queries);
+  }
+
+  @Test
+  public void deleteAllFor_clearsRememberedNoSession() {
+    assertNull(database.load(ALICE, 1));
+
+    database.deleteAllFor(ALICE);
+    insertRow(ALICE, 1, record(100));
+
+    assertRegistrationId(100, database.load(ALICE, 1));
+  }
+
+  /**
+   * A second instance over the same tables, with nothing cached.
+   */
+  private SessionDatabase reopen() {
+    SQLCipherOpenHelper databaseHelper = mock(SQLCipherOpenHelper.class);
+    SQLiteDatabase      db             = forwarding(SQLiteDatabase.class, sqlite);
+
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(databaseHelper.getWritableDatabase()).thenReturn(db);
+
+    return new SessionDatabase(mock(Context.class), databaseHelper);
+  }
+
+  /**
+   * Writes a row behind the cache's back, like an earlier process would have.
+   */
+  private void insertRow(RecipientId recipientId, int deviceId, SessionRecord record) {
+    ContentValues values = new ContentValues();
+    values.put(SessionDatabase.RECIPIENT_ID, recipientId.serialize());
+    values.put(SessionDatabase.DEVICE, deviceId);
+    values.put(SessionDatabase.RECORD, record.serialize());
+    sqlite.insert(SessionDatabase.TABLE_NAME, null, values);
+  }
+
+  private static SessionRecord record(int registrationId) {
+    SessionRecord record = new SessionRecord();
+    record.getSessionState().setRemoteRegistrationId(registrationId);
+    return record;
+  }
+
+  private static void assertRegistrationId(int expected, SessionRecord record) {
+    assertNotNull(record);
+    assertEquals(expected, record.getSessionState().getRemoteRegistrationId());
+  }
+
+  /**
+   * A mock of a SQLCipher type that passes every call on to the Android object with the same method,
+   * wrapping the cursors it returns. Each query is read in full before {@link #onQuery} runs, so a
+   * write made there happens after the read, but before the reader sees its result.
+   */
+  private <T> T forwarding(Class<T> type, Object target) {
+    Answer<Object> forward = invocation -> {
+      Method method = target.getClass().getMethod(invocation.getMethod().getName(), invocation.getMethod().getParameterTypes());
+      Object result;
+
+      try {
+        result = method.invoke(target, invocation.getArguments());
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+
+      if (result instanceof Cursor && !invocation.getMethod().getReturnType().isInstance(result)) {
+        if (invocation.getMethod().getName().equals("query")) {
+          Runnable racer = onQuery;
+
+          ((Cursor) result).getCount();
+          queries++;
+          onQuery = null;
+
+          if (racer != null) racer.run();
+        }
+
+        return forwarding(net.sqlcipher.Cursor.class, result);
+      }
+
+      return result;
+    };
+
+    return mock(type, forward);
+  }
+}
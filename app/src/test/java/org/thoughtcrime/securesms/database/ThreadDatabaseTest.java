@@ -0,0 +1,122 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.ThreadDatabase.SummaryUpdate;
+import org.thoughtcrime.securesms.database.ThreadDatabase.ThreadSummary;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ThreadDatabaseTest {
+
+  private static final ThreadSummary UNTRACKED   = new ThreadSummary(10, -1, false, 0);
+  private static final ThreadSummary SMS_SNIPPET = new ThreadSummary(10, 5, false, 1000);
+  private static final ThreadSummary MMS_SNIPPET = new ThreadSummary(10, 5, true, 1000);
+  private static final ThreadSummary LAST_ONE    = new ThreadSummary(1, 5, false, 1000);
+
+  @Test
+  public void insert_untracked_recounts() {
+    assertEquals(SummaryUpdate.RECOUNT, UNTRACKED.forInsertedMessage(2000));
+  }
+
+  @Test
+  public void insert_newer_replacesSnippet() {
+    assertEquals(SummaryUpdate.REPLACE_SNIPPET, SMS_SNIPPET.forInsertedMessage(2000));
+  }
+
+  @Test
+  public void insert_sameTime_replacesSnippet() {
+    assertEquals(SummaryUpdate.REPLACE_SNIPPET, SMS_SNIPPET.forInsertedMessage(1000));
+  }
+
+  @Test
+  public void insert_older_onlyCounts() {
+    assertEquals(SummaryUpdate.COUNT_ONLY, SMS_SNIPPET.forInsertedMessage(999));
+  }
+
+  @Test
+  public void change_untracked_recounts() {
+    assertEquals(SummaryUpdate.RECOUNT, UNTRACKED.forChangedMessage(5, false, false));
+  }
+
+  @Test
+  public void change_snippet_replacesSnippet() {
+    assertEquals(SummaryUpdate.REPLACE_SNIPPET, SMS_SNIPPET.forChangedMessage(5, false, false));
+    assertEquals(SummaryUpdate.REPLACE_SNIPPET, MMS_SNIPPET.forChangedMessage(5, true, false));
+  }
+
+  @Test
+  public void change_sameIdInOtherTable_isNotSnippet() {
+    assertEquals(SummaryUpdate.NONE, SMS_SNIPPET.forChangedMessage(5, true, false));
+    assertEquals(SummaryUpdate.NONE, MMS_SNIPPET.forChangedMessage(5, false, false));
+  }
+
+  @Test
+  public void change_otherMessage_onlyUnarchives() {
+    assertEquals(SummaryUpdate.NONE, SMS_SNIPPET.forChangedMessage(6, false, false));
+    assertEquals(SummaryUpdate.COUNT_ONLY, SMS_SNIPPET.forChangedMessage(6, false, true));
+  }
+
+  @Test
+  public void changeBatch_containingSnippet_replacesSnippet() {
+    assertEquals(SummaryUpdate.REPLACE_SNIPPET, SMS_SNIPPET.forChangedMessages(Arrays.asList(4L, 5L), Collections.emptyList()));
+    assertEquals(SummaryUpdate.REPLACE_SNIPPET, MMS_SNIPPET.forChangedMessages(Collections.emptyList(), Collections.singletonList(5L)));
+  }
+
+  @Test
+  public void changeBatch_withoutSnippet_doesNothing() {
+    assertEquals(SummaryUpdate.NONE, SMS_SNIPPET.forChangedMessages(Collections.singletonList(6L), Collections.singletonList(5L)));
+  }
+
+  @Test
+  public void changeBatch_untracked_recounts() {
+    assertEquals(SummaryUpdate.RECOUNT, UNTRACKED.forChangedMessages(Collections.emptyList(), Collections.emptyList()));
+  }
+
+  @Test
+  public void delete_untracked_recounts() {
+    assertEquals(SummaryUpdate.RECOUNT, UNTRACKED.forDeletedMessage(5, false));
+  }
+
+  @Test
+  public void delete_lastMessage_recounts() {
+    assertEquals(SummaryUpdate.RECOUNT, LAST_ONE.forDeletedMessage(5, false));
+  }
+
+  @Test
+  public void delete_snippet_rereadsSnippet() {
+    assertEquals(SummaryUpdate.REREAD_SNIPPET, SMS_SNIPPET.forDeletedMessage(5, false));
+  }
+
+  @Test
+  public void delete_otherMessage_onlyCounts() {
+    assertEquals(SummaryUpdate.COUNT_ONLY, SMS_SNIPPET.forDeletedMessage(6, false));
+    assertEquals(SummaryUpdate.COUNT_ONLY, SMS_SNIPPET.forDeletedMessage(5, true));
+  }
+
+  @Test
+  public void verify_matchingSummary_isConsistent() {
+    assertTrue(SMS_SNIPPET.isConsistentWith(10, 5, false, 1000));
+  }
+
+  @Test
+  public void verify_snippetFromSimultaneousMessage_isConsistent() {
+    assertTrue(SMS_SNIPPET.isConsistentWith(10, 8, true, 1000));
+  }
+
+  @Test
+  public void verify_wrongCount_needsRepair() {
+    assertFalse(SMS_SNIPPET.isConsistentWith(11, 5, false, 1000));
+    assertFalse(SMS_SNIPPET.isConsistentWith(9, 5, false, 1000));
+  }
+
+  @Test
+  public void verify_staleSnippet_needsRepair() {
+    assertFalse(SMS_SNIPPET.isConsistentWith(10, 6, false, 2000));
+    assertFalse(SMS_SNIPPET.isConsistentWith(10, 5, true, 2000));
+  }
+}
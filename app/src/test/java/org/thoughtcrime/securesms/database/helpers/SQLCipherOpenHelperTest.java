@@ -0,0 +1,165 @@
+package org.thoughtcrime.securesms.database.helpers;
+
+import android.app.Application;
+import android.content.ContentValues;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.thoughtcrime.securesms.database.model.databaseprotos.ReactionList;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.signalservice.api.util.UuidUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class SQLCipherOpenHelperTest {
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+  private static final RecipientId BOB   = RecipientId.from(2);
+  private static final RecipientId CAROL = RecipientId.from(3);
+
+  @Test
+  public void backfill_withoutAdministrators_usesDefaultRole() {
+    Map<RecipientId, Integer> roles = SQLCipherOpenHelper.getBackfilledRoles("1,2,3", Collections.emptySet());
+
+    assertEquals(roles(ALICE, Member.Role.DEFAULT_VALUE, BOB, Member.Role.DEFAULT_VALUE, CAROL, Member.Role.DEFAULT_VALUE), roles);
+  }
+
+  @Test
+  public void backfill_withAdministrators_setsTheirRole() {
+    Map<RecipientId, Integer> roles = SQLCipherOpenHelper.getBackfilledRoles("1,2,3", new HashSet<>(Arrays.asList(BOB, RecipientId.from(9))));
+
+    assertEquals(roles(ALICE, Member.Role.DEFAULT_VALUE, BOB, Member.Role.ADMINISTRATOR_VALUE, CAROL, Member.Role.DEFAULT_VALUE), roles);
+  }
+
+  @Test
+  public void backfill_noMembers_writesNothing() {
+    assertTrue(SQLCipherOpenHelper.getBackfilledRoles(null, Collections.singleton(ALICE)).isEmpty());
+    assertTrue(SQLCipherOpenHelper.getBackfilledRoles("", Collections.singleton(ALICE)).isEmpty());
+  }
+
+  @Test
+  public void administrators_fromDecryptedGroup() {
+    UUID admin  = UUID.randomUUID();
+    UUID member = UUID.randomUUID();
+
+    DecryptedGroup group = DecryptedGroup.newBuilder()
+                                         .addMembers(DecryptedMember.newBuilder()
+                                                                    .setUuid(UuidUtil.toByteString(admin))
+                                                                    .setRole(Member.Role.ADMINISTRATOR))
+                                         .addMembers(DecryptedMember.newBuilder()
+                                                                    .setUuid(UuidUtil.toByteString(member))
+                                                                    .setRole(Member.Role.DEFAULT))
+                                         .build();
+
+    List<UUID> administrators = SQLCipherOpenHelper.getAdministratorUuids("group", group.toByteArray());
+
+    assertEquals(Collections.singletonList(admin), administrators);
+  }
+
+  @Test
+  public void administrators_noDecryptedGroup() {
+    assertTrue(SQLCipherOpenHelper.getAdministratorUuids("group", null).isEmpty());
+  }
+
+  @Test
+  public void administrators_corruptDecryptedGroup() {
+    assertTrue(SQLCipherOpenHelper.getAdministratorUuids("group", new byte[] { (byte) 0xff, 0x01, 0x02 }).isEmpty());
+  }
+
+  @Test
+  public void migrateReactions_insertsOneRowPerReaction() {
+    ReactionList first  = ReactionList.newBuilder()
+                                      .addReactions(reaction("👍", 5, 1000, 2000))
+                                      .addReactions(reaction("👨‍👩‍👧", 6, 1001, 2001))
+                                      .build();
+    ReactionList second = ReactionList.newBuilder()
+                                      .addReactions(reaction("❤️", 7, 1002, 2002))
+                                      .build();
+
+    SQLiteDatabase db     = mock(SQLiteDatabase.class);
+    Cursor         cursor = reactionsCursor(new long[] { 10, 11, 12 }, new byte[][] { first.toByteArray(), new byte[] { (byte) 0xff, 0x01 }, second.toByteArray() });
+
+    when(db.rawQuery(anyString(), any(String[].class))).thenReturn(cursor);
+
+    SQLCipherOpenHelper.migrateReactions(db, "mms", true);
+
+    ArgumentCaptor<ContentValues> values = ArgumentCaptor.forClass(ContentValues.class);
+    verify(db, times(3)).insert(eq("reaction"), (String) isNull(), values.capture());
+
+    assertReactionRow(values.getAllValues().get(0), 10, "👍", 5, 1000, 2000);
+    assertReactionRow(values.getAllValues().get(1), 10, "👨‍👩‍👧", 6, 1001, 2001);
+    assertReactionRow(values.getAllValues().get(2), 12, "❤️", 7, 1002, 2002);
+
+    verify(db).execSQL("UPDATE mms SET reactions = NULL WHERE reactions NOT NULL");
+  }
+
+  private static ReactionList.Reaction reaction(String emoji, long author, long sentTime, long receivedTime) {
+    return ReactionList.Reaction.newBuilder()
+                                .setEmoji(emoji)
+                                .setAuthor(author)
+                                .setSentTime(sentTime)
+                                .setReceivedTime(receivedTime)
+                                .build();
+  }
+
+  private static Cursor reactionsCursor(long[] ids, byte[][] reactions) {
+    Cursor cursor   = mock(Cursor.class);
+    int[]  position = new int[] { -1 };
+
+    when(cursor.getColumnIndexOrThrow("_id")).thenReturn(0);
+    when(cursor.getColumnIndexOrThrow("reactions")).thenReturn(1);
+    when(cursor.moveToNext()).thenAnswer(invocation -> ++position[0] < ids.length);
+    when(cursor.getLong(anyInt())).thenAnswer(invocation -> ids[position[0]]);
+    when(cursor.getBlob(anyInt())).thenAnswer(invocation -> reactions[position[0]]);
+
+    return cursor;
+  }
+
+  private static void assertReactionRow(ContentValues values, long messageId, String emoji, long author, long dateSent, long dateReceived) {
+    assertEquals(messageId, (long) values.getAsLong("message_id"));
+    assertEquals(1, (int) values.getAsInteger("is_mms"));
+    assertEquals(author, (long) values.getAsLong("author_id"));
+    assertEquals(emoji, values.getAsString("emoji"));
+    assertEquals(dateSent, (long) values.getAsLong("date_sent"));
+    assertEquals(dateReceived, (long) values.getAsLong("date_received"));
+  }
+
+  private static Map<RecipientId, Integer> roles(Object... recipientsAndRoles) {
+    Map<RecipientId, Integer> roles = new LinkedHashMap<>();
+
+    for (int i = 0; i < recipientsAndRoles.length; i += 2) {
+      roles.put((RecipientId) recipientsAndRoles[i], (Integer) recipientsAndRoles[i + 1]);
+    }
+
+    return roles;
+  }
+}
@@ -73,6 +73,28 @@ public class FastJobStorageTest {
     assertEquals(DataSet1.JOB_2, subject.getJobSpec(DataSet1.JOB_2.getId()));
   }
 
+  @Test
+  public void insertJobs_withTransaction_writesToDatabase() {
+    JobDatabase    database      = noopDatabase();
+    FastJobStorage subject       = new FastJobStorage(database);
+    Runnable       inTransaction = mock(Runnable.class);
+
+    subject.insertJobs(DataSet1.FULL_SPECS, inTransaction);
+
+    verify(database).insertJobs(DataSet1.FULL_SPECS, inTransaction);
+  }
+
+  @Test
+  public void insertJobs_withTransaction_dataCanBeFound() {
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+
+    subject.insertJobs(DataSet1.FULL_SPECS, mock(Runnable.class));
+
+    DataSet1.assertJobsMatch(subject.getAllJobSpecs());
+    DataSet1.assertConstraintsMatch(subject.getAllConstraintSpecs());
+    DataSet1.assertDependenciesMatch(subject.getAllDependencySpecs());
+  }
+
   @Test
   public void updateAllJobsToBePending_writesToDatabase() {
     JobDatabase    database = noopDatabase();
@@ -398,6 +420,71 @@ public class FastJobStorageTest {
     assertTrue(jobs.isEmpty());
   }
 
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_nextItemInQueueAfterDelete() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, null, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, 0, -1, -1, EMPTY_DATA, null, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_eligibleAfterDependencyDeleted() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, null, true),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, null, false),
+                                      Collections.emptyList(),
+                                      Collections.singletonList(new DependencySpec("2", "1")));
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_eligibleAfterRetryTimeReached() {
+    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, null, true),
+                                     Collections.emptyList(),
+                                     Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Collections.singletonList(fullSpec)));
+    subject.init();
+    subject.updateJobAfterRetry("1", false, 1, 5, EMPTY_DATA);
+
+    assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(4).size());
+    assertEquals(1, subject.getPendingJobsWithNoDependenciesInCreatedOrder(5).size());
+  }
+
+  @Test
+  public void getJobInstanceCount_tracksInsertsAndDeletes() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
+    subject.init();
+
+    assertEquals(1, subject.getJobInstanceCount("f1"));
+
+    subject.deleteJob("id1");
+
+    assertEquals(0, subject.getJobInstanceCount("f1"));
+    assertEquals(1, subject.getJobInstanceCount("f2"));
+  }
+
   @Test
   public void deleteJobs_writesToDatabase() {
     JobDatabase    database = noopDatabase();
@@ -0,0 +1,55 @@
+package org.thoughtcrime.securesms.jobs;
+
+import android.content.Context;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public final class PushDecryptMessageJobTest {
+
+  private static final JsonDataSerializer serializer = new JsonDataSerializer();
+
+  @Test
+  public void serialize_messageIds_keepOrderThroughFactory() {
+    PushDecryptMessageJob job      = new PushDecryptMessageJob(mock(Context.class), Arrays.asList(5L, 3L, 9L, 1L));
+    PushDecryptMessageJob restored = roundTrip(job);
+
+    assertArrayEquals(new long[] { 5, 3, 9, 1 }, restored.serialize().getLongArray("message_ids"));
+    assertEquals(-1, restored.serialize().getLong("sms_message_id"));
+  }
+
+  @Test
+  public void serialize_singleMessageId_isWrittenAsArray() {
+    PushDecryptMessageJob job  = new PushDecryptMessageJob(mock(Context.class), 7, 12);
+    Data                  data = job.serialize();
+
+    assertArrayEquals(new long[] { 7 }, data.getLongArray("message_ids"));
+    assertEquals(12, data.getLong("sms_message_id"));
+  }
+
+  @Test
+  public void factory_legacySingleMessageId_isRead() {
+    Data data = new Data.Builder().putLong("message_id", 7)
+                                  .putLong("sms_message_id", 12)
+                                  .build();
+
+    PushDecryptMessageJob job = new PushDecryptMessageJob.Factory().create(new Job.Parameters.Builder().build(),
+                                                                           serializer.deserialize(serializer.serialize(data)));
+
+    assertArrayEquals(new long[] { 7 }, job.serialize().getLongArray("message_ids"));
+    assertEquals(12, job.serialize().getLong("sms_message_id"));
+  }
+
+  private static PushDecryptMessageJob roundTrip(PushDecryptMessageJob job) {
+    Data data = serializer.deserialize(serializer.serialize(job.serialize()));
+    return new PushDecryptMessageJob.Factory().create(job.getParameters(), data);
+  }
+}
@@ -0,0 +1,69 @@
+package org.thoughtcrime.securesms.logging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public final class LogFileTest {
+
+  private static final byte[] SECRET = new byte[32];
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void read_singleEntries() throws IOException {
+    File           file   = folder.newFile();
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+
+    writer.writeEntry("one");
+    writer.writeEntry("two");
+    writer.close();
+
+    assertEquals("one\ntwo\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  @Test
+  public void read_bufferedEntries() throws IOException {
+    File           file   = folder.newFile();
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+
+    writer.bufferEntry("one");
+    writer.bufferEntry("two");
+    writer.flush();
+    writer.bufferEntry("three");
+    writer.close();
+
+    assertEquals("one\ntwo\nthree\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  @Test
+  public void read_mixedEntries() throws IOException {
+    File           file   = folder.newFile();
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+
+    writer.writeEntry("one");
+    writer.bufferEntry("two");
+    writer.bufferEntry("three");
+    writer.writeEntry("four");
+    writer.close();
+
+    assertEquals("one\ntwo\nthree\nfour\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  @Test
+  public void flush_withNothingBuffered_writesNothing() throws IOException {
+    File           file   = folder.newFile();
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+
+    writer.flush();
+    writer.close();
+
+    assertEquals(0, file.length());
+  }
+}
@@ -0,0 +1,227 @@
+package org.thoughtcrime.securesms.search;
+
+import android.app.Application;
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.contacts.ContactAccessor;
+import org.thoughtcrime.securesms.contacts.ContactRepository;
+import org.thoughtcrime.securesms.conversationlist.model.MessageResult;
+import org.thoughtcrime.securesms.conversationlist.model.SearchResult;
+import org.thoughtcrime.securesms.database.SearchDatabase;
+import org.thoughtcrime.securesms.database.ThreadDatabase;
+import org.thoughtcrime.securesms.recipients.Recipient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class SearchRepositoryTest {
+
+  private final List<Runnable> serialQueue = new ArrayList<>();
+
+  private ExecutorService  parallelExecutor;
+  private SearchDatabase   searchDatabase;
+  private SearchRepository repository;
+
+  @Before
+  public void setUp() {
+    parallelExecutor = Executors.newSingleThreadExecutor();
+    searchDatabase   = mock(SearchDatabase.class);
+    repository       = new SearchRepository(mock(Context.class),
+                                            searchDatabase,
+                                            mock(ThreadDatabase.class),
+                                            mock(ContactRepository.class),
+                                            mock(ContactAccessor.class),
+                                            serialQueue::add,
+                                            parallelExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    parallelExecutor.shutdownNow();
+  }
+
+  @Test
+  public void query_supersededBeforeRunning_isSkipped() {
+    List<SearchResult> first  = new ArrayList<>();
+    List<SearchResult> second = new ArrayList<>();
+
+    repository.query("he", first::add);
+    repository.query("hel", second::add);
+    runSerial();
+
+    assertTrue(first.isEmpty());
+    assertEquals(1, second.size());
+    assertEquals("hel", second.get(0).getQuery());
+    verify(searchDatabase, never()).queryMessages(eq("he"), anyInt());
+    verify(searchDatabase).queryMessages(eq("hel"), anyInt());
+  }
+
+  @Test
+  public void query_supersededWhileRunning_dropsResult() {
+    List<SearchResult> first  = new ArrayList<>();
+    List<SearchResult> second = new ArrayList<>();
+
+    when(searchDatabase.queryMessages(eq("he"), anyInt())).thenAnswer((Answer<Object>) invocation -> {
+      repository.query("hel", second::add);
+      return null;
+    });
+
+    repository.query("he", first::add);
+    runSerial();
+
+    assertTrue(first.isEmpty());
+    assertEquals(1, second.size());
+  }
+
+  @Test
+  public void queryMoreMessages_afterNewerQuery_returnsNothing() {
+    List<SearchResult> more = new ArrayList<>();
+
+    repository.queryMoreMessages(result("hel", true, sms(1, 100)), more::add);
+    repository.query("help", r -> {});
+    runSerial();
+
+    assertTrue(more.isEmpty());
+    verify(searchDatabase, never()).queryMessages(anyString(), anyLong(), anyBoolean(), anyLong(), anyInt());
+  }
+
+  @Test
+  public void query_extendsCompleteResult_narrowsItDown() {
+    loadCompleteResult("hel", sms(3, 300), mms(2, 200), sms(1, 100));
+
+    when(searchDatabase.getMessageSnippets("hello", ids(1, 3), false)).thenReturn(snippets(3, "hello sms"));
+    when(searchDatabase.getMessageSnippets("hello", ids(2), true)).thenReturn(snippets(2, "hello mms"));
+
+    List<SearchResult> results = new ArrayList<>();
+
+    repository.query("hello", results::add);
+    runSerial();
+
+    List<MessageResult> messages = results.get(0).getMessages();
+
+    assertFalse(results.get(0).hasMoreMessages());
+    assertEquals(2, messages.size());
+    assertMessage(messages.get(0), 3, false, "hello sms");
+    assertMessage(messages.get(1), 2, true, "hello mms");
+    verify(searchDatabase, never()).queryMessages(eq("hello"), anyInt());
+  }
+
+  @Test
+  public void query_afterEmptyQuery_searchesAgain() {
+    loadCompleteResult("hel", sms(1, 100));
+
+    repository.query("", r -> {});
+    repository.query("hello", r -> {});
+    runSerial();
+
+    verify(searchDatabase).queryMessages(eq("hello"), anyInt());
+    verify(searchDatabase, never()).getMessageSnippets(eq("hello"), any(Set.class), anyBoolean());
+  }
+
+  @Test
+  public void query_afterInvalidate_searchesAgain() {
+    loadCompleteResult("hel", sms(1, 100));
+
+    repository.invalidate();
+    repository.query("hello", r -> {});
+    runSerial();
+
+    verify(searchDatabase).queryMessages(eq("hello"), anyInt());
+    verify(searchDatabase, never()).getMessageSnippets(eq("hello"), any(Set.class), anyBoolean());
+  }
+
+  @Test
+  public void query_sameQuery_searchesAgain() {
+    loadCompleteResult("hel", sms(1, 100));
+
+    repository.query("hel", r -> {});
+    runSerial();
+
+    verify(searchDatabase, times(1)).queryMessages(eq("hel"), anyInt());
+  }
+
+  /**
+   * Leaves the repository holding a result with every match of the query, by loading a last page
+   * that turns out to be empty.
+   */
+  private void loadCompleteResult(String query, MessageResult... messages) {
+    List<SearchResult> loaded = new ArrayList<>();
+
+    repository.queryMoreMessages(result(query, true, messages), loaded::add);
+    runSerial();
+
+    assertFalse(loaded.get(0).hasMoreMessages());
+  }
+
+  private void runSerial() {
+    while (!serialQueue.isEmpty()) {
+      serialQueue.remove(0).run();
+    }
+  }
+
+  private static SearchResult result(String query, boolean more, MessageResult... messages) {
+    return new SearchResult(query, Collections.emptyList(), Collections.emptyList(), Arrays.asList(messages), more);
+  }
+
+  private static MessageResult sms(long id, long date) {
+    return new MessageResult(mock(Recipient.class), mock(Recipient.class), "sms " + id, 1, date, id, false);
+  }
+
+  private static MessageResult mms(long id, long date) {
+    return new MessageResult(mock(Recipient.class), mock(Recipient.class), "mms " + id, 1, date, id, true);
+  }
+
+  private static Set<Long> ids(long... ids) {
+    Set<Long> set = new HashSet<>();
+
+    for (long id : ids) {
+      set.add(id);
+    }
+
+    return set;
+  }
+
+  private static Map<Long, String> snippets(long id, String snippet) {
+    Map<Long, String> snippets = new HashMap<>();
+    snippets.put(id, snippet);
+    return snippets;
+  }
+
+  private static void assertMessage(MessageResult message, long id, boolean isMms, String snippet) {
+    assertEquals(id, message.messageId);
+    assertEquals(isMms, message.isMms);
+    assertEquals(snippet, message.bodySnippet);
+  }
+}
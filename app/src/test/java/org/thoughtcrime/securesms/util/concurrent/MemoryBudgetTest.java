@@ -0,0 +1,74 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class MemoryBudgetTest {
+
+  @Test(timeout = 5000)
+  public void reserve_withinBudget_doesNotBlock() throws Exception {
+    MemoryBudget budget = new MemoryBudget(100);
+
+    budget.reserve(40);
+    budget.reserve(60);
+  }
+
+  @Test(timeout = 5000)
+  public void reserve_oversize_runsWhenNothingElseIsReserved() throws Exception {
+    MemoryBudget budget = new MemoryBudget(100);
+
+    budget.reserve(1000).close();
+    budget.reserve(1000).close();
+  }
+
+  @Test(timeout = 5000)
+  public void reserve_overBudget_blocksUntilReleased() throws Exception {
+    MemoryBudget             budget   = new MemoryBudget(100);
+    MemoryBudget.Reservation first    = budget.reserve(70);
+    CountDownLatch           reserved = new CountDownLatch(1);
+
+    new Thread(() -> {
+      try {
+        budget.reserve(50);
+        reserved.countDown();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }).start();
+
+    assertFalse(reserved.await(100, TimeUnit.MILLISECONDS));
+
+    first.close();
+
+    assertTrue(reserved.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test(timeout = 5000)
+  public void close_twice_onlyReleasesOnce() throws Exception {
+    MemoryBudget             budget = new MemoryBudget(100);
+    MemoryBudget.Reservation first  = budget.reserve(60);
+
+    budget.reserve(40);
+
+    first.close();
+    first.close();
+
+    CountDownLatch reserved = new CountDownLatch(1);
+
+    new Thread(() -> {
+      try {
+        budget.reserve(80);
+        reserved.countDown();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }).start();
+
+    assertFalse(reserved.await(100, TimeUnit.MILLISECONDS));
+  }
+}
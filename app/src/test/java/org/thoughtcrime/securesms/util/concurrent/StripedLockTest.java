@@ -0,0 +1,95 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class StripedLockTest {
+
+  @Test
+  public void get_sameKey_sameMonitor() {
+    StripedLock lock = new StripedLock(32);
+
+    assertSame(lock.get(RecipientId.from(7)), lock.get(RecipientId.from(7)));
+    assertSame(lock.get("+15555550100"), lock.get(new String("+15555550100")));
+  }
+
+  @Test
+  public void get_consecutiveRecipients_useEveryStripe() {
+    StripedLock lock     = new StripedLock(32);
+    Set<Object> monitors = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (long id = 1; id <= 32; id++) {
+      monitors.add(lock.get(RecipientId.from(id)));
+    }
+
+    assertEquals(32, monitors.size());
+  }
+
+  @Test
+  public void get_negativeHash_isInRange() {
+    StripedLock lock = new StripedLock(5);
+
+    lock.get(Integer.MIN_VALUE);
+    lock.get(-1);
+  }
+
+  @Test(timeout = 5000)
+  public void distinctRecipients_doNotSerialize() throws Exception {
+    StripedLock    lock    = new StripedLock(32);
+    Object         first   = lock.get(RecipientId.from(1));
+    Object         second  = lock.get(RecipientId.from(2));
+    CountDownLatch entered = new CountDownLatch(1);
+    AtomicBoolean  ran     = new AtomicBoolean();
+
+    assertNotSame(first, second);
+
+    synchronized (first) {
+      Thread thread = new Thread(() -> {
+        synchronized (second) {
+          ran.set(true);
+          entered.countDown();
+        }
+      });
+
+      thread.start();
+
+      assertTrue(entered.await(2, TimeUnit.SECONDS));
+      thread.join();
+    }
+
+    assertTrue(ran.get());
+  }
+
+  @Test(timeout = 5000)
+  public void sameRecipient_serializes() throws Exception {
+    StripedLock    lock    = new StripedLock(32);
+    CountDownLatch entered = new CountDownLatch(1);
+
+    synchronized (lock.get(RecipientId.from(1))) {
+      Thread thread = new Thread(() -> {
+        synchronized (lock.get(RecipientId.from(1))) {
+          entered.countDown();
+        }
+      });
+
+      thread.start();
+
+      assertFalse(entered.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    assertTrue(entered.await(2, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,93 @@
+package org.whispersystems.signalservice.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs one send per recipient on up to a given number of threads. Each worker claims the next
+ * unsent recipient, so a slow recipient only holds up its own worker. The calling thread acts as
+ * one of the workers, which keeps the send making progress even if the executor is saturated.
+ */
+final class ParallelSend {
+
+  private ParallelSend() {}
+
+  interface Send<R> {
+    R send(int index) throws IOException;
+  }
+
+  /**
+   * Results are returned in the same order as the recipients. A send that throws stops the
+   * remaining workers from claiming new recipients, and its exception is rethrown here. If the
+   * calling thread is interrupted while waiting for the other workers, they are cancelled, the
+   * interrupt is restored and an {@link IOException} is thrown.
+   */
+  static <R> List<R> run(ExecutorService executor, int maxParallel, int count, final Send<R> send)
+      throws IOException
+  {
+    final List<R>                    results     = new ArrayList<>(Collections.nCopies(count, (R) null));
+    final AtomicInteger              nextIndex   = new AtomicInteger(0);
+    final AtomicReference<Exception> failure     = new AtomicReference<>();
+    final int                        workerCount = Math.min(maxParallel, count);
+
+    Runnable worker = () -> {
+      int index;
+
+      while (failure.get() == null && (index = nextIndex.getAndIncrement()) < count) {
+        try {
+          results.set(index, send.send(index));
+        } catch (IOException | RuntimeException e) {
+          failure.compareAndSet(null, e);
+        }
+      }
+    };
+
+    List<Future<?>> workers = new ArrayList<>(Math.max(workerCount - 1, 0));
+
+    for (int i = 1; i < workerCount; i++) {
+      workers.add(executor.submit(worker));
+    }
+
+    worker.run();
+
+    boolean interrupted = false;
+
+    for (Future<?> future : workers) {
+      if (interrupted) {
+        future.cancel(true);
+        continue;
+      }
+
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        failure.compareAndSet(null, new IOException(e));
+      } catch (InterruptedException e) {
+        interrupted = true;
+        failure.compareAndSet(null, new IOException(e));
+        future.cancel(true);
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    Exception exception = failure.get();
+
+    if (exception instanceof IOException) {
+      throw (IOException) exception;
+    } else if (exception != null) {
+      throw (RuntimeException) exception;
+    }
+
+    return results;
+  }
+}
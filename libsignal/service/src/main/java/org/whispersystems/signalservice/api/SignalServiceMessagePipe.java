@@ -16,6 +16,7 @@ import org.signal.zkgroup.profiles.ProfileKeyCredentialRequest;
 import org.signal.zkgroup.profiles.ProfileKeyCredentialRequestContext;
 import org.signal.zkgroup.profiles.ProfileKeyVersion;
 import org.whispersystems.libsignal.InvalidVersionException;
+import org.whispersystems.libsignal.logging.Log;
 import org.whispersystems.libsignal.util.Hex;
 import org.whispersystems.libsignal.util.Pair;
 import org.whispersystems.libsignal.util.guava.Optional;
@@ -37,6 +38,7 @@ import org.whispersystems.util.Base64;
 
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
@@ -134,6 +136,64 @@ public class SignalServiceMessagePipe {
     }
   }
 
+  /**
+   * A blocking call that reads a burst of messages off the pipe. It waits for the first message
+   * like {@link #read(long, TimeUnit, MessagePipeCallback)}, then also takes any messages that
+   * have already arrived behind it, up to maxMessages, without waiting for more.
+   *
+   * The callback is given the whole burst before any of it is acknowledged, so that it can all be
+   * written to durable storage at once. A message that can't be parsed is acknowledged and dropped,
+   * without affecting the rest of the burst.
+   *
+   * @param timeout The timeout to wait for the first message.
+   * @param unit The timeout time unit.
+   * @param maxMessages The most messages to take in one burst.
+   * @param callback A callback that will be called before the messages are acknowledged.
+   * @return The messages read (same as the messages sent through the callback).
+   * @throws TimeoutException
+   * @throws IOException
+   */
+  public List<SignalServiceEnvelope> readBatch(long timeout, TimeUnit unit, int maxMessages, MessagePipeBatchCallback callback)
+      throws TimeoutException, IOException
+  {
+    if (!credentialsProvider.isPresent()) {
+      throw new IllegalArgumentException("You can't read messages if you haven't specified credentials");
+    }
+
+    while (true) {
+      List<WebSocketRequestMessage> requests = websocket.readRequests(maxMessages, unit.toMillis(timeout));
+
+      try {
+        List<SignalServiceEnvelope> envelopes = new ArrayList<>(requests.size());
+
+        for (WebSocketRequestMessage request : requests) {
+          if (isSignalServiceEnvelope(request)) {
+            try {
+              envelopes.add(new SignalServiceEnvelope(request.getBody().toByteArray(),
+                                                      credentialsProvider.get().getSignalingKey(),
+                                                      isSignalKeyEncrypted(request)));
+            } catch (InvalidVersionException | IOException e) {
+              Log.w(TAG, "Dropping unreadable envelope.", e);
+            }
+          }
+        }
+
+        if (!envelopes.isEmpty()) {
+          callback.onMessages(envelopes);
+          return envelopes;
+        }
+      } finally {
+        List<WebSocketResponseMessage> responses = new ArrayList<>(requests.size());
+
+        for (WebSocketRequestMessage request : requests) {
+          responses.add(createWebSocketResponse(request));
+        }
+
+        websocket.sendResponses(responses);
+      }
+    }
+  }
+
   public SendMessageResponse send(OutgoingPushMessageList list, Optional<UnidentifiedAccess> unidentifiedAccess) throws IOException {
     try {
       List<String> headers = new LinkedList<String>() {{
@@ -315,6 +375,10 @@ public class SignalServiceMessagePipe {
     public void onMessage(SignalServiceEnvelope envelope);
   }
 
+  public static interface MessagePipeBatchCallback {
+    public void onMessages(List<SignalServiceEnvelope> envelopes);
+  }
+
   private static class NullMessagePipeCallback implements MessagePipeCallback {
     @Override
     public void onMessage(SignalServiceEnvelope envelope) {}
@@ -180,6 +180,21 @@ public class SignalServiceMessageReceiver {
     return AttachmentCipherInputStream.createForAttachment(destination, pointer.getSize().or(0), pointer.getKey(), pointer.getDigest().get());
   }
 
+  /**
+   * Like {@link #retrieveAttachment(SignalServiceAttachmentPointer, File, long, ProgressListener)},
+   * but the attachment is verified while it is decrypted instead of in a separate pass beforehand.
+   * See {@link AttachmentCipherInputStream#createForAttachmentStreaming(File, long, byte[], byte[])}:
+   * anything read from the returned stream must be discarded unless it is read to the end without
+   * an {@link IOException}.
+   */
+  public InputStream retrieveAttachmentStreaming(SignalServiceAttachmentPointer pointer, File destination, long maxSizeBytes, ProgressListener listener)
+      throws IOException, InvalidMessageException, MissingConfigurationException {
+    if (!pointer.getDigest().isPresent()) throw new InvalidMessageException("No attachment digest!");
+
+    socket.retrieveAttachment(pointer.getCdnNumber(), pointer.getRemoteId(), destination, maxSizeBytes, listener);
+    return AttachmentCipherInputStream.createForAttachmentStreaming(destination, pointer.getSize().or(0), pointer.getKey(), pointer.getDigest().get());
+  }
+
   public InputStream retrieveSticker(byte[] packId, byte[] packKey, int stickerId)
       throws IOException, InvalidMessageException
   {
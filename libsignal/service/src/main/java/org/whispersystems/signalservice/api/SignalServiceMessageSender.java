@@ -88,11 +88,13 @@ import org.whispersystems.util.Base64;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -114,6 +116,8 @@ public class SignalServiceMessageSender {
   private final AtomicReference<Optional<SignalServiceMessagePipe>> unidentifiedPipe;
   private final AtomicBoolean                                       isMultiDevice;
   private final AtomicBoolean                                       attachmentsV3;
+  private final Optional<ExecutorService>                           executor;
+  private final int                                                 maxParallelSends;
 
   /**
    * Construct a SignalServiceMessageSender.
@@ -150,6 +154,30 @@ public class SignalServiceMessageSender {
                                     Optional<SignalServiceMessagePipe> unidentifiedPipe,
                                     Optional<EventListener> eventListener,
                                     ClientZkProfileOperations clientZkProfileOperations)
+  {
+    this(urls, credentialsProvider, store, signalAgent, isMultiDevice, attachmentsV3, pipe, unidentifiedPipe, eventListener, clientZkProfileOperations, Optional.<ExecutorService>absent(), 1);
+  }
+
+  /**
+   * Construct a SignalServiceMessageSender that fans multi-recipient sends out in parallel.
+   *
+   * @param executor The executor used to send to several recipients concurrently. If absent,
+   *                 recipients are sent to one after another.
+   * @param maxParallelSends The maximum number of recipients a single multi-recipient send will
+   *                         be transmitting to at any one time.
+   */
+  public SignalServiceMessageSender(SignalServiceConfiguration urls,
+                                    CredentialsProvider credentialsProvider,
+                                    SignalProtocolStore store,
+                                    String signalAgent,
+                                    boolean isMultiDevice,
+                                    boolean attachmentsV3,
+                                    Optional<SignalServiceMessagePipe> pipe,
+                                    Optional<SignalServiceMessagePipe> unidentifiedPipe,
+                                    Optional<EventListener> eventListener,
+                                    ClientZkProfileOperations clientZkProfileOperations,
+                                    Optional<ExecutorService> executor,
+                                    int maxParallelSends)
   {
     this.socket           = new PushServiceSocket(urls, credentialsProvider, signalAgent, clientZkProfileOperations);
     this.store            = store;
@@ -159,6 +187,8 @@ public class SignalServiceMessageSender {
     this.isMultiDevice    = new AtomicBoolean(isMultiDevice);
     this.attachmentsV3    = new AtomicBoolean(attachmentsV3);
     this.eventListener    = eventListener;
+    this.executor         = executor;
+    this.maxParallelSends = maxParallelSends;
   }
 
   /**
@@ -1167,31 +1197,61 @@ public class SignalServiceMessageSender {
                                               boolean                            online)
       throws IOException
   {
+    if (executor.isPresent() && maxParallelSends > 1 && recipients.size() > 1) {
+      return sendMessageInParallel(recipients, unidentifiedAccess, timestamp, content, online);
+    }
+
     List<SendMessageResult>                results                    = new LinkedList<>();
     Iterator<SignalServiceAddress>         recipientIterator          = recipients.iterator();
     Iterator<Optional<UnidentifiedAccess>> unidentifiedAccessIterator = unidentifiedAccess.iterator();
 
     while (recipientIterator.hasNext()) {
-      SignalServiceAddress recipient = recipientIterator.next();
-
-      try {
-        SendMessageResult result = sendMessage(recipient, unidentifiedAccessIterator.next(), timestamp, content, online);
-        results.add(result);
-      } catch (UntrustedIdentityException e) {
-        Log.w(TAG, e);
-        results.add(SendMessageResult.identityFailure(recipient, e.getIdentityKey()));
-      } catch (UnregisteredUserException e) {
-        Log.w(TAG, e);
-        results.add(SendMessageResult.unregisteredFailure(recipient));
-      } catch (PushNetworkException e) {
-        Log.w(TAG, e);
-        results.add(SendMessageResult.networkFailure(recipient));
-      }
+      results.add(sendMessageToRecipient(recipientIterator.next(), unidentifiedAccessIterator.next(), timestamp, content, online));
     }
 
     return results;
   }
 
+  /**
+   * Sends to up to {@link #maxParallelSends} recipients at a time. See {@link ParallelSend}.
+   */
+  private List<SendMessageResult> sendMessageInParallel(List<SignalServiceAddress>         recipients,
+                                                        List<Optional<UnidentifiedAccess>> unidentifiedAccess,
+                                                        final long                         timestamp,
+                                                        final byte[]                       content,
+                                                        final boolean                      online)
+      throws IOException
+  {
+    final List<SignalServiceAddress>         recipientList = new ArrayList<>(recipients);
+    final List<Optional<UnidentifiedAccess>> accessList    = new ArrayList<>(unidentifiedAccess);
+
+    List<SendMessageResult> results = ParallelSend.run(executor.get(), maxParallelSends, recipientList.size(),
+                                                       index -> sendMessageToRecipient(recipientList.get(index), accessList.get(index), timestamp, content, online));
+
+    return new LinkedList<>(results);
+  }
+
+  private SendMessageResult sendMessageToRecipient(SignalServiceAddress         recipient,
+                                                   Optional<UnidentifiedAccess> unidentifiedAccess,
+                                                   long                         timestamp,
+                                                   byte[]                       content,
+                                                   boolean                      online)
+      throws IOException
+  {
+    try {
+      return sendMessage(recipient, unidentifiedAccess, timestamp, content, online);
+    } catch (UntrustedIdentityException e) {
+      Log.w(TAG, e);
+      return SendMessageResult.identityFailure(recipient, e.getIdentityKey());
+    } catch (UnregisteredUserException e) {
+      Log.w(TAG, e);
+      return SendMessageResult.unregisteredFailure(recipient);
+    } catch (PushNetworkException e) {
+      Log.w(TAG, e);
+      return SendMessageResult.networkFailure(recipient);
+    }
+  }
+
   private SendMessageResult sendMessage(SignalServiceAddress         recipient,
                                         Optional<UnidentifiedAccess> unidentifiedAccess,
                                         long                         timestamp,
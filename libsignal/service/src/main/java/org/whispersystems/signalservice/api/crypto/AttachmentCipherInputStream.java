@@ -13,6 +13,7 @@ import org.whispersystems.signalservice.internal.util.ContentLengthInputStream;
 import org.whispersystems.signalservice.internal.util.Util;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilterInputStream;
@@ -22,7 +23,6 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -45,11 +45,19 @@ public class AttachmentCipherInputStream extends FilterInputStream {
   private static final int CIPHER_KEY_SIZE = 32;
   private static final int MAC_KEY_SIZE    = 32;
 
+  private final byte[] ciphertextBuffer = new byte[8192];
+  private final byte[] plaintextBuffer  = new byte[ciphertextBuffer.length + BLOCK_SIZE];
+
   private Cipher  cipher;
   private boolean done;
   private long    totalDataSize;
   private long    totalRead;
-  private byte[]  overflowBuffer;
+  private int     plaintextOffset;
+  private int     plaintextLength;
+
+  private final Mac           mac;
+  private final MessageDigest digest;
+  private final byte[]        theirDigest;
 
   public static InputStream createForAttachment(File file, long plaintextLength, byte[] combinedKeyMaterial, byte[] digest)
       throws InvalidMessageException, IOException
@@ -85,6 +93,44 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  /**
+   * Like {@link #createForAttachment(File, long, byte[], byte[])}, but only reads the file once. The
+   * MAC and digest are computed as the ciphertext is decrypted, instead of in a separate pass first.
+   *
+   * The final block of plaintext is held back until the MAC and digest have been checked. If either
+   * check fails, the stream throws an {@link IOException} instead of returning that block or reaching
+   * its end. Since everything before the final block is handed out unverified, callers must discard
+   * what they have read unless the stream is read to its end without error.
+   */
+  public static InputStream createForAttachmentStreaming(File file, long plaintextLength, byte[] combinedKeyMaterial, byte[] digest)
+      throws InvalidMessageException, IOException
+  {
+    try {
+      byte[][]      parts         = Util.split(combinedKeyMaterial, CIPHER_KEY_SIZE, MAC_KEY_SIZE);
+      Mac           mac           = Mac.getInstance("HmacSHA256");
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA256");
+      mac.init(new SecretKeySpec(parts[1], "HmacSHA256"));
+
+      if (file.length() <= BLOCK_SIZE + mac.getMacLength()) {
+        throw new InvalidMessageException("Message shorter than crypto overhead!");
+      }
+
+      if (digest == null) {
+        throw new InvalidMessageException("Missing digest!");
+      }
+
+      InputStream inputStream = new AttachmentCipherInputStream(new FileInputStream(file), parts[0], file.length() - BLOCK_SIZE - mac.getMacLength(), mac, messageDigest, digest);
+
+      if (plaintextLength != 0) {
+        inputStream = new VerifyingContentLengthInputStream(inputStream, plaintextLength);
+      }
+
+      return inputStream;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   public static InputStream createForStickerData(byte[] data, byte[] packKey)
       throws InvalidMessageException, IOException
   {
@@ -112,12 +158,23 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
   private AttachmentCipherInputStream(InputStream inputStream, byte[] cipherKey, long totalDataSize)
       throws IOException
+  {
+    this(inputStream, cipherKey, totalDataSize, null, null, null);
+  }
+
+  private AttachmentCipherInputStream(InputStream inputStream, byte[] cipherKey, long totalDataSize, Mac mac, MessageDigest digest, byte[] theirDigest)
+      throws IOException
   {
     super(inputStream);
 
+    this.mac         = mac;
+    this.digest      = digest;
+    this.theirDigest = theirDigest;
+
     try {
       byte[] iv = new byte[BLOCK_SIZE];
       readFully(iv);
+      updateMac(iv, iv.length);
 
       this.cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
       this.cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
@@ -130,6 +187,16 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  @Override
+  public int read() throws IOException {
+    byte[] buffer = new byte[1];
+    int    read;
+
+    while ((read = read(buffer, 0, 1)) == 0);
+
+    return read == -1 ? -1 : buffer[0] & 0xFF;
+  }
+
   @Override
   public int read(byte[] buffer) throws IOException {
     return read(buffer, 0, buffer.length);
@@ -137,9 +204,18 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
   @Override
   public int read(byte[] buffer, int offset, int length) throws IOException {
-    if      (totalRead != totalDataSize) return readIncremental(buffer, offset, length);
-    else if (!done)                      return readFinal(buffer, offset, length);
-    else                                 return -1;
+    while (plaintextOffset == plaintextLength) {
+      if (done) return -1;
+
+      if (totalRead != totalDataSize) readIncremental();
+      else                            readFinal();
+    }
+
+    int count = Math.min(length, plaintextLength - plaintextOffset);
+    System.arraycopy(plaintextBuffer, plaintextOffset, buffer, offset, count);
+    plaintextOffset += count;
+
+    return count;
   }
 
   @Override
@@ -154,74 +230,72 @@ public class AttachmentCipherInputStream extends FilterInputStream {
       byte[] buf  = new byte[Math.min(4096, (int)(byteCount-skipped))];
       int    read = read(buf);
 
+      if (read == -1) break;
+
       skipped += read;
     }
 
     return skipped;
   }
 
-  private int readFinal(byte[] buffer, int offset, int length) throws IOException {
-    try {
-      int flourish = cipher.doFinal(buffer, offset);
+  private void readFinal() throws IOException {
+    if (mac != null) {
+      verifyTrailingMac();
+    }
 
-      done = true;
-      return flourish;
+    try {
+      plaintextLength = cipher.doFinal(plaintextBuffer, 0);
+      plaintextOffset = 0;
+      done            = true;
     } catch (IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new IOException(e);
     }
   }
 
-  private int readIncremental(byte[] buffer, int offset, int length) throws IOException {
-    int readLength = 0;
-    if (null != overflowBuffer) {
-      if (overflowBuffer.length > length) {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, length);
-        overflowBuffer = Arrays.copyOfRange(overflowBuffer, length, overflowBuffer.length);
-        return length;
-      } else if (overflowBuffer.length == length) {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, length);
-        overflowBuffer = null;
-        return length;
-      } else {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, overflowBuffer.length);
-        readLength += overflowBuffer.length;
-        offset += readLength;
-        length -= readLength;
-        overflowBuffer = null;
-      }
-    }
+  private void readIncremental() throws IOException {
+    int read = super.read(ciphertextBuffer, 0, (int) Math.min(ciphertextBuffer.length, totalDataSize - totalRead));
 
-    if (length + totalRead > totalDataSize)
-      length = (int)(totalDataSize - totalRead);
+    if (read == -1) {
+      throw new EOFException("Attachment ended before its data was complete!");
+    }
 
-    byte[] internalBuffer = new byte[length];
-    int read              = super.read(internalBuffer, 0, internalBuffer.length <= cipher.getBlockSize() ? internalBuffer.length : internalBuffer.length - cipher.getBlockSize());
-    totalRead            += read;
+    totalRead += read;
+    updateMac(ciphertextBuffer, read);
 
     try {
-      int outputLen = cipher.getOutputSize(read);
-
-      if (outputLen <= length) {
-        readLength += cipher.update(internalBuffer, 0, read, buffer, offset);
-        return readLength;
-      }
-
-      byte[] transientBuffer = new byte[outputLen];
-      outputLen = cipher.update(internalBuffer, 0, read, transientBuffer, 0);
-      if (outputLen <= length) {
-        System.arraycopy(transientBuffer, 0, buffer, offset, outputLen);
-        readLength += outputLen;
-      } else {
-        System.arraycopy(transientBuffer, 0, buffer, offset, length);
-        overflowBuffer = Arrays.copyOfRange(transientBuffer, length, outputLen);
-        readLength += length;
-      }
-      return readLength;
+      plaintextLength = cipher.update(ciphertextBuffer, 0, read, plaintextBuffer, 0);
+      plaintextOffset = 0;
     } catch (ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
 
+  private void updateMac(byte[] buffer, int length) {
+    if (mac != null) {
+      mac.update(buffer, 0, length);
+      digest.update(buffer, 0, length);
+    }
+  }
+
+  /**
+   * Called once all of the ciphertext has been read, and before the cipher releases its final block.
+   */
+  private void verifyTrailingMac() throws IOException {
+    byte[] ourMac   = mac.doFinal();
+    byte[] theirMac = new byte[mac.getMacLength()];
+    readFully(theirMac);
+
+    if (!MessageDigest.isEqual(ourMac, theirMac)) {
+      throw new IOException(new InvalidMacException("MAC doesn't match!"));
+    }
+
+    byte[] ourDigest = digest.digest(theirMac);
+
+    if (!MessageDigest.isEqual(ourDigest, theirDigest)) {
+      throw new IOException(new InvalidMacException("Digest doesn't match!"));
+    }
+  }
+
   private static void verifyMac(InputStream inputStream, long length, Mac mac, byte[] theirDigest)
       throws InvalidMacException
   {
@@ -264,8 +338,111 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     for (;;) {
       int read = super.read(buffer, offset, buffer.length - offset);
 
+      if (read == -1) throw new EOFException();
+
       if (read + offset < buffer.length) offset += read;
       else                		           return;
     }
   }
+
+  /**
+   * Limits a streaming attachment to its content length without skipping verification. Attachments
+   * are padded, so the content normally ends before the ciphertext does. The last block of content is
+   * held back, and the padding after it is read and discarded, so that the MAC has been checked by the
+   * time the content's final block is released.
+   */
+  private static class VerifyingContentLengthInputStream extends FilterInputStream {
+
+    private final byte[] heldBack;
+
+    private long    bytesBeforeHeldBack;
+    private int     heldBackOffset;
+    private boolean verified;
+
+    VerifyingContentLengthInputStream(InputStream inputStream, long contentLength) {
+      super(inputStream);
+      this.heldBack            = new byte[(int) Math.min(BLOCK_SIZE, contentLength)];
+      this.bytesBeforeHeldBack = contentLength - heldBack.length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      int    read   = read(buffer, 0, 1);
+
+      return read == -1 ? -1 : buffer[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+      return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (bytesBeforeHeldBack > 0) {
+        int read = super.read(buffer, offset, (int) Math.min(length, bytesBeforeHeldBack));
+
+        if (read == -1) {
+          throw new EOFException("Attachment shorter than its stated length!");
+        }
+
+        bytesBeforeHeldBack -= read;
+        return read;
+      }
+
+      if (!verified) {
+        readHeldBackAndVerify();
+      }
+
+      if (heldBackOffset == heldBack.length) {
+        return -1;
+      }
+
+      int count = Math.min(length, heldBack.length - heldBackOffset);
+      System.arraycopy(heldBack, heldBackOffset, buffer, offset, count);
+      heldBackOffset += count;
+
+      return count;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+      long   skipped = 0;
+      byte[] buffer  = new byte[4096];
+
+      while (skipped < byteCount) {
+        int read = read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+
+        if (read == -1) break;
+
+        skipped += read;
+      }
+
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void readHeldBackAndVerify() throws IOException {
+      byte[] buffer    = new byte[4096];
+      int    collected = 0;
+      int    read;
+
+      while ((read = super.read(buffer, 0, buffer.length)) != -1) {
+        int count = Math.min(read, heldBack.length - collected);
+        System.arraycopy(buffer, 0, heldBack, collected, count);
+        collected += count;
+      }
+
+      if (collected < heldBack.length) {
+        throw new EOFException("Attachment shorter than its stated length!");
+      }
+
+      verified = true;
+    }
+  }
 }
@@ -37,9 +37,18 @@ import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Contains operations to create, modify and validate groups and group changes.
@@ -49,16 +58,32 @@ public final class GroupsV2Operations {
   /** Used for undecryptable pending invites */
   public static final UUID UNKNOWN_UUID = new UUID(0, 0);
 
-  private final ServerPublicParams        serverPublicParams;
-  private final ClientZkProfileOperations clientZkProfileOperations;
-  private final ClientZkAuthOperations    clientZkAuthOperations;
-  private final SecureRandom              random;
+  /** Groups whose decrypted ciphertexts are remembered. */
+  private static final int MAX_MEMOIZED_GROUPS = 16;
+
+  /** Groups with fewer members than this are decrypted on the calling thread. */
+  private static final int PARALLEL_THRESHOLD = 64;
+
+  private static final int             PARALLELISM         = Runtime.getRuntime().availableProcessors();
+  private static final ExecutorService DECRYPTION_EXECUTOR = createDecryptionExecutor();
+
+  private final ServerPublicParams                    serverPublicParams;
+  private final ClientZkProfileOperations             clientZkProfileOperations;
+  private final ClientZkAuthOperations                clientZkAuthOperations;
+  private final SecureRandom                          random;
+  private final Map<ByteString, DecryptedCiphertexts> memos;
 
   public GroupsV2Operations(ClientZkOperations clientZkOperations) {
     this.serverPublicParams        = clientZkOperations.getServerPublicParams();
     this.clientZkProfileOperations = clientZkOperations.getProfileOperations();
     this.clientZkAuthOperations    = clientZkOperations.getAuthOperations();
     this.random                    = new SecureRandom();
+    this.memos                     = new LinkedHashMap<ByteString, DecryptedCiphertexts>(MAX_MEMOIZED_GROUPS, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ByteString, DecryptedCiphertexts> eldest) {
+        return size() > MAX_MEMOIZED_GROUPS;
+      }
+    };
   }
 
   /**
@@ -104,8 +129,23 @@ public final class GroupsV2Operations {
     return new NewGroup(groupSecretParams, group.build(), avatar);
   }
 
+  /**
+   * The operations returned for the same group share what they have decrypted, so the members
+   * repeated in every entry of a group's history are only decrypted once.
+   */
   public GroupOperations forGroup(final GroupSecretParams groupSecretParams) {
-    return new GroupOperations(groupSecretParams);
+    ByteString key = ByteString.copyFrom(groupSecretParams.serialize());
+
+    synchronized (memos) {
+      DecryptedCiphertexts memo = memos.get(key);
+
+      if (memo == null) {
+        memo = new DecryptedCiphertexts();
+        memos.put(key, memo);
+      }
+
+      return new GroupOperations(groupSecretParams, memo);
+    }
   }
 
   public ClientZkProfileOperations getProfileOperations() {
@@ -121,12 +161,14 @@ public final class GroupsV2Operations {
    */
   public final class GroupOperations {
 
-    private final GroupSecretParams   groupSecretParams;
-    private final ClientZkGroupCipher clientZkGroupCipher;
+    private final GroupSecretParams    groupSecretParams;
+    private final ClientZkGroupCipher  clientZkGroupCipher;
+    private final DecryptedCiphertexts memo;
 
-    private GroupOperations(GroupSecretParams groupSecretParams) {
+    private GroupOperations(GroupSecretParams groupSecretParams, DecryptedCiphertexts memo) {
       this.groupSecretParams   = groupSecretParams;
       this.clientZkGroupCipher = new ClientZkGroupCipher(groupSecretParams);
+      this.memo                = memo;
     }
 
     public GroupChange.Actions.Builder createModifyGroupTitleAndMembershipChange(final Optional<String> title,
@@ -224,18 +266,8 @@ public final class GroupsV2Operations {
     public DecryptedGroup decryptGroup(Group group)
       throws VerificationFailedException, InvalidGroupStateException, InvalidProtocolBufferException
     {
-      List<Member>                 membersList             = group.getMembersList();
-      List<PendingMember>          pendingMembersList      = group.getPendingMembersList();
-      List<DecryptedMember>        decryptedMembers        = new ArrayList<>(membersList.size());
-      List<DecryptedPendingMember> decryptedPendingMembers = new ArrayList<>(pendingMembersList.size());
-
-      for (Member member : membersList) {
-        decryptedMembers.add(decryptMember(member));
-      }
-
-      for (PendingMember member : pendingMembersList) {
-        decryptedPendingMembers.add(decryptMember(member));
-      }
+      List<DecryptedMember>        decryptedMembers        = decryptAll(group.getMembersList(), this::decryptMember);
+      List<DecryptedPendingMember> decryptedPendingMembers = decryptAll(group.getPendingMembersList(), this::decryptMember);
 
       DecryptedGroup.Builder builder = DecryptedGroup.newBuilder()
                                                      .setTitle(decryptTitle(group.getTitle()))
@@ -349,7 +381,7 @@ public final class GroupsV2Operations {
         } catch (InvalidInputException e) {
           throw new InvalidGroupStateException(e);
         }
-        UUID       uuid  = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        UUID       uuid  = decryptUuid(ByteString.copyFrom(profileKeyCredentialPresentation.getUuidCiphertext().serialize()));
         builder.addPromotePendingMembers(UuidUtil.toByteString(uuid));
       }
 
@@ -382,6 +414,52 @@ public final class GroupsV2Operations {
       return builder.build();
     }
 
+    /**
+     * Decrypts each of the inputs, splitting the work across cores when there are enough of them.
+     */
+    private <I, O> List<O> decryptAll(List<I> inputs, Decryptor<I, O> decryptor)
+      throws InvalidGroupStateException, VerificationFailedException
+    {
+      if (inputs.size() < PARALLEL_THRESHOLD || PARALLELISM < 2) {
+        return decryptSlice(inputs, decryptor);
+      }
+
+      int                   sliceSize = (inputs.size() + PARALLELISM - 1) / PARALLELISM;
+      List<Future<List<O>>> futures   = new ArrayList<>(PARALLELISM - 1);
+
+      try {
+        for (int start = sliceSize; start < inputs.size(); start += sliceSize) {
+          List<I> slice = inputs.subList(start, Math.min(start + sliceSize, inputs.size()));
+          futures.add(DECRYPTION_EXECUTOR.submit(() -> decryptSlice(slice, decryptor)));
+        }
+
+        List<O> decrypted = new ArrayList<>(inputs.size());
+        decrypted.addAll(decryptSlice(inputs.subList(0, sliceSize), decryptor));
+
+        for (Future<List<O>> future : futures) {
+          decrypted.addAll(getUninterruptibly(future));
+        }
+
+        return decrypted;
+      } finally {
+        for (Future<List<O>> future : futures) {
+          future.cancel(false);
+        }
+      }
+    }
+
+    private <I, O> List<O> decryptSlice(List<I> inputs, Decryptor<I, O> decryptor)
+      throws InvalidGroupStateException, VerificationFailedException
+    {
+      List<O> decrypted = new ArrayList<>(inputs.size());
+
+      for (I input : inputs) {
+        decrypted.add(decryptor.decrypt(input));
+      }
+
+      return decrypted;
+    }
+
     private DecryptedMember decryptMember(Member member)
       throws InvalidGroupStateException, VerificationFailedException
     {
@@ -411,12 +489,20 @@ public final class GroupsV2Operations {
     }
 
     private ProfileKey decryptProfileKey(ByteString profileKey, UUID uuid) throws VerificationFailedException, InvalidGroupStateException {
-      try {
-        ProfileKeyCiphertext profileKeyCiphertext = new ProfileKeyCiphertext(profileKey.toByteArray());
-        return clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
-      } catch (InvalidInputException e) {
-        throw new InvalidGroupStateException(e);
+      ProfileKey decrypted = memo.getProfileKey(profileKey, uuid);
+
+      if (decrypted == null) {
+        try {
+          ProfileKeyCiphertext profileKeyCiphertext = new ProfileKeyCiphertext(profileKey.toByteArray());
+          decrypted = clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
+        } catch (InvalidInputException e) {
+          throw new InvalidGroupStateException(e);
+        }
+
+        memo.putProfileKey(profileKey, uuid, decrypted);
       }
+
+      return decrypted;
     }
 
     private ByteString decryptProfileKeyToByteString(ByteString profileKey, UUID uuid) throws VerificationFailedException, InvalidGroupStateException {
@@ -432,11 +518,19 @@ public final class GroupsV2Operations {
     }
 
     private UUID decryptUuid(ByteString userId) throws InvalidGroupStateException, VerificationFailedException {
-      try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
-      } catch (InvalidInputException e) {
-        throw new InvalidGroupStateException(e);
+      UUID uuid = memo.getUuid(userId);
+
+      if (uuid == null) {
+        try {
+          uuid = clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+        } catch (InvalidInputException e) {
+          throw new InvalidGroupStateException(e);
+        }
+
+        memo.putUuid(userId, uuid);
       }
+
+      return uuid;
     }
 
     /**
@@ -444,8 +538,8 @@ public final class GroupsV2Operations {
      */
     private UUID decryptUuidOrUnknown(ByteString userId) {
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
-      } catch (InvalidInputException | VerificationFailedException e) {
+        return decryptUuid(userId);
+      } catch (InvalidGroupStateException | VerificationFailedException e) {
         return UNKNOWN_UUID;
       }
     }
@@ -537,6 +631,96 @@ public final class GroupsV2Operations {
     }
   }
 
+  private interface Decryptor<I, O> {
+    O decrypt(I input) throws InvalidGroupStateException, VerificationFailedException;
+  }
+
+  /**
+   * The plaintexts of ciphertexts we have already decrypted for a group. Only successful
+   * decryptions are remembered, so failures are still reported every time.
+   */
+  private static final class DecryptedCiphertexts {
+
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final Map<ByteString, UUID>           uuids       = new ConcurrentHashMap<>();
+    private final Map<ByteString, UuidProfileKey> profileKeys = new ConcurrentHashMap<>();
+
+    UUID getUuid(ByteString ciphertext) {
+      return uuids.get(ciphertext);
+    }
+
+    void putUuid(ByteString ciphertext, UUID uuid) {
+      if (uuids.size() >= MAX_ENTRIES) {
+        uuids.clear();
+      }
+
+      uuids.put(ciphertext, uuid);
+    }
+
+    /**
+     * A profile key ciphertext only decrypts with the UUID it was encrypted for, so a hit for
+     * a different UUID is a miss.
+     */
+    ProfileKey getProfileKey(ByteString ciphertext, UUID uuid) {
+      UuidProfileKey entry = profileKeys.get(ciphertext);
+
+      if (entry != null && entry.getUuid().equals(uuid)) {
+        return entry.getProfileKey();
+      } else {
+        return null;
+      }
+    }
+
+    void putProfileKey(ByteString ciphertext, UUID uuid, ProfileKey profileKey) {
+      if (profileKeys.size() >= MAX_ENTRIES) {
+        profileKeys.clear();
+      }
+
+      profileKeys.put(ciphertext, new UuidProfileKey(uuid, profileKey));
+    }
+  }
+
+  private static ExecutorService createDecryptionExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+      Thread thread = new Thread(r, "signal-GroupsV2Decryption");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
+  private static <T> T getUninterruptibly(Future<T> future)
+      throws InvalidGroupStateException, VerificationFailedException
+  {
+    boolean interrupted = false;
+
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+
+          if      (cause instanceof InvalidGroupStateException) throw (InvalidGroupStateException) cause;
+          else if (cause instanceof VerificationFailedException) throw (VerificationFailedException) cause;
+          else if (cause instanceof RuntimeException)           throw (RuntimeException) cause;
+          else if (cause instanceof Error)                      throw (Error) cause;
+          else                                                  throw new AssertionError(cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   public static class NewGroup {
     private final GroupSecretParams groupSecretParams;
     private final Group             newGroupMessage;
@@ -76,9 +76,13 @@ import org.whispersystems.signalservice.internal.push.exceptions.MismatchedDevic
 import org.whispersystems.signalservice.internal.push.exceptions.StaleDevicesException;
 import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
 import org.whispersystems.signalservice.internal.push.http.DigestingRequestBody;
+import org.whispersystems.signalservice.internal.push.http.HostHealth;
+import org.whispersystems.signalservice.internal.push.http.HostSelector;
+import org.whispersystems.signalservice.internal.push.http.NetworkMetrics;
 import org.whispersystems.signalservice.internal.push.http.NoCipherOutputStreamFactory;
 import org.whispersystems.signalservice.internal.push.http.OutputStreamFactory;
 import org.whispersystems.signalservice.internal.push.http.ResumableUploadSpec;
+import org.whispersystems.signalservice.internal.push.http.SegmentedDownload;
 import org.whispersystems.signalservice.internal.storage.protos.ReadOperation;
 import org.whispersystems.signalservice.internal.storage.protos.StorageItems;
 import org.whispersystems.signalservice.internal.storage.protos.StorageManifest;
@@ -198,16 +202,16 @@ public class PushServiceSocket {
   private       long      soTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
   private final Set<Call> connections     = new HashSet<>();
 
-  private final ServiceConnectionHolder[]        serviceClients;
-  private final Map<Integer, ConnectionHolder[]> cdnClientsMap;
-  private final ConnectionHolder[]               contactDiscoveryClients;
-  private final ConnectionHolder[]               keyBackupServiceClients;
-  private final ConnectionHolder[]               storageClients;
+  private final HostSelector<ServiceConnectionHolder>        serviceClients;
+  private final Map<Integer, HostSelector<ConnectionHolder>> cdnClientsMap;
+  private final HostSelector<ConnectionHolder>               contactDiscoveryClients;
+  private final HostSelector<ConnectionHolder>               keyBackupServiceClients;
+  private final HostSelector<ConnectionHolder>               storageClients;
 
-  private final CredentialsProvider              credentialsProvider;
-  private final String                           signalAgent;
-  private final SecureRandom                     random;
-  private final ClientZkProfileOperations        clientZkProfileOperations;
+  private final CredentialsProvider                          credentialsProvider;
+  private final String                                       signalAgent;
+  private final SecureRandom                                 random;
+  private final ClientZkProfileOperations                    clientZkProfileOperations;
 
   public PushServiceSocket(SignalServiceConfiguration configuration,
                            CredentialsProvider credentialsProvider,
@@ -216,12 +220,12 @@ public class PushServiceSocket {
   {
     this.credentialsProvider       = credentialsProvider;
     this.signalAgent               = signalAgent;
-    this.serviceClients            = createServiceConnectionHolders(configuration.getSignalServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns());
-    this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getDns());
-    this.contactDiscoveryClients   = createConnectionHolders(configuration.getSignalContactDiscoveryUrls(), configuration.getNetworkInterceptors(), configuration.getDns());
-    this.keyBackupServiceClients   = createConnectionHolders(configuration.getSignalKeyBackupServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns());
-    this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns());
     this.random                    = new SecureRandom();
+    this.serviceClients            = new HostSelector<>(createServiceConnectionHolders(configuration.getSignalServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns()), HostSelector.Mode.LEAST_COST, random);
+    this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getDns(), random);
+    this.contactDiscoveryClients   = new HostSelector<>(createConnectionHolders(configuration.getSignalContactDiscoveryUrls(), configuration.getNetworkInterceptors(), configuration.getDns()), HostSelector.Mode.LEAST_COST, random);
+    this.keyBackupServiceClients   = new HostSelector<>(createConnectionHolders(configuration.getSignalKeyBackupServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns()), HostSelector.Mode.LEAST_COST, random);
+    this.storageClients            = new HostSelector<>(createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns()), HostSelector.Mode.LEAST_COST, random);
     this.clientZkProfileOperations = clientZkProfileOperations;
   }
 
@@ -959,25 +963,47 @@ public class PushServiceSocket {
 
   private void downloadFromCdn(File destination, int cdnNumber, String path, long maxSizeBytes, ProgressListener listener)
       throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException {
-    try (FileOutputStream outputStream = new FileOutputStream(destination, true)) {
-      downloadFromCdn(outputStream, destination.length(), cdnNumber, path, maxSizeBytes, listener);
-    } catch (IOException e) {
-      throw new PushNetworkException(e);
+    if (destination.length() > 0 && !SegmentedDownload.isResumable(destination)) {
+      // Left over from a single-connection download, which appends in order
+      try (FileOutputStream outputStream = new FileOutputStream(destination, true)) {
+        downloadFromCdn(outputStream, destination.length(), cdnNumber, path, maxSizeBytes, listener);
+      } catch (IOException e) {
+        throw new PushNetworkException(e);
+      }
+      return;
     }
+
+    ConnectionHolder connectionHolder = getCdnConnectionHolder(cdnNumber);
+
+    new SegmentedDownload(createCdnDownloadClient(connectionHolder),
+                          connectionHolder.getUrl() + "/" + path,
+                          connectionHolder.getHostHeader(),
+                          destination,
+                          maxSizeBytes,
+                          listener,
+                          connections).download();
   }
 
-  private void downloadFromCdn(OutputStream outputStream, long offset, int cdnNumber, String path, long maxSizeBytes, ProgressListener listener)
-      throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException {
-    ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
+  private ConnectionHolder getCdnConnectionHolder(int cdnNumber) throws MissingConfigurationException {
+    HostSelector<ConnectionHolder> cdnNumberClients = cdnClientsMap.get(cdnNumber);
     if (cdnNumberClients == null) {
       throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
     }
-    ConnectionHolder   connectionHolder = getRandom(cdnNumberClients, random);
-    OkHttpClient       okHttpClient     = connectionHolder.getClient()
-                                                          .newBuilder()
-                                                          .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .build();
+    return cdnNumberClients.select();
+  }
+
+  private OkHttpClient createCdnDownloadClient(ConnectionHolder connectionHolder) {
+    return connectionHolder.getClient()
+                           .newBuilder()
+                           .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
+                           .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
+                           .build();
+  }
+
+  private void downloadFromCdn(OutputStream outputStream, long offset, int cdnNumber, String path, long maxSizeBytes, ProgressListener listener)
+      throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException {
+    ConnectionHolder connectionHolder = getCdnConnectionHolder(cdnNumber);
+    OkHttpClient     okHttpClient     = createCdnDownloadClient(connectionHolder);
 
     Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
 
@@ -1046,7 +1072,7 @@ public class PushServiceSocket {
                               CancelationSignal cancelationSignal)
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
-    ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(0), random);
+    ConnectionHolder connectionHolder = cdnClientsMap.get(0).select();
     OkHttpClient     okHttpClient     = connectionHolder.getClient()
                                                         .newBuilder()
                                                         .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
@@ -1101,7 +1127,7 @@ public class PushServiceSocket {
   }
 
   private String getResumableUploadUrl(String signedUrl, Map<String, String> headers) throws IOException {
-    ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
+    ConnectionHolder connectionHolder = cdnClientsMap.get(2).select();
     OkHttpClient     okHttpClient     = connectionHolder.getClient()
                                                         .newBuilder()
                                                         .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
@@ -1162,7 +1188,7 @@ public class PushServiceSocket {
   }
 
   private byte[] uploadToCdn2(String resumableUrl, InputStream data, String contentType, long length, OutputStreamFactory outputStreamFactory, ProgressListener progressListener, CancelationSignal cancelationSignal) throws IOException {
-    ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
+    ConnectionHolder connectionHolder = cdnClientsMap.get(2).select();
     OkHttpClient     okHttpClient     = connectionHolder.getClient()
                                                         .newBuilder()
                                                         .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
@@ -1213,7 +1239,7 @@ public class PushServiceSocket {
   }
 
   private ResumeInfo getResumeInfo(String resumableUrl, long contentLength) throws IOException {
-    ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
+    ConnectionHolder connectionHolder = cdnClientsMap.get(2).select();
     OkHttpClient     okHttpClient     = connectionHolder.getClient()
                                                         .newBuilder()
                                                         .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
@@ -1414,7 +1440,7 @@ public class PushServiceSocket {
       throws PushNetworkException
   {
     try {
-      ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) getRandom(serviceClients, random);
+      ServiceConnectionHolder connectionHolder = serviceClients.select();
       OkHttpClient            baseClient       = unidentifiedAccess.isPresent() ? connectionHolder.getUnidentifiedClient() : connectionHolder.getClient();
       OkHttpClient            okHttpClient     = baseClient.newBuilder()
                                                            .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
@@ -1466,7 +1492,7 @@ public class PushServiceSocket {
     }
   }
 
-  private ConnectionHolder[] clientsFor(ClientSet clientSet) {
+  private HostSelector<ConnectionHolder> clientsFor(ClientSet clientSet) {
     switch (clientSet) {
       case ContactDiscovery:
         return contactDiscoveryClients;
@@ -1480,7 +1506,7 @@ public class PushServiceSocket {
   Response makeRequest(ClientSet clientSet, String authorization, List<String> cookies, String path, String method, String body)
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
-    ConnectionHolder connectionHolder = getRandom(clientsFor(clientSet), random);
+    ConnectionHolder connectionHolder = clientsFor(clientSet).select();
 
     return makeRequest(connectionHolder, authorization, cookies, path, method, body);
   }
@@ -1552,7 +1578,7 @@ public class PushServiceSocket {
   private ResponseBody makeStorageRequest(String authorization, String path, String method, RequestBody body)
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
-    ConnectionHolder connectionHolder = getRandom(storageClients, random);
+    ConnectionHolder connectionHolder = storageClients.select();
     OkHttpClient     okHttpClient     = connectionHolder.getClient()
                                                         .newBuilder()
                                                         .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
@@ -1622,22 +1648,25 @@ public class PushServiceSocket {
     List<ServiceConnectionHolder> serviceConnectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      serviceConnectionHolders.add(new ServiceConnectionHolder(createConnectionClient(url, interceptors, dns),
-                                                               createConnectionClient(url, interceptors, dns),
-                                                               url.getUrl(), url.getHostHeader()));
+      HostHealth health = new HostHealth();
+
+      serviceConnectionHolders.add(new ServiceConnectionHolder(createConnectionClient(url, interceptors, dns, health),
+                                                               createConnectionClient(url, interceptors, dns, health),
+                                                               url.getUrl(), url.getHostHeader(), health));
     }
 
     return serviceConnectionHolders.toArray(new ServiceConnectionHolder[0]);
   }
 
-  private static Map<Integer, ConnectionHolder[]> createCdnClientsMap(final Map<Integer, SignalCdnUrl[]> signalCdnUrlMap,
-                                                                      final List<Interceptor> interceptors,
-                                                                      final Optional<Dns> dns) {
+  private static Map<Integer, HostSelector<ConnectionHolder>> createCdnClientsMap(final Map<Integer, SignalCdnUrl[]> signalCdnUrlMap,
+                                                                                  final List<Interceptor> interceptors,
+                                                                                  final Optional<Dns> dns,
+                                                                                  final SecureRandom random) {
     validateConfiguration(signalCdnUrlMap);
-    final Map<Integer, ConnectionHolder[]> result = new HashMap<>();
+    final Map<Integer, HostSelector<ConnectionHolder>> result = new HashMap<>();
     for (Map.Entry<Integer, SignalCdnUrl[]> entry : signalCdnUrlMap.entrySet()) {
       result.put(entry.getKey(),
-                 createConnectionHolders(entry.getValue(), interceptors, dns));
+                 new HostSelector<>(createConnectionHolders(entry.getValue(), interceptors, dns), HostSelector.Mode.LEAST_COST, random));
     }
     return Collections.unmodifiableMap(result);
   }
@@ -1652,13 +1681,14 @@ public class PushServiceSocket {
     List<ConnectionHolder> connectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      connectionHolders.add(new ConnectionHolder(createConnectionClient(url, interceptors, dns), url.getUrl(), url.getHostHeader()));
+      HostHealth health = new HostHealth();
+      connectionHolders.add(new ConnectionHolder(createConnectionClient(url, interceptors, dns, health), url.getUrl(), url.getHostHeader(), health));
     }
 
     return connectionHolders.toArray(new ConnectionHolder[0]);
   }
 
-  private static OkHttpClient createConnectionClient(SignalUrl url, List<Interceptor> interceptors, Optional<Dns> dns) {
+  private static OkHttpClient createConnectionClient(SignalUrl url, List<Interceptor> interceptors, Optional<Dns> dns, HostHealth health) {
     try {
       TrustManager[] trustManagers = BlacklistingTrustManager.createFor(url.getTrustStore());
 
@@ -1668,12 +1698,15 @@ public class PushServiceSocket {
       OkHttpClient.Builder builder = new OkHttpClient.Builder()
                                                      .sslSocketFactory(new Tls12SocketFactory(context.getSocketFactory()), (X509TrustManager)trustManagers[0])
                                                      .connectionSpecs(url.getConnectionSpecs().or(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
-                                                     .dns(dns.or(Dns.SYSTEM));
+                                                     .dns(dns.or(Dns.SYSTEM))
+                                                     .eventListenerFactory(NetworkMetrics.getInstance().getEventListenerFactory());
 
       builder.sslSocketFactory(new Tls12SocketFactory(context.getSocketFactory()), (X509TrustManager)trustManagers[0])
              .connectionSpecs(url.getConnectionSpecs().or(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
              .build();
 
+      builder.addInterceptor(health.getInterceptor());
+
       for (Interceptor interceptor : interceptors) {
         builder.addInterceptor(interceptor);
       }
@@ -1693,10 +1726,6 @@ public class PushServiceSocket {
     }
   }
 
-  private ConnectionHolder getRandom(ConnectionHolder[] connections, SecureRandom random) {
-    return connections[random.nextInt(connections.length)];
-  }
-
   public ProfileKeyCredential parseResponse(UUID uuid, ProfileKey profileKey, ProfileKeyCredentialResponse profileKeyCredentialResponse) throws VerificationFailedException {
     ProfileKeyCredentialRequestContext profileKeyCredentialRequestContext = clientZkProfileOperations.createProfileKeyCredentialRequestContext(random, uuid, profileKey);
 
@@ -1763,16 +1792,18 @@ public class PushServiceSocket {
     private AuthCredentials backupCredentials;
   }
 
-  private static class ConnectionHolder {
+  private static class ConnectionHolder implements HostSelector.Target {
 
     private final OkHttpClient     client;
     private final String           url;
     private final Optional<String> hostHeader;
+    private final HostHealth       health;
 
-    private ConnectionHolder(OkHttpClient client, String url, Optional<String> hostHeader) {
+    private ConnectionHolder(OkHttpClient client, String url, Optional<String> hostHeader, HostHealth health) {
       this.client     = client;
       this.url        = url;
       this.hostHeader = hostHeader;
+      this.health     = health;
     }
 
     OkHttpClient getClient() {
@@ -1786,14 +1817,19 @@ public class PushServiceSocket {
     Optional<String> getHostHeader() {
       return hostHeader;
     }
+
+    @Override
+    public HostHealth getHealth() {
+      return health;
+    }
   }
 
   private static class ServiceConnectionHolder extends ConnectionHolder {
 
     private final OkHttpClient unidentifiedClient;
 
-    private ServiceConnectionHolder(OkHttpClient identifiedClient, OkHttpClient unidentifiedClient, String url, Optional<String> hostHeader) {
-      super(identifiedClient, url, hostHeader);
+    private ServiceConnectionHolder(OkHttpClient identifiedClient, OkHttpClient unidentifiedClient, String url, Optional<String> hostHeader, HostHealth health) {
+      super(identifiedClient, url, hostHeader, health);
       this.unidentifiedClient = unidentifiedClient;
     }
 
@@ -0,0 +1,121 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Recent latency and failure rate of one connection target, used by {@link HostSelector} to
+ * choose between targets.
+ * <p>
+ * Both are exponentially weighted moving averages. Latency is the time until the response headers
+ * arrive, and is only sampled from successful requests with small bodies so that uploads don't
+ * make a host look slow. A request fails if it throws or gets a 5xx response. Requests canceled by
+ * the caller aren't counted.
+ * <p>
+ * Clients feed it by installing {@link #getInterceptor()}.
+ */
+public final class HostHealth {
+
+  /**
+   * Weight of each new sample in the moving averages.
+   */
+  static final double ALPHA = 0.25;
+
+  /**
+   * What a failure is taken to cost, in addition to the host's latency.
+   */
+  static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  /**
+   * Assumed latency of a host that hasn't been measured yet. It's low, so new hosts are tried.
+   */
+  static final long INITIAL_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final long MAX_TIMED_BODY_BYTES = 64 * 1024;
+
+  private final NetworkMetrics.Clock clock;
+  private final Interceptor          interceptor;
+
+  private double  latencyNanos = INITIAL_LATENCY_NANOS;
+  private double  failureRate;
+  private boolean measured;
+  private int     pending;
+
+  public HostHealth() {
+    this(System::nanoTime);
+  }
+
+  HostHealth(NetworkMetrics.Clock clock) {
+    this.clock       = clock;
+    this.interceptor = new HealthInterceptor();
+  }
+
+  public Interceptor getInterceptor() {
+    return interceptor;
+  }
+
+  /**
+   * The expected time a request to this host would take, counting failures at
+   * {@link #FAILURE_PENALTY_NANOS} and scaled by the number of requests already waiting on it.
+   */
+  synchronized double getCost() {
+    return (latencyNanos + failureRate * FAILURE_PENALTY_NANOS) * (pending + 1);
+  }
+
+  synchronized void onRequestStart() {
+    pending++;
+  }
+
+  /**
+   * @param latencyNanos Time until the response headers, or -1 if it shouldn't be sampled.
+   */
+  synchronized void onRequestEnd(long latencyNanos, boolean failed) {
+    pending = Math.max(0, pending - 1);
+
+    failureRate += ALPHA * ((failed ? 1 : 0) - failureRate);
+
+    if (!failed && latencyNanos >= 0) {
+      this.latencyNanos = measured ? this.latencyNanos + ALPHA * (latencyNanos - this.latencyNanos) : latencyNanos;
+      this.measured     = true;
+    }
+  }
+
+  synchronized void onRequestCanceled() {
+    pending = Math.max(0, pending - 1);
+  }
+
+  private static boolean isTimed(Request request) throws IOException {
+    RequestBody body = request.body();
+    return body == null || (body.contentLength() >= 0 && body.contentLength() <= MAX_TIMED_BODY_BYTES);
+  }
+
+  private final class HealthInterceptor implements Interceptor {
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      Request request = chain.request();
+      boolean timed   = isTimed(request);
+      long    start   = clock.nanoTime();
+
+      onRequestStart();
+
+      Response response;
+
+      try {
+        response = chain.proceed(request);
+      } catch (IOException | RuntimeException e) {
+        if (chain.call().isCanceled()) onRequestCanceled();
+        else                           onRequestEnd(-1, true);
+        throw e;
+      }
+
+      onRequestEnd(timed ? clock.nanoTime() - start : -1, response.code() >= 500);
+
+      return response;
+    }
+  }
+}
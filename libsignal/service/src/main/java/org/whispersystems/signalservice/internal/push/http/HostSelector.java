@@ -0,0 +1,121 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.util.Random;
+
+/**
+ * Chooses which of several equivalent targets, like the fronts of a censorship circumvention
+ * configuration, to send the next request to, favoring the ones that have recently been fast and
+ * reliable according to their {@link HostHealth}.
+ * <p>
+ * Every {@link #PROBE_INTERVAL}th selection goes to the target that has gone longest without one,
+ * so a host that was avoided because it was slow or failing is noticed when it recovers.
+ */
+public final class HostSelector<T extends HostSelector.Target> {
+
+  /**
+   * Number of selections between probes of the least recently selected target.
+   */
+  static final int PROBE_INTERVAL = 20;
+
+  private final T[]    targets;
+  private final Mode   mode;
+  private final Random random;
+  private final long[] lastSelected;
+
+  private long selections;
+  private long lastProbe;
+
+  public HostSelector(T[] targets, Mode mode, Random random) {
+    if (targets.length == 0) {
+      throw new IllegalArgumentException("No targets");
+    }
+
+    this.targets      = targets;
+    this.mode         = mode;
+    this.random       = random;
+    this.lastSelected = new long[targets.length];
+  }
+
+  public synchronized T select() {
+    if (targets.length == 1) {
+      return targets[0];
+    }
+
+    selections++;
+
+    int index;
+
+    if (selections - lastProbe >= PROBE_INTERVAL) {
+      index     = getLeastRecentlySelected();
+      lastProbe = selections;
+    } else if (mode == Mode.POWER_OF_TWO_CHOICES) {
+      index = getBestOfTwo();
+    } else {
+      index = getLeastCost();
+    }
+
+    lastSelected[index] = selections;
+
+    return targets[index];
+  }
+
+  private int getBestOfTwo() {
+    int first  = random.nextInt(targets.length);
+    int second = random.nextInt(targets.length - 1);
+
+    if (second >= first) second++;
+
+    return getCost(second) < getCost(first) ? second : first;
+  }
+
+  private int getLeastCost() {
+    int    best     = 0;
+    double bestCost = getCost(0);
+
+    for (int i = 1; i < targets.length; i++) {
+      double cost = getCost(i);
+
+      if (cost < bestCost) {
+        best     = i;
+        bestCost = cost;
+      }
+    }
+
+    return best;
+  }
+
+  private int getLeastRecentlySelected() {
+    int oldest = 0;
+
+    for (int i = 1; i < targets.length; i++) {
+      if (lastSelected[i] < lastSelected[oldest]) {
+        oldest = i;
+      }
+    }
+
+    return oldest;
+  }
+
+  private double getCost(int index) {
+    return targets[index].getHealth().getCost();
+  }
+
+  public interface Target {
+    HostHealth getHealth();
+  }
+
+  public enum Mode {
+    /**
+     * Always the target with the lowest cost. Requests already waiting on a target raise its cost,
+     * so concurrent requests still spread out.
+     */
+    LEAST_COST,
+
+    /**
+     * The lower cost of two targets picked at random. This keeps a burst of requests from all
+     * landing on the one target that looked best before any of them finished, but with only a few
+     * targets the second worst one is still picked fairly often.
+     */
+    POWER_OF_TWO_CHOICES
+  }
+}
@@ -0,0 +1,309 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Latency, size and outcome of HTTP requests, by route and host, over the last hour.
+ * <p>
+ * Clients record into it through {@link #getEventListenerFactory()}. Each request is filed under
+ * the host it connected to (with the Host header it carried, for fronted hosts) and its method and
+ * path, with identifiers in the path replaced by "*" so that, say, every profile fetch lands on the
+ * same route.
+ * <p>
+ * For each route it keeps histograms of connect time, time to the response headers and total
+ * time, along with request, failure and byte counts and counts of each status code. See
+ * {@link RouteWindow}.
+ */
+public final class NetworkMetrics {
+
+  private static final NetworkMetrics INSTANCE = new NetworkMetrics(System::nanoTime);
+
+  private static final int    MAX_ROUTES     = 256;
+  private static final String OTHER_ROUTE    = "(other)";
+  private static final String IDENTIFIER     = "*";
+  private static final int    MAX_WORD_CHARS = 24;
+
+  private static final Pattern PATH_WORD = Pattern.compile("v\\d+|[a-z]+([_.\\-][a-z0-9]+)*");
+
+  private final Clock                                  clock;
+  private final ConcurrentHashMap<String, RouteWindow> routes = new ConcurrentHashMap<>();
+  private final EventListener.Factory                  eventListenerFactory;
+
+  public static NetworkMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  NetworkMetrics(Clock clock) {
+    this.clock                = clock;
+    this.eventListenerFactory = call -> new MetricsListener();
+  }
+
+  public EventListener.Factory getEventListenerFactory() {
+    return eventListenerFactory;
+  }
+
+  /**
+   * @return Every route with requests in the current window, ordered by host and route.
+   */
+  public List<RouteSnapshot> getSnapshot() {
+    long                now       = clock.nanoTime();
+    List<RouteSnapshot> snapshots = new ArrayList<>(routes.size());
+
+    for (RouteWindow window : routes.values()) {
+      RouteSnapshot snapshot = window.getSnapshot(now);
+
+      if (snapshot.getRequests() > 0) {
+        snapshots.add(snapshot);
+      }
+    }
+
+    Collections.sort(snapshots, (lhs, rhs) -> {
+      int host = lhs.getHost().compareTo(rhs.getHost());
+      return host != 0 ? host : lhs.getRoute().compareTo(rhs.getRoute());
+    });
+
+    return snapshots;
+  }
+
+  private RouteWindow getWindow(Request request) {
+    String host  = getHost(request);
+    String route = request.method() + " " + getRouteTemplate(request.url());
+    String key   = host + "\n" + route;
+
+    RouteWindow window = routes.get(key);
+
+    if (window == null) {
+      if (routes.size() >= MAX_ROUTES) {
+        key   = host + "\n" + OTHER_ROUTE;
+        route = OTHER_ROUTE;
+      }
+
+      RouteWindow created  = new RouteWindow(host, route);
+      RouteWindow existing = routes.putIfAbsent(key, created);
+
+      window = existing != null ? existing : created;
+    }
+
+    return window;
+  }
+
+  private static String getHost(Request request) {
+    String host       = request.url().host();
+    String hostHeader = request.header("Host");
+
+    if (hostHeader != null && !hostHeader.equals(host)) {
+      return host + " (" + hostHeader + ")";
+    } else {
+      return host;
+    }
+  }
+
+  /**
+   * The path with every segment that isn't a plain lowercase word, or that follows "username",
+   * replaced by "*". Query strings are dropped.
+   */
+  static String getRouteTemplate(HttpUrl url) {
+    StringBuilder builder       = new StringBuilder();
+    boolean       afterUsername = false;
+
+    for (String segment : url.encodedPathSegments()) {
+      if (segment.isEmpty()) continue;
+
+      boolean isWord = !afterUsername && segment.length() <= MAX_WORD_CHARS && PATH_WORD.matcher(segment).matches();
+
+      builder.append('/').append(isWord ? segment : IDENTIFIER);
+      afterUsername = segment.equals("username");
+    }
+
+    return builder.length() > 0 ? builder.toString() : "/";
+  }
+
+  interface Clock {
+    long nanoTime();
+  }
+
+  /**
+   * Follows a single call. OkHttp creates one per call and calls it from one thread at a time.
+   */
+  private final class MetricsListener extends EventListener {
+
+    private long callStart;
+    private long connectStart;
+    private long connectNanos = -1;
+    private long ttfbNanos    = -1;
+    private int  status       = -1;
+    private int  connects;
+    private int  connectFailures;
+    private long bytesSent;
+    private long bytesReceived;
+
+    @Override
+    public void callStart(Call call) {
+      callStart = clock.nanoTime();
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      connectStart = clock.nanoTime();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+      connectNanos = Math.max(connectNanos, 0) + clock.nanoTime() - connectStart;
+      connects++;
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+      connectFailures++;
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+      bytesSent += byteCount;
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+      if (ttfbNanos < 0) {
+        ttfbNanos = clock.nanoTime() - callStart;
+      }
+
+      status = response.code();
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+      bytesReceived += byteCount;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+      record(call, false);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      record(call, true);
+    }
+
+    private void record(Call call, boolean failed) {
+      long now = clock.nanoTime();
+
+      getWindow(call.request()).record(now, connectNanos, ttfbNanos, now - callStart, status, failed, connects, connectFailures, bytesSent, bytesReceived);
+    }
+  }
+
+  public static final class RouteSnapshot {
+
+    private final String             host;
+    private final String             route;
+    private final long[]             totals;
+    private final Map<Integer, Long> statusCounts;
+
+    RouteSnapshot(String host, String route, long[] totals, Map<Integer, Long> statusCounts) {
+      this.host         = host;
+      this.route        = route;
+      this.totals       = totals;
+      this.statusCounts = Collections.unmodifiableMap(statusCounts);
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    public String getRoute() {
+      return route;
+    }
+
+    public long getRequests() {
+      return totals[RouteWindow.REQUESTS];
+    }
+
+    /**
+     * Requests that ended without a complete response, like timeouts and connection failures.
+     */
+    public long getFailures() {
+      return totals[RouteWindow.FAILURES];
+    }
+
+    public long getConnects() {
+      return totals[RouteWindow.CONNECTS];
+    }
+
+    public long getConnectFailures() {
+      return totals[RouteWindow.CONNECT_FAILURES];
+    }
+
+    public long getBytesSent() {
+      return totals[RouteWindow.BYTES_SENT];
+    }
+
+    public long getBytesReceived() {
+      return totals[RouteWindow.BYTES_RECEIVED];
+    }
+
+    /**
+     * @return Counts by response code. Codes beyond the first few seen in each slot are only
+     *         counted in {@link #getOtherStatusCount()}.
+     */
+    public Map<Integer, Long> getStatusCounts() {
+      return statusCounts;
+    }
+
+    public long getOtherStatusCount() {
+      return totals[RouteWindow.OTHER_STATUSES];
+    }
+
+    public long getConnectMillis(double percentile) {
+      return getPercentileMillis(RouteWindow.CONNECT, percentile);
+    }
+
+    public long getTimeToFirstByteMillis(double percentile) {
+      return getPercentileMillis(RouteWindow.TTFB, percentile);
+    }
+
+    public long getTotalMillis(double percentile) {
+      return getPercentileMillis(RouteWindow.TOTAL, percentile);
+    }
+
+    /**
+     * @return The upper bound of the histogram bucket holding the percentile, -1 if there were no
+     *         samples, or {@link Long#MAX_VALUE} if it's beyond the last bound.
+     */
+    private long getPercentileMillis(int histogram, double percentile) {
+      long count = 0;
+
+      for (int i = 0; i < RouteWindow.HISTOGRAM_SIZE; i++) {
+        count += totals[histogram + i];
+      }
+
+      if (count == 0) return -1;
+
+      long target     = Math.max(1, (long) Math.ceil(count * percentile));
+      long cumulative = 0;
+
+      for (int i = 0; i < RouteWindow.BUCKET_BOUNDS_MILLIS.length; i++) {
+        cumulative += totals[histogram + i];
+        if (cumulative >= target) return RouteWindow.BUCKET_BOUNDS_MILLIS[i];
+      }
+
+      return Long.MAX_VALUE;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request metrics for one route on one host, over a rolling window made of a ring of time slots.
+ * <p>
+ * Everything for a slot lives in one preallocated array: three latency histograms with fixed,
+ * roughly logarithmic buckets, a few counters, and a small table of status codes. Recording a
+ * request only increments entries, and a slot is cleared in place when the ring comes back round
+ * to it.
+ */
+final class RouteWindow {
+
+  static final int  SLOT_COUNT = 6;
+  static final long SLOT_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  /**
+   * Upper bounds of the histogram buckets. A final bucket holds everything slower.
+   */
+  static final long[] BUCKET_BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 30000, 60000 };
+
+  static final int HISTOGRAM_SIZE = BUCKET_BOUNDS_MILLIS.length + 1;
+
+  static final int CONNECT          = 0;
+  static final int TTFB             = HISTOGRAM_SIZE;
+  static final int TOTAL            = 2 * HISTOGRAM_SIZE;
+  static final int REQUESTS         = 3 * HISTOGRAM_SIZE;
+  static final int FAILURES         = REQUESTS + 1;
+  static final int CONNECTS         = REQUESTS + 2;
+  static final int CONNECT_FAILURES = REQUESTS + 3;
+  static final int BYTES_SENT       = REQUESTS + 4;
+  static final int BYTES_RECEIVED   = REQUESTS + 5;
+  static final int OTHER_STATUSES   = REQUESTS + 6;
+  static final int STATUSES         = REQUESTS + 7;
+
+  private static final int STATUS_CAPACITY = 8;
+  private static final int SLOT_WIDTH      = STATUSES + 2 * STATUS_CAPACITY;
+
+  private final String host;
+  private final String route;
+  private final long[] slotIds = new long[SLOT_COUNT];
+  private final long[] values  = new long[SLOT_COUNT * SLOT_WIDTH];
+
+  RouteWindow(String host, String route) {
+    this.host  = host;
+    this.route = route;
+
+    Arrays.fill(slotIds, Long.MIN_VALUE);
+  }
+
+  /**
+   * @param connectNanos Time spent connecting, or -1 if a pooled connection was reused.
+   * @param ttfbNanos Time until the response headers were read, or -1 if there were none.
+   * @param status The response code, or -1 if there was no response.
+   */
+  synchronized void record(long nowNanos,
+                           long connectNanos,
+                           long ttfbNanos,
+                           long totalNanos,
+                           int status,
+                           boolean failed,
+                           int connects,
+                           int connectFailures,
+                           long bytesSent,
+                           long bytesReceived)
+  {
+    int offset = getSlotOffset(nowNanos);
+
+    if (connectNanos >= 0) values[offset + CONNECT + getBucket(connectNanos)]++;
+    if (ttfbNanos >= 0)    values[offset + TTFB + getBucket(ttfbNanos)]++;
+
+    values[offset + TOTAL + getBucket(totalNanos)]++;
+    values[offset + REQUESTS]++;
+    values[offset + FAILURES]         += failed ? 1 : 0;
+    values[offset + CONNECTS]         += connects;
+    values[offset + CONNECT_FAILURES] += connectFailures;
+    values[offset + BYTES_SENT]       += bytesSent;
+    values[offset + BYTES_RECEIVED]   += bytesReceived;
+
+    if (status >= 0) {
+      recordStatus(offset, status);
+    }
+  }
+
+  synchronized NetworkMetrics.RouteSnapshot getSnapshot(long nowNanos) {
+    long   currentSlot = getSlot(nowNanos);
+    long[] totals      = new long[STATUSES];
+
+    Map<Integer, Long> statuses = new TreeMap<>();
+
+    for (int i = 0; i < SLOT_COUNT; i++) {
+      if (slotIds[i] <= currentSlot - SLOT_COUNT || slotIds[i] > currentSlot) continue;
+
+      int offset = i * SLOT_WIDTH;
+
+      for (int j = 0; j < STATUSES; j++) {
+        totals[j] += values[offset + j];
+      }
+
+      for (int j = 0; j < STATUS_CAPACITY; j++) {
+        int  status = (int) values[offset + STATUSES + 2 * j];
+        long count  = values[offset + STATUSES + 2 * j + 1];
+
+        if (count > 0) {
+          Long existing = statuses.get(status);
+          statuses.put(status, existing != null ? existing + count : count);
+        }
+      }
+    }
+
+    return new NetworkMetrics.RouteSnapshot(host, route, totals, statuses);
+  }
+
+  /**
+   * @return The offset of the slot for this time, cleared first if it last held an older slot.
+   */
+  private int getSlotOffset(long nowNanos) {
+    long slot  = getSlot(nowNanos);
+    int  index = (int) (slot - floorDiv(slot, SLOT_COUNT) * SLOT_COUNT);
+
+    if (slotIds[index] != slot) {
+      slotIds[index] = slot;
+      Arrays.fill(values, index * SLOT_WIDTH, (index + 1) * SLOT_WIDTH, 0);
+    }
+
+    return index * SLOT_WIDTH;
+  }
+
+  private void recordStatus(int offset, int status) {
+    for (int i = 0; i < STATUS_CAPACITY; i++) {
+      int position = offset + STATUSES + 2 * i;
+
+      if (values[position + 1] == 0) {
+        values[position]     = status;
+        values[position + 1] = 1;
+        return;
+      } else if (values[position] == status) {
+        values[position + 1]++;
+        return;
+      }
+    }
+
+    values[offset + OTHER_STATUSES]++;
+  }
+
+  /**
+   * {@link System#nanoTime()} can be negative, so slots are numbered by rounding down rather than
+   * towards zero.
+   */
+  static long getSlot(long nanos) {
+    return floorDiv(nanos, SLOT_NANOS);
+  }
+
+  /**
+   * Math.floorDiv, which isn't available on older Android versions.
+   */
+  private static long floorDiv(long x, long y) {
+    long quotient = x / y;
+
+    if (x % y != 0 && (x < 0) != (y < 0)) {
+      quotient--;
+    }
+
+    return quotient;
+  }
+
+  static int getBucket(long nanos) {
+    long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+    for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+      if (millis <= BUCKET_BOUNDS_MILLIS[i]) return i;
+    }
+
+    return BUCKET_BOUNDS_MILLIS.length;
+  }
+}
@@ -0,0 +1,508 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import org.whispersystems.libsignal.logging.Log;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Downloads a file as a series of byte ranges fetched over several connections at once, writing
+ * each range straight into its place in a preallocated destination file.
+ * <p>
+ * Progress is saved next to the destination after every segment and whenever the download stops,
+ * so running it again against the same destination only fetches what is still missing. Servers
+ * that ignore the Range header get a plain single-connection download.
+ */
+public final class SegmentedDownload {
+
+  private static final String TAG = SegmentedDownload.class.getSimpleName();
+
+  static final int SEGMENT_SIZE         = 1024 * 1024;
+  static final int PARALLEL_CONNECTIONS = 4;
+
+  private static final int     STATE_VERSION = 1;
+  private static final String  STATE_SUFFIX  = ".segments";
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private static final ExecutorService EXECUTOR = createExecutor();
+
+  private final OkHttpClient     client;
+  private final String           url;
+  private final Optional<String> hostHeader;
+  private final File             destination;
+  private final File             stateFile;
+  private final long             maxSizeBytes;
+  private final ProgressListener listener;
+  private final Set<Call>        connections;
+
+  /**
+   * @param connections Calls are added to this set while they run, and removed when they finish,
+   *                    under its monitor, so that they can be canceled from outside.
+   */
+  public SegmentedDownload(OkHttpClient client,
+                           String url,
+                           Optional<String> hostHeader,
+                           File destination,
+                           long maxSizeBytes,
+                           ProgressListener listener,
+                           Set<Call> connections)
+  {
+    this.client       = client;
+    this.url          = url;
+    this.hostHeader   = hostHeader;
+    this.destination  = destination;
+    this.stateFile    = getStateFile(destination);
+    this.maxSizeBytes = maxSizeBytes;
+    this.listener     = listener;
+    this.connections  = connections;
+  }
+
+  /**
+   * @return True if the destination holds a segmented download that was stopped part way.
+   */
+  public static boolean isResumable(File destination) {
+    return getStateFile(destination).exists();
+  }
+
+  /**
+   * Removes the saved progress for a destination. Call this whenever the destination itself is
+   * deleted, or a later download to a file at the same path would resume from stale segments.
+   */
+  public static void deleteState(File destination) {
+    File stateFile = getStateFile(destination);
+    File tempFile  = State.getTempFile(stateFile);
+
+    if (stateFile.exists() && !stateFile.delete()) {
+      Log.w(TAG, "Unable to delete download state.");
+    }
+
+    if (tempFile.exists() && !tempFile.delete()) {
+      Log.w(TAG, "Unable to delete temporary download state.");
+    }
+  }
+
+  public void download() throws PushNetworkException, NonSuccessfulResponseCodeException {
+    try {
+      State state = State.read(stateFile);
+
+      if (state != null && state.length == destination.length()) {
+        Log.i(TAG, "Resuming segmented download, " + state.getCompleted() + " of " + state.length + " bytes already present.");
+        downloadSegments(state, null);
+      } else {
+        start();
+      }
+
+      deleteState(destination);
+    } catch (PushNetworkException | NonSuccessfulResponseCodeException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new PushNetworkException(e);
+    }
+  }
+
+  /**
+   * Requests the first segment, which tells us how long the file is, and fetches the rest
+   * alongside it. Servers that answer with the whole file are read on this one connection.
+   */
+  private void start() throws IOException {
+    Call call = newCall(0, SEGMENT_SIZE - 1);
+
+    try (Response response = call.execute()) {
+      ResponseBody body = response.body();
+
+      if (!response.isSuccessful()) throw new NonSuccessfulResponseCodeException("Response: " + response);
+      if (body == null)              throw new PushNetworkException("No response body!");
+
+      if (response.code() != 206) {
+        Log.i(TAG, "Server ignored the range request, downloading on a single connection.");
+        if (body.contentLength() > maxSizeBytes) throw new PushNetworkException("Response exceeds max size!");
+
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+          file.setLength(0);
+          write(body.byteStream(), file.getChannel(), 0, Long.MAX_VALUE, body.contentLength(), new AtomicLong(), null);
+        }
+
+        return;
+      }
+
+      long[] range  = parseContentRange(response);
+      long   length = range[2];
+
+      if (range[0] != 0)         throw new PushNetworkException("Unexpected range: " + response.header("Content-Range"));
+      if (length > maxSizeBytes) throw new PushNetworkException("Response exceeds max size!");
+
+      State state = new State(length, SEGMENT_SIZE);
+
+      state.write(stateFile);
+
+      try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+        file.setLength(length);
+      }
+
+      Log.i(TAG, "Starting segmented download of " + length + " bytes in " + state.getSegmentCount() + " segments.");
+
+      downloadSegments(state, body.byteStream());
+    } finally {
+      removeCall(call);
+    }
+  }
+
+  /**
+   * @param firstSegment The body of an already open request for the first segment, or null if
+   *                     every incomplete segment still has to be requested.
+   */
+  private void downloadSegments(State state, InputStream firstSegment) throws IOException {
+    if (state.isComplete()) {
+      notifyProgress(state.length, state.length);
+      return;
+    }
+
+    try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+      FileChannel   channel    = file.getChannel();
+      AtomicInteger next       = new AtomicInteger(firstSegment != null ? 1 : 0);
+      AtomicLong    downloaded = new AtomicLong(state.getCompleted());
+      int           workers    = Math.min(PARALLEL_CONNECTIONS, state.getIncompleteCount());
+
+      List<Future<Void>> futures = new ArrayList<>(workers - 1);
+
+      for (int i = 1; i < workers; i++) {
+        futures.add(EXECUTOR.submit(() -> {
+          downloadWorker(state, channel, next, downloaded, null);
+          return null;
+        }));
+      }
+
+      Exception failure = null;
+
+      try {
+        downloadWorker(state, channel, next, downloaded, firstSegment);
+      } catch (IOException e) {
+        failure = e;
+      }
+
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (failure == null) failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+          if (failure == null) failure = new PushNetworkException(e);
+        }
+      }
+
+      state.write(stateFile);
+
+      if (failure instanceof IOException) throw (IOException) failure;
+      if (failure != null)                throw new PushNetworkException(failure);
+    }
+  }
+
+  /**
+   * Takes incomplete segments off the shared counter until none are left. On failure, moves the
+   * counter past the end so the other workers stop once their current segment is done.
+   */
+  private void downloadWorker(State state, FileChannel channel, AtomicInteger next, AtomicLong downloaded, InputStream firstSegment)
+      throws IOException
+  {
+    try {
+      if (firstSegment != null) {
+        writeSegment(state, 0, channel, firstSegment, downloaded);
+        state.write(stateFile);
+      }
+
+      int segment;
+
+      while ((segment = next.getAndIncrement()) < state.getSegmentCount()) {
+        downloadSegment(state, segment, channel, downloaded);
+        state.write(stateFile);
+      }
+    } catch (IOException | RuntimeException e) {
+      next.set(state.getSegmentCount());
+      throw e;
+    }
+  }
+
+  private void downloadSegment(State state, int segment, FileChannel channel, AtomicLong downloaded)
+      throws IOException
+  {
+    long start = (long) segment * state.segmentSize + state.completed.get(segment);
+    long end   = (long) segment * state.segmentSize + state.getSegmentLength(segment) - 1;
+
+    if (start > end) {
+      return;
+    }
+
+    Call call = newCall(start, end);
+
+    try (Response response = call.execute()) {
+      ResponseBody body = response.body();
+
+      if (response.code() != 206) throw new NonSuccessfulResponseCodeException("Response: " + response);
+      if (body == null)           throw new PushNetworkException("No response body!");
+
+      long[] range = parseContentRange(response);
+
+      if (range[0] != start || range[2] != state.length) {
+        throw new PushNetworkException("Unexpected range: " + response.header("Content-Range"));
+      }
+
+      writeSegment(state, segment, channel, body.byteStream(), downloaded);
+    } finally {
+      removeCall(call);
+    }
+  }
+
+  /**
+   * Writes the rest of a segment from a response body that starts where the segment's saved
+   * progress ends.
+   */
+  private void writeSegment(State state, int segment, FileChannel channel, InputStream in, AtomicLong downloaded)
+      throws IOException
+  {
+    long done     = state.completed.get(segment);
+    long position = (long) segment * state.segmentSize + done;
+    long written  = write(in, channel, position, state.getSegmentLength(segment) - done, state.length, downloaded, read -> state.completed.addAndGet(segment, read));
+
+    if (written < state.getSegmentLength(segment) - done) {
+      throw new PushNetworkException("Response ended early!");
+    }
+  }
+
+  /**
+   * Copies up to {@code limit} bytes from the stream into the channel at {@code position},
+   * reporting each write to {@code onWrite} only after it has reached the file.
+   */
+  private long write(InputStream in, FileChannel channel, long position, long limit, long total, AtomicLong downloaded, WriteListener onWrite)
+      throws IOException
+  {
+    byte[]     buffer  = new byte[32768];
+    ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+    long       written = 0;
+    int        read;
+
+    while (written < limit && (read = in.read(buffer, 0, (int) Math.min(buffer.length, limit - written))) != -1) {
+      wrapped.clear().limit(read);
+
+      while (wrapped.hasRemaining()) {
+        channel.write(wrapped, position + written + wrapped.position());
+      }
+
+      written += read;
+
+      if (position + written > maxSizeBytes) throw new PushNetworkException("Response exceeded max size!");
+
+      if (onWrite != null) {
+        onWrite.onWrite(read);
+      }
+
+      notifyProgress(total, downloaded.addAndGet(read));
+    }
+
+    return written;
+  }
+
+  private void notifyProgress(long total, long progress) {
+    if (listener != null) {
+      synchronized (listener) {
+        listener.onAttachmentProgress(total, progress);
+      }
+    }
+  }
+
+  private Call newCall(long start, long end) {
+    Request.Builder request = new Request.Builder().url(url).get();
+
+    if (hostHeader.isPresent()) {
+      request.addHeader("Host", hostHeader.get());
+    }
+
+    request.addHeader("Range", "bytes=" + start + "-" + end);
+
+    Call call = client.newCall(request.build());
+
+    synchronized (connections) {
+      connections.add(call);
+    }
+
+    return call;
+  }
+
+  private void removeCall(Call call) {
+    synchronized (connections) {
+      connections.remove(call);
+    }
+  }
+
+  private static long[] parseContentRange(Response response) throws PushNetworkException {
+    String  header  = response.header("Content-Range");
+    Matcher matcher = header != null ? CONTENT_RANGE.matcher(header) : null;
+
+    if (matcher == null || !matcher.matches()) {
+      throw new PushNetworkException("Bad Content-Range: " + header);
+    }
+
+    return new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)) };
+  }
+
+  private static File getStateFile(File destination) {
+    return new File(destination.getPath() + STATE_SUFFIX);
+  }
+
+  private static ExecutorService createExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLEL_CONNECTIONS, PARALLEL_CONNECTIONS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+      Thread thread = new Thread(r, "signal-segmented-download");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
+  private interface WriteListener {
+    void onWrite(long bytes);
+  }
+
+  /**
+   * How many bytes of each segment are on disk. Counts only ever trail the file, so a saved state
+   * may re-fetch a few bytes but never skips any.
+   */
+  static final class State {
+
+    final long            length;
+    final long            segmentSize;
+    final AtomicLongArray completed;
+
+    State(long length, long segmentSize) {
+      this(length, segmentSize, new AtomicLongArray((int) ((length + segmentSize - 1) / segmentSize)));
+    }
+
+    private State(long length, long segmentSize, AtomicLongArray completed) {
+      this.length      = length;
+      this.segmentSize = segmentSize;
+      this.completed   = completed;
+    }
+
+    int getSegmentCount() {
+      return completed.length();
+    }
+
+    long getSegmentLength(int segment) {
+      return Math.min(segmentSize, length - (long) segment * segmentSize);
+    }
+
+    long getCompleted() {
+      long total = 0;
+
+      for (int i = 0; i < completed.length(); i++) {
+        total += completed.get(i);
+      }
+
+      return total;
+    }
+
+    int getIncompleteCount() {
+      int count = 0;
+
+      for (int i = 0; i < completed.length(); i++) {
+        if (completed.get(i) < getSegmentLength(i)) count++;
+      }
+
+      return count;
+    }
+
+    boolean isComplete() {
+      return getIncompleteCount() == 0;
+    }
+
+    /**
+     * Replaces the saved state in one rename, so a crash mid-write leaves the previous state.
+     */
+    synchronized void write(File file) throws IOException {
+      File temp = getTempFile(file);
+
+      try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+        out.writeInt(STATE_VERSION);
+        out.writeLong(length);
+        out.writeLong(segmentSize);
+        out.writeInt(completed.length());
+
+        for (int i = 0; i < completed.length(); i++) {
+          out.writeLong(completed.get(i));
+        }
+      }
+
+      if (!temp.renameTo(file)) {
+        throw new IOException("Unable to save download state.");
+      }
+    }
+
+    static File getTempFile(File file) {
+      return new File(file.getPath() + ".tmp");
+    }
+
+    static State read(File file) {
+      if (!file.exists()) {
+        return null;
+      }
+
+      try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+        if (in.readInt() != STATE_VERSION) {
+          return null;
+        }
+
+        long length      = in.readLong();
+        long segmentSize = in.readLong();
+        int  count       = in.readInt();
+
+        if (segmentSize <= 0 || count != (length + segmentSize - 1) / segmentSize) {
+          return null;
+        }
+
+        AtomicLongArray completed = new AtomicLongArray(count);
+
+        for (int i = 0; i < count; i++) {
+          completed.set(i, in.readLong());
+        }
+
+        return new State(length, segmentSize, completed);
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to read download state, starting over.", e);
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package org.whispersystems.signalservice.internal.websocket;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+
+/**
+ * Requests the server has sent that are waiting to be read. The socket's reader thread adds to it
+ * and message retrieval drains it, under a lock of its own, so neither has to wait on sends,
+ * keepalives or reconnects holding the connection's monitor.
+ * <p>
+ * Readers take everything that has arrived, up to a limit, in one acquisition of the lock, and
+ * the reader thread only signals when someone is actually waiting.
+ */
+final class IncomingRequestQueue {
+
+  private final ReentrantLock                       lock     = new ReentrantLock();
+  private final Condition                           notEmpty = lock.newCondition();
+  private final ArrayDeque<WebSocketRequestMessage> requests = new ArrayDeque<>();
+
+  private boolean closed  = true;
+  private int     waiting = 0;
+
+  void add(WebSocketRequestMessage request) {
+    lock.lock();
+    try {
+      requests.add(request);
+      if (waiting > 0) notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits up to the timeout for at least one request, then takes it along with any others already
+   * queued behind it, up to max.
+   *
+   * @throws IOException If the queue is closed, or is closed while waiting.
+   * @throws TimeoutException If nothing arrived in time.
+   */
+  List<WebSocketRequestMessage> take(int max, long timeoutMillis) throws IOException, TimeoutException {
+    lock.lock();
+    try {
+      if (closed) throw new IOException("Connection closed!");
+
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+      while (requests.isEmpty()) {
+        if (closed)         throw new IOException("Connection closed!");
+        if (remaining <= 0) throw new TimeoutException("Timeout exceeded");
+
+        waiting++;
+        try {
+          remaining = notEmpty.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        } finally {
+          waiting--;
+        }
+      }
+
+      List<WebSocketRequestMessage> taken = new ArrayList<>(Math.min(max, requests.size()));
+
+      while (taken.size() < max && !requests.isEmpty()) {
+        taken.add(requests.poll());
+      }
+
+      return taken;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void open() {
+    lock.lock();
+    try {
+      closed = false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wakes anyone waiting, who will see the queue as closed. Requests already queued stay queued
+   * until it is opened again.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
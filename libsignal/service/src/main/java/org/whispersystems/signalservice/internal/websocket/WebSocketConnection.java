@@ -17,9 +17,10 @@ import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
@@ -51,7 +52,7 @@ public class WebSocketConnection extends WebSocketListener {
   private static final String TAG                       = WebSocketConnection.class.getSimpleName();
   private static final int    KEEPALIVE_TIMEOUT_SECONDS = 55;
 
-  private final LinkedList<WebSocketRequestMessage>              incomingRequests = new LinkedList<>();
+  private final IncomingRequestQueue                             incomingRequests = new IncomingRequestQueue();
   private final Map<Long, SettableFuture<Pair<Integer, String>>> outgoingRequests = new HashMap<>();
 
   private final String                        wsUri;
@@ -133,6 +134,8 @@ public class WebSocketConnection extends WebSocketListener {
 
       this.connected = false;
       this.client    = okHttpClient.newWebSocket(requestBuilder.build(), this);
+
+      incomingRequests.open();
     }
   }
 
@@ -149,24 +152,24 @@ public class WebSocketConnection extends WebSocketListener {
       keepAliveSender.shutdown();
       keepAliveSender = null;
     }
+
+    incomingRequests.close();
   }
 
-  public synchronized WebSocketRequestMessage readRequest(long timeoutMillis)
+  public WebSocketRequestMessage readRequest(long timeoutMillis)
       throws TimeoutException, IOException
   {
-    if (client == null) {
-      throw new IOException("Connection closed!");
-    }
-
-    long startTime = System.currentTimeMillis();
-
-    while (client != null && incomingRequests.isEmpty() && elapsedTime(startTime) < timeoutMillis) {
-      Util.wait(this, Math.max(1, timeoutMillis - elapsedTime(startTime)));
-    }
+    return readRequests(1, timeoutMillis).get(0);
+  }
 
-    if      (incomingRequests.isEmpty() && client == null) throw new IOException("Connection closed!");
-    else if (incomingRequests.isEmpty())                   throw new TimeoutException("Timeout exceeded");
-    else                                                   return incomingRequests.removeFirst();
+  /**
+   * Waits up to the timeout for a request, then also takes any that have already arrived behind
+   * it, up to max, without waiting for more.
+   */
+  public List<WebSocketRequestMessage> readRequests(int max, long timeoutMillis)
+      throws TimeoutException, IOException
+  {
+    return incomingRequests.take(max, timeoutMillis);
   }
 
   public synchronized Future<Pair<Integer, String>> sendRequest(WebSocketRequestMessage request) throws IOException {
@@ -187,18 +190,34 @@ public class WebSocketConnection extends WebSocketListener {
     return future;
   }
 
-  public synchronized void sendResponse(WebSocketResponseMessage response) throws IOException {
-    if (client == null) {
-      throw new IOException("Connection closed!");
+  public void sendResponse(WebSocketResponseMessage response) throws IOException {
+    sendResponses(Collections.singletonList(response));
+  }
+
+  /**
+   * Sends all of the responses while holding the connection once, rather than once each.
+   */
+  public void sendResponses(List<WebSocketResponseMessage> responses) throws IOException {
+    List<ByteString> messages = new ArrayList<>(responses.size());
+
+    for (WebSocketResponseMessage response : responses) {
+      messages.add(ByteString.of(WebSocketMessage.newBuilder()
+                                                 .setType(WebSocketMessage.Type.RESPONSE)
+                                                 .setResponse(response)
+                                                 .build()
+                                                 .toByteArray()));
     }
 
-    WebSocketMessage message = WebSocketMessage.newBuilder()
-                                               .setType(WebSocketMessage.Type.RESPONSE)
-                                               .setResponse(response)
-                                               .build();
+    synchronized (this) {
+      if (client == null) {
+        throw new IOException("Connection closed!");
+      }
 
-    if (!client.send(ByteString.of(message.toByteArray()))) {
-      throw new IOException("Write failed!");
+      for (ByteString message : messages) {
+        if (!client.send(message)) {
+          throw new IOException("Write failed!");
+        }
+      }
     }
   }
 
@@ -232,23 +251,27 @@ public class WebSocketConnection extends WebSocketListener {
     }
   }
 
+  /**
+   * Called on OkHttp's reader thread. Requests only go through {@link #incomingRequests}, so a
+   * burst of them never has to wait for the connection's monitor.
+   */
   @Override
-  public synchronized void onMessage(WebSocket webSocket, ByteString payload) {
-    Log.d(TAG, "WSC onMessage()");
+  public void onMessage(WebSocket webSocket, ByteString payload) {
     try {
       WebSocketMessage message = WebSocketMessage.parseFrom(payload.toByteArray());
 
-      Log.d(TAG, "Message Type: " + message.getType().getNumber());
-
       if (message.getType().getNumber() == WebSocketMessage.Type.REQUEST_VALUE)  {
         incomingRequests.add(message.getRequest());
       } else if (message.getType().getNumber() == WebSocketMessage.Type.RESPONSE_VALUE) {
-        SettableFuture<Pair<Integer, String>> listener = outgoingRequests.get(message.getResponse().getId());
+        SettableFuture<Pair<Integer, String>> listener;
+
+        synchronized (this) {
+          listener = outgoingRequests.remove(message.getResponse().getId());
+        }
+
         if (listener != null) listener.set(new Pair<>(message.getResponse().getStatus(),
                                                       new String(message.getResponse().getBody().toByteArray())));
       }
-
-      notifyAll();
     } catch (InvalidProtocolBufferException e) {
       Log.w(TAG, e);
     }
@@ -284,8 +307,6 @@ public class WebSocketConnection extends WebSocketListener {
       connected = false;
       connect();
     }
-
-    notifyAll();
   }
 
   @Override
@@ -312,10 +333,6 @@ public class WebSocketConnection extends WebSocketListener {
     webSocket.close(1000, "OK");
   }
 
-  private long elapsedTime(long startTime) {
-    return System.currentTimeMillis() - startTime;
-  }
-
   private Pair<SSLSocketFactory, X509TrustManager> createTlsSocketFactory(TrustStore trustStore) {
     try {
       SSLContext     context       = SSLContext.getInstance("TLS");
@@ -0,0 +1,222 @@
+package org.whispersystems.signalservice.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ParallelSendTest {
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void results_keepRecipientOrder() throws IOException {
+    List<SignalServiceAddress> recipients = recipients(20);
+    FakeSocket                 socket     = new FakeSocket(recipients);
+
+    List<SendMessageResult> results = ParallelSend.run(executor, 5, recipients.size(), index -> socket.send(recipients.get(index)));
+
+    assertEquals(recipients.size(), results.size());
+
+    for (int i = 0; i < recipients.size(); i++) {
+      assertSame(recipients.get(i), results.get(i).getAddress());
+      assertNotNull(results.get(i).getSuccess());
+    }
+
+    assertEquals(recipients.size(), socket.sent.get());
+  }
+
+  @Test
+  public void failedRecipient_doesNotHideOthers() throws IOException {
+    List<SignalServiceAddress> recipients = recipients(10);
+    FakeSocket                 socket     = new FakeSocket(recipients);
+
+    socket.networkFailures.add(recipients.get(3));
+    socket.unregistered.add(recipients.get(7));
+
+    List<SendMessageResult> results = ParallelSend.run(executor, 4, recipients.size(), index -> sendToRecipient(socket, recipients.get(index)));
+
+    assertEquals(recipients.size(), results.size());
+
+    for (int i = 0; i < recipients.size(); i++) {
+      SendMessageResult result = results.get(i);
+
+      assertSame(recipients.get(i), result.getAddress());
+
+      if      (i == 3) assertTrue(result.isNetworkFailure());
+      else if (i == 7) assertTrue(result.isUnregisteredFailure());
+      else             assertNotNull(result.getSuccess());
+    }
+  }
+
+  @Test
+  public void abortingFailure_isRethrown() {
+    List<SignalServiceAddress> recipients = recipients(50);
+    FakeSocket                 socket     = new FakeSocket(recipients);
+    IOException                abort      = new IOException("abort");
+
+    socket.aborts.put(recipients.get(2), abort);
+
+    try {
+      ParallelSend.run(executor, 3, recipients.size(), index -> socket.send(recipients.get(index)));
+      fail();
+    } catch (IOException e) {
+      assertSame(abort, e);
+    }
+
+    assertTrue(socket.sent.get() < recipients.size());
+  }
+
+  @Test
+  public void singleWorker_runsOnCallingThread() throws IOException {
+    Thread      caller  = Thread.currentThread();
+    Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+
+    List<Integer> results = ParallelSend.run(executor, 1, 5, index -> {
+      threads.add(Thread.currentThread());
+      return index;
+    });
+
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), results);
+    assertEquals(Collections.singleton(caller), threads);
+  }
+
+  @Test
+  public void interrupted_cancelsWorkersAndRestoresInterrupt() throws Exception {
+    Thread         caller         = Thread.currentThread();
+    CountDownLatch workerStarted  = new CountDownLatch(1);
+    CountDownLatch workerCanceled = new CountDownLatch(1);
+
+    try {
+      ParallelSend.run(executor, 2, 2, index -> {
+        if (Thread.currentThread() == caller) {
+          awaitUninterruptibly(workerStarted);
+          caller.interrupt();
+          return index;
+        }
+
+        workerStarted.countDown();
+
+        try {
+          new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+          workerCanceled.countDown();
+        }
+
+        throw new IOException("Canceled");
+      });
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof InterruptedException);
+    }
+
+    assertTrue(Thread.interrupted());
+    assertTrue(workerCanceled.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void notInterrupted_leavesInterruptFlagClear() throws IOException {
+    ParallelSend.run(executor, 3, 6, index -> index);
+
+    assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  /**
+   * Mirrors how the message sender turns per-recipient failures into results.
+   */
+  private static SendMessageResult sendToRecipient(FakeSocket socket, SignalServiceAddress recipient) throws IOException {
+    try {
+      return socket.send(recipient);
+    } catch (UnregisteredUserException e) {
+      return SendMessageResult.unregisteredFailure(recipient);
+    } catch (PushNetworkException e) {
+      return SendMessageResult.networkFailure(recipient);
+    }
+  }
+
+  private static List<SignalServiceAddress> recipients(int count) {
+    List<SignalServiceAddress> recipients = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      recipients.add(new SignalServiceAddress(UUID.randomUUID(), "+1555000" + String.format("%04d", i)));
+    }
+
+    return recipients;
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Answers sends after a delay that shrinks with each recipient, so later recipients tend to
+   * finish first.
+   */
+  private static final class FakeSocket {
+    private final List<SignalServiceAddress>             recipients;
+    private final AtomicInteger                          sent            = new AtomicInteger();
+    private final Set<SignalServiceAddress>              networkFailures = new HashSet<>();
+    private final Set<SignalServiceAddress>              unregistered    = new HashSet<>();
+    private final Map<SignalServiceAddress, IOException> aborts          = new HashMap<>();
+
+    private FakeSocket(List<SignalServiceAddress> recipients) {
+      this.recipients = recipients;
+    }
+
+    SendMessageResult send(SignalServiceAddress recipient) throws IOException {
+      try {
+        Thread.sleep(recipients.size() - recipients.indexOf(recipient));
+      } catch (InterruptedException e) {
+        throw new PushNetworkException(e);
+      }
+
+      if (aborts.containsKey(recipient))       throw aborts.get(recipient);
+      if (networkFailures.contains(recipient)) throw new PushNetworkException("Network failure");
+      if (unregistered.contains(recipient))    throw new UnregisteredUserException(recipient.getIdentifier(), new IOException());
+
+      sent.incrementAndGet();
+
+      return SendMessageResult.success(recipient, false, false);
+    }
+  }
+}
@@ -145,6 +145,72 @@ public class AttachmentCipherTest extends TestCase {
     assertTrue(hitCorrectException);
   }
 
+  public void test_attachmentStreaming_encryptDecrypt() throws IOException, InvalidMessageException {
+    byte[]        key             = Util.getSecretBytes(64);
+    byte[]        plaintextInput  = "Peter Parker".getBytes();
+    EncryptResult encryptResult   = encryptData(plaintextInput, key);
+    File          cipherFile      = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream     = AttachmentCipherInputStream.createForAttachmentStreaming(cipherFile, plaintextInput.length, key, encryptResult.digest);
+    byte[]        plaintextOutput = readInputStreamFully(inputStream);
+
+    assertTrue(Arrays.equals(plaintextInput, plaintextOutput));
+
+    cipherFile.delete();
+  }
+
+  public void test_attachmentStreaming_encryptDecryptPadded() throws IOException, InvalidMessageException {
+    byte[]        key             = Util.getSecretBytes(64);
+    byte[]        plaintextInput  = Util.getSecretBytes(100000);
+    byte[]        paddedInput     = Arrays.copyOf(plaintextInput, plaintextInput.length + 5000);
+    EncryptResult encryptResult   = encryptData(paddedInput, key);
+    File          cipherFile      = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream     = AttachmentCipherInputStream.createForAttachmentStreaming(cipherFile, plaintextInput.length, key, encryptResult.digest);
+    byte[]        plaintextOutput = readInputStreamFully(inputStream);
+
+    assertTrue(Arrays.equals(plaintextInput, plaintextOutput));
+
+    cipherFile.delete();
+  }
+
+  public void test_attachmentStreaming_decryptFailOnBadMac() throws IOException, InvalidMessageException {
+    byte[]        key              = Util.getSecretBytes(64);
+    byte[]        plaintextInput   = Util.getSecretBytes(100000);
+    byte[]        paddedInput      = Arrays.copyOf(plaintextInput, plaintextInput.length + 5000);
+    EncryptResult encryptResult    = encryptData(paddedInput, key);
+    byte[]        badMacCiphertext = Arrays.copyOf(encryptResult.ciphertext, encryptResult.ciphertext.length);
+
+    badMacCiphertext[badMacCiphertext.length - 1] += 1;
+
+    File        cipherFile  = writeToFile(badMacCiphertext);
+    InputStream inputStream = AttachmentCipherInputStream.createForAttachmentStreaming(cipherFile, plaintextInput.length, key, encryptResult.digest);
+
+    try {
+      readInputStreamFully(inputStream);
+      fail();
+    } catch (IOException e) {
+      // expected
+    } finally {
+      cipherFile.delete();
+    }
+  }
+
+  public void test_attachmentStreaming_decryptFailOnBadDigest() throws IOException, InvalidMessageException {
+    byte[]        key            = Util.getSecretBytes(64);
+    byte[]        plaintextInput = "Mary Jane Watson".getBytes();
+    EncryptResult encryptResult  = encryptData(plaintextInput, key);
+    File          cipherFile     = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream    = AttachmentCipherInputStream.createForAttachmentStreaming(cipherFile, plaintextInput.length, key, new byte[32]);
+
+    try {
+      readInputStreamFully(inputStream);
+      fail();
+    } catch (IOException e) {
+      // expected
+    } finally {
+      cipherFile.delete();
+    }
+  }
+
   public void test_sticker_encryptDecrypt() throws IOException, InvalidMessageException {
     byte[]        packKey         = Util.getSecretBytes(32);
     byte[]        plaintextInput  = "Peter Parker".getBytes();
@@ -0,0 +1,54 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+import org.signal.storageservice.protos.groups.Group;
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.PendingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.zkgroup.ServerSecretParams;
+import org.signal.zkgroup.groups.GroupSecretParams;
+import org.signal.zkgroup.util.UUIDUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public final class GroupsV2OperationsTest {
+
+  @Test
+  public void decrypt_large_group_keeps_member_order() throws Exception {
+    GroupsV2Operations                 operations        = new GroupsV2Operations(new ClientZkOperations(ServerSecretParams.generate().getPublicParams()));
+    GroupSecretParams                  groupSecretParams = GroupSecretParams.generate();
+    GroupsV2Operations.GroupOperations groupOperations   = operations.forGroup(groupSecretParams);
+    UUID                               adder             = UUID.randomUUID();
+    ByteString                         adderCipherText   = groupOperations.invitee(adder, Member.Role.ADMINISTRATOR).getMember().getUserId();
+    List<UUID>                         invitees          = new ArrayList<>();
+    Group.Builder                      group             = Group.newBuilder();
+
+    for (int i = 0; i < 200; i++) {
+      UUID          invitee = UUID.randomUUID();
+      PendingMember pending = groupOperations.invitee(invitee, Member.Role.DEFAULT)
+                                             .setAddedByUserId(adderCipherText)
+                                             .build();
+
+      invitees.add(invitee);
+      group.addPendingMembers(pending);
+    }
+
+    DecryptedGroup first  = groupOperations.decryptGroup(group.build());
+    DecryptedGroup second = operations.forGroup(groupSecretParams).decryptGroup(group.build());
+
+    assertEquals(invitees.size(), first.getPendingMembersCount());
+
+    for (int i = 0; i < invitees.size(); i++) {
+      assertEquals(invitees.get(i), UUIDUtil.deserialize(first.getPendingMembers(i).getUuid().toByteArray()));
+      assertEquals(adder, UUIDUtil.deserialize(first.getPendingMembers(i).getAddedByUuid().toByteArray()));
+    }
+
+    assertEquals(first, second);
+  }
+}
@@ -0,0 +1,208 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class HostSelectorTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  @Test
+  public void select_singleTarget() {
+    SimulatedHost               host     = new SimulatedHost(100, 0);
+    HostSelector<SimulatedHost> selector = new HostSelector<>(new SimulatedHost[] { host }, HostSelector.Mode.POWER_OF_TWO_CHOICES, new Random(1));
+
+    for (int i = 0; i < 50; i++) {
+      assertSame(host, selector.select());
+    }
+  }
+
+  @Test
+  public void select_powerOfTwo_prefersHealthyHosts() {
+    SimulatedHost[] hosts = { new SimulatedHost(100, 0), new SimulatedHost(120, 0), new SimulatedHost(300, 0.5) };
+
+    int[] counts = run(hosts, HostSelector.Mode.POWER_OF_TWO_CHOICES, 2000, new Random(7));
+
+    assertTrue(counts[0] + counts[1] > 1850);
+    assertTrue(counts[2] < 150);
+    assertTrue(counts[2] >= 2000 / HostSelector.PROBE_INTERVAL / 3);
+  }
+
+  @Test
+  public void select_leastCost_prefersHealthyHosts() {
+    SimulatedHost[] hosts = { new SimulatedHost(2000, 0), new SimulatedHost(300, 0.5), new SimulatedHost(100, 0) };
+
+    int[] counts = run(hosts, HostSelector.Mode.LEAST_COST, 2000, new Random(7));
+
+    assertTrue(counts[2] > 1800);
+    assertTrue(counts[0] > 0);
+    assertTrue(counts[1] > 0);
+  }
+
+  @Test
+  public void select_probesAndReturnsToRecoveredHost() {
+    SimulatedHost[] hosts  = { new SimulatedHost(100, 1), new SimulatedHost(400, 0) };
+    Random          random = new Random(3);
+
+    HostSelector<SimulatedHost> selector = new HostSelector<>(hosts, HostSelector.Mode.POWER_OF_TWO_CHOICES, random);
+
+    int[] before = run(selector, hosts, 1000, random);
+    hosts[0].failureRate = 0;
+    int[] after  = run(selector, hosts, 1000, random);
+
+    assertTrue(before[0] < 100);
+    assertTrue(after[0] > 650);
+  }
+
+  @Test
+  public void select_spreadsConcurrentRequestsOverUnmeasuredHosts() {
+    SimulatedHost[] hosts = { new SimulatedHost(100, 0), new SimulatedHost(100, 0), new SimulatedHost(100, 0) };
+
+    HostSelector<SimulatedHost> selector = new HostSelector<>(hosts, HostSelector.Mode.LEAST_COST, new Random(1));
+
+    for (int i = 0; i < 3; i++) {
+      selector.select().getHealth().onRequestStart();
+    }
+
+    for (SimulatedHost host : hosts) {
+      assertEquals(HostHealth.INITIAL_LATENCY_NANOS * 2, host.getHealth().getCost(), 0);
+    }
+  }
+
+  @Test
+  public void select_isDeterministicForSeed() {
+    assertEquals(sequence(11), sequence(11));
+  }
+
+  @Test
+  public void health_averagesLatencyAndFailures() {
+    HostHealth health = new HostHealth(now::get);
+
+    health.onRequestStart();
+    health.onRequestEnd(millis(200), false);
+
+    assertEquals(millis(200), health.getCost(), 0);
+
+    health.onRequestStart();
+    health.onRequestEnd(millis(600), false);
+
+    assertEquals(millis(300), health.getCost(), 0);
+
+    health.onRequestStart();
+    health.onRequestEnd(-1, true);
+
+    assertEquals(millis(300) + HostHealth.ALPHA * HostHealth.FAILURE_PENALTY_NANOS, health.getCost(), 1);
+  }
+
+  @Test
+  public void interceptor_recordsConnectionFailures() throws IOException {
+    HostHealth   health = new HostHealth(now::get);
+    OkHttpClient client = new OkHttpClient.Builder().addInterceptor(health.getInterceptor())
+                                                    .retryOnConnectionFailure(false)
+                                                    .build();
+    int          port;
+
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    try {
+      client.newCall(new Request.Builder().url("http://127.0.0.1:" + port + "/").build()).execute();
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+
+    assertEquals(HostHealth.INITIAL_LATENCY_NANOS + HostHealth.ALPHA * HostHealth.FAILURE_PENALTY_NANOS, health.getCost(), 1);
+  }
+
+  private int[] run(SimulatedHost[] hosts, HostSelector.Mode mode, int requests, Random random) {
+    return run(new HostSelector<>(hosts, mode, random), hosts, requests, random);
+  }
+
+  /**
+   * Sends requests one after another to the selected hosts, and counts how many each got.
+   */
+  private static int[] run(HostSelector<SimulatedHost> selector, SimulatedHost[] hosts, int requests, Random random) {
+    int[] counts = new int[hosts.length];
+
+    for (int i = 0; i < requests; i++) {
+      SimulatedHost host = selector.select();
+
+      host.request(random);
+
+      for (int j = 0; j < hosts.length; j++) {
+        if (hosts[j] == host) counts[j]++;
+      }
+    }
+
+    return counts;
+  }
+
+  private List<Integer> sequence(long seed) {
+    SimulatedHost[]             hosts    = { new SimulatedHost(100, 0.1), new SimulatedHost(150, 0), new SimulatedHost(500, 0.3) };
+    Random                      random   = new Random(seed);
+    HostSelector<SimulatedHost> selector = new HostSelector<>(hosts, HostSelector.Mode.POWER_OF_TWO_CHOICES, random);
+    List<Integer>               sequence = new ArrayList<>();
+
+    for (int i = 0; i < 500; i++) {
+      SimulatedHost host = selector.select();
+
+      host.request(random);
+
+      for (int j = 0; j < hosts.length; j++) {
+        if (hosts[j] == host) sequence.add(j);
+      }
+    }
+
+    return sequence;
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * A host whose latency varies by up to half either side of its mean, and that fails at a fixed
+   * rate.
+   */
+  private final class SimulatedHost implements HostSelector.Target {
+
+    private final HostHealth health = new HostHealth(now::get);
+    private final long       meanLatencyMillis;
+
+    private double failureRate;
+
+    SimulatedHost(long meanLatencyMillis, double failureRate) {
+      this.meanLatencyMillis = meanLatencyMillis;
+      this.failureRate       = failureRate;
+    }
+
+    void request(Random random) {
+      long latency = millis(meanLatencyMillis / 2 + (long) (random.nextDouble() * meanLatencyMillis));
+
+      health.onRequestStart();
+      health.onRequestEnd(latency, random.nextDouble() < failureRate);
+    }
+
+    @Override
+    public HostHealth getHealth() {
+      return health;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class NetworkMetricsTest {
+
+  private final AtomicLong     now     = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+  private final NetworkMetrics metrics = new NetworkMetrics(now::get);
+
+  private HttpServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", this::serve);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void getRouteTemplate_replacesIdentifiers() {
+    assertEquals("/v1/profile/*/*", template("/v1/profile/b4f4f1c6-1e4c-4d8c-9d0b-1b9d1e6f8a7b/0a1b2c"));
+    assertEquals("/v1/messages/*", template("/v1/messages/+15555550123"));
+    assertEquals("/v1/messages/uuid/*", template("/v1/messages/uuid/b4f4f1c6-1e4c-4d8c-9d0b-1b9d1e6f8a7b"));
+    assertEquals("/v2/keys/*/*", template("/v2/keys/+15555550123/1"));
+    assertEquals("/v1/certificate/delivery", template("/v1/certificate/delivery?includeUuid=true"));
+    assertEquals("/v1/directory/feedback-v3/mismatch", template("/v1/directory/feedback-v3/mismatch"));
+    assertEquals("/v1/accounts/username/*", template("/v1/accounts/username/alice"));
+    assertEquals("/stickers/*/full/*", template("/stickers/0a1b2c3d/full/12"));
+    assertEquals("/attachments/*", template("/attachments/Xk2pQz9w"));
+    assertEquals("/", template("/"));
+  }
+
+  @Test
+  public void eventListener_recordsRoutesStatusesAndBytes() throws IOException {
+    OkHttpClient client = new OkHttpClient.Builder().eventListenerFactory(metrics.getEventListenerFactory()).build();
+
+    execute(client, new Request.Builder().url(getUrl("/v1/profile/b4f4f1c6")).build());
+    execute(client, new Request.Builder().url(getUrl("/v1/profile/c5e5e2d7")).build());
+    execute(client, new Request.Builder().url(getUrl("/v1/messages/+15555550123"))
+                                         .put(RequestBody.create(MediaType.parse("application/json"), new byte[300]))
+                                         .build());
+
+    List<NetworkMetrics.RouteSnapshot> snapshot = metrics.getSnapshot();
+
+    assertEquals(2, snapshot.size());
+
+    NetworkMetrics.RouteSnapshot profiles = snapshot.get(0);
+    NetworkMetrics.RouteSnapshot messages = snapshot.get(1);
+
+    assertEquals("127.0.0.1", messages.getHost());
+    assertEquals("PUT /v1/messages/*", messages.getRoute());
+    assertEquals(1, messages.getRequests());
+    assertEquals(300, messages.getBytesSent());
+    assertEquals(Long.valueOf(1), messages.getStatusCounts().get(409));
+
+    assertEquals("GET /v1/profile/*", profiles.getRoute());
+    assertEquals(2, profiles.getRequests());
+    assertEquals(0, profiles.getFailures());
+    assertEquals(2000, profiles.getBytesReceived());
+    assertEquals(Long.valueOf(2), profiles.getStatusCounts().get(200));
+    assertEquals(1, profiles.getTotalMillis(0.5));
+    assertEquals(1, profiles.getTimeToFirstByteMillis(0.5));
+
+    assertEquals(1, messages.getConnects() + profiles.getConnects());
+  }
+
+  @Test
+  public void eventListener_recordsFailuresUnderFrontedHost() throws IOException {
+    OkHttpClient client = new OkHttpClient.Builder().eventListenerFactory(metrics.getEventListenerFactory())
+                                                    .retryOnConnectionFailure(false)
+                                                    .build();
+    int          port;
+
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    try {
+      client.newCall(new Request.Builder().url("http://127.0.0.1:" + port + "/v1/messages/+15555550123")
+                                          .header("Host", "service.example")
+                                          .build())
+            .execute();
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+
+    NetworkMetrics.RouteSnapshot snapshot = metrics.getSnapshot().get(0);
+
+    assertEquals("127.0.0.1 (service.example)", snapshot.getHost());
+    assertEquals(1, snapshot.getRequests());
+    assertEquals(1, snapshot.getFailures());
+    assertEquals(1, snapshot.getConnectFailures());
+    assertEquals(0, snapshot.getConnects());
+    assertEquals(-1, snapshot.getTimeToFirstByteMillis(0.5));
+    assertTrue(snapshot.getStatusCounts().isEmpty());
+  }
+
+  @Test
+  public void routeWindow_percentilesFromBuckets() {
+    RouteWindow window = new RouteWindow("host", "GET /");
+
+    for (int i = 0; i < 90; i++) {
+      window.record(now.get(), -1, millis(15), millis(40), 200, false, 0, 0, 0, 0);
+    }
+
+    for (int i = 0; i < 10; i++) {
+      window.record(now.get(), millis(300), millis(1500), millis(90000), 200, false, 1, 0, 0, 0);
+    }
+
+    NetworkMetrics.RouteSnapshot snapshot = window.getSnapshot(now.get());
+
+    assertEquals(100, snapshot.getRequests());
+    assertEquals(10, snapshot.getConnects());
+    assertEquals(20, snapshot.getTimeToFirstByteMillis(0.5));
+    assertEquals(20, snapshot.getTimeToFirstByteMillis(0.9));
+    assertEquals(2000, snapshot.getTimeToFirstByteMillis(0.99));
+    assertEquals(50, snapshot.getTotalMillis(0.9));
+    assertEquals(Long.MAX_VALUE, snapshot.getTotalMillis(0.95));
+    assertEquals(500, snapshot.getConnectMillis(0.5));
+  }
+
+  @Test
+  public void routeWindow_dropsSlotsThatLeaveTheWindow() {
+    RouteWindow window = new RouteWindow("host", "GET /");
+
+    window.record(now.get(), -1, millis(10), millis(10), 200, false, 0, 0, 10, 0);
+
+    now.addAndGet(RouteWindow.SLOT_NANOS);
+    window.record(now.get(), -1, millis(10), millis(10), 500, false, 0, 0, 20, 0);
+
+    assertEquals(2, window.getSnapshot(now.get()).getRequests());
+    assertEquals(30, window.getSnapshot(now.get()).getBytesSent());
+
+    now.addAndGet((RouteWindow.SLOT_COUNT - 1) * RouteWindow.SLOT_NANOS);
+
+    NetworkMetrics.RouteSnapshot snapshot = window.getSnapshot(now.get());
+
+    assertEquals(1, snapshot.getRequests());
+    assertEquals(20, snapshot.getBytesSent());
+    assertEquals(Long.valueOf(1), snapshot.getStatusCounts().get(500));
+    assertEquals(null, snapshot.getStatusCounts().get(200));
+
+    now.addAndGet(RouteWindow.SLOT_NANOS);
+    window.record(now.get(), -1, millis(10), millis(10), 200, false, 0, 0, 5, 0);
+
+    snapshot = window.getSnapshot(now.get());
+
+    assertEquals(1, snapshot.getRequests());
+    assertEquals(5, snapshot.getBytesSent());
+  }
+
+  @Test
+  public void routeWindow_slotsRoundDownForNegativeTimes() {
+    assertEquals(0, RouteWindow.getSlot(0));
+    assertEquals(0, RouteWindow.getSlot(RouteWindow.SLOT_NANOS - 1));
+    assertEquals(1, RouteWindow.getSlot(RouteWindow.SLOT_NANOS));
+    assertEquals(-1, RouteWindow.getSlot(-1));
+    assertEquals(-1, RouteWindow.getSlot(-RouteWindow.SLOT_NANOS));
+    assertEquals(-2, RouteWindow.getSlot(-RouteWindow.SLOT_NANOS - 1));
+  }
+
+  @Test
+  public void routeWindow_recordsAcrossZero() {
+    RouteWindow window = new RouteWindow("host", "GET /");
+    long        start  = -2 * RouteWindow.SLOT_NANOS - 1;
+
+    for (int i = 0; i < RouteWindow.SLOT_COUNT; i++) {
+      window.record(start + i * RouteWindow.SLOT_NANOS, -1, millis(10), millis(10), 200, false, 0, 0, 1, 0);
+    }
+
+    long end = start + (RouteWindow.SLOT_COUNT - 1) * RouteWindow.SLOT_NANOS;
+
+    assertEquals(RouteWindow.SLOT_COUNT, window.getSnapshot(end).getRequests());
+    assertEquals(RouteWindow.SLOT_COUNT - 1, window.getSnapshot(end + RouteWindow.SLOT_NANOS).getRequests());
+  }
+
+  @Test
+  public void routeWindow_overflowingStatusesAreCountedTogether() {
+    RouteWindow window = new RouteWindow("host", "GET /");
+
+    for (int status = 400; status < 412; status++) {
+      window.record(now.get(), -1, millis(10), millis(10), status, false, 0, 0, 0, 0);
+    }
+
+    NetworkMetrics.RouteSnapshot snapshot = window.getSnapshot(now.get());
+
+    assertEquals(8, snapshot.getStatusCounts().size());
+    assertEquals(4, snapshot.getOtherStatusCount());
+  }
+
+  private void execute(OkHttpClient client, Request request) throws IOException {
+    try (Response response = client.newCall(request).execute()) {
+      response.body().bytes();
+    }
+  }
+
+  private String getUrl(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  private static String template(String path) {
+    return NetworkMetrics.getRouteTemplate(HttpUrl.parse("https://example.org" + path));
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      while (in.read() != -1) { }
+    }
+
+    int status = exchange.getRequestMethod().equals("PUT") ? 409 : 200;
+
+    exchange.sendResponseHeaders(status, 1000);
+
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(new byte[1000]);
+    }
+  }
+}
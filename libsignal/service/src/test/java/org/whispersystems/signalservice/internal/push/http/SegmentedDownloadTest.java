@@ -0,0 +1,222 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.internal.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SegmentedDownloadTest {
+
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+  private static final int CONTENT_LENGTH = 5 * SegmentedDownload.SEGMENT_SIZE + 12345;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final byte[]        content     = Util.getSecretBytes(CONTENT_LENGTH);
+  private final AtomicLong    bytesServed = new AtomicLong();
+  private final AtomicInteger requests    = new AtomicInteger();
+  private final Set<Call>     connections = new HashSet<>();
+
+  private HttpServer server;
+  private boolean    ignoreRange;
+  private long       failAtOffset = -1;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/attachment", this::serve);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void download_writesWholeFile() throws Exception {
+    File       destination = temporaryFolder.newFile();
+    AtomicLong progress    = new AtomicLong();
+
+    newDownload(destination, (total, current) -> {
+      assertEquals(CONTENT_LENGTH, total);
+      progress.set(current);
+    }).download();
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(CONTENT_LENGTH, progress.get());
+    assertEquals(6, requests.get());
+    assertFalse(SegmentedDownload.isResumable(destination));
+    assertTrue(connections.isEmpty());
+  }
+
+  @Test
+  public void download_resumesWhereItStopped() throws Exception {
+    File destination = temporaryFolder.newFile();
+
+    failAtOffset = 3L * SegmentedDownload.SEGMENT_SIZE + 1000;
+
+    try {
+      newDownload(destination, null).download();
+      fail();
+    } catch (PushNetworkException e) {
+      // Expected
+    }
+
+    assertTrue(SegmentedDownload.isResumable(destination));
+
+    long servedBeforeResume = bytesServed.get();
+
+    failAtOffset = -1;
+    bytesServed.set(0);
+
+    newDownload(destination, null).download();
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertFalse(SegmentedDownload.isResumable(destination));
+    assertTrue(bytesServed.get() < CONTENT_LENGTH - SegmentedDownload.SEGMENT_SIZE);
+    assertTrue(servedBeforeResume + bytesServed.get() <= CONTENT_LENGTH + SegmentedDownload.SEGMENT_SIZE);
+  }
+
+  @Test
+  public void deleteState_nextDownloadStartsOver() throws Exception {
+    File destination = temporaryFolder.newFile();
+
+    failAtOffset = 2L * SegmentedDownload.SEGMENT_SIZE + 1000;
+
+    try {
+      newDownload(destination, null).download();
+      fail();
+    } catch (PushNetworkException e) {
+      // Expected
+    }
+
+    assertTrue(destination.delete());
+    SegmentedDownload.deleteState(destination);
+
+    assertFalse(SegmentedDownload.isResumable(destination));
+    assertFalse(new File(destination.getPath() + ".segments").exists());
+    assertFalse(new File(destination.getPath() + ".segments.tmp").exists());
+
+    failAtOffset = -1;
+    bytesServed.set(0);
+
+    newDownload(destination, null).download();
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(CONTENT_LENGTH, bytesServed.get());
+  }
+
+  @Test
+  public void download_serverIgnoresRange() throws Exception {
+    File destination = temporaryFolder.newFile();
+
+    ignoreRange = true;
+
+    newDownload(destination, null).download();
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(1, requests.get());
+    assertFalse(SegmentedDownload.isResumable(destination));
+  }
+
+  @Test
+  public void download_tooLarge() throws Exception {
+    File destination = temporaryFolder.newFile();
+
+    try {
+      new SegmentedDownload(new OkHttpClient(), getUrl(), Optional.<String>absent(), destination, CONTENT_LENGTH - 1, null, connections).download();
+      fail();
+    } catch (PushNetworkException e) {
+      // Expected
+    }
+  }
+
+  @Test(expected = NonSuccessfulResponseCodeException.class)
+  public void download_notFound() throws Exception {
+    new SegmentedDownload(new OkHttpClient(), getUrl() + "-missing", Optional.<String>absent(), temporaryFolder.newFile(), CONTENT_LENGTH, null, connections).download();
+  }
+
+  private SegmentedDownload newDownload(File destination, ProgressListener listener) {
+    return new SegmentedDownload(new OkHttpClient(), getUrl(), Optional.<String>absent(), destination, CONTENT_LENGTH, listener, connections);
+  }
+
+  private String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/attachment";
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+
+    if (!exchange.getRequestURI().getPath().equals("/attachment")) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+
+    String  range   = exchange.getRequestHeaders().getFirst("Range");
+    Matcher matcher = range != null ? RANGE.matcher(range) : null;
+    int     start   = 0;
+    int     end     = CONTENT_LENGTH - 1;
+
+    if (!ignoreRange && matcher != null && matcher.matches()) {
+      start = Integer.parseInt(matcher.group(1));
+      end   = Math.min(Integer.parseInt(matcher.group(2)), CONTENT_LENGTH - 1);
+
+      exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + CONTENT_LENGTH);
+      exchange.sendResponseHeaders(206, end - start + 1);
+    } else {
+      exchange.sendResponseHeaders(200, CONTENT_LENGTH);
+    }
+
+    try (OutputStream out = exchange.getResponseBody()) {
+      int sendEnd = end + 1;
+
+      if (failAtOffset >= start && failAtOffset <= end) {
+        sendEnd = (int) failAtOffset;
+      }
+
+      out.write(content, start, sendEnd - start);
+      out.flush();
+      bytesServed.addAndGet(sendEnd - start);
+
+      if (sendEnd <= end) {
+        exchange.close();
+      }
+    } catch (IOException e) {
+      // The client went away
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package org.whispersystems.signalservice.internal.websocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+
+public final class IncomingRequestQueueTest {
+
+  private IncomingRequestQueue queue;
+
+  @Before
+  public void setUp() {
+    queue = new IncomingRequestQueue();
+    queue.open();
+  }
+
+  @Test
+  public void take_returnsQueuedRequestsInOrderUpToMax() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      queue.add(request(i));
+    }
+
+    List<WebSocketRequestMessage> first  = queue.take(3, 1000);
+    List<WebSocketRequestMessage> second = queue.take(3, 1000);
+
+    assertEquals(3, first.size());
+    assertEquals(2, second.size());
+    assertEquals(0, first.get(0).getId());
+    assertEquals(2, first.get(2).getId());
+    assertEquals(3, second.get(0).getId());
+    assertEquals(4, second.get(1).getId());
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void take_timesOutWhenEmpty() throws Exception {
+    queue.take(10, 50);
+  }
+
+  @Test(expected = IOException.class)
+  public void take_throwsWhenClosed() throws Exception {
+    queue.add(request(0));
+    queue.close();
+    queue.take(10, 1000);
+  }
+
+  @Test(timeout = 5000)
+  public void close_wakesWaitingReader() throws Exception {
+    AtomicReference<Exception> thrown  = new AtomicReference<>();
+    CountDownLatch             waiting = new CountDownLatch(1);
+
+    Thread reader = new Thread(() -> {
+      try {
+        waiting.countDown();
+        queue.take(10, 60000);
+      } catch (IOException | TimeoutException e) {
+        thrown.set(e);
+      }
+    });
+
+    reader.start();
+    waiting.await();
+    Thread.sleep(50);
+
+    queue.close();
+    reader.join();
+
+    assertTrue(thrown.get() instanceof IOException);
+  }
+
+  /**
+   * A stand-in for OkHttp's reader thread flushes a backlog while the reader drains it in batches,
+   * the way a reconnect after a long time offline does.
+   */
+  @Test(timeout = 10000)
+  public void take_drainsBurstFromReaderThread() throws Exception {
+    final int count = 100000;
+
+    Thread socketReader = new Thread(() -> {
+      for (int i = 0; i < count; i++) {
+        queue.add(request(i));
+      }
+    });
+
+    socketReader.start();
+
+    int received = 0;
+
+    while (received < count) {
+      for (WebSocketRequestMessage request : queue.take(100, 5000)) {
+        if (request.getId() != received) {
+          fail("Expected " + received + " but got " + request.getId());
+        }
+        received++;
+      }
+    }
+
+    socketReader.join();
+
+    assertEquals(count, received);
+  }
+
+  private static WebSocketRequestMessage request(long id) {
+    return WebSocketRequestMessage.newBuilder()
+                                  .setId(id)
+                                  .setVerb("PUT")
+                                  .setPath("/api/v1/message")
+                                  .build();
+  }
+}